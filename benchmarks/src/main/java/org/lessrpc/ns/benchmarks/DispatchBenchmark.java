@@ -0,0 +1,134 @@
+package org.lessrpc.ns.benchmarks;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
+import org.lessrpc.common.errors.InvalidArgsException;
+import org.lessrpc.common.info.EnvironmentInfo;
+import org.lessrpc.common.info.SerializationFormat;
+import org.lessrpc.common.info.ServiceInfo;
+import org.lessrpc.common.info.ServiceProviderInfo;
+import org.lessrpc.common.info.ServiceRequest;
+import org.lessrpc.common.info.ServiceSupportInfo;
+import org.lessrpc.common.info.responses.ServiceResponse;
+import org.lessrpc.common.services.NameServerServices;
+import org.lessrpc.ns.core.rpc.ExtendedNameServer;
+import org.lessrpc.ns.core.rpc.ExtendedNameServerServices;
+import org.lessrpc.ns.core.rpc.NameServerServiceProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ *
+ * JMH throughput of NameServerServiceProvider.execute in front of a name
+ * server that answers from constants, so only the route lookup, the
+ * argument checks and building the response are measured. invalidArgs
+ * measures a request rejected by the argument checks. Run with 1 to 16
+ * threads:
+ *
+ * java -cp target/benchmarks.jar org.lessrpc.ns.benchmarks.DispatchBenchmark
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+
+	private static final int[] THREADS = new int[] { 1, 4, 16 };
+
+	@Param({ "GET_PROVIDERS", "GET_SERVICE_INFO_BY_ID", "REPORT_LATENCY", "HEARTBEAT" })
+	public String service;
+
+	private NameServerServiceProvider provider;
+
+	private ServiceRequest request;
+
+	private ServiceRequest invalidRequest;
+
+	@Setup
+	public void setup() {
+		ServiceInfo<Integer> info = new ServiceInfo<Integer>("bench", 1);
+		ServiceProviderInfo sp = new ServiceProviderInfo("host", 4000, EnvironmentInfo.currentEnvInfo());
+		ServiceSupportInfo[] supports = new ServiceSupportInfo[] {
+				new ServiceSupportInfo(info, sp, new SerializationFormat[] { SerializationFormat.defaultFotmat() }) };
+
+		ExtendedNameServer ns = (ExtendedNameServer) Proxy.newProxyInstance(
+				ExtendedNameServer.class.getClassLoader(), new Class<?>[] { ExtendedNameServer.class },
+				(proxy, method, args) -> {
+					switch (method.getName()) {
+					case "getURL":
+						return "localhost";
+					case "getPort":
+						return 7365;
+					case "getProviders":
+						return supports;
+					case "getServiceInfoById":
+						return info;
+					case "reportLatency":
+					case "heartbeat":
+						return true;
+					default:
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+		provider = new NameServerServiceProvider(ns);
+
+		switch (service) {
+		case "GET_SERVICE_INFO_BY_ID":
+			request = new ServiceRequest(NameServerServices.GET_SERVICE_INFO_BY_ID.getInfo(), 1,
+					new Object[] { 1 });
+			break;
+		case "REPORT_LATENCY":
+			request = new ServiceRequest(ExtendedNameServerServices.REPORT_LATENCY.getInfo(), 1,
+					new Object[] { sp, 100L, true });
+			break;
+		case "HEARTBEAT":
+			request = new ServiceRequest(ExtendedNameServerServices.HEARTBEAT.getInfo(), 1, new Object[] { sp });
+			break;
+		default:
+			request = new ServiceRequest(NameServerServices.GET_PROVIDERS.getInfo(), 1, new Object[] { info });
+		}
+		// right number of arguments with the wrong types
+		Object[] args = new Object[request.getArgs().length];
+		for (int i = 0; i < args.length; i++) {
+			args[i] = "invalid";
+		}
+		invalidRequest = new ServiceRequest(request.getService(), 1, args);
+	}
+
+	@Benchmark
+	public ServiceResponse<?> execute() throws Exception {
+		return provider.execute(request);
+	}
+
+	@Benchmark
+	public InvalidArgsException invalidArgs() throws Exception {
+		try {
+			provider.execute(invalidRequest);
+		} catch (InvalidArgsException e) {
+			return e;
+		}
+		throw new IllegalStateException("Request with invalid arguments was accepted");
+	}
+
+	public static void main(String[] args) throws Exception {
+		for (int threads : THREADS) {
+			new Runner(new OptionsBuilder().include(DispatchBenchmark.class.getSimpleName()).threads(threads).build())
+					.run();
+		}
+	}
+}
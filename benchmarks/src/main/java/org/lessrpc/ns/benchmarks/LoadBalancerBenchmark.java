@@ -0,0 +1,98 @@
+package org.lessrpc.ns.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.lessrpc.common.info.EnvironmentInfo;
+import org.lessrpc.common.info.SerializationFormat;
+import org.lessrpc.common.info.ServiceInfo;
+import org.lessrpc.common.info.ServiceProviderInfo;
+import org.lessrpc.common.info.ServiceSupportInfo;
+import org.lessrpc.common.loadbalance.ProviderLoadBalancer;
+import org.lessrpc.ns.core.LatencyAwareLoadBalancer;
+import org.lessrpc.ns.core.PowerOfTwoChoicesLoadBalancer;
+import org.lessrpc.ns.core.RandomLoadBalancer;
+import org.lessrpc.ns.core.RoundRobinLoadBalancer;
+import org.lessrpc.ns.core.WeightedRandomLoadBalancer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ *
+ * JMH throughput of the provider load balancers with 1 to 64 threads
+ * selecting concurrently from the same providers array. Run with:
+ *
+ * java -cp target/benchmarks.jar org.lessrpc.ns.benchmarks.LoadBalancerBenchmark
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoadBalancerBenchmark {
+
+	private static final int[] THREADS = new int[] { 1, 2, 4, 8, 16, 32, 64 };
+
+	@Param({ "RANDOM", "ROUND_ROBIN", "WEIGHTED_RANDOM", "POWER_OF_TWO", "LATENCY_AWARE" })
+	public String strategy;
+
+	@Param({ "10", "100" })
+	public int providers;
+
+	private ProviderLoadBalancer balancer;
+
+	private ServiceInfo<Integer> service;
+
+	private ServiceSupportInfo[] supports;
+
+	@Setup
+	public void setup() {
+		service = new ServiceInfo<Integer>("bench", 1);
+		supports = new ServiceSupportInfo[providers];
+		for (int i = 0; i < providers; i++) {
+			supports[i] = new ServiceSupportInfo(service,
+					new ServiceProviderInfo("host" + i, 4000 + i, EnvironmentInfo.currentEnvInfo()),
+					new SerializationFormat[] { SerializationFormat.defaultFotmat() });
+		}
+		switch (strategy) {
+		case "ROUND_ROBIN":
+			balancer = new RoundRobinLoadBalancer();
+			break;
+		case "WEIGHTED_RANDOM":
+			balancer = new WeightedRandomLoadBalancer();
+			break;
+		case "POWER_OF_TWO":
+			balancer = new PowerOfTwoChoicesLoadBalancer();
+			break;
+		case "LATENCY_AWARE":
+			balancer = new LatencyAwareLoadBalancer();
+			break;
+		default:
+			balancer = new RandomLoadBalancer();
+		}
+	}
+
+	@Benchmark
+	public ServiceSupportInfo select() {
+		return balancer.select(service, supports);
+	}
+
+	public static void main(String[] args) throws Exception {
+		for (int threads : THREADS) {
+			new Runner(new OptionsBuilder().include(LoadBalancerBenchmark.class.getSimpleName()).threads(threads)
+					.build()).run();
+		}
+	}
+}
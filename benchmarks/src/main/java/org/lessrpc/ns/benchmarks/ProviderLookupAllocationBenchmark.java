@@ -0,0 +1,113 @@
+package org.lessrpc.ns.benchmarks;
+
+import java.io.File;
+import java.sql.Connection;
+import java.util.concurrent.TimeUnit;
+
+import org.lessrpc.common.db.DBInfo;
+import org.lessrpc.common.info.EnvironmentInfo;
+import org.lessrpc.common.info.SerializationFormat;
+import org.lessrpc.common.info.ServiceInfo;
+import org.lessrpc.common.info.ServiceProviderInfo;
+import org.lessrpc.common.info.ServiceSupportInfo;
+import org.lessrpc.common.types.DBType;
+import org.lessrpc.ns.core.db.DBFactory;
+import org.lessrpc.ns.core.db.EmbeddedDBInfo;
+import org.lessrpc.ns.core.db.EmbeddedRegistryStore;
+import org.lessrpc.ns.core.db.RegistryDBUtils;
+import org.lessrpc.ns.core.db.SQLLiteDBUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ *
+ * JMH latency and allocation rate of a getProviders lookup on SQLite and on
+ * the embedded store. Run with the GC profiler, gc.alloc.rate.norm is the
+ * number of bytes allocated per lookup:
+ *
+ * java -cp target/benchmarks.jar org.lessrpc.ns.benchmarks.ProviderLookupAllocationBenchmark
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProviderLookupAllocationBenchmark {
+
+	@Param({ "sqlite", "embedded" })
+	public String backend;
+
+	@Param({ "10", "100" })
+	public int providers;
+
+	private File file;
+
+	private DBInfo dbInfo;
+
+	private RegistryDBUtils dbUtils;
+
+	private Connection conn;
+
+	private ServiceInfo<Integer> service;
+
+	@Setup
+	public void setup() throws Exception {
+		if (backend.equals("embedded")) {
+			file = File.createTempFile("registry", ".log");
+			file.delete();
+			dbInfo = new EmbeddedDBInfo(file.getPath());
+			dbUtils = DBFactory.openEmbeddedStore(file.getPath(), false, 0,
+					EmbeddedRegistryStore.DEFAULT_COMPACT_MIN_SIZE);
+		} else {
+			file = File.createTempFile("registry", ".db");
+			dbInfo = new DBInfo("jdbc:sqlite:" + file.getPath(), "", "", "", DBType.SQLLITE);
+			dbUtils = new SQLLiteDBUtils();
+		}
+		// the embedded store takes no connection
+		conn = DBFactory.isEmbedded(dbInfo) ? null : DBFactory.openConnection(dbInfo);
+		dbUtils.createServiceTable(conn);
+		dbUtils.createServiceProviderTable(conn);
+		dbUtils.createServiceSupportTable(conn);
+
+		service = new ServiceInfo<Integer>("bench", 1);
+		SerializationFormat[] formats = new SerializationFormat[] { SerializationFormat.defaultFotmat(),
+				new SerializationFormat("MSGPACK", "2.0") };
+		for (int i = 0; i < providers; i++) {
+			dbUtils.register(conn, new ServiceSupportInfo(service,
+					new ServiceProviderInfo("host" + i, 4000 + i, EnvironmentInfo.currentEnvInfo()), formats));
+		}
+	}
+
+	@Benchmark
+	public ServiceSupportInfo[] getProviders() throws Exception {
+		return dbUtils.getProviders(conn, service);
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		if (conn != null) {
+			conn.close();
+		}
+		DBFactory.closeConnectionPool(dbInfo);
+		file.delete();
+	}
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder().include(ProviderLookupAllocationBenchmark.class.getSimpleName())
+				.addProfiler("gc").build()).run();
+	}
+}
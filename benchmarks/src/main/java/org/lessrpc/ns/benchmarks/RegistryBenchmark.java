@@ -0,0 +1,184 @@
+package org.lessrpc.ns.benchmarks;
+
+import java.io.File;
+import java.sql.Connection;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.lessrpc.common.db.DBInfo;
+import org.lessrpc.common.info.EnvironmentInfo;
+import org.lessrpc.common.info.SerializationFormat;
+import org.lessrpc.common.info.ServiceInfo;
+import org.lessrpc.common.info.ServiceProviderInfo;
+import org.lessrpc.common.info.ServiceSupportInfo;
+import org.lessrpc.common.types.DBType;
+import org.lessrpc.ns.core.db.DBFactory;
+import org.lessrpc.ns.core.db.EmbeddedDBInfo;
+import org.lessrpc.ns.core.db.EmbeddedRegistryStore;
+import org.lessrpc.ns.core.db.RegistryDBUtils;
+import org.lessrpc.ns.core.db.SQLLiteDBUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ *
+ * JMH latency of getProviders and register on SQLite and on the embedded
+ * store, as the registry grows and with 1 to 16 threads. Every service has
+ * the same number of providers; lookups pick a random service. Each register
+ * adds a new provider to a random service and is undone after the
+ * invocation, so the registry keeps its size. Run with:
+ *
+ * java -cp target/benchmarks.jar org.lessrpc.ns.benchmarks.RegistryBenchmark
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegistryBenchmark {
+
+	private static final int[] THREADS = new int[] { 1, 4, 16 };
+
+	private static final int PROVIDERS_PER_SERVICE = 10;
+
+	@Param({ "sqlite", "embedded" })
+	public String backend;
+
+	/**
+	 * number of providers registered
+	 */
+	@Param({ "100", "10000" })
+	public int registrySize;
+
+	private File file;
+
+	private DBInfo dbInfo;
+
+	private RegistryDBUtils dbUtils;
+
+	private ServiceInfo<?>[] services;
+
+	private SerializationFormat[] formats;
+
+	/**
+	 * ports of the providers added by register, unique across threads
+	 */
+	private final AtomicInteger nextPort = new AtomicInteger(100000);
+
+	@Setup
+	public void setup() throws Exception {
+		if (backend.equals("embedded")) {
+			file = File.createTempFile("registry", ".log");
+			file.delete();
+			dbInfo = new EmbeddedDBInfo(file.getPath());
+			dbUtils = DBFactory.openEmbeddedStore(file.getPath(), false, 0,
+					EmbeddedRegistryStore.DEFAULT_COMPACT_MIN_SIZE);
+		} else {
+			file = File.createTempFile("registry", ".db");
+			dbInfo = new DBInfo("jdbc:sqlite:" + file.getPath(), "", "", "", DBType.SQLLITE);
+			dbUtils = new SQLLiteDBUtils();
+		}
+		Connection conn = DBFactory.isEmbedded(dbInfo) ? null : DBFactory.openConnection(dbInfo);
+		try {
+			dbUtils.createServiceTable(conn);
+			dbUtils.createServiceProviderTable(conn);
+			dbUtils.createServiceSupportTable(conn);
+
+			formats = new SerializationFormat[] { SerializationFormat.defaultFotmat(),
+					new SerializationFormat("MSGPACK", "2.0") };
+			services = new ServiceInfo<?>[Math.max(1, registrySize / PROVIDERS_PER_SERVICE)];
+			for (int i = 0; i < services.length; i++) {
+				services[i] = new ServiceInfo<Integer>("bench" + i, i + 1);
+				for (int j = 0; j < PROVIDERS_PER_SERVICE; j++) {
+					dbUtils.register(conn, new ServiceSupportInfo(services[i],
+							new ServiceProviderInfo("host" + j, 4000 + j, EnvironmentInfo.currentEnvInfo()), formats));
+				}
+			}
+		} finally {
+			if (conn != null) {
+				conn.close();
+			}
+		}
+	}
+
+	@Benchmark
+	public ServiceSupportInfo[] getProviders(Session session) throws Exception {
+		return dbUtils.getProviders(session.conn, randomService());
+	}
+
+	@Benchmark
+	public boolean register(Session session) throws Exception {
+		session.registered = new ServiceSupportInfo(randomService(),
+				new ServiceProviderInfo("bench", nextPort.incrementAndGet(), EnvironmentInfo.currentEnvInfo()),
+				formats);
+		return dbUtils.register(session.conn, session.registered);
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		DBFactory.closeConnectionPool(dbInfo);
+		file.delete();
+	}
+
+	private ServiceInfo<?> randomService() {
+		return services[ThreadLocalRandom.current().nextInt(services.length)];
+	}
+
+	/**
+	 * Connection of one benchmark thread
+	 */
+	@State(Scope.Thread)
+	public static class Session {
+
+		private Connection conn;
+
+		/**
+		 * provider added by the last register, null if none
+		 */
+		private ServiceSupportInfo registered;
+
+		@Setup
+		public void open(RegistryBenchmark benchmark) throws Exception {
+			// the embedded store takes no connection
+			conn = DBFactory.isEmbedded(benchmark.dbInfo) ? null : DBFactory.openConnection(benchmark.dbInfo);
+		}
+
+		@TearDown(Level.Invocation)
+		public void undoRegister(RegistryBenchmark benchmark) {
+			if (registered != null) {
+				benchmark.dbUtils.unregister(conn, registered.getService(), registered.getProvider());
+				registered = null;
+			}
+		}
+
+		@TearDown
+		public void close() throws Exception {
+			if (conn != null) {
+				conn.close();
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		for (int threads : THREADS) {
+			new Runner(new OptionsBuilder().include(RegistryBenchmark.class.getSimpleName()).threads(threads).build())
+					.run();
+		}
+	}
+}
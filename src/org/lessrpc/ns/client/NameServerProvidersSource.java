@@ -0,0 +1,41 @@
+package org.lessrpc.ns.client;
+
+import java.util.Arrays;
+
+import org.lessrpc.common.info.SerializationFormat;
+import org.lessrpc.common.info.ServiceInfo;
+import org.lessrpc.common.info.ServiceProviderInfo;
+import org.lessrpc.common.serializer.Serializer;
+import org.lessrpc.ns.core.info.ProvidersCheck;
+import org.lessrpc.ns.core.rpc.ExtendedNameServerServices;
+import org.lessrpc.stub.java.serializer.JsonSerializer;
+import org.lessrpc.stub.java.stubs.ClientStub;
+
+/**
+ *
+ * Reads providers from a name server with CHECK_PROVIDERS, which carries the
+ * providers only if their revision moved.
+ *
+ */
+public class NameServerProvidersSource implements ProvidersSource {
+
+	private final ServiceProviderInfo nameServer;
+
+	private final ClientStub client;
+
+	public NameServerProvidersSource(ServiceProviderInfo nameServer) {
+		this.nameServer = nameServer;
+		this.client = new ClientStub(Arrays.asList(new Serializer[] { new JsonSerializer() }));
+	}
+
+	@Override
+	public ProvidersCheck check(ServiceInfo<?> service, long revision) throws Exception {
+		return (ProvidersCheck) client.call(ExtendedNameServerServices.CHECK_PROVIDERS, nameServer,
+				new Object[] { service, revision }, SerializationFormat.defaultFotmat()).getContent();
+	}
+
+	public ServiceProviderInfo getNameServer() {
+		return nameServer;
+	}
+
+}
@@ -0,0 +1,288 @@
+package org.lessrpc.ns.client;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.lessrpc.common.info.ServiceInfo;
+import org.lessrpc.common.info.ServiceProviderInfo;
+import org.lessrpc.common.info.ServiceSupportInfo;
+import org.lessrpc.common.loadbalance.ProviderLoadBalancer;
+import org.lessrpc.ns.core.FeedbackLoadBalancer;
+import org.lessrpc.ns.core.RandomLoadBalancer;
+import org.lessrpc.ns.core.info.ProvidersCheck;
+
+/**
+ *
+ * Client side provider lookup. The providers of each service resolved are
+ * cached together with their revision and a provider is selected from them
+ * locally with a {@link ProviderLoadBalancer}, so resolving a cached service
+ * makes no call to the name server.
+ *
+ * A single background thread checks the revision of every cached service
+ * each refresh interval; the providers are only transferred when the
+ * revision moved. While the name server cannot be reached the cached
+ * providers keep being served. Services not resolved within the idle timeout
+ * are dropped and no longer checked.
+ *
+ */
+public class ProviderResolver {
+
+	private final ProvidersSource source;
+
+	private final ProviderLoadBalancer balancer;
+
+	private final ResolverConfig config;
+
+	/**
+	 * service id to its cached providers
+	 */
+	private final ConcurrentHashMap<Integer, Entry> entries = new ConcurrentHashMap<Integer, Entry>();
+
+	private final ScheduledExecutorService refresher;
+
+	private final Stats stats = new Stats();
+
+	/**
+	 * Resolves from the name server with random selection and default
+	 * settings
+	 *
+	 * @param nameServer
+	 */
+	public ProviderResolver(ServiceProviderInfo nameServer) {
+		this(new NameServerProvidersSource(nameServer), new RandomLoadBalancer(), new ResolverConfig());
+	}
+
+	public ProviderResolver(ProvidersSource source, ProviderLoadBalancer balancer, ResolverConfig config) {
+		this.source = source;
+		this.balancer = balancer;
+		this.config = config;
+		this.refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "lessrpc-ns-resolver");
+			t.setDaemon(true);
+			return t;
+		});
+		refresher.scheduleWithFixedDelay(this::refresh, config.getRefreshInterval(), config.getRefreshInterval(),
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Selects a provider of the service
+	 *
+	 * @param service
+	 * @return null if the service has no providers
+	 * @throws Exception
+	 *             if the service is not cached and the name server could not
+	 *             be read
+	 */
+	public ServiceSupportInfo resolve(ServiceInfo<?> service) throws Exception {
+		ServiceSupportInfo[] supports = getProviders(service);
+		return supports.length == 0 ? null : balancer.select(service, supports);
+	}
+
+	/**
+	 * The returned array is shared with all callers; it must not be modified.
+	 *
+	 * @param service
+	 * @return the cached providers of the service
+	 * @throws Exception
+	 *             if the service is not cached and the name server could not
+	 *             be read
+	 */
+	public ServiceSupportInfo[] getProviders(ServiceInfo<?> service) throws Exception {
+		Entry entry = entries.get(service.getId());
+		if (entry == null) {
+			stats.misses.increment();
+			entry = load(service);
+		} else {
+			stats.hits.increment();
+		}
+		entry.lastUsed = System.nanoTime();
+		return entry.supports;
+	}
+
+	/**
+	 * Feeds the outcome of a call to a provider to the load balancer if it
+	 * uses feedback
+	 *
+	 * @param provider
+	 * @param latencyMicros
+	 *            latency of the call in microseconds
+	 * @param success
+	 *            false if the call failed, latency is ignored then
+	 */
+	public void report(ServiceProviderInfo provider, long latencyMicros, boolean success) {
+		if (!(balancer instanceof FeedbackLoadBalancer)) {
+			return;
+		}
+		if (success) {
+			((FeedbackLoadBalancer) balancer).reportLatency(provider, latencyMicros);
+		} else {
+			((FeedbackLoadBalancer) balancer).reportFailure(provider);
+		}
+	}
+
+	/**
+	 * Drops the cached providers of the service, the next resolve reads them
+	 * from the name server
+	 *
+	 * @param service
+	 */
+	public void invalidate(ServiceInfo<?> service) {
+		entries.remove(service.getId());
+	}
+
+	/**
+	 * Checks the revision of every cached service and drops the idle ones.
+	 * Invoked every refresh interval.
+	 */
+	public void refresh() {
+		long idleSince = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(config.getIdleTimeout());
+		Iterator<Entry> it = entries.values().iterator();
+		while (it.hasNext()) {
+			Entry entry = it.next();
+			if (entry.lastUsed - idleSince < 0) {
+				it.remove();
+				continue;
+			}
+			stats.checks.increment();
+			try {
+				ProvidersCheck check = source.check(entry.service, entry.revision);
+				if (check.isChanged()) {
+					entry.update(check);
+					stats.changes.increment();
+				}
+			} catch (Exception e) {
+				// served from the cache until the name server is back
+				stats.failedChecks.increment();
+			}
+		}
+	}
+
+	/**
+	 * Stops refreshing
+	 */
+	public void close() {
+		refresher.shutdownNow();
+	}
+
+	/**
+	 *
+	 * @return number of services cached
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	public ResolverConfig getConfig() {
+		return config;
+	}
+
+	public Stats getStats() {
+		return stats;
+	}
+
+	private Entry load(ServiceInfo<?> service) throws Exception {
+		Entry entry = new Entry(service);
+		entry.update(source.check(service, ProvidersCheck.NO_REVISION));
+		Entry existing = entries.putIfAbsent(service.getId(), entry);
+		return existing == null ? entry : existing;
+	}
+
+	/**
+	 * Cached providers of one service
+	 */
+	private static class Entry {
+
+		private static final ServiceSupportInfo[] EMPTY = new ServiceSupportInfo[0];
+
+		private final ServiceInfo<?> service;
+
+		private volatile ServiceSupportInfo[] supports = EMPTY;
+
+		private volatile long revision = ProvidersCheck.NO_REVISION;
+
+		private volatile long lastUsed = System.nanoTime();
+
+		private Entry(ServiceInfo<?> service) {
+			this.service = service;
+		}
+
+		/**
+		 * Only the refresher thread updates a published entry
+		 */
+		private void update(ProvidersCheck check) {
+			supports = check.getSupports() == null ? EMPTY : check.getSupports();
+			revision = check.getRevision();
+		}
+	}
+
+	/**
+	 *
+	 * Counters of a resolver
+	 *
+	 */
+	public static class Stats {
+
+		private final LongAdder hits = new LongAdder();
+
+		private final LongAdder misses = new LongAdder();
+
+		private final LongAdder checks = new LongAdder();
+
+		private final LongAdder changes = new LongAdder();
+
+		private final LongAdder failedChecks = new LongAdder();
+
+		/**
+		 *
+		 * @return number of lookups served from the cache
+		 */
+		public long getHits() {
+			return hits.sum();
+		}
+
+		/**
+		 *
+		 * @return number of lookups that read the name server
+		 */
+		public long getMisses() {
+			return misses.sum();
+		}
+
+		/**
+		 *
+		 * @return number of revision checks made in the background
+		 */
+		public long getChecks() {
+			return checks.sum();
+		}
+
+		/**
+		 *
+		 * @return number of checks that found new providers
+		 */
+		public long getChanges() {
+			return changes.sum();
+		}
+
+		/**
+		 *
+		 * @return number of checks that could not reach the name server
+		 */
+		public long getFailedChecks() {
+			return failedChecks.sum();
+		}
+
+		@Override
+		public String toString() {
+			return "hits=" + getHits() + ", misses=" + getMisses() + ", checks=" + getChecks() + ", changes="
+					+ getChanges() + ", failedChecks=" + getFailedChecks();
+		}
+
+	}
+
+}
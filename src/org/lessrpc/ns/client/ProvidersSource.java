@@ -0,0 +1,27 @@
+package org.lessrpc.ns.client;
+
+import org.lessrpc.common.info.ServiceInfo;
+import org.lessrpc.ns.core.info.ProvidersCheck;
+
+/**
+ *
+ * Where a {@link ProviderResolver} reads providers from, usually a name
+ * server
+ *
+ */
+public interface ProvidersSource {
+
+	/**
+	 * Checks the revision of the providers of the service without waiting
+	 *
+	 * @param service
+	 * @param revision
+	 *            revision of the cached providers,
+	 *            {@link ProvidersCheck#NO_REVISION} if none are cached
+	 * @return the current revision, with the providers only if it differs
+	 *         from revision
+	 * @throws Exception
+	 */
+	public ProvidersCheck check(ServiceInfo<?> service, long revision) throws Exception;
+
+}
@@ -0,0 +1,45 @@
+package org.lessrpc.ns.client;
+
+/**
+ *
+ * Settings of a {@link ProviderResolver}. All durations are in milliseconds.
+ *
+ */
+public class ResolverConfig {
+
+	public static final long DEFAULT_REFRESH_INTERVAL = 1000;
+	public static final long DEFAULT_IDLE_TIMEOUT = 60000;
+
+	/**
+	 * time between two revision checks of a cached service
+	 */
+	private final long refreshInterval;
+
+	/**
+	 * services not resolved for this long are dropped from the cache and no
+	 * longer checked
+	 */
+	private final long idleTimeout;
+
+	public ResolverConfig() {
+		this(DEFAULT_REFRESH_INTERVAL, DEFAULT_IDLE_TIMEOUT);
+	}
+
+	public ResolverConfig(long refreshInterval, long idleTimeout) {
+		if (refreshInterval <= 0 || idleTimeout < refreshInterval) {
+			throw new IllegalArgumentException("Invalid resolver configuration: refreshInterval=" + refreshInterval
+					+ ", idleTimeout=" + idleTimeout);
+		}
+		this.refreshInterval = refreshInterval;
+		this.idleTimeout = idleTimeout;
+	}
+
+	public long getRefreshInterval() {
+		return refreshInterval;
+	}
+
+	public long getIdleTimeout() {
+		return idleTimeout;
+	}
+
+}
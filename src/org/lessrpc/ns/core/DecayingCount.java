@@ -0,0 +1,57 @@
+package org.lessrpc.ns.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * Non negative count that halves every epoch. The epoch is kept by the owner
+ * and passed in, the count stores the epoch it was last updated in next to
+ * its value so it is decayed lazily on access and updated with CAS only.
+ *
+ * Epochs are stored modulo 2^24; a count left untouched for that many epochs
+ * can look recent again, with at most the value it had.
+ *
+ */
+final class DecayingCount {
+
+	private static final int COUNT_BITS = 40;
+
+	private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+	private static final long EPOCH_MASK = (1L << (64 - COUNT_BITS)) - 1;
+
+	private final AtomicLong value = new AtomicLong();
+
+	/**
+	 *
+	 * @param epoch
+	 *            current epoch
+	 * @return the decayed count
+	 */
+	long get(long epoch) {
+		return decayed(value.get(), epoch);
+	}
+
+	/**
+	 * Adds delta to the decayed count, which does not drop below 0
+	 *
+	 * @param epoch
+	 *            current epoch
+	 * @param delta
+	 */
+	void add(long epoch, long delta) {
+		long prev;
+		long next;
+		do {
+			prev = value.get();
+			long count = Math.min(COUNT_MASK, Math.max(0, decayed(prev, epoch) + delta));
+			next = ((epoch & EPOCH_MASK) << COUNT_BITS) | count;
+		} while (prev != next && !value.compareAndSet(prev, next));
+	}
+
+	private static long decayed(long packed, long epoch) {
+		long age = (epoch - (packed >>> COUNT_BITS)) & EPOCH_MASK;
+		return age >= COUNT_BITS ? 0 : (packed & COUNT_MASK) >>> age;
+	}
+
+}
@@ -0,0 +1,42 @@
+package org.lessrpc.ns.core;
+
+import org.lessrpc.common.info.ServiceProviderInfo;
+import org.lessrpc.common.loadbalance.ProviderLoadBalancer;
+
+/**
+ * 
+ * Load balancer that takes the observed latency of providers into account.
+ * Fed by REPORT_LATENCY for requests to selected providers and by the status
+ * checks of the name server.
+ * 
+ */
+public interface FeedbackLoadBalancer extends ProviderLoadBalancer {
+
+	/**
+	 * A request to the provider completed
+	 * 
+	 * @param provider
+	 * @param latencyMicros
+	 *            latency of the request in microseconds
+	 */
+	public void reportLatency(ServiceProviderInfo provider, long latencyMicros);
+
+	/**
+	 * A request to the provider failed or timed out
+	 * 
+	 * @param provider
+	 */
+	public void reportFailure(ServiceProviderInfo provider);
+
+	/**
+	 * A status check of the provider completed. Unlike reportLatency and
+	 * reportFailure it does not answer a selection.
+	 * 
+	 * @param provider
+	 * @param latencyMicros
+	 *            latency of the ping in microseconds, ignored if it failed
+	 * @param success
+	 */
+	public void reportPing(ServiceProviderInfo provider, long latencyMicros, boolean success);
+
+}
@@ -0,0 +1,81 @@
+package org.lessrpc.ns.core;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.lessrpc.common.info.ServiceInfo;
+import org.lessrpc.common.info.ServiceProviderInfo;
+import org.lessrpc.common.info.ServiceSupportInfo;
+
+/**
+ * 
+ * Power of two choices on the load of providers, where the load is the moving
+ * average of the provider's latency multiplied by its outstanding requests
+ * plus one. Every selection counts as an outstanding request of the selected
+ * provider until a latency or failure is reported for it; selections never
+ * reported fade out with the outstanding half life of the
+ * {@link ProviderStats}. Pings only add latency samples.
+ * 
+ * Providers without samples have no load and are preferred until their first
+ * samples arrive. A failure counts as a sample of {@link #FAILURE_PENALTY}.
+ * 
+ */
+public class LatencyAwareLoadBalancer implements FeedbackLoadBalancer {
+
+	/**
+	 * latency in microseconds recorded for a failed request
+	 */
+	public static final long FAILURE_PENALTY = 1000000;
+
+	private final ProviderStats stats;
+
+	public LatencyAwareLoadBalancer() {
+		this(new ProviderStats());
+	}
+
+	public LatencyAwareLoadBalancer(ProviderStats stats) {
+		this.stats = stats;
+	}
+
+	@Override
+	public ServiceSupportInfo select(ServiceInfo<?> service, ServiceSupportInfo[] supports) {
+		ServiceSupportInfo chosen;
+		if (supports.length == 1) {
+			chosen = supports[0];
+		} else {
+			ThreadLocalRandom rnd = ThreadLocalRandom.current();
+			int a = rnd.nextInt(supports.length);
+			// second choice is distinct from the first
+			int b = rnd.nextInt(supports.length - 1);
+			if (b >= a) {
+				b++;
+			}
+			double loadA = stats.getLoad(supports[a].getProvider());
+			double loadB = stats.getLoad(supports[b].getProvider());
+			chosen = loadA <= loadB ? supports[a] : supports[b];
+		}
+		stats.incrementOutstanding(chosen.getProvider());
+		return chosen;
+	}
+
+	@Override
+	public void reportLatency(ServiceProviderInfo provider, long latencyMicros) {
+		stats.recordLatency(provider, latencyMicros);
+		stats.decrementOutstanding(provider);
+	}
+
+	@Override
+	public void reportFailure(ServiceProviderInfo provider) {
+		stats.recordLatency(provider, FAILURE_PENALTY);
+		stats.decrementOutstanding(provider);
+	}
+
+	@Override
+	public void reportPing(ServiceProviderInfo provider, long latencyMicros, boolean success) {
+		stats.recordLatency(provider, success ? latencyMicros : FAILURE_PENALTY);
+	}
+
+	public ProviderStats getStats() {
+		return stats;
+	}
+
+}
@@ -0,0 +1,52 @@
+package org.lessrpc.ns.core;
+
+import org.lessrpc.common.loadbalance.ProviderLoadBalancer;
+import org.lessrpc.ns.core.constants.Constants;
+
+import me.salimm.allconfig.core.Config;
+import me.salimm.allconfig.core.errors.PrefixNotANestedConfigException;
+
+/**
+ * 
+ * Creates the provider load balancer selected in the configuration
+ * 
+ */
+public class LoadBalancerFactory implements Constants {
+
+	public static final String STRATEGY_RANDOM = "RANDOM";
+	public static final String STRATEGY_ROUND_ROBIN = "ROUND_ROBIN";
+	public static final String STRATEGY_WEIGHTED_RANDOM = "WEIGHTED_RANDOM";
+	public static final String STRATEGY_POWER_OF_TWO = "POWER_OF_TWO";
+	public static final String STRATEGY_LATENCY_AWARE = "LATENCY_AWARE";
+
+	/**
+	 * 
+	 * @param conf
+	 * @return the balancer of the configured strategy, random if none is
+	 *         configured
+	 * @throws PrefixNotANestedConfigException
+	 */
+	public static ProviderLoadBalancer getLoadBalancer(Config conf) throws PrefixNotANestedConfigException {
+		String strategy = conf.getValue(CONF_TAG_NAME_LOADBALANCER_STRATEGY, STRATEGY_RANDOM).trim();
+		switch (strategy.toUpperCase()) {
+		case STRATEGY_RANDOM:
+			return new RandomLoadBalancer();
+		case STRATEGY_ROUND_ROBIN:
+			return new RoundRobinLoadBalancer();
+		case STRATEGY_WEIGHTED_RANDOM:
+			return new WeightedRandomLoadBalancer(
+					WeightedRandomLoadBalancer.parseWeights(conf.getValue(CONF_TAG_NAME_LOADBALANCER_WEIGHTS, "")),
+					conf.getDouble(CONF_TAG_NAME_LOADBALANCER_DEFAULT_WEIGHT,
+							WeightedRandomLoadBalancer.DEFAULT_WEIGHT));
+		case STRATEGY_POWER_OF_TWO:
+			return new PowerOfTwoChoicesLoadBalancer();
+		case STRATEGY_LATENCY_AWARE:
+			return new LatencyAwareLoadBalancer(new ProviderStats(
+					conf.getInteger(CONF_TAG_NAME_LOADBALANCER_STATS_CAPACITY, ProviderStats.DEFAULT_CAPACITY),
+					conf.getLong(CONF_TAG_NAME_LOADBALANCER_DECAY_TIME, ProviderStats.DEFAULT_DECAY_TIME)));
+		default:
+			throw new IllegalArgumentException("Unknown load balancing strategy: " + strategy);
+		}
+	}
+
+}
@@ -0,0 +1,102 @@
+package org.lessrpc.ns.core;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.lessrpc.common.info.ServiceInfo;
+import org.lessrpc.common.info.ServiceProviderInfo;
+import org.lessrpc.common.info.ServiceSupportInfo;
+import org.lessrpc.common.loadbalance.ProviderLoadBalancer;
+
+/**
+ * 
+ * Power of two choices: picks two distinct providers at random and selects
+ * the one that has been handed out less often recently for the service. This
+ * keeps assignments nearly as even as least-loaded selection without scanning
+ * all providers.
+ * 
+ * Assignments are counted per service and provider endpoint in a fixed number
+ * of slots indexed by their hash, so memory does not grow with the number of
+ * providers ever seen. Providers sharing a slot share a count, which only
+ * makes the choice between them random. Counts halve every half life, so a
+ * newly registered provider only competes with the recent assignments of its
+ * peers and catches up within a few half lives instead of taking all the
+ * traffic until it reached their lifetime totals.
+ * 
+ */
+public class PowerOfTwoChoicesLoadBalancer implements ProviderLoadBalancer {
+
+	public static final int DEFAULT_SLOTS = 4096;
+
+	public static final long DEFAULT_HALF_LIFE = 1000;
+
+	private final DecayingCount[] counts;
+
+	private final int mask;
+
+	/**
+	 * half life in nanoseconds
+	 */
+	private final long halfLife;
+
+	private final long origin = System.nanoTime();
+
+	public PowerOfTwoChoicesLoadBalancer() {
+		this(DEFAULT_SLOTS, DEFAULT_HALF_LIFE);
+	}
+
+	/**
+	 * 
+	 * @param slots
+	 *            number of counters, rounded up to a power of two
+	 */
+	public PowerOfTwoChoicesLoadBalancer(int slots) {
+		this(slots, DEFAULT_HALF_LIFE);
+	}
+
+	/**
+	 * 
+	 * @param slots
+	 *            number of counters, rounded up to a power of two
+	 * @param halfLife
+	 *            time in ms after which assignment counts halved
+	 */
+	public PowerOfTwoChoicesLoadBalancer(int slots, long halfLife) {
+		if (halfLife <= 0) {
+			throw new IllegalArgumentException("Invalid power of two configuration: halfLife=" + halfLife);
+		}
+		int size = Integer.highestOneBit(Math.max(1, slots - 1)) << 1;
+		this.counts = new DecayingCount[size];
+		for (int i = 0; i < size; i++) {
+			counts[i] = new DecayingCount();
+		}
+		this.mask = size - 1;
+		this.halfLife = halfLife * 1000000;
+	}
+
+	@Override
+	public ServiceSupportInfo select(ServiceInfo<?> service, ServiceSupportInfo[] supports) {
+		if (supports.length == 1) {
+			return supports[0];
+		}
+		ThreadLocalRandom rnd = ThreadLocalRandom.current();
+		int a = rnd.nextInt(supports.length);
+		// second choice is distinct from the first
+		int b = rnd.nextInt(supports.length - 1);
+		if (b >= a) {
+			b++;
+		}
+		long epoch = (System.nanoTime() - origin) / halfLife;
+		DecayingCount countA = counts[slot(service, supports[a].getProvider())];
+		DecayingCount countB = counts[slot(service, supports[b].getProvider())];
+		boolean first = countA.get(epoch) <= countB.get(epoch);
+		(first ? countA : countB).add(epoch, 1);
+		return supports[first ? a : b];
+	}
+
+	private int slot(ServiceInfo<?> service, ServiceProviderInfo provider) {
+		int h = (provider.getURL().hashCode() * 31 + provider.getPort()) * 31 + service.getId();
+		// spreading the high bits the same way HashMap does
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+}
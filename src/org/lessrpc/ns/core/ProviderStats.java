@@ -0,0 +1,249 @@
+package org.lessrpc.ns.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.lessrpc.common.info.ServiceProviderInfo;
+
+/**
+ * 
+ * Latency and outstanding request statistics of provider endpoints. Latency
+ * is kept as a peak sensitive moving average: a sample above the average
+ * replaces it right away, lower samples are averaged in with a weight that
+ * grows with the time since the previous sample. A provider that slows down
+ * is avoided immediately and recovers gradually.
+ * 
+ * Outstanding counts halve every outstanding half life, so requests that are
+ * never reported stop counting after a few half lives instead of piling up.
+ * 
+ * The store is a fixed size open addressing table updated with CAS only. An
+ * endpoint that does not find a free slot within a few probes replaces the
+ * least recently updated endpoint of those slots, so memory stays bounded no
+ * matter how many endpoints come and go.
+ * 
+ */
+public class ProviderStats {
+
+	public static final int DEFAULT_CAPACITY = 4096;
+
+	public static final long DEFAULT_DECAY_TIME = 10000;
+
+	public static final long DEFAULT_OUTSTANDING_HALF_LIFE = 1000;
+
+	/**
+	 * number of slots looked at for one endpoint
+	 */
+	private static final int PROBES = 4;
+
+	private final AtomicReferenceArray<Entry> slots;
+
+	private final int mask;
+
+	/**
+	 * decay time constant in nanoseconds
+	 */
+	private final double tau;
+
+	/**
+	 * outstanding half life in nanoseconds
+	 */
+	private final long halfLife;
+
+	private final long origin = System.nanoTime();
+
+	public ProviderStats() {
+		this(DEFAULT_CAPACITY, DEFAULT_DECAY_TIME);
+	}
+
+	public ProviderStats(int capacity, long decayTime) {
+		this(capacity, decayTime, DEFAULT_OUTSTANDING_HALF_LIFE);
+	}
+
+	/**
+	 * 
+	 * @param capacity
+	 *            max number of endpoints tracked, rounded up to a power of two
+	 * @param decayTime
+	 *            time in ms after which the weight of old samples dropped to
+	 *            1/e
+	 * @param outstandingHalfLife
+	 *            time in ms after which outstanding counts halved
+	 */
+	public ProviderStats(int capacity, long decayTime, long outstandingHalfLife) {
+		if (outstandingHalfLife <= 0) {
+			throw new IllegalArgumentException(
+					"Invalid provider stats configuration: outstandingHalfLife=" + outstandingHalfLife);
+		}
+		int size = Integer.highestOneBit(Math.max(PROBES, capacity) - 1) << 1;
+		this.slots = new AtomicReferenceArray<Entry>(size);
+		this.mask = size - 1;
+		this.tau = decayTime * 1e6;
+		this.halfLife = outstandingHalfLife * 1000000;
+	}
+
+	/**
+	 * Adds a latency sample of the provider
+	 * 
+	 * @param provider
+	 * @param latencyMicros
+	 */
+	public void recordLatency(ServiceProviderInfo provider, long latencyMicros) {
+		entry(provider, true).record(Math.max(0, latencyMicros), System.nanoTime(), tau);
+	}
+
+	/**
+	 * Counts a request handed to the provider that was not reported yet
+	 * 
+	 * @param provider
+	 */
+	public void incrementOutstanding(ServiceProviderInfo provider) {
+		entry(provider, true).outstanding.add(epoch(), 1);
+	}
+
+	/**
+	 * Counts a reported request of the provider
+	 * 
+	 * @param provider
+	 */
+	public void decrementOutstanding(ServiceProviderInfo provider) {
+		Entry entry = entry(provider, false);
+		if (entry != null) {
+			entry.outstanding.add(epoch(), -1);
+		}
+	}
+
+	/**
+	 * 
+	 * @param provider
+	 * @return average latency in microseconds, 0 if the endpoint has no
+	 *         samples
+	 */
+	public double getLatency(ServiceProviderInfo provider) {
+		Entry entry = entry(provider, false);
+		return entry == null ? 0 : Double.longBitsToDouble(entry.latency.get());
+	}
+
+	public int getOutstanding(ServiceProviderInfo provider) {
+		Entry entry = entry(provider, false);
+		return entry == null ? 0 : (int) entry.outstanding.get(epoch());
+	}
+
+	/**
+	 * Load of the provider: average latency weighted by the outstanding
+	 * requests. Endpoints without statistics have a load of 0 so new
+	 * providers are tried early.
+	 * 
+	 * @param provider
+	 * @return
+	 */
+	public double getLoad(ServiceProviderInfo provider) {
+		Entry entry = entry(provider, false);
+		if (entry == null) {
+			return 0;
+		}
+		return Double.longBitsToDouble(entry.latency.get()) * (entry.outstanding.get(epoch()) + 1);
+	}
+
+	private long epoch() {
+		return (System.nanoTime() - origin) / halfLife;
+	}
+
+	/**
+	 * Finds the entry of the provider
+	 * 
+	 * @param provider
+	 * @param create
+	 *            if true the entry is created when missing
+	 * @return null if not found and create is false
+	 */
+	private Entry entry(ServiceProviderInfo provider, boolean create) {
+		String url = provider.getURL();
+		int port = provider.getPort();
+		int h = url.hashCode() * 31 + port;
+		int start = (h ^ (h >>> 16)) & mask;
+		for (int i = 0; i < PROBES; i++) {
+			Entry entry = slots.get((start + i) & mask);
+			if (entry != null && entry.matches(url, port)) {
+				return entry;
+			}
+		}
+		if (!create) {
+			return null;
+		}
+
+		Entry created = new Entry(url, port, System.nanoTime());
+		while (true) {
+			// taking a free slot or replacing the least recently updated one
+			int victim = -1;
+			Entry victimEntry = null;
+			for (int i = 0; i < PROBES; i++) {
+				int idx = (start + i) & mask;
+				Entry entry = slots.get(idx);
+				if (entry != null && entry.matches(url, port)) {
+					// created concurrently
+					return entry;
+				}
+				if (entry == null) {
+					victim = idx;
+					victimEntry = null;
+					break;
+				}
+				if (victimEntry == null || entry.updated < victimEntry.updated) {
+					victim = idx;
+					victimEntry = entry;
+				}
+			}
+			if (slots.compareAndSet(victim, victimEntry, created)) {
+				return created;
+			}
+		}
+	}
+
+	private static class Entry {
+
+		private final String url;
+
+		private final int port;
+
+		/**
+		 * bits of the average latency in microseconds
+		 */
+		private final AtomicLong latency = new AtomicLong(Double.doubleToLongBits(0));
+
+		private final DecayingCount outstanding = new DecayingCount();
+
+		private volatile boolean sampled = false;
+
+		private volatile long updated;
+
+		private Entry(String url, int port, long now) {
+			this.url = url;
+			this.port = port;
+			this.updated = now;
+		}
+
+		private boolean matches(String url, int port) {
+			return this.port == port && this.url.equals(url);
+		}
+
+		private void record(double sample, long now, double tau) {
+			if (!sampled) {
+				// first sample replaces the initial 0
+				sampled = true;
+				latency.set(Double.doubleToLongBits(sample));
+				updated = now;
+				return;
+			}
+			double w = Math.exp(-Math.max(0, now - updated) / tau);
+			long prevBits;
+			long nextBits;
+			do {
+				prevBits = latency.get();
+				double prev = Double.longBitsToDouble(prevBits);
+				nextBits = Double.doubleToLongBits(sample > prev ? sample : prev * w + sample * (1 - w));
+			} while (!latency.compareAndSet(prevBits, nextBits));
+			updated = now;
+		}
+	}
+
+}
@@ -1,23 +1,22 @@
 package org.lessrpc.ns.core;
 
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 import org.lessrpc.common.info.ServiceInfo;
 import org.lessrpc.common.info.ServiceSupportInfo;
 import org.lessrpc.common.loadbalance.ProviderLoadBalancer;
 
+/**
+ * 
+ * Selects a provider uniformly at random. Uses the random generator of the
+ * calling thread so concurrent lookups do not contend on a shared seed.
+ * 
+ */
 public class RandomLoadBalancer implements ProviderLoadBalancer {
 
-	private final Random rnd;
-
-	public RandomLoadBalancer() {
-		rnd = new Random();
-		rnd.setSeed(System.currentTimeMillis());
-	}
-
 	@Override
 	public ServiceSupportInfo select(ServiceInfo<?> service, ServiceSupportInfo[] supports) {
-		return supports[rnd.nextInt(supports.length)];
+		return supports[ThreadLocalRandom.current().nextInt(supports.length)];
 	}
 
 }
@@ -0,0 +1,34 @@
+package org.lessrpc.ns.core;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.lessrpc.common.info.ServiceInfo;
+import org.lessrpc.common.info.ServiceSupportInfo;
+import org.lessrpc.common.loadbalance.ProviderLoadBalancer;
+
+/**
+ * 
+ * Cycles through the providers of each service. Every service has its own
+ * counter, so services do not disturb each other's rotation. If the providers
+ * of a service change, the rotation continues from the same counter.
+ * 
+ */
+public class RoundRobinLoadBalancer implements ProviderLoadBalancer {
+
+	/**
+	 * service id to number of selections made for the service
+	 */
+	private final ConcurrentHashMap<Integer, AtomicInteger> counters = new ConcurrentHashMap<Integer, AtomicInteger>();
+
+	@Override
+	public ServiceSupportInfo select(ServiceInfo<?> service, ServiceSupportInfo[] supports) {
+		AtomicInteger counter = counters.get(service.getId());
+		if (counter == null) {
+			counter = counters.computeIfAbsent(service.getId(), id -> new AtomicInteger());
+		}
+		// floorMod keeps the index positive once the counter overflows
+		return supports[Math.floorMod(counter.getAndIncrement(), supports.length)];
+	}
+
+}
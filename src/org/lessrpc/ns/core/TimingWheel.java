@@ -0,0 +1,164 @@
+package org.lessrpc.ns.core;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 
+ * Hierarchical timing wheel. Level 0 has one bucket per tick, every level
+ * above covers wheelSize times the time span of the level below. Items of a
+ * higher level bucket are moved down when the bucket comes due, so scheduling
+ * and expiring take constant time regardless of the number of items.
+ * 
+ * Items may be scheduled from any thread; they are queued and put into the
+ * buckets by {@link #advance(long)}, which must be called by one thread at a
+ * time (usually a periodic task). Items are never due before their deadline
+ * and at most one tick after it, as seen by the advancing thread.
+ * 
+ * @param <T>
+ */
+public class TimingWheel<T> {
+
+	private final long tick;
+
+	private final int wheelSize;
+
+	private final int levels;
+
+	/**
+	 * [level][slot]
+	 */
+	private final ArrayDeque<Entry<T>>[][] buckets;
+
+	/**
+	 * number of ticks covered by one bucket of each level
+	 */
+	private final long[] spans;
+
+	private final ConcurrentLinkedQueue<Entry<T>> pending = new ConcurrentLinkedQueue<Entry<T>>();
+
+	/**
+	 * last tick processed, counted from the epoch
+	 */
+	private long currentTick;
+
+	/**
+	 * 
+	 * @param tick
+	 *            duration of a tick in ms
+	 * @param wheelSize
+	 *            buckets per level
+	 * @param levels
+	 *            number of levels. Deadlines beyond tick * wheelSize ^ levels
+	 *            are supported but pass through the top level more than once.
+	 * @param now
+	 *            current time in ms
+	 */
+	@SuppressWarnings("unchecked")
+	public TimingWheel(long tick, int wheelSize, int levels, long now) {
+		if (tick < 1 || wheelSize < 2 || levels < 1) {
+			throw new IllegalArgumentException(
+					"Invalid timing wheel: tick=" + tick + ", wheelSize=" + wheelSize + ", levels=" + levels);
+		}
+		this.tick = tick;
+		this.wheelSize = wheelSize;
+		this.levels = levels;
+		this.buckets = (ArrayDeque<Entry<T>>[][]) new ArrayDeque<?>[levels][wheelSize];
+		this.spans = new long[levels + 1];
+		spans[0] = 1;
+		for (int l = 1; l <= levels; l++) {
+			spans[l] = spans[l - 1] * wheelSize;
+		}
+		for (int l = 0; l < levels; l++) {
+			for (int s = 0; s < wheelSize; s++) {
+				buckets[l][s] = new ArrayDeque<Entry<T>>();
+			}
+		}
+		this.currentTick = now / tick;
+	}
+
+	/**
+	 * Schedules the item to become due at the deadline
+	 * 
+	 * @param item
+	 * @param deadline
+	 *            time in ms
+	 */
+	public void schedule(T item, long deadline) {
+		pending.add(new Entry<T>(item, deadline));
+	}
+
+	/**
+	 * Advances the wheel to the given time
+	 * 
+	 * @param now
+	 *            current time in ms
+	 * @return items whose deadline has passed
+	 */
+	public synchronized List<T> advance(long now) {
+		List<T> due = new ArrayList<T>();
+		Entry<T> entry;
+		while ((entry = pending.poll()) != null) {
+			place(entry, due);
+		}
+
+		long target = now / tick;
+		while (currentTick < target) {
+			currentTick++;
+			// top down, so items cascading into a lower bucket that is due
+			// this tick are still seen
+			for (int l = levels - 1; l > 0; l--) {
+				if (currentTick % spans[l] == 0) {
+					ArrayDeque<Entry<T>> bucket = buckets[l][(int) ((currentTick / spans[l]) % wheelSize)];
+					// parked items may go back into the same bucket
+					int count = bucket.size();
+					for (int i = 0; i < count; i++) {
+						place(bucket.poll(), due);
+					}
+				}
+			}
+			ArrayDeque<Entry<T>> bucket = buckets[0][(int) (currentTick % wheelSize)];
+			int count = bucket.size();
+			for (int i = 0; i < count; i++) {
+				// due unless parked beyond the range of a single level
+				place(bucket.poll(), due);
+			}
+		}
+		return due;
+	}
+
+	private void place(Entry<T> entry, List<T> due) {
+		// rounding up so items never come due early
+		long deadlineTick = (entry.deadline + tick - 1) / tick;
+		long delta = deadlineTick - currentTick;
+		if (delta <= 0) {
+			due.add(entry.item);
+			return;
+		}
+		for (int l = 0; l < levels; l++) {
+			if (delta < spans[l + 1]) {
+				buckets[l][(int) ((deadlineTick / spans[l]) % wheelSize)].add(entry);
+				return;
+			}
+		}
+		// beyond the range of the wheel, parking it in the top level bucket
+		// that comes due last
+		int top = levels - 1;
+		buckets[top][(int) ((currentTick / spans[top]) % wheelSize)].add(entry);
+	}
+
+	private static class Entry<T> {
+
+		private final T item;
+
+		private final long deadline;
+
+		private Entry(T item, long deadline) {
+			this.item = item;
+			this.deadline = deadline;
+		}
+	}
+
+}
@@ -0,0 +1,186 @@
+package org.lessrpc.ns.core;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.lessrpc.common.info.ServiceInfo;
+import org.lessrpc.common.info.ServiceProviderInfo;
+import org.lessrpc.common.info.ServiceSupportInfo;
+import org.lessrpc.common.loadbalance.ProviderLoadBalancer;
+
+/**
+ * 
+ * Selects providers at random in proportion to their weight. Weights are
+ * given per provider endpoint ("url:port"); providers without a weight get
+ * the default weight.
+ * 
+ * Selection uses Vose's alias method, which takes constant time per lookup.
+ * The alias table of a service is rebuilt when the selection is made on a
+ * different providers array than the one it was built from. The registry
+ * cache hands out the same array until the providers change, so the table is
+ * built once per change there.
+ * 
+ */
+public class WeightedRandomLoadBalancer implements ProviderLoadBalancer {
+
+	public static final double DEFAULT_WEIGHT = 1;
+
+	private final Map<String, Double> weights;
+
+	private final double defaultWeight;
+
+	/**
+	 * service id to alias table of the last providers array seen for it
+	 */
+	private final ConcurrentHashMap<Integer, AliasTable> tables = new ConcurrentHashMap<Integer, AliasTable>();
+
+	public WeightedRandomLoadBalancer() {
+		this(Collections.<String, Double> emptyMap(), DEFAULT_WEIGHT);
+	}
+
+	/**
+	 * 
+	 * @param weights
+	 *            endpoint ("url:port") to weight, weights must not be
+	 *            negative
+	 * @param defaultWeight
+	 *            weight of providers that are not in weights
+	 */
+	public WeightedRandomLoadBalancer(Map<String, Double> weights, double defaultWeight) {
+		for (Map.Entry<String, Double> entry : weights.entrySet()) {
+			if (entry.getValue() < 0) {
+				throw new IllegalArgumentException("Negative weight for " + entry.getKey());
+			}
+		}
+		if (defaultWeight < 0) {
+			throw new IllegalArgumentException("Negative default weight");
+		}
+		this.weights = new HashMap<String, Double>(weights);
+		this.defaultWeight = defaultWeight;
+	}
+
+	/**
+	 * Parses weights written as "url:port=weight" separated by commas
+	 * 
+	 * @param spec
+	 * @return
+	 */
+	public static Map<String, Double> parseWeights(String spec) {
+		Map<String, Double> weights = new HashMap<String, Double>();
+		if (spec == null || spec.trim().isEmpty()) {
+			return weights;
+		}
+		for (String item : spec.split(",")) {
+			int idx = item.lastIndexOf('=');
+			if (idx <= 0) {
+				throw new IllegalArgumentException("Expected url:port=weight but found '" + item.trim() + "'");
+			}
+			weights.put(item.substring(0, idx).trim(), Double.parseDouble(item.substring(idx + 1).trim()));
+		}
+		return weights;
+	}
+
+	public static String endpoint(ServiceProviderInfo provider) {
+		return provider.getURL() + ":" + provider.getPort();
+	}
+
+	@Override
+	public ServiceSupportInfo select(ServiceInfo<?> service, ServiceSupportInfo[] supports) {
+		AliasTable table = tables.get(service.getId());
+		if (table == null || table.supports != supports) {
+			// racing builders produce equal tables, last one wins
+			table = new AliasTable(supports, weightsOf(supports));
+			tables.put(service.getId(), table);
+		}
+		return table.select();
+	}
+
+	public double getWeight(ServiceProviderInfo provider) {
+		Double weight = weights.get(endpoint(provider));
+		return weight == null ? defaultWeight : weight;
+	}
+
+	private double[] weightsOf(ServiceSupportInfo[] supports) {
+		double[] out = new double[supports.length];
+		for (int i = 0; i < supports.length; i++) {
+			out[i] = getWeight(supports[i].getProvider());
+		}
+		return out;
+	}
+
+	/**
+	 * Alias table of one providers array. Immutable once built.
+	 */
+	private static class AliasTable {
+
+		private final ServiceSupportInfo[] supports;
+
+		/**
+		 * probability of keeping column i instead of taking its alias
+		 */
+		private final double[] prob;
+
+		private final int[] alias;
+
+		private AliasTable(ServiceSupportInfo[] supports, double[] weights) {
+			int n = supports.length;
+			this.supports = supports;
+			this.prob = new double[n];
+			this.alias = new int[n];
+
+			double total = 0;
+			for (double w : weights) {
+				total += w;
+			}
+			if (total <= 0) {
+				// all weights are zero, falling back to uniform
+				Arrays.fill(prob, 1);
+				return;
+			}
+
+			double[] scaled = new double[n];
+			int[] small = new int[n];
+			int[] large = new int[n];
+			int ns = 0;
+			int nl = 0;
+			for (int i = 0; i < n; i++) {
+				scaled[i] = weights[i] * n / total;
+				if (scaled[i] < 1) {
+					small[ns++] = i;
+				} else {
+					large[nl++] = i;
+				}
+			}
+			while (ns > 0 && nl > 0) {
+				int s = small[--ns];
+				int l = large[--nl];
+				prob[s] = scaled[s];
+				alias[s] = l;
+				scaled[l] = scaled[l] + scaled[s] - 1;
+				if (scaled[l] < 1) {
+					small[ns++] = l;
+				} else {
+					large[nl++] = l;
+				}
+			}
+			// what remains is 1 up to rounding errors
+			while (nl > 0) {
+				prob[large[--nl]] = 1;
+			}
+			while (ns > 0) {
+				prob[small[--ns]] = 1;
+			}
+		}
+
+		private ServiceSupportInfo select() {
+			ThreadLocalRandom rnd = ThreadLocalRandom.current();
+			int i = rnd.nextInt(prob.length);
+			return supports[rnd.nextDouble() < prob[i] ? i : alias[i]];
+		}
+	}
+
+}
@@ -0,0 +1,89 @@
+package org.lessrpc.ns.core.cluster;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.lessrpc.common.info.EnvironmentInfo;
+import org.lessrpc.common.info.ServiceProviderInfo;
+
+/**
+ *
+ * Settings of a {@link ClusterNameServer}. The peer list is the same on all
+ * nodes and its order is the order of leadership: the first reachable peer
+ * leads. Durations are in milliseconds.
+ *
+ */
+public class ClusterConfig {
+
+	public static final long DEFAULT_SYNC_INTERVAL = 100;
+
+	/**
+	 * all nodes of the cluster including this one, in order of leadership
+	 */
+	private final List<ServiceProviderInfo> peers;
+
+	/**
+	 * index of this node in peers
+	 */
+	private final int self;
+
+	/**
+	 * how often followers check the leader and pull its changes
+	 */
+	private final long syncInterval;
+
+	public ClusterConfig(List<ServiceProviderInfo> peers, int self) {
+		this(peers, self, DEFAULT_SYNC_INTERVAL);
+	}
+
+	public ClusterConfig(List<ServiceProviderInfo> peers, int self, long syncInterval) {
+		if (peers.isEmpty() || self < 0 || self >= peers.size() || syncInterval <= 0) {
+			throw new IllegalArgumentException("Invalid cluster configuration: peers=" + peers.size() + ", self="
+					+ self + ", syncInterval=" + syncInterval);
+		}
+		this.peers = Collections.unmodifiableList(new ArrayList<ServiceProviderInfo>(peers));
+		this.self = self;
+		this.syncInterval = syncInterval;
+	}
+
+	/**
+	 * Parses a peer list
+	 *
+	 * @param peers
+	 *            comma separated host:port addresses
+	 * @return
+	 * @throws IllegalArgumentException
+	 *             if an address has no valid port
+	 */
+	public static List<ServiceProviderInfo> parsePeers(String peers) {
+		List<ServiceProviderInfo> list = new ArrayList<ServiceProviderInfo>();
+		for (String peer : peers.split(",")) {
+			peer = peer.trim();
+			if (peer.isEmpty()) {
+				continue;
+			}
+			int idx = peer.lastIndexOf(':');
+			try {
+				list.add(new ServiceProviderInfo(peer.substring(0, idx), Integer.parseInt(peer.substring(idx + 1)),
+						EnvironmentInfo.currentEnvInfo()));
+			} catch (RuntimeException e) {
+				throw new IllegalArgumentException("Invalid peer address, host:port expected: " + peer);
+			}
+		}
+		return list;
+	}
+
+	public List<ServiceProviderInfo> getPeers() {
+		return peers;
+	}
+
+	public int getSelf() {
+		return self;
+	}
+
+	public long getSyncInterval() {
+		return syncInterval;
+	}
+
+}
@@ -0,0 +1,634 @@
+package org.lessrpc.ns.core.cluster;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.lessrpc.common.errors.ApplicationSpecificErrorException;
+import org.lessrpc.common.errors.DatabaseNotSupported;
+import org.lessrpc.common.info.ServiceInfo;
+import org.lessrpc.common.info.ServiceProviderInfo;
+import org.lessrpc.common.info.ServiceSupportInfo;
+import org.lessrpc.common.loadbalance.ProviderLoadBalancer;
+import org.lessrpc.common.services.NameServerFunctions;
+import org.lessrpc.ns.core.constants.Constants;
+import org.lessrpc.ns.core.info.BatchResult;
+import org.lessrpc.ns.core.info.ProvidersPage;
+import org.lessrpc.ns.core.info.RegistryChange;
+import org.lessrpc.ns.core.info.RegistryChanges;
+import org.lessrpc.ns.core.rpc.ExtendedNameServer;
+
+import me.salimm.allconfig.core.Config;
+import me.salimm.allconfig.core.errors.PrefixNotANestedConfigException;
+
+/**
+ *
+ * Name server decorator that makes the name server one node of a cluster.
+ * Every node serves lookups from its own registry; the registry of the
+ * cluster is owned by the leader, which is the first peer of the static peer
+ * list that answers a ping. A node leads once no peer before it answers.
+ *
+ * The leader applies writes locally. Followers forward writes to the leader
+ * and keep their registry a replica of the leader's by pulling its change
+ * log with GET_CHANGES_SINCE every sync interval, and right after forwarding
+ * a write so the caller reads its own write from the follower. A follower
+ * that is new, fell behind the log of the leader, or follows a new leader
+ * copies the leader's whole registry instead.
+ *
+ * A node that leads right after starting copies the registry of the first
+ * reachable peer after it, which has been leading or following while this
+ * node was down. This is a static order of leadership, not a consensus
+ * protocol: writes accepted by the previous leader during the sync interval
+ * it takes to notice the new leader, or by both sides of a network
+ * partition, may be lost.
+ *
+ * The replica is the name server changes are applied to. It has to be the
+ * change-logging name server of this node so the followers' own revisions
+ * and change logs see replicated changes.
+ *
+ */
+public class ClusterNameServer implements ExtendedNameServer, Constants {
+
+	/**
+	 * local name server, serves reads and the writes of the leader
+	 */
+	private final ExtendedNameServer ns;
+
+	/**
+	 * name server replicated changes are applied to
+	 */
+	private final ExtendedNameServer replica;
+
+	private final ClusterConfig config;
+
+	/**
+	 * clients of all peers, null at the index of this node
+	 */
+	private final List<PeerClient> peers;
+
+	/**
+	 * index of the leader in the peer list
+	 */
+	private volatile int leader;
+
+	/**
+	 * revision of the leader's change log applied to the replica, -1 if the
+	 * replica has to be copied from the leader
+	 */
+	private long revision = -1;
+
+	/**
+	 * false until this node followed a leader or copied the registry of a
+	 * peer when leading after start
+	 */
+	private boolean caughtUp = false;
+
+	private final ScheduledExecutorService timer;
+
+	private final Stats stats = new Stats();
+
+	/**
+	 * Peers are called over RPC
+	 *
+	 * @param ns
+	 * @param replica
+	 * @param config
+	 */
+	public ClusterNameServer(ExtendedNameServer ns, ExtendedNameServer replica, ClusterConfig config) {
+		this(ns, replica, config, rpcClients(config));
+	}
+
+	/**
+	 *
+	 * @param ns
+	 *            local name server
+	 * @param replica
+	 *            name server replicated changes are applied to, ns or one it
+	 *            decorates
+	 * @param config
+	 * @param peers
+	 *            one client per peer in the order of the peer list, the entry
+	 *            of this node is ignored
+	 */
+	public ClusterNameServer(ExtendedNameServer ns, ExtendedNameServer replica, ClusterConfig config,
+			List<PeerClient> peers) {
+		if (peers.size() != config.getPeers().size()) {
+			throw new IllegalArgumentException(
+					"Expected " + config.getPeers().size() + " peer clients but " + peers.size() + " were provided");
+		}
+		this.ns = ns;
+		this.replica = replica;
+		this.config = config;
+		this.peers = new ArrayList<PeerClient>(peers);
+		this.peers.set(config.getSelf(), null);
+		this.leader = config.getSelf();
+		this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "lessrpc-ns-cluster-sync");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Read cluster configuration from conf file. If CONF.CLUSTER.SELF is
+	 * missing, this node is the first peer listening on the port of the name
+	 * server.
+	 *
+	 * @param conf
+	 * @param port
+	 *            port of this name server
+	 * @return
+	 * @throws PrefixNotANestedConfigException
+	 */
+	public static ClusterConfig getConfig(Config conf, int port) throws PrefixNotANestedConfigException {
+		List<ServiceProviderInfo> peers = ClusterConfig.parsePeers(conf.getValue(CONF_TAG_NAME_CLUSTER_PEERS, ""));
+		int self = conf.getInteger(CONF_TAG_NAME_CLUSTER_SELF, -1);
+		for (int i = 0; self < 0 && i < peers.size(); i++) {
+			if (peers.get(i).getPort() == port) {
+				self = i;
+			}
+		}
+		return new ClusterConfig(peers, self,
+				conf.getLong(CONF_TAG_NAME_CLUSTER_SYNC_INTERVAL, ClusterConfig.DEFAULT_SYNC_INTERVAL));
+	}
+
+	/**
+	 * Syncs with the leader once, then every sync interval in the background
+	 */
+	public void start() {
+		syncQuietly();
+		timer.scheduleWithFixedDelay(this::syncQuietly, config.getSyncInterval(), config.getSyncInterval(),
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops syncing
+	 */
+	public void close() {
+		timer.shutdownNow();
+	}
+
+	/**
+	 * Finds the leader and, on a follower, pulls the changes of the leader
+	 * into the replica
+	 *
+	 * @throws Exception
+	 *             if the leader could not be read
+	 */
+	public synchronized void sync() throws Exception {
+		int current = elect();
+		if (current != leader) {
+			System.out.println("Cluster leader changed from " + address(leader) + " to " + address(current) + "....");
+			leader = current;
+			revision = -1;
+			stats.leaderChanges.increment();
+		}
+		if (current == config.getSelf()) {
+			if (!caughtUp) {
+				catchUp();
+			}
+			return;
+		}
+		caughtUp = true;
+		PeerClient client = peers.get(current);
+		RegistryChanges changes;
+		do {
+			changes = client.getChangesSince(revision);
+			if (revision < 0 || changes.isSnapshotRequired()) {
+				snapshot(client.getAllProviders());
+			} else {
+				for (RegistryChange change : changes.getChanges()) {
+					apply(change);
+				}
+			}
+			revision = changes.getRevision();
+		} while (!changes.isComplete());
+	}
+
+	/**
+	 *
+	 * @return true if this node leads the cluster
+	 */
+	public boolean isLeader() {
+		return leader == config.getSelf();
+	}
+
+	/**
+	 *
+	 * @return the leader as last seen by this node
+	 */
+	public ServiceProviderInfo getLeader() {
+		return config.getPeers().get(leader);
+	}
+
+	public ClusterConfig getConfig() {
+		return config;
+	}
+
+	public Stats getStats() {
+		return stats;
+	}
+
+	/**
+	 *
+	 * @return the decorated name server
+	 */
+	public ExtendedNameServer getNameServer() {
+		return ns;
+	}
+
+	@Override
+	public boolean register(ServiceSupportInfo support)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported, ApplicationSpecificErrorException {
+		if (isLeader()) {
+			return ns.register(support);
+		}
+		return forward(peer -> peer.register(support), true);
+	}
+
+	@Override
+	public long registerWithLease(ServiceSupportInfo support, long ttl)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported, ApplicationSpecificErrorException {
+		if (isLeader()) {
+			return ns.registerWithLease(support, ttl);
+		}
+		return forward(peer -> peer.registerWithLease(support, ttl), true);
+	}
+
+	@Override
+	public BatchResult registerBatch(ServiceSupportInfo[] supports)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		if (isLeader()) {
+			return ns.registerBatch(supports);
+		}
+		return forwardWrite(peer -> peer.registerBatch(supports));
+	}
+
+	@Override
+	public boolean unregister(ServiceInfo<?> service, ServiceProviderInfo provider)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		if (isLeader()) {
+			return ns.unregister(service, provider);
+		}
+		return forwardWrite(peer -> peer.unregister(service, provider));
+	}
+
+	@Override
+	public BatchResult unregisterBatch(ServiceSupportInfo[] supports)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		if (isLeader()) {
+			return ns.unregisterBatch(supports);
+		}
+		return forwardWrite(peer -> peer.unregisterBatch(supports));
+	}
+
+	@Override
+	public boolean unregisterAll(ServiceProviderInfo provider)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		if (isLeader()) {
+			return ns.unregisterAll(provider);
+		}
+		return forwardWrite(peer -> peer.unregisterAll(provider));
+	}
+
+	@Override
+	public boolean heartbeat(ServiceProviderInfo provider) {
+		if (isLeader()) {
+			return ns.heartbeat(provider);
+		}
+		try {
+			return forward(peer -> peer.heartbeat(provider), false);
+		} catch (Exception e) {
+			// the provider registers again
+			return false;
+		}
+	}
+
+	@Override
+	public boolean checkProviderStatus(ServiceProviderInfo provider) {
+		if (isLeader()) {
+			return ns.checkProviderStatus(provider);
+		}
+		try {
+			return forward(peer -> peer.checkProviderStatus(provider), true);
+		} catch (Exception e) {
+			e.printStackTrace();
+			// status unknown, the provider is kept
+			return true;
+		}
+	}
+
+	/**
+	 * The leader resets the registry of the cluster; a follower resets its
+	 * replica and copies the leader's registry again.
+	 */
+	@Override
+	public void reset() throws SQLException, ClassNotFoundException, DatabaseNotSupported {
+		if (isLeader()) {
+			ns.reset();
+			return;
+		}
+		synchronized (this) {
+			replica.reset();
+			revision = -1;
+		}
+	}
+
+	@Override
+	public ServiceSupportInfo getProvider(ServiceInfo<?> service)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		return ns.getProvider(service);
+	}
+
+	@Override
+	public ServiceSupportInfo[] getProviders(ServiceInfo<?> service)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		return ns.getProviders(service);
+	}
+
+	@Override
+	public ServiceSupportInfo[] getAllProviders() throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		return ns.getAllProviders();
+	}
+
+	@Override
+	public ProvidersPage getProvidersPage(long pageToken, int pageSize)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		return ns.getProvidersPage(pageToken, pageSize);
+	}
+
+	@Override
+	public ServiceInfo<?> getServiceInfoByName(String serviceName)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		return ns.getServiceInfoByName(serviceName);
+	}
+
+	@Override
+	public ServiceInfo<?> getServiceInfoById(int serviceId)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		return ns.getServiceInfoById(serviceId);
+	}
+
+	@Override
+	public boolean reportLatency(ServiceProviderInfo provider, long latencyMicros, boolean success) {
+		return ns.reportLatency(provider, latencyMicros, success);
+	}
+
+	@Override
+	public String getURL() {
+		return ns.getURL();
+	}
+
+	@Override
+	public int getPort() {
+		return ns.getPort();
+	}
+
+	@Override
+	public boolean ping() {
+		return ns.ping();
+	}
+
+	@Override
+	public ProviderLoadBalancer getLoadBalancer() {
+		return ns.getLoadBalancer();
+	}
+
+	@Override
+	public void setLoadBalancer(ProviderLoadBalancer balancer) {
+		ns.setLoadBalancer(balancer);
+	}
+
+	/**
+	 *
+	 * @return index of the first peer answering a ping, this node if none
+	 *         before it does
+	 */
+	private int elect() {
+		for (int i = 0; i < config.getSelf(); i++) {
+			if (peers.get(i).ping()) {
+				return i;
+			}
+		}
+		return config.getSelf();
+	}
+
+	/**
+	 * Copies the registry of the first reachable peer after this node. Must
+	 * hold the lock of this.
+	 */
+	private void catchUp() throws Exception {
+		for (int i = config.getSelf() + 1; i < peers.size(); i++) {
+			if (peers.get(i).ping()) {
+				snapshot(peers.get(i).getAllProviders());
+				System.out.println("Copied the registry of " + address(i) + " before leading the cluster....");
+				break;
+			}
+		}
+		caughtUp = true;
+	}
+
+	/**
+	 * Makes the replica hold exactly the registrations of the leader. Must
+	 * hold the lock of this.
+	 */
+	private void snapshot(ServiceSupportInfo[] supports) throws Exception {
+		Map<String, ServiceSupportInfo> wanted = new LinkedHashMap<String, ServiceSupportInfo>();
+		for (ServiceSupportInfo support : supports) {
+			wanted.put(key(support.getService(), support.getProvider()), support);
+		}
+		for (ServiceSupportInfo support : replica.getAllProviders()) {
+			if (wanted.remove(key(support.getService(), support.getProvider())) == null) {
+				replica.unregister(support.getService(), support.getProvider());
+			}
+		}
+		for (ServiceSupportInfo support : wanted.values()) {
+			replicate(support, true);
+		}
+		stats.snapshots.increment();
+	}
+
+	/**
+	 * Must hold the lock of this
+	 */
+	private void apply(RegistryChange change) throws Exception {
+		ServiceSupportInfo support = change.getSupport();
+		if (change.getType() == RegistryChange.ADD) {
+			replicate(support, false);
+		} else {
+			replica.unregister(support.getService(), support.getProvider());
+		}
+		stats.appliedChanges.increment();
+	}
+
+	/**
+	 * Registers on the replica, changes may be applied twice after a snapshot
+	 */
+	private void replicate(ServiceSupportInfo support, boolean absent) throws Exception {
+		if (!absent) {
+			String key = key(support.getService(), support.getProvider());
+			for (ServiceSupportInfo existing : replica.getProviders(support.getService())) {
+				if (key.equals(key(existing.getService(), existing.getProvider()))) {
+					return;
+				}
+			}
+		}
+		try {
+			replica.register(support);
+		} catch (ApplicationSpecificErrorException e) {
+			if (e.getErrorCode() != NameServerFunctions.ERROR_SERVICE_PROVIDER_EXISTS_CODE) {
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Calls the leader
+	 *
+	 * @param call
+	 * @param write
+	 *            if true, the change is pulled from the leader right away
+	 * @return
+	 * @throws SQLException
+	 *             if the leader could not be reached
+	 * @throws ApplicationSpecificErrorException
+	 *             if the leader rejected the call
+	 */
+	private <T> T forward(Forward<T> call, boolean write) throws SQLException, ApplicationSpecificErrorException {
+		int current = leader;
+		if (current == config.getSelf()) {
+			throw new SQLException("Cluster leadership changed while forwarding a write");
+		}
+		T result;
+		try {
+			result = call.apply(peers.get(current));
+		} catch (ApplicationSpecificErrorException e) {
+			throw e;
+		} catch (Exception e) {
+			syncQuietly();
+			throw new SQLException("Cluster leader " + address(current) + " could not be reached", e);
+		}
+		if (write) {
+			stats.forwardedWrites.increment();
+			// read your own write from this node
+			syncQuietly();
+		}
+		return result;
+	}
+
+	private <T> T forwardWrite(Forward<T> call) throws SQLException {
+		try {
+			return forward(call, true);
+		} catch (ApplicationSpecificErrorException e) {
+			throw new SQLException("Cluster leader rejected the write", e);
+		}
+	}
+
+	private void syncQuietly() {
+		try {
+			sync();
+		} catch (Exception e) {
+			stats.failedSyncs.increment();
+			System.out.println("Cluster sync with " + address(leader) + " failed: " + e + "....");
+		}
+	}
+
+	private String address(int index) {
+		ServiceProviderInfo peer = config.getPeers().get(index);
+		return peer.getURL() + ":" + peer.getPort();
+	}
+
+	private static String key(ServiceInfo<?> service, ServiceProviderInfo provider) {
+		return service.getId() + "|" + provider.getURL() + ":" + provider.getPort();
+	}
+
+	private static List<PeerClient> rpcClients(ClusterConfig config) {
+		List<PeerClient> list = new ArrayList<PeerClient>();
+		for (ServiceProviderInfo peer : config.getPeers()) {
+			list.add(new RpcPeerClient(peer));
+		}
+		return list;
+	}
+
+	/**
+	 * A write made on the leader
+	 */
+	@FunctionalInterface
+	private interface Forward<T> {
+
+		public T apply(PeerClient leader) throws Exception;
+	}
+
+	/**
+	 *
+	 * Replication counters of a cluster node
+	 *
+	 */
+	public static class Stats {
+
+		private final LongAdder leaderChanges = new LongAdder();
+
+		private final LongAdder snapshots = new LongAdder();
+
+		private final LongAdder appliedChanges = new LongAdder();
+
+		private final LongAdder forwardedWrites = new LongAdder();
+
+		private final LongAdder failedSyncs = new LongAdder();
+
+		/**
+		 *
+		 * @return number of times this node saw another leader
+		 */
+		public long getLeaderChanges() {
+			return leaderChanges.sum();
+		}
+
+		/**
+		 *
+		 * @return number of times the replica was copied from the leader
+		 */
+		public long getSnapshots() {
+			return snapshots.sum();
+		}
+
+		/**
+		 *
+		 * @return number of changes of the leader applied to the replica
+		 */
+		public long getAppliedChanges() {
+			return appliedChanges.sum();
+		}
+
+		/**
+		 *
+		 * @return number of writes forwarded to the leader
+		 */
+		public long getForwardedWrites() {
+			return forwardedWrites.sum();
+		}
+
+		/**
+		 *
+		 * @return number of syncs that could not read the leader
+		 */
+		public long getFailedSyncs() {
+			return failedSyncs.sum();
+		}
+
+		@Override
+		public String toString() {
+			return "leaderChanges=" + getLeaderChanges() + ", snapshots=" + getSnapshots() + ", appliedChanges="
+					+ getAppliedChanges() + ", forwardedWrites=" + getForwardedWrites() + ", failedSyncs="
+					+ getFailedSyncs();
+		}
+
+	}
+
+}
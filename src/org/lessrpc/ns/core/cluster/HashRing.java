@@ -0,0 +1,114 @@
+package org.lessrpc.ns.core.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ *
+ * Consistent hash ring mapping service ids to nodes. Each node is placed on
+ * the ring at virtualNodes points hashed from its name, and a service id is
+ * owned by the node of the first point at or after the hash of the id. With
+ * enough virtual nodes every node owns about the same share of the ids, and
+ * adding a node to N others moves only about 1/(N+1) of the ids, all of them
+ * to the new node.
+ *
+ * The ring is immutable: two sorted arrays searched with a binary search.
+ *
+ */
+public class HashRing {
+
+	public static final int DEFAULT_VIRTUAL_NODES = 160;
+
+	/**
+	 * sorted hashes of the virtual nodes
+	 */
+	private final long[] points;
+
+	/**
+	 * index of the node of each point
+	 */
+	private final int[] owners;
+
+	private final int nodes;
+
+	/**
+	 *
+	 * @param nodes
+	 *            names of the nodes, the same names in any order give the
+	 *            same ownership
+	 * @param virtualNodes
+	 *            number of points of each node
+	 */
+	public HashRing(List<String> nodes, int virtualNodes) {
+		if (nodes.isEmpty() || virtualNodes < 1) {
+			throw new IllegalArgumentException(
+					"Invalid hash ring configuration: nodes=" + nodes.size() + ", virtualNodes=" + virtualNodes);
+		}
+		this.nodes = nodes.size();
+		int size = nodes.size() * virtualNodes;
+		// point and node index packed so sorting keeps them together
+		long[][] entries = new long[size][];
+		for (int i = 0; i < nodes.size(); i++) {
+			for (int v = 0; v < virtualNodes; v++) {
+				entries[i * virtualNodes + v] = new long[] { hash(nodes.get(i) + "#" + v), i };
+			}
+		}
+		// ties go to the smaller name so ownership does not depend on order
+		Arrays.sort(entries, (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0])
+				: nodes.get((int) a[1]).compareTo(nodes.get((int) b[1])));
+		this.points = new long[size];
+		this.owners = new int[size];
+		for (int i = 0; i < size; i++) {
+			points[i] = entries[i][0];
+			owners[i] = (int) entries[i][1];
+		}
+	}
+
+	/**
+	 *
+	 * @param serviceId
+	 * @return index of the node owning the service
+	 */
+	public int owner(int serviceId) {
+		long h = mix(serviceId);
+		int idx = Arrays.binarySearch(points, h);
+		if (idx < 0) {
+			idx = -idx - 1;
+		}
+		return owners[idx == points.length ? 0 : idx];
+	}
+
+	/**
+	 *
+	 * @return number of nodes
+	 */
+	public int size() {
+		return nodes;
+	}
+
+	/**
+	 * 64 bit FNV-1a of the UTF-8 bytes, finished with {@link #mix(long)}
+	 */
+	private static long hash(String s) {
+		long h = 0xcbf29ce484222325L;
+		for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+			h ^= b & 0xff;
+			h *= 0x100000001b3L;
+		}
+		return mix(h);
+	}
+
+	/**
+	 * finalizer of MurmurHash3, spreads consecutive ids over the ring
+	 */
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+}
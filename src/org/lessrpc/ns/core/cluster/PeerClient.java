@@ -0,0 +1,50 @@
+package org.lessrpc.ns.core.cluster;
+
+import org.lessrpc.common.info.ServiceInfo;
+import org.lessrpc.common.info.ServiceProviderInfo;
+import org.lessrpc.common.info.ServiceSupportInfo;
+import org.lessrpc.ns.core.info.BatchResult;
+import org.lessrpc.ns.core.info.RegistryChanges;
+
+/**
+ *
+ * Calls made by a node of the cluster on another node: followers pull the
+ * change log of the leader and forward mutations to it.
+ *
+ */
+public interface PeerClient {
+
+	/**
+	 *
+	 * @return true if the peer answers
+	 */
+	public boolean ping();
+
+	/**
+	 * GET_CHANGES_SINCE on the peer
+	 *
+	 * @param revision
+	 * @return
+	 * @throws Exception
+	 */
+	public RegistryChanges getChangesSince(long revision) throws Exception;
+
+	public ServiceSupportInfo[] getAllProviders() throws Exception;
+
+	public boolean register(ServiceSupportInfo support) throws Exception;
+
+	public long registerWithLease(ServiceSupportInfo support, long ttl) throws Exception;
+
+	public boolean heartbeat(ServiceProviderInfo provider) throws Exception;
+
+	public BatchResult registerBatch(ServiceSupportInfo[] supports) throws Exception;
+
+	public BatchResult unregisterBatch(ServiceSupportInfo[] supports) throws Exception;
+
+	public boolean unregister(ServiceInfo<?> service, ServiceProviderInfo provider) throws Exception;
+
+	public boolean unregisterAll(ServiceProviderInfo provider) throws Exception;
+
+	public boolean checkProviderStatus(ServiceProviderInfo provider) throws Exception;
+
+}
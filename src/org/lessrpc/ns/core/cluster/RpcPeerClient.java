@@ -0,0 +1,139 @@
+package org.lessrpc.ns.core.cluster;
+
+import java.util.Arrays;
+
+import org.lessrpc.common.info.SerializationFormat;
+import org.lessrpc.common.info.ServiceDescription;
+import org.lessrpc.common.info.ServiceInfo;
+import org.lessrpc.common.info.ServiceProviderInfo;
+import org.lessrpc.common.info.ServiceSupportInfo;
+import org.lessrpc.common.serializer.Serializer;
+import org.lessrpc.ns.core.info.BatchResult;
+import org.lessrpc.ns.core.info.ProvidersPage;
+import org.lessrpc.ns.core.info.RegistryChanges;
+import org.lessrpc.ns.core.rpc.ExtendedNameServerServices;
+import org.lessrpc.stub.java.serializer.JsonSerializer;
+import org.lessrpc.stub.java.stubs.NSClient;
+
+/**
+ *
+ * Calls a peer over the name server RPC interface, the services of
+ * {@link ExtendedNameServerServices} and {@link ShardServices} included.
+ *
+ */
+public class RpcPeerClient implements ShardClient {
+
+	private final ServiceProviderInfo peer;
+
+	private final NSClient client;
+
+	public RpcPeerClient(ServiceProviderInfo peer) {
+		this.peer = peer;
+		this.client = new NSClient(peer, Arrays.asList(new Serializer[] { new JsonSerializer() }));
+	}
+
+	@Override
+	public boolean ping() {
+		try {
+			return client.ping(peer);
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+	@Override
+	public RegistryChanges getChangesSince(long revision) throws Exception {
+		return call(ExtendedNameServerServices.GET_CHANGES_SINCE, revision);
+	}
+
+	@Override
+	public ServiceSupportInfo[] getAllProviders() throws Exception {
+		return client.getAllProviders();
+	}
+
+	@Override
+	public ServiceSupportInfo getProvider(ServiceInfo<?> service) throws Exception {
+		return client.getProvider(service);
+	}
+
+	@Override
+	public ServiceSupportInfo[] getProviders(ServiceInfo<?> service) throws Exception {
+		return client.getProviders(service);
+	}
+
+	@Override
+	public ServiceInfo<?> getServiceInfoById(int serviceId) throws Exception {
+		return client.getServiceInfoById(serviceId);
+	}
+
+	@Override
+	public ProvidersPage getProvidersPage(long pageToken, int pageSize) throws Exception {
+		return call(ExtendedNameServerServices.GET_PROVIDERS_PAGE, pageToken, pageSize);
+	}
+
+	@Override
+	public ServiceInfo<?> getLocalServiceInfoByName(String serviceName) throws Exception {
+		return call(ShardServices.LOCAL_SERVICE_INFO_BY_NAME, serviceName);
+	}
+
+	@Override
+	public boolean localHeartbeat(ServiceProviderInfo provider) throws Exception {
+		return call(ShardServices.LOCAL_HEARTBEAT, provider);
+	}
+
+	@Override
+	public boolean localUnregisterAll(ServiceProviderInfo provider) throws Exception {
+		return call(ShardServices.LOCAL_UNREGISTER_ALL, provider);
+	}
+
+	@Override
+	public boolean localCheckProviderStatus(ServiceProviderInfo provider) throws Exception {
+		return call(ShardServices.LOCAL_CHECK_PROVIDER_STATUS, provider);
+	}
+
+	@Override
+	public boolean register(ServiceSupportInfo support) throws Exception {
+		return client.register(support);
+	}
+
+	@Override
+	public long registerWithLease(ServiceSupportInfo support, long ttl) throws Exception {
+		return ((Number) call(ExtendedNameServerServices.REGISTER_WITH_LEASE, support, ttl)).longValue();
+	}
+
+	@Override
+	public boolean heartbeat(ServiceProviderInfo provider) throws Exception {
+		return call(ExtendedNameServerServices.HEARTBEAT, provider);
+	}
+
+	@Override
+	public BatchResult registerBatch(ServiceSupportInfo[] supports) throws Exception {
+		return call(ExtendedNameServerServices.REGISTER_BATCH, (Object) supports);
+	}
+
+	@Override
+	public BatchResult unregisterBatch(ServiceSupportInfo[] supports) throws Exception {
+		return call(ExtendedNameServerServices.UNREGISTER_BATCH, (Object) supports);
+	}
+
+	@Override
+	public boolean unregister(ServiceInfo<?> service, ServiceProviderInfo provider) throws Exception {
+		return client.unregister(service, provider);
+	}
+
+	@Override
+	public boolean unregisterAll(ServiceProviderInfo provider) throws Exception {
+		return client.unregisterAll(provider);
+	}
+
+	@Override
+	public boolean checkProviderStatus(ServiceProviderInfo provider) throws Exception {
+		return client.checkProviderStatus(provider);
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> T call(ServiceDescription<T> service, Object... args) throws Exception {
+		return (T) client.call(service, peer, args, SerializationFormat.defaultFotmat()).getContent();
+	}
+
+}
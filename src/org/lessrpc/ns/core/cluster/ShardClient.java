@@ -0,0 +1,33 @@
+package org.lessrpc.ns.core.cluster;
+
+import org.lessrpc.common.info.ServiceInfo;
+import org.lessrpc.common.info.ServiceProviderInfo;
+import org.lessrpc.common.info.ServiceSupportInfo;
+import org.lessrpc.ns.core.info.ProvidersPage;
+
+/**
+ *
+ * Calls made by a shard on another shard. The local calls are answered by
+ * the shard called without forwarding them again; pages of providers are
+ * local as well.
+ *
+ */
+public interface ShardClient extends PeerClient {
+
+	public ServiceSupportInfo getProvider(ServiceInfo<?> service) throws Exception;
+
+	public ServiceSupportInfo[] getProviders(ServiceInfo<?> service) throws Exception;
+
+	public ServiceInfo<?> getServiceInfoById(int serviceId) throws Exception;
+
+	public ProvidersPage getProvidersPage(long pageToken, int pageSize) throws Exception;
+
+	public ServiceInfo<?> getLocalServiceInfoByName(String serviceName) throws Exception;
+
+	public boolean localHeartbeat(ServiceProviderInfo provider) throws Exception;
+
+	public boolean localUnregisterAll(ServiceProviderInfo provider) throws Exception;
+
+	public boolean localCheckProviderStatus(ServiceProviderInfo provider) throws Exception;
+
+}
@@ -0,0 +1,58 @@
+package org.lessrpc.ns.core.cluster;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.lessrpc.common.info.ServiceProviderInfo;
+
+/**
+ *
+ * Settings of a {@link ShardedNameServer}. The peer list must hold the same
+ * nodes on all of them, in any order.
+ *
+ */
+public class ShardConfig {
+
+	/**
+	 * all shards including this one
+	 */
+	private final List<ServiceProviderInfo> peers;
+
+	/**
+	 * index of this node in peers
+	 */
+	private final int self;
+
+	/**
+	 * points of each shard on the hash ring
+	 */
+	private final int virtualNodes;
+
+	public ShardConfig(List<ServiceProviderInfo> peers, int self) {
+		this(peers, self, HashRing.DEFAULT_VIRTUAL_NODES);
+	}
+
+	public ShardConfig(List<ServiceProviderInfo> peers, int self, int virtualNodes) {
+		if (peers.isEmpty() || self < 0 || self >= peers.size() || virtualNodes < 1) {
+			throw new IllegalArgumentException("Invalid shard configuration: peers=" + peers.size() + ", self=" + self
+					+ ", virtualNodes=" + virtualNodes);
+		}
+		this.peers = Collections.unmodifiableList(new ArrayList<ServiceProviderInfo>(peers));
+		this.self = self;
+		this.virtualNodes = virtualNodes;
+	}
+
+	public List<ServiceProviderInfo> getPeers() {
+		return peers;
+	}
+
+	public int getSelf() {
+		return self;
+	}
+
+	public int getVirtualNodes() {
+		return virtualNodes;
+	}
+
+}
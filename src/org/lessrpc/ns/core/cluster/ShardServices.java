@@ -0,0 +1,46 @@
+package org.lessrpc.ns.core.cluster;
+
+import org.lessrpc.common.info.ServiceDescription;
+import org.lessrpc.common.info.ServiceInfo;
+import org.lessrpc.common.info.ServiceProviderInfo;
+
+/**
+ *
+ * Descriptions of the services shards call on each other for calls that go
+ * to all shards. They act on the shard called only, so a call is never
+ * forwarded twice. Ids start at 120 to stay clear of the ids of
+ * ExtendedNameServerServices.
+ *
+ */
+public interface ShardServices {
+
+	/**
+	 * args: service name (String)
+	 */
+	@SuppressWarnings("rawtypes")
+	public static final ServiceDescription<ServiceInfo> LOCAL_SERVICE_INFO_BY_NAME = new ServiceDescription<ServiceInfo>(
+			new ServiceInfo<ServiceInfo>("LOCAL_SERVICE_INFO_BY_NAME", 120), new Class<?>[] { String.class },
+			ServiceInfo.class);
+
+	/**
+	 * args: provider (ServiceProviderInfo)
+	 */
+	public static final ServiceDescription<Boolean> LOCAL_HEARTBEAT = new ServiceDescription<Boolean>(
+			new ServiceInfo<Boolean>("LOCAL_HEARTBEAT", 121), new Class<?>[] { ServiceProviderInfo.class },
+			Boolean.class);
+
+	/**
+	 * args: provider (ServiceProviderInfo)
+	 */
+	public static final ServiceDescription<Boolean> LOCAL_UNREGISTER_ALL = new ServiceDescription<Boolean>(
+			new ServiceInfo<Boolean>("LOCAL_UNREGISTER_ALL", 122), new Class<?>[] { ServiceProviderInfo.class },
+			Boolean.class);
+
+	/**
+	 * args: provider (ServiceProviderInfo)
+	 */
+	public static final ServiceDescription<Boolean> LOCAL_CHECK_PROVIDER_STATUS = new ServiceDescription<Boolean>(
+			new ServiceInfo<Boolean>("LOCAL_CHECK_PROVIDER_STATUS", 123), new Class<?>[] { ServiceProviderInfo.class },
+			Boolean.class);
+
+}
@@ -0,0 +1,565 @@
+package org.lessrpc.ns.core.cluster;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.lessrpc.common.errors.ApplicationSpecificErrorException;
+import org.lessrpc.common.errors.DatabaseNotSupported;
+import org.lessrpc.common.errors.InvalidArgsException;
+import org.lessrpc.common.info.ServiceDescription;
+import org.lessrpc.common.info.ServiceInfo;
+import org.lessrpc.common.info.ServiceProviderInfo;
+import org.lessrpc.common.info.ServiceRequest;
+import org.lessrpc.common.info.ServiceSupportInfo;
+import org.lessrpc.common.info.responses.ServiceResponse;
+import org.lessrpc.common.loadbalance.ProviderLoadBalancer;
+import org.lessrpc.common.services.NameServerFunctions;
+import org.lessrpc.ns.core.constants.Constants;
+import org.lessrpc.ns.core.info.BatchResult;
+import org.lessrpc.ns.core.info.ProvidersPage;
+import org.lessrpc.ns.core.rpc.ExtendedNameServer;
+import org.lessrpc.ns.core.rpc.NameServerServiceProvider;
+import org.lessrpc.ns.core.rpc.ServiceHandler;
+
+import me.salimm.allconfig.core.Config;
+import me.salimm.allconfig.core.errors.PrefixNotANestedConfigException;
+
+/**
+ *
+ * Name server decorator that makes the name server one shard of a registry
+ * partitioned by service id. Services are assigned to shards with a
+ * {@link HashRing} built from the peer list, which is the routing table of
+ * every shard. Calls on a service owned by another shard are forwarded to
+ * it, so clients may call any shard.
+ *
+ * Calls not tied to a service go to all shards: getAllProviders,
+ * unregisterAll and heartbeat, and getServiceInfoByName until a shard knows
+ * the name. Pages, revisions and the change log cover the services owned by
+ * this shard.
+ *
+ * Shards call each other through the services of {@link ShardServices}, to
+ * be served next to the name server services, see {@link #getServices()}.
+ *
+ * Changing the peer list moves the services whose owner changed; on start a
+ * shard hands the registrations it no longer owns to their new owner.
+ *
+ */
+public class ShardedNameServer implements ExtendedNameServer, Constants {
+
+	/**
+	 * local name server, holds the services owned by this shard
+	 */
+	private final ExtendedNameServer ns;
+
+	private final ShardConfig config;
+
+	private final HashRing ring;
+
+	/**
+	 * clients of all shards, null at the index of this shard
+	 */
+	private final List<ShardClient> peers;
+
+	private final Stats stats = new Stats();
+
+	/**
+	 * Shards are called over RPC
+	 *
+	 * @param ns
+	 * @param config
+	 */
+	public ShardedNameServer(ExtendedNameServer ns, ShardConfig config) {
+		this(ns, config, rpcClients(config));
+	}
+
+	/**
+	 *
+	 * @param ns
+	 *            local name server
+	 * @param config
+	 * @param peers
+	 *            one client per shard in the order of the peer list, the
+	 *            entry of this shard is ignored
+	 */
+	public ShardedNameServer(ExtendedNameServer ns, ShardConfig config, List<ShardClient> peers) {
+		if (peers.size() != config.getPeers().size()) {
+			throw new IllegalArgumentException(
+					"Expected " + config.getPeers().size() + " peer clients but " + peers.size() + " were provided");
+		}
+		this.ns = ns;
+		this.config = config;
+		List<String> names = new ArrayList<String>();
+		for (ServiceProviderInfo peer : config.getPeers()) {
+			names.add(peer.getURL() + ":" + peer.getPort());
+		}
+		this.ring = new HashRing(names, config.getVirtualNodes());
+		this.peers = new ArrayList<ShardClient>(peers);
+		this.peers.set(config.getSelf(), null);
+	}
+
+	/**
+	 * Read shard configuration from conf file. If CONF.SHARD.SELF is missing,
+	 * this node is the first peer listening on the port of the name server.
+	 *
+	 * @param conf
+	 * @param port
+	 *            port of this name server
+	 * @return
+	 * @throws PrefixNotANestedConfigException
+	 */
+	public static ShardConfig getConfig(Config conf, int port) throws PrefixNotANestedConfigException {
+		List<ServiceProviderInfo> peers = ClusterConfig.parsePeers(conf.getValue(CONF_TAG_NAME_SHARD_PEERS, ""));
+		int self = conf.getInteger(CONF_TAG_NAME_SHARD_SELF, -1);
+		for (int i = 0; self < 0 && i < peers.size(); i++) {
+			if (peers.get(i).getPort() == port) {
+				self = i;
+			}
+		}
+		return new ShardConfig(peers, self,
+				conf.getInteger(CONF_TAG_NAME_SHARD_VIRTUAL_NODES, HashRing.DEFAULT_VIRTUAL_NODES));
+	}
+
+	/**
+	 * Hands the registrations of services owned by other shards to their
+	 * owner. Registrations whose owner cannot be reached stay here.
+	 *
+	 * @return number of registrations moved
+	 * @throws ClassNotFoundException
+	 * @throws SQLException
+	 * @throws DatabaseNotSupported
+	 */
+	public int rebalance() throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		int moved = 0;
+		for (ServiceSupportInfo support : ns.getAllProviders()) {
+			int owner = owner(support.getService());
+			if (owner == config.getSelf()) {
+				continue;
+			}
+			try {
+				try {
+					peers.get(owner).register(support);
+				} catch (ApplicationSpecificErrorException e) {
+					if (e.getErrorCode() != NameServerFunctions.ERROR_SERVICE_PROVIDER_EXISTS_CODE) {
+						throw e;
+					}
+				}
+			} catch (Exception e) {
+				stats.failedForwards.increment();
+				System.out.println("Could not move " + support.getService().getName() + " to shard " + address(owner)
+						+ ": " + e + "....");
+				continue;
+			}
+			ns.unregister(support.getService(), support.getProvider());
+			moved++;
+		}
+		stats.moved.add(moved);
+		if (moved > 0) {
+			System.out.println("Moved " + moved + " registration(s) to their owning shard....");
+		}
+		return moved;
+	}
+
+	/**
+	 *
+	 * @param service
+	 * @return index in the peer list of the shard owning the service
+	 */
+	public int owner(ServiceInfo<?> service) {
+		return ring.owner(service.getId());
+	}
+
+	/**
+	 *
+	 * @return handlers of {@link ShardServices}, to be passed to
+	 *         {@link NameServerServiceProvider}
+	 */
+	public Map<ServiceDescription<?>, ServiceHandler> getServices() {
+		Map<ServiceDescription<?>, ServiceHandler> map = new LinkedHashMap<ServiceDescription<?>, ServiceHandler>();
+		map.put(ShardServices.LOCAL_SERVICE_INFO_BY_NAME, request -> new ServiceResponse<ServiceInfo<?>>(
+				request.getService(), ns.getServiceInfoByName(arg(request, String.class)), request.getRequestId()));
+		map.put(ShardServices.LOCAL_HEARTBEAT, request -> new ServiceResponse<Boolean>(request.getService(),
+				ns.heartbeat(arg(request, ServiceProviderInfo.class)), request.getRequestId()));
+		map.put(ShardServices.LOCAL_UNREGISTER_ALL, request -> new ServiceResponse<Boolean>(request.getService(),
+				ns.unregisterAll(arg(request, ServiceProviderInfo.class)), request.getRequestId()));
+		map.put(ShardServices.LOCAL_CHECK_PROVIDER_STATUS, request -> new ServiceResponse<Boolean>(
+				request.getService(), ns.checkProviderStatus(arg(request, ServiceProviderInfo.class)),
+				request.getRequestId()));
+		return map;
+	}
+
+	public ShardConfig getConfig() {
+		return config;
+	}
+
+	public Stats getStats() {
+		return stats;
+	}
+
+	/**
+	 *
+	 * @return the decorated name server
+	 */
+	public ExtendedNameServer getNameServer() {
+		return ns;
+	}
+
+	@Override
+	public ServiceSupportInfo getProvider(ServiceInfo<?> service)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		int owner = owner(service);
+		if (owner == config.getSelf()) {
+			return ns.getProvider(service);
+		}
+		return forwardRead(owner, peer -> peer.getProvider(service));
+	}
+
+	@Override
+	public ServiceSupportInfo[] getProviders(ServiceInfo<?> service)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		int owner = owner(service);
+		if (owner == config.getSelf()) {
+			return ns.getProviders(service);
+		}
+		return forwardRead(owner, peer -> peer.getProviders(service));
+	}
+
+	@Override
+	public ServiceInfo<?> getServiceInfoById(int serviceId)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		int owner = ring.owner(serviceId);
+		if (owner == config.getSelf()) {
+			return ns.getServiceInfoById(serviceId);
+		}
+		return forwardRead(owner, peer -> peer.getServiceInfoById(serviceId));
+	}
+
+	@Override
+	public ServiceInfo<?> getServiceInfoByName(String serviceName)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		ServiceInfo<?> service = ns.getServiceInfoByName(serviceName);
+		SQLException failure = null;
+		for (int i = 0; service == null && i < peers.size(); i++) {
+			if (i == config.getSelf()) {
+				continue;
+			}
+			try {
+				service = forwardRead(i, peer -> peer.getLocalServiceInfoByName(serviceName));
+			} catch (SQLException e) {
+				failure = e;
+			}
+		}
+		if (service == null && failure != null) {
+			// the name may be known by the shard that failed
+			throw failure;
+		}
+		return service;
+	}
+
+	@Override
+	public ServiceSupportInfo[] getAllProviders() throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		List<ServiceSupportInfo> all = new ArrayList<ServiceSupportInfo>();
+		for (int i = 0; i < peers.size(); i++) {
+			if (i == config.getSelf()) {
+				all.addAll(Arrays.asList(ns.getAllProviders()));
+				continue;
+			}
+			// pages only hold the providers of the shard called
+			ProvidersPage page = null;
+			do {
+				long token = page == null ? ProvidersPage.FIRST_PAGE : page.getNextPageToken();
+				page = forwardRead(i, peer -> peer.getProvidersPage(token, NameServerServiceProvider.MAX_PAGE_SIZE));
+				all.addAll(Arrays.asList(page.getSupports()));
+			} while (!page.isLastPage());
+		}
+		return all.toArray(new ServiceSupportInfo[all.size()]);
+	}
+
+	@Override
+	public boolean register(ServiceSupportInfo support)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported, ApplicationSpecificErrorException {
+		int owner = owner(support.getService());
+		if (owner == config.getSelf()) {
+			return ns.register(support);
+		}
+		return forward(owner, peer -> peer.register(support));
+	}
+
+	@Override
+	public long registerWithLease(ServiceSupportInfo support, long ttl)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported, ApplicationSpecificErrorException {
+		int owner = owner(support.getService());
+		if (owner == config.getSelf()) {
+			return ns.registerWithLease(support, ttl);
+		}
+		return forward(owner, peer -> peer.registerWithLease(support, ttl));
+	}
+
+	@Override
+	public boolean unregister(ServiceInfo<?> service, ServiceProviderInfo provider)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		int owner = owner(service);
+		if (owner == config.getSelf()) {
+			return ns.unregister(service, provider);
+		}
+		return forwardRead(owner, peer -> peer.unregister(service, provider));
+	}
+
+	@Override
+	public BatchResult registerBatch(ServiceSupportInfo[] supports)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		return batch(supports, true);
+	}
+
+	@Override
+	public BatchResult unregisterBatch(ServiceSupportInfo[] supports)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		return batch(supports, false);
+	}
+
+	@Override
+	public boolean unregisterAll(ServiceProviderInfo provider)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		boolean flag = ns.unregisterAll(provider);
+		SQLException failure = null;
+		for (int i = 0; i < peers.size(); i++) {
+			if (i == config.getSelf()) {
+				continue;
+			}
+			try {
+				flag |= forwardRead(i, peer -> peer.localUnregisterAll(provider));
+			} catch (SQLException e) {
+				failure = e;
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+		return flag;
+	}
+
+	@Override
+	public boolean heartbeat(ServiceProviderInfo provider) {
+		boolean flag = ns.heartbeat(provider);
+		for (int i = 0; i < peers.size(); i++) {
+			if (i == config.getSelf()) {
+				continue;
+			}
+			try {
+				flag |= forwardRead(i, peer -> peer.localHeartbeat(provider));
+			} catch (SQLException e) {
+				// the leases on that shard run out unless it comes back
+			}
+		}
+		return flag;
+	}
+
+	@Override
+	public boolean checkProviderStatus(ServiceProviderInfo provider) {
+		boolean flag = ns.checkProviderStatus(provider);
+		for (int i = 0; i < peers.size(); i++) {
+			if (i == config.getSelf()) {
+				continue;
+			}
+			try {
+				forwardRead(i, peer -> peer.localCheckProviderStatus(provider));
+			} catch (SQLException e) {
+				// checked again by that shard's health checker
+			}
+		}
+		return flag;
+	}
+
+	@Override
+	public ProvidersPage getProvidersPage(long pageToken, int pageSize)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		return ns.getProvidersPage(pageToken, pageSize);
+	}
+
+	@Override
+	public boolean reportLatency(ServiceProviderInfo provider, long latencyMicros, boolean success) {
+		return ns.reportLatency(provider, latencyMicros, success);
+	}
+
+	@Override
+	public String getURL() {
+		return ns.getURL();
+	}
+
+	@Override
+	public int getPort() {
+		return ns.getPort();
+	}
+
+	@Override
+	public boolean ping() {
+		return ns.ping();
+	}
+
+	@Override
+	public ProviderLoadBalancer getLoadBalancer() {
+		return ns.getLoadBalancer();
+	}
+
+	@Override
+	public void setLoadBalancer(ProviderLoadBalancer balancer) {
+		ns.setLoadBalancer(balancer);
+	}
+
+	/**
+	 * Resets this shard only
+	 */
+	@Override
+	public void reset() throws SQLException, ClassNotFoundException, DatabaseNotSupported {
+		ns.reset();
+	}
+
+	/**
+	 * Splits the batch by owning shard. Items of a shard that cannot be
+	 * reached fail.
+	 */
+	private BatchResult batch(ServiceSupportInfo[] supports, boolean register)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		List<List<Integer>> groups = new ArrayList<List<Integer>>();
+		for (int i = 0; i < peers.size(); i++) {
+			groups.add(new ArrayList<Integer>());
+		}
+		for (int i = 0; i < supports.length; i++) {
+			groups.get(owner(supports[i].getService())).add(i);
+		}
+		int[] statuses = new int[supports.length];
+		for (int shard = 0; shard < groups.size(); shard++) {
+			List<Integer> group = groups.get(shard);
+			if (group.isEmpty()) {
+				continue;
+			}
+			ServiceSupportInfo[] items = new ServiceSupportInfo[group.size()];
+			for (int i = 0; i < items.length; i++) {
+				items[i] = supports[group.get(i)];
+			}
+			int[] result;
+			if (shard == config.getSelf()) {
+				result = (register ? ns.registerBatch(items) : ns.unregisterBatch(items)).getStatuses();
+			} else {
+				try {
+					result = forwardRead(shard, peer -> register ? peer.registerBatch(items)
+							: peer.unregisterBatch(items)).getStatuses();
+				} catch (SQLException e) {
+					result = new int[items.length];
+					Arrays.fill(result, BatchResult.FAILED);
+				}
+			}
+			for (int i = 0; i < items.length; i++) {
+				statuses[group.get(i)] = result[i];
+			}
+		}
+		return new BatchResult(statuses);
+	}
+
+	private <T> T forward(int shard, Forward<T> call) throws SQLException, ApplicationSpecificErrorException {
+		try {
+			T result = call.apply(peers.get(shard));
+			stats.forwarded.increment();
+			return result;
+		} catch (ApplicationSpecificErrorException e) {
+			throw e;
+		} catch (Exception e) {
+			stats.failedForwards.increment();
+			throw new SQLException("Shard " + address(shard) + " could not be reached", e);
+		}
+	}
+
+	private <T> T forwardRead(int shard, Forward<T> call) throws SQLException {
+		try {
+			return forward(shard, call);
+		} catch (ApplicationSpecificErrorException e) {
+			throw new SQLException("Shard " + address(shard) + " rejected the call", e);
+		}
+	}
+
+	/**
+	 *
+	 * @return the single argument of the request
+	 * @throws InvalidArgsException
+	 *             if the request does not have exactly one argument of the type
+	 */
+	private static <T> T arg(ServiceRequest request, Class<T> type) throws InvalidArgsException {
+		Object[] args = request.getArgs();
+		if (args == null || args.length != 1 || !type.isInstance(args[0])) {
+			throw new InvalidArgsException("Exactly 1 argument of type '" + type.getSimpleName() + "' was required");
+		}
+		return type.cast(args[0]);
+	}
+
+	private String address(int index) {
+		ServiceProviderInfo peer = config.getPeers().get(index);
+		return peer.getURL() + ":" + peer.getPort();
+	}
+
+	private static List<ShardClient> rpcClients(ShardConfig config) {
+		List<ShardClient> list = new ArrayList<ShardClient>();
+		for (ServiceProviderInfo peer : config.getPeers()) {
+			list.add(new RpcPeerClient(peer));
+		}
+		return list;
+	}
+
+	/**
+	 * A call made on another shard
+	 */
+	@FunctionalInterface
+	private interface Forward<T> {
+
+		public T apply(ShardClient shard) throws Exception;
+	}
+
+	/**
+	 *
+	 * Routing counters of a shard
+	 *
+	 */
+	public static class Stats {
+
+		private final LongAdder forwarded = new LongAdder();
+
+		private final LongAdder failedForwards = new LongAdder();
+
+		private final LongAdder moved = new LongAdder();
+
+		/**
+		 *
+		 * @return number of calls forwarded to other shards
+		 */
+		public long getForwarded() {
+			return forwarded.sum();
+		}
+
+		/**
+		 *
+		 * @return number of calls that could not reach another shard
+		 */
+		public long getFailedForwards() {
+			return failedForwards.sum();
+		}
+
+		/**
+		 *
+		 * @return number of registrations handed to their owner on rebalance
+		 */
+		public long getMoved() {
+			return moved.sum();
+		}
+
+		@Override
+		public String toString() {
+			return "forwarded=" + getForwarded() + ", failedForwards=" + getFailedForwards() + ", moved="
+					+ getMoved();
+		}
+
+	}
+
+}
@@ -9,18 +9,89 @@ public interface Constants {
 	public static final String CONF_TAG_NAME_DB_PORT = "CONF.DBINFO.PORT";
 	public static final String CONF_TAG_NAME_DB_DBNAME = "CONF.DBINFO.NAME";
 
+	public static final String CONF_TAG_NAME_DB_POOL_MIN_SIZE = "CONF.DBINFO.POOL.MIN_SIZE";
+	public static final String CONF_TAG_NAME_DB_POOL_MAX_SIZE = "CONF.DBINFO.POOL.MAX_SIZE";
+	public static final String CONF_TAG_NAME_DB_POOL_BORROW_TIMEOUT = "CONF.DBINFO.POOL.BORROW_TIMEOUT";
+	public static final String CONF_TAG_NAME_DB_POOL_VALIDATE_ON_BORROW = "CONF.DBINFO.POOL.VALIDATE_ON_BORROW";
+	public static final String CONF_TAG_NAME_DB_POOL_VALIDATION_TIMEOUT = "CONF.DBINFO.POOL.VALIDATION_TIMEOUT";
+	public static final String CONF_TAG_NAME_DB_POOL_IDLE_TIMEOUT = "CONF.DBINFO.POOL.IDLE_TIMEOUT";
+	public static final String CONF_TAG_NAME_DB_POOL_EVICTION_INTERVAL = "CONF.DBINFO.POOL.EVICTION_INTERVAL";
+	public static final String CONF_TAG_NAME_DB_POOL_LEAK_THRESHOLD = "CONF.DBINFO.POOL.LEAK_THRESHOLD";
+
+	public static final String CONF_TAG_NAME_DB_SQLITE_TUNED = "CONF.DBINFO.SQLITE.TUNED";
+	public static final String CONF_TAG_NAME_DB_SQLITE_JOURNAL_MODE = "CONF.DBINFO.SQLITE.JOURNAL_MODE";
+	public static final String CONF_TAG_NAME_DB_SQLITE_SYNCHRONOUS = "CONF.DBINFO.SQLITE.SYNCHRONOUS";
+	public static final String CONF_TAG_NAME_DB_SQLITE_MMAP_SIZE = "CONF.DBINFO.SQLITE.MMAP_SIZE";
+	public static final String CONF_TAG_NAME_DB_SQLITE_CACHE_SIZE = "CONF.DBINFO.SQLITE.CACHE_SIZE";
+	public static final String CONF_TAG_NAME_DB_SQLITE_BUSY_TIMEOUT = "CONF.DBINFO.SQLITE.BUSY_TIMEOUT";
+	public static final String CONF_TAG_NAME_DB_SQLITE_SINGLE_WRITER = "CONF.DBINFO.SQLITE.SINGLE_WRITER";
+
+	public static final String CONF_TAG_NAME_DB_WRITER_ENABLED = "CONF.DBINFO.WRITER.ENABLED";
+	public static final String CONF_TAG_NAME_DB_WRITER_QUEUE_CAPACITY = "CONF.DBINFO.WRITER.QUEUE_CAPACITY";
+	public static final String CONF_TAG_NAME_DB_WRITER_MAX_BATCH = "CONF.DBINFO.WRITER.MAX_BATCH";
+	public static final String CONF_TAG_NAME_DB_WRITER_BATCH_WINDOW = "CONF.DBINFO.WRITER.BATCH_WINDOW";
+	public static final String CONF_TAG_NAME_DB_WRITER_OFFER_TIMEOUT = "CONF.DBINFO.WRITER.OFFER_TIMEOUT";
+
+	public static final String CONF_TAG_NAME_DB_EMBEDDED_SYNC = "CONF.DBINFO.EMBEDDED.SYNC";
+	public static final String CONF_TAG_NAME_DB_EMBEDDED_COMPACT_INTERVAL = "CONF.DBINFO.EMBEDDED.COMPACT_INTERVAL";
+	public static final String CONF_TAG_NAME_DB_EMBEDDED_COMPACT_MIN_SIZE = "CONF.DBINFO.EMBEDDED.COMPACT_MIN_SIZE";
+
+	/**
+	 * DB_TYPE of the embedded registry store, which is not a DBType
+	 */
+	public static final String DB_TYPE_EMBEDDED = "EMBEDDED";
+
 	public static final String ORACLE_CONN_DRIVER_CLASSPATH = "oracle.jdbc.driver.OracleDriver";
 	public static final String MYSQL_CONN_DRIVER_CLASSPATH = "com.mysql.jdbc.Driver";
 	public static final String SQLLITE_CONN_DRIVER_CLASSPATH = "org.sqlite.JDBC";
 
 	public static final String CONF_TAG_NAME_VIPE_API_PORT = "CONF.RPC.PORT";
 
+	public static final String CONF_TAG_NAME_REGISTRY_CACHE = "CONF.REGISTRY.CACHE";
+
+	public static final String CONF_TAG_NAME_LOADBALANCER_STRATEGY = "CONF.LOADBALANCER.STRATEGY";
+	public static final String CONF_TAG_NAME_LOADBALANCER_WEIGHTS = "CONF.LOADBALANCER.WEIGHTS";
+	public static final String CONF_TAG_NAME_LOADBALANCER_DEFAULT_WEIGHT = "CONF.LOADBALANCER.DEFAULT_WEIGHT";
+	public static final String CONF_TAG_NAME_LOADBALANCER_DECAY_TIME = "CONF.LOADBALANCER.DECAY_TIME";
+	public static final String CONF_TAG_NAME_LOADBALANCER_STATS_CAPACITY = "CONF.LOADBALANCER.STATS_CAPACITY";
+
+	public static final String CONF_TAG_NAME_HEALTH_ENABLED = "CONF.HEALTH.ENABLED";
+	public static final String CONF_TAG_NAME_HEALTH_INTERVAL = "CONF.HEALTH.INTERVAL";
+	public static final String CONF_TAG_NAME_HEALTH_JITTER = "CONF.HEALTH.JITTER";
+	public static final String CONF_TAG_NAME_HEALTH_TIMEOUT = "CONF.HEALTH.TIMEOUT";
+	public static final String CONF_TAG_NAME_HEALTH_THREADS = "CONF.HEALTH.THREADS";
+	public static final String CONF_TAG_NAME_HEALTH_FAILURE_THRESHOLD = "CONF.HEALTH.FAILURE_THRESHOLD";
+
+	public static final String CONF_TAG_NAME_LEASE_ENABLED = "CONF.LEASE.ENABLED";
+	public static final String CONF_TAG_NAME_LEASE_DEFAULT_TTL = "CONF.LEASE.DEFAULT_TTL";
+	public static final String CONF_TAG_NAME_LEASE_MIN_TTL = "CONF.LEASE.MIN_TTL";
+	public static final String CONF_TAG_NAME_LEASE_MAX_TTL = "CONF.LEASE.MAX_TTL";
+	public static final String CONF_TAG_NAME_LEASE_TICK = "CONF.LEASE.TICK";
+
+	public static final String CONF_TAG_NAME_CHANGELOG_CAPACITY = "CONF.CHANGELOG.CAPACITY";
+	public static final String CONF_TAG_NAME_CHANGELOG_SPILL = "CONF.CHANGELOG.SPILL";
+	public static final String CONF_TAG_NAME_CHANGELOG_RETENTION = "CONF.CHANGELOG.RETENTION";
+
+	public static final String CONF_TAG_NAME_NEGATIVE_CACHE_TTL = "CONF.NEGATIVECACHE.TTL";
+	public static final String CONF_TAG_NAME_NEGATIVE_CACHE_CAPACITY = "CONF.NEGATIVECACHE.CAPACITY";
+
+	public static final String CONF_TAG_NAME_CLUSTER_ENABLED = "CONF.CLUSTER.ENABLED";
+	public static final String CONF_TAG_NAME_CLUSTER_PEERS = "CONF.CLUSTER.PEERS";
+	public static final String CONF_TAG_NAME_CLUSTER_SELF = "CONF.CLUSTER.SELF";
+	public static final String CONF_TAG_NAME_CLUSTER_SYNC_INTERVAL = "CONF.CLUSTER.SYNC_INTERVAL";
+
+	public static final String CONF_TAG_NAME_SHARD_ENABLED = "CONF.SHARD.ENABLED";
+	public static final String CONF_TAG_NAME_SHARD_PEERS = "CONF.SHARD.PEERS";
+	public static final String CONF_TAG_NAME_SHARD_SELF = "CONF.SHARD.SELF";
+	public static final String CONF_TAG_NAME_SHARD_VIRTUAL_NODES = "CONF.SHARD.VIRTUAL_NODES";
+
 	public static final int TYPE_SERVICE_IO_IN = 0;
 	public static final int TYPE_SERVICE_IO_OUT = 1;
 
 	public static final String DB_SQL_TABLE_NAME_SERVICE_PROVIDER = "SERVICE_PROVIDER";
 	public static final String DB_SQL_TABLE_NAME_SERVICE_PROVIDER_SUPPORT = "SERVICE_PROVIDER_SUPPORT";
 	public static final String DB_SQL_TABLE_NAME_SERVICE = "SERVICE";
+	public static final String DB_SQL_TABLE_NAME_REGISTRY_CHANGE = "REGISTRY_CHANGE";
 
 	public static final String DB_SQL_TABLE_COLUMN_NAME_URL = "URL";
 	public static final String DB_SQL_TABLE_COLUMN_NAME_SUPPORT_ID = "SUPPORT_ID";
@@ -33,5 +104,8 @@ public interface Constants {
 	public static final String DB_SQL_TABLE_COLUMN_NAME_ENV_LANG = "ENV_LANG";
 	public static final String DB_SQL_TABLE_COLUMN_NAME_ENV_OS = "ENV_OS";
 	public static final String DB_SQL_TABLE_COLUMN_NAME_ENV_COMPILER = "ENV_COMPILER";
+	public static final String DB_SQL_TABLE_COLUMN_NAME_REVISION = "REVISION";
+	public static final String DB_SQL_TABLE_COLUMN_NAME_CHANGE_TYPE = "CHANGE_TYPE";
+	public static final String DB_SQL_TABLE_COLUMN_NAME_FORMATS = "FORMATS";
 
 }
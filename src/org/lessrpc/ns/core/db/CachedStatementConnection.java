@@ -0,0 +1,30 @@
+package org.lessrpc.ns.core.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * 
+ * Connection that keeps its prepared statements open across uses. Connections
+ * borrowed from a {@link ConnectionPool} implement this interface.
+ * 
+ */
+public interface CachedStatementConnection extends Connection {
+
+	/**
+	 * Returns the prepared statement cached under statementId, preparing it
+	 * the first time. The statement belongs to the connection: callers must
+	 * not close it, only close its result sets.
+	 * 
+	 * @param statementId
+	 *            small non negative id identifying the statement
+	 * @param sql
+	 * @param autoGeneratedKeys
+	 *            same as in {@link Connection#prepareStatement(String, int)}
+	 * @return
+	 * @throws SQLException
+	 */
+	public PreparedStatement prepareCached(int statementId, String sql, int autoGeneratedKeys) throws SQLException;
+
+}
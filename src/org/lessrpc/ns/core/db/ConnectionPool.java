@@ -0,0 +1,342 @@
+package org.lessrpc.ns.core.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.lessrpc.common.db.DBInfo;
+import org.lessrpc.common.errors.DatabaseNotSupported;
+
+/**
+ *
+ * Bounded pool of JDBC connections for one database. Connections handed out
+ * by {@link #borrow()} are proxies whose close() returns the physical
+ * connection to the pool, so callers keep the usual open/close pattern. The
+ * proxies implement {@link CachedStatementConnection}; prepared statements stay
+ * open with their physical connection.
+ *
+ * A background task closes connections that have been idle for longer than
+ * the idle timeout (never going below the min size), refills the pool up to
+ * the min size and reports connections that have been borrowed for longer
+ * than the leak threshold.
+ *
+ */
+public class ConnectionPool {
+
+	private final DBInfo dbInfo;
+
+	private final ConnectionPoolConfig config;
+
+	/**
+	 * idle connections, most recently returned first
+	 */
+	private final LinkedBlockingDeque<PooledConnection> idle;
+
+	/**
+	 * connections currently handed out
+	 */
+	private final Set<PooledConnection> borrowed;
+
+	/**
+	 * one permit per connection that may still be borrowed
+	 */
+	private final Semaphore permits;
+
+	private final ScheduledExecutorService housekeeper;
+
+	private final StatementCache.Stats statementStats = new StatementCache.Stats();
+
+	private volatile boolean closed = false;
+
+	public ConnectionPool(DBInfo dbInfo, ConnectionPoolConfig config)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		this.dbInfo = dbInfo;
+		this.config = config;
+		this.idle = new LinkedBlockingDeque<PooledConnection>();
+		this.borrowed = ConcurrentHashMap.newKeySet();
+		this.permits = new Semaphore(config.getMaxSize(), true);
+		this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "lessrpc-ns-db-pool");
+			t.setDaemon(true);
+			return t;
+		});
+		fill();
+		housekeeper.scheduleWithFixedDelay(this::houseKeep, config.getEvictionInterval(),
+				config.getEvictionInterval(), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Borrows a connection from the pool, opening a new one if no idle
+	 * connection is available and the pool has not reached its max size.
+	 * Closing the returned connection gives it back to the pool.
+	 *
+	 * @return
+	 * @throws SQLException
+	 *             if the pool is closed or no connection became available
+	 *             within the borrow timeout
+	 * @throws ClassNotFoundException
+	 * @throws DatabaseNotSupported
+	 */
+	public Connection borrow() throws SQLException, ClassNotFoundException, DatabaseNotSupported {
+		if (closed) {
+			throw new SQLException("Connection pool for " + dbInfo.getDbUrl() + " is closed");
+		}
+		try {
+			if (!permits.tryAcquire(config.getBorrowTimeout(), TimeUnit.MILLISECONDS)) {
+				throw new SQLException("Timed out after " + config.getBorrowTimeout()
+						+ "ms waiting for a connection to " + dbInfo.getDbUrl() + " (max pool size "
+						+ config.getMaxSize() + ")");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a connection", e);
+		}
+
+		try {
+			PooledConnection pc;
+			while ((pc = idle.pollFirst()) != null) {
+				if (!config.isValidateOnBorrow() || isValid(pc)) {
+					break;
+				}
+				closePhysical(pc);
+			}
+			if (pc == null) {
+				pc = open();
+			}
+			pc.borrowedAt = System.currentTimeMillis();
+			if (config.getLeakThreshold() > 0) {
+				pc.borrowTrace = new Throwable("Connection borrowed here");
+			}
+			borrowed.add(pc);
+			return pc.newHandle();
+		} catch (SQLException | ClassNotFoundException | DatabaseNotSupported | RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns a borrowed connection to the pool. Invoked by the proxy's
+	 * close().
+	 *
+	 * @param pc
+	 */
+	private void release(PooledConnection pc) {
+		borrowed.remove(pc);
+		pc.borrowTrace = null;
+		try {
+			if (closed || pc.conn.isClosed()) {
+				closePhysical(pc);
+				return;
+			}
+			if (!pc.conn.getAutoCommit()) {
+				// don't hand out a connection with a half-finished transaction
+				pc.conn.rollback();
+				pc.conn.setAutoCommit(true);
+			}
+			pc.lastUsed = System.currentTimeMillis();
+			idle.offerFirst(pc);
+		} catch (SQLException e) {
+			closePhysical(pc);
+		} finally {
+			permits.release();
+		}
+	}
+
+	/**
+	 * Closes all idle connections and stops the housekeeping task. Borrowed
+	 * connections are closed when they are returned.
+	 */
+	public void close() {
+		closed = true;
+		housekeeper.shutdownNow();
+		PooledConnection pc;
+		while ((pc = idle.pollFirst()) != null) {
+			closePhysical(pc);
+		}
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 *
+	 * @return number of open physical connections (idle and borrowed)
+	 */
+	public int size() {
+		return idle.size() + borrowed.size();
+	}
+
+	public int getIdleCount() {
+		return idle.size();
+	}
+
+	public int getBorrowedCount() {
+		return borrowed.size();
+	}
+
+	public StatementCache.Stats getStatementCacheStats() {
+		return statementStats;
+	}
+
+	public ConnectionPoolConfig getConfig() {
+		return config;
+	}
+
+	private PooledConnection open() throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		Connection conn = DBFactory.openConnection(dbInfo);
+		if (conn == null) {
+			throw new DatabaseNotSupported(dbInfo.getType() + "");
+		}
+		return new PooledConnection(conn);
+	}
+
+	private boolean isValid(PooledConnection pc) {
+		try {
+			return pc.conn.isValid(Math.max(1, config.getValidationTimeout() / 1000));
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	private void closePhysical(PooledConnection pc) {
+		pc.statements.close();
+		try {
+			pc.conn.close();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * opens connections until the pool holds at least min size connections
+	 */
+	private void fill() throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		while (!closed && size() < config.getMinSize()) {
+			PooledConnection pc = open();
+			pc.lastUsed = System.currentTimeMillis();
+			idle.offerLast(pc);
+		}
+	}
+
+	private void houseKeep() {
+		long now = System.currentTimeMillis();
+
+		// evicting connections idle for too long, oldest are at the tail
+		Iterator<PooledConnection> it = idle.descendingIterator();
+		while (it.hasNext() && size() > config.getMinSize()) {
+			PooledConnection pc = it.next();
+			if (now - pc.lastUsed > config.getIdleTimeout() && idle.removeLastOccurrence(pc)) {
+				closePhysical(pc);
+			}
+		}
+
+		try {
+			fill();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+
+		// leak detection
+		if (config.getLeakThreshold() > 0) {
+			for (PooledConnection pc : borrowed) {
+				Throwable trace = pc.borrowTrace;
+				if (trace != null && now - pc.borrowedAt > config.getLeakThreshold()) {
+					System.err.println("Possible connection leak: connection to " + dbInfo.getDbUrl()
+							+ " has been borrowed for " + (now - pc.borrowedAt) + "ms");
+					trace.printStackTrace();
+					// report each leak once
+					pc.borrowTrace = null;
+				}
+			}
+		}
+	}
+
+	/**
+	 * A physical connection owned by the pool
+	 */
+	private class PooledConnection {
+
+		private final Connection conn;
+
+		private final StatementCache statements;
+
+		private volatile long lastUsed;
+
+		private volatile long borrowedAt;
+
+		private volatile Throwable borrowTrace;
+
+		private PooledConnection(Connection conn) {
+			this.conn = conn;
+			this.statements = new StatementCache(statementStats);
+		}
+
+		private Connection newHandle() {
+			return (Connection) Proxy.newProxyInstance(CachedStatementConnection.class.getClassLoader(),
+					new Class<?>[] { CachedStatementConnection.class }, new Handle(this));
+		}
+	}
+
+	/**
+	 * Invocation handler of the connection proxies handed out to borrowers. A
+	 * handle is only valid until it is closed; afterwards the physical
+	 * connection may already belong to another borrower.
+	 */
+	private class Handle implements InvocationHandler {
+
+		private final PooledConnection pc;
+
+		private boolean released = false;
+
+		private Handle(PooledConnection pc) {
+			this.pc = pc;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if (name.equals("close")) {
+				synchronized (this) {
+					if (!released) {
+						released = true;
+						release(pc);
+					}
+				}
+				return null;
+			} else if (name.equals("isClosed")) {
+				return released || pc.conn.isClosed();
+			} else if (name.equals("equals")) {
+				return proxy == args[0];
+			} else if (name.equals("hashCode")) {
+				return System.identityHashCode(proxy);
+			} else if (name.equals("toString")) {
+				return "Pooled[" + pc.conn + "]";
+			}
+			if (released) {
+				throw new SQLException("Connection has already been returned to the pool");
+			}
+			if (name.equals("prepareCached")) {
+				return pc.statements.prepare(pc.conn, (Integer) args[0], (String) args[1], (Integer) args[2]);
+			}
+			try {
+				return method.invoke(pc.conn, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+	}
+
+}
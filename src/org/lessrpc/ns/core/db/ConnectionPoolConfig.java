@@ -0,0 +1,117 @@
+package org.lessrpc.ns.core.db;
+
+/**
+ *
+ * Sizing and housekeeping settings of a {@link ConnectionPool}. All durations
+ * are in milliseconds.
+ *
+ */
+public class ConnectionPoolConfig {
+
+	public static final int DEFAULT_MIN_SIZE = 1;
+	public static final int DEFAULT_MAX_SIZE = 8;
+	public static final long DEFAULT_BORROW_TIMEOUT = 5000;
+	public static final int DEFAULT_VALIDATION_TIMEOUT = 2000;
+	public static final long DEFAULT_IDLE_TIMEOUT = 60000;
+	public static final long DEFAULT_EVICTION_INTERVAL = 30000;
+	public static final long DEFAULT_LEAK_THRESHOLD = 0;
+
+	/**
+	 * number of connections the pool keeps open even when idle
+	 */
+	private final int minSize;
+
+	/**
+	 * upper bound of open connections (idle and borrowed)
+	 */
+	private final int maxSize;
+
+	/**
+	 * how long a borrower waits for a free connection before failing
+	 */
+	private final long borrowTimeout;
+
+	/**
+	 * if true, idle connections are checked with Connection.isValid before
+	 * being handed out
+	 */
+	private final boolean validateOnBorrow;
+
+	/**
+	 * timeout used for Connection.isValid
+	 */
+	private final int validationTimeout;
+
+	/**
+	 * idle connections above minSize are closed after this long
+	 */
+	private final long idleTimeout;
+
+	/**
+	 * period of the eviction and leak detection task
+	 */
+	private final long evictionInterval;
+
+	/**
+	 * a connection borrowed longer than this is reported as leaked. 0 disables
+	 * leak detection
+	 */
+	private final long leakThreshold;
+
+	public ConnectionPoolConfig(int minSize, int maxSize, long borrowTimeout, boolean validateOnBorrow,
+			int validationTimeout, long idleTimeout, long evictionInterval, long leakThreshold) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("Pool max size must be at least 1 but was " + maxSize);
+		}
+		if (minSize < 0 || minSize > maxSize) {
+			throw new IllegalArgumentException(
+					"Pool min size must be between 0 and " + maxSize + " but was " + minSize);
+		}
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.borrowTimeout = borrowTimeout;
+		this.validateOnBorrow = validateOnBorrow;
+		this.validationTimeout = validationTimeout;
+		this.idleTimeout = idleTimeout;
+		this.evictionInterval = evictionInterval;
+		this.leakThreshold = leakThreshold;
+	}
+
+	public ConnectionPoolConfig() {
+		this(DEFAULT_MIN_SIZE, DEFAULT_MAX_SIZE, DEFAULT_BORROW_TIMEOUT, true, DEFAULT_VALIDATION_TIMEOUT,
+				DEFAULT_IDLE_TIMEOUT, DEFAULT_EVICTION_INTERVAL, DEFAULT_LEAK_THRESHOLD);
+	}
+
+	public int getMinSize() {
+		return minSize;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public long getBorrowTimeout() {
+		return borrowTimeout;
+	}
+
+	public boolean isValidateOnBorrow() {
+		return validateOnBorrow;
+	}
+
+	public int getValidationTimeout() {
+		return validationTimeout;
+	}
+
+	public long getIdleTimeout() {
+		return idleTimeout;
+	}
+
+	public long getEvictionInterval() {
+		return evictionInterval;
+	}
+
+	public long getLeakThreshold() {
+		return leakThreshold;
+	}
+
+}
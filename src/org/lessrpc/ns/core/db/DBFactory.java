@@ -1,11 +1,13 @@
 package org.lessrpc.ns.core.db;
 
+import java.io.File;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
 
 import org.lessrpc.common.db.DBInfo;
-import org.lessrpc.common.db.DBUtils;
 import org.lessrpc.common.errors.DatabaseNotSupported;
 import org.lessrpc.common.types.DBType;
 import org.lessrpc.ns.core.constants.Constants;
@@ -23,6 +25,46 @@ import me.salimm.allconfig.core.errors.PrefixNotANestedConfigException;
  */
 public class DBFactory implements Constants {
 
+	/**
+	 * A read run on a connection of the database
+	 */
+	@FunctionalInterface
+	public interface ReadTask<T> {
+
+		/**
+		 *
+		 * @param conn
+		 *            null for the embedded registry store, whose operations
+		 *            take no connection
+		 * @return
+		 * @throws SQLException
+		 * @throws ClassNotFoundException
+		 */
+		public T run(Connection conn) throws SQLException, ClassNotFoundException;
+	}
+
+	/**
+	 * connection pools by database url and user
+	 */
+	private static final ConcurrentHashMap<String, ConnectionPool> pools = new ConcurrentHashMap<String, ConnectionPool>();
+
+	/**
+	 * embedded registry stores by path, used instead of pools for DB_TYPE
+	 * EMBEDDED
+	 */
+	private static final ConcurrentHashMap<String, EmbeddedRegistryStore> stores = new ConcurrentHashMap<>();
+
+	/**
+	 * pragmas of tuned SQLite databases by database url and user
+	 */
+	private static final ConcurrentHashMap<String, SQLiteTuning> tunings = new ConcurrentHashMap<>();
+
+	/**
+	 * writers of databases whose mutations are serialized on one thread, by
+	 * database url and user
+	 */
+	private static final ConcurrentHashMap<String, GroupCommitWriter> writers = new ConcurrentHashMap<>();
+
 	/**
 	 * 
 	 * Create Oracle connection
@@ -89,9 +131,16 @@ public class DBFactory implements Constants {
 	 * @throws DatabaseNotSupported
 	 * @throws PrefixNotANestedConfigException
 	 */
-	public static DBUtils getDBUtils(Config conf)
+	public static RegistryDBUtils getDBUtils(Config conf)
 			throws ClassNotFoundException, SQLException, DatabaseNotSupported, PrefixNotANestedConfigException {
-		if (conf.getValue(CONF_TAG_NAME_DB_TYPE).equals(DBType.MYSQL.name())) {
+		if (conf.getValue(CONF_TAG_NAME_DB_TYPE).equals(DB_TYPE_EMBEDDED)) {
+			return openEmbeddedStore(conf.getValue(CONF_TAG_NAME_DB_URL),
+					conf.getBoolean(CONF_TAG_NAME_DB_EMBEDDED_SYNC, true),
+					conf.getLong(CONF_TAG_NAME_DB_EMBEDDED_COMPACT_INTERVAL,
+							EmbeddedRegistryStore.DEFAULT_COMPACT_INTERVAL),
+					conf.getInteger(CONF_TAG_NAME_DB_EMBEDDED_COMPACT_MIN_SIZE,
+							EmbeddedRegistryStore.DEFAULT_COMPACT_MIN_SIZE));
+		} else if (conf.getValue(CONF_TAG_NAME_DB_TYPE).equals(DBType.MYSQL.name())) {
 			return new MySQLUtils();
 			// } else if
 			// (conf.getValue(CONF_TAG_NAME_DB_TYPE).equals(DBType.ORACLE.name()))
@@ -106,28 +155,415 @@ public class DBFactory implements Constants {
 	}
 
 	/**
-	 * Get specific db connection based on database info in conf file
+	 * Open the embedded registry store kept in the file at path, or return the
+	 * one already opened for it. Settings only apply when the store is
+	 * created.
+	 * 
+	 * @param path
+	 * @param sync
+	 * @param compactInterval
+	 * @param compactMinSize
+	 * @return
+	 * @throws SQLException
+	 *             if the store can not be read
+	 */
+	public static EmbeddedRegistryStore openEmbeddedStore(String path, boolean sync, long compactInterval,
+			int compactMinSize) throws SQLException {
+		synchronized (stores) {
+			EmbeddedRegistryStore store = stores.get(path);
+			if (store == null) {
+				store = new EmbeddedRegistryStore(new File(path), sync, compactInterval, compactMinSize);
+				stores.put(path, store);
+			}
+			store.open();
+			return store;
+		}
+	}
+
+	/**
+	 * 
+	 * @param dbInfo
+	 * @return true if dbInfo is an {@link EmbeddedDBInfo}, the embedded
+	 *         registry store has no connections
+	 */
+	public static boolean isEmbedded(DBInfo dbInfo) {
+		return dbInfo instanceof EmbeddedDBInfo;
+	}
+
+	/**
+	 * 
+	 * @param dbInfo
+	 *            an {@link EmbeddedDBInfo}
+	 * @return the store opened for dbInfo
+	 * @throws SQLException
+	 *             if the store was never opened or is closed
+	 */
+	private static EmbeddedRegistryStore getEmbeddedStore(DBInfo dbInfo) throws SQLException {
+		EmbeddedRegistryStore store = stores.get(dbInfo.getDbUrl());
+		if (store == null || !store.isOpen()) {
+			throw new SQLException("Embedded registry store " + dbInfo.getDbUrl() + " is not open");
+		}
+		return store;
+	}
+
+	/**
+	 * Get a pooled connection to the database described by dbInfo. Closing the
+	 * returned connection gives it back to the pool. If no pool was
+	 * initialized for this database, one is created with the default
+	 * configuration. Use {@link #read(DBInfo, ReadTask)} for reads that must
+	 * also work on the embedded registry store.
 	 * 
 	 * @return
 	 * @throws ClassNotFoundException
 	 * @throws SQLException
+	 *             also for the embedded registry store, which has no
+	 *             connections
 	 * @throws DatabaseNotSupported
 	 */
 	public static Connection getConnection(DBInfo dbInfo)
 			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
-		if (dbInfo.getType().equals(DBType.MYSQL)) {
+		if (isEmbedded(dbInfo)) {
+			throw new SQLException("Embedded registry store " + dbInfo.getDbUrl() + " has no connections");
+		}
+		ConnectionPool pool = pools.get(poolKey(dbInfo));
+		if (pool == null) {
+			pool = initConnectionPool(dbInfo, new ConnectionPoolConfig());
+		}
+		return pool.borrow();
+	}
+
+	/**
+	 * Open a new physical connection to the database, bypassing the pool
+	 * 
+	 * @return
+	 * @throws ClassNotFoundException
+	 * @throws SQLException
+	 * @throws DatabaseNotSupported
+	 */
+	public static Connection openConnection(DBInfo dbInfo)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		// only the writer writes when there is one
+		return openConnection(dbInfo, writers.containsKey(poolKey(dbInfo)));
+	}
+
+	/**
+	 * Open a new physical connection used by the {@link GroupCommitWriter} of
+	 * the database
+	 * 
+	 * @return
+	 * @throws ClassNotFoundException
+	 * @throws SQLException
+	 * @throws DatabaseNotSupported
+	 */
+	public static Connection openWriteConnection(DBInfo dbInfo)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		return openConnection(dbInfo, false);
+	}
+
+	private static Connection openConnection(DBInfo dbInfo, boolean readOnly)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		if (isEmbedded(dbInfo)) {
+			throw new SQLException("Embedded registry store " + dbInfo.getDbUrl() + " has no connections");
+		} else if (dbInfo.getType().equals(DBType.MYSQL)) {
 			return DBFactory.createMySQLConnection(dbInfo.getDbUrl(), dbInfo.getDbUser(), dbInfo.getDbPass());
 			// } else if (dbInfo.getType().equals(DBType.ORACLE)) {
 			// return DBFactory.createOracleConnection(dbInfo.getDbUrl(),
 			// dbInfo.getDbUser(), dbInfo.getDbPass());
 		} else if (dbInfo.getType().equals(DBType.SQLLITE)) {
-			return DBFactory.createSQLLiteConnection(dbInfo.getDbUrl(), dbInfo.getDbUser(), dbInfo.getDbPass());
+			Connection conn = DBFactory.createSQLLiteConnection(dbInfo.getDbUrl(), dbInfo.getDbUser(),
+					dbInfo.getDbPass());
+			SQLiteTuning tuning = tunings.get(poolKey(dbInfo));
+			if (tuning != null) {
+				try {
+					tuning.apply(conn, readOnly);
+				} catch (SQLException e) {
+					conn.close();
+					throw e;
+				}
+			}
+			return conn;
 		}
 		return null;
 
 	}
 
+	/**
+	 * Same as {@link #initConnectionPool(DBInfo, ConnectionPoolConfig)} for a
+	 * SQLite database whose connections are tuned. If the tuning has a single
+	 * writer, the writer is started and pooled connections are read only.
+	 * 
+	 * @param dbInfo
+	 * @param config
+	 * @param tuning
+	 *            null to use the database as is
+	 * @return
+	 * @throws ClassNotFoundException
+	 * @throws SQLException
+	 * @throws DatabaseNotSupported
+	 */
+	public static ConnectionPool initConnectionPool(DBInfo dbInfo, ConnectionPoolConfig config, SQLiteTuning tuning)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		return initConnectionPool(dbInfo, config, tuning, null);
+	}
+
+	/**
+	 * Same as {@link #initConnectionPool(DBInfo, ConnectionPoolConfig)},
+	 * additionally starting a {@link GroupCommitWriter} through which all
+	 * writes of the database are applied. Tuned SQLite with a single writer
+	 * always gets one, with the default settings if writerConfig is null.
+	 * 
+	 * @param dbInfo
+	 * @param config
+	 * @param tuning
+	 *            null to use SQLite as is, ignored for other databases
+	 * @param writerConfig
+	 *            null for no writer
+	 * @return
+	 * @throws ClassNotFoundException
+	 * @throws SQLException
+	 * @throws DatabaseNotSupported
+	 */
+	public static ConnectionPool initConnectionPool(DBInfo dbInfo, ConnectionPoolConfig config, SQLiteTuning tuning,
+			GroupCommitConfig writerConfig) throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		if (isEmbedded(dbInfo)) {
+			// writes are appended to the log of the store
+			return initConnectionPool(dbInfo, config);
+		}
+		String key = poolKey(dbInfo);
+		synchronized (pools) {
+			if (tuning != null && DBType.SQLLITE.equals(dbInfo.getType())) {
+				tunings.put(key, tuning);
+				if (tuning.isSingleWriter() && writerConfig == null) {
+					writerConfig = new GroupCommitConfig();
+				}
+			}
+			GroupCommitWriter writer = writers.get(key);
+			// before the pool, so pooled connections know they are readers
+			if (writerConfig != null && (writer == null || writer.isClosed())) {
+				writers.put(key, new GroupCommitWriter(dbInfo, writerConfig));
+			}
+		}
+		return initConnectionPool(dbInfo, config);
+	}
+
+	/**
+	 * Create the connection pool for the database if it doesn't exist yet. The
+	 * embedded registry store has no pool, it is reopened if it was closed.
+	 * 
+	 * @param dbInfo
+	 * @param config
+	 * @return the pool used for the database, null for the embedded registry
+	 *         store
+	 * @throws ClassNotFoundException
+	 * @throws SQLException
+	 *             also if the embedded registry store was never opened
+	 * @throws DatabaseNotSupported
+	 */
+	public static ConnectionPool initConnectionPool(DBInfo dbInfo, ConnectionPoolConfig config)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		if (isEmbedded(dbInfo)) {
+			EmbeddedRegistryStore store = stores.get(dbInfo.getDbUrl());
+			if (store == null) {
+				throw new SQLException("Embedded registry store " + dbInfo.getDbUrl() + " was never opened");
+			}
+			store.open();
+			return null;
+		}
+		String key = poolKey(dbInfo);
+		synchronized (pools) {
+			ConnectionPool pool = pools.get(key);
+			if (pool == null || pool.isClosed()) {
+				pool = new ConnectionPool(dbInfo, config);
+				pools.put(key, pool);
+			}
+			return pool;
+		}
+	}
+
+	/**
+	 * 
+	 * @param dbInfo
+	 * @return the connection pool of the database, null if none was created
+	 */
+	public static ConnectionPool getConnectionPool(DBInfo dbInfo) {
+		return pools.get(poolKey(dbInfo));
+	}
+
+	/**
+	 * Close the connection pool of the database, if any. The embedded registry
+	 * store is closed instead.
+	 * 
+	 * @param dbInfo
+	 */
+	public static void closeConnectionPool(DBInfo dbInfo) {
+		if (isEmbedded(dbInfo)) {
+			EmbeddedRegistryStore store = stores.get(dbInfo.getDbUrl());
+			if (store != null) {
+				store.close();
+			}
+			return;
+		}
+		GroupCommitWriter writer = writers.remove(poolKey(dbInfo));
+		if (writer != null) {
+			// applies the writes still queued
+			writer.close();
+		}
+		tunings.remove(poolKey(dbInfo));
+		ConnectionPool pool = pools.remove(poolKey(dbInfo));
+		if (pool != null) {
+			pool.close();
+		}
+	}
+
+	/**
+	 * 
+	 * @param dbInfo
+	 * @return the writer of the database, null if it has none
+	 */
+	public static GroupCommitWriter getWriter(DBInfo dbInfo) {
+		return writers.get(poolKey(dbInfo));
+	}
+
+	/**
+	 * Apply a write to the database. If the database has a writer, the write
+	 * is queued to it and committed together with the other queued writes;
+	 * otherwise it runs on a pooled connection of the calling thread, or with
+	 * no connection on the embedded registry store.
+	 * 
+	 * @param dbInfo
+	 * @param task
+	 * @param keep
+	 *            tells from the result of the task whether it succeeded, only
+	 *            used by the writer to roll back failed writes
+	 * @return result of the task
+	 * @throws ClassNotFoundException
+	 * @throws SQLException
+	 * @throws DatabaseNotSupported
+	 */
+	public static <T> T write(DBInfo dbInfo, GroupCommitWriter.WriteTask<T> task, Predicate<? super T> keep)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		GroupCommitWriter writer = writers.get(poolKey(dbInfo));
+		if (writer != null) {
+			return writer.write(task, keep);
+		}
+		if (isEmbedded(dbInfo)) {
+			getEmbeddedStore(dbInfo);
+			return task.run(null);
+		}
+		try (Connection conn = getConnection(dbInfo)) {
+			return task.run(conn);
+		}
+	}
+
+	/**
+	 * Same as {@link #write(DBInfo, GroupCommitWriter.WriteTask, Predicate)}
+	 * for writes that always keep their changes
+	 */
+	public static <T> T write(DBInfo dbInfo, GroupCommitWriter.WriteTask<T> task)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		return write(dbInfo, task, result -> true);
+	}
+
+	/**
+	 * Run a read on a pooled connection of the database, or with no connection
+	 * on the embedded registry store
+	 * 
+	 * @param dbInfo
+	 * @param task
+	 * @return result of the task
+	 * @throws ClassNotFoundException
+	 * @throws SQLException
+	 *             also if the embedded registry store is not open
+	 * @throws DatabaseNotSupported
+	 */
+	public static <T> T read(DBInfo dbInfo, ReadTask<T> task)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		if (isEmbedded(dbInfo)) {
+			getEmbeddedStore(dbInfo);
+			return task.run(null);
+		}
+		try (Connection conn = getConnection(dbInfo)) {
+			return task.run(conn);
+		}
+	}
+
+	private static String poolKey(DBInfo dbInfo) {
+		return dbInfo.getDbUrl() + "#" + dbInfo.getDbUser();
+	}
+
+	/**
+	 * Read connection pool configuration from conf file. Missing properties
+	 * take their default values.
+	 * 
+	 * @param conf
+	 * @return
+	 */
+	public static ConnectionPoolConfig getConnectionPoolConfig(Config conf) {
+		return new ConnectionPoolConfig(
+				conf.getInteger(CONF_TAG_NAME_DB_POOL_MIN_SIZE, ConnectionPoolConfig.DEFAULT_MIN_SIZE),
+				conf.getInteger(CONF_TAG_NAME_DB_POOL_MAX_SIZE, ConnectionPoolConfig.DEFAULT_MAX_SIZE),
+				conf.getLong(CONF_TAG_NAME_DB_POOL_BORROW_TIMEOUT, ConnectionPoolConfig.DEFAULT_BORROW_TIMEOUT),
+				conf.getBoolean(CONF_TAG_NAME_DB_POOL_VALIDATE_ON_BORROW, true),
+				conf.getInteger(CONF_TAG_NAME_DB_POOL_VALIDATION_TIMEOUT,
+						ConnectionPoolConfig.DEFAULT_VALIDATION_TIMEOUT),
+				conf.getLong(CONF_TAG_NAME_DB_POOL_IDLE_TIMEOUT, ConnectionPoolConfig.DEFAULT_IDLE_TIMEOUT),
+				conf.getLong(CONF_TAG_NAME_DB_POOL_EVICTION_INTERVAL,
+						ConnectionPoolConfig.DEFAULT_EVICTION_INTERVAL),
+				conf.getLong(CONF_TAG_NAME_DB_POOL_LEAK_THRESHOLD, ConnectionPoolConfig.DEFAULT_LEAK_THRESHOLD));
+	}
+
+	/**
+	 * Read group commit settings from conf file. Missing properties take their
+	 * default values.
+	 * 
+	 * @param conf
+	 * @return null unless the writer is enabled
+	 */
+	public static GroupCommitConfig getGroupCommitConfig(Config conf) {
+		if (!conf.getBoolean(CONF_TAG_NAME_DB_WRITER_ENABLED, false)) {
+			return null;
+		}
+		return new GroupCommitConfig(
+				conf.getInteger(CONF_TAG_NAME_DB_WRITER_QUEUE_CAPACITY, GroupCommitConfig.DEFAULT_QUEUE_CAPACITY),
+				conf.getInteger(CONF_TAG_NAME_DB_WRITER_MAX_BATCH, GroupCommitConfig.DEFAULT_MAX_BATCH),
+				conf.getLong(CONF_TAG_NAME_DB_WRITER_BATCH_WINDOW, GroupCommitConfig.DEFAULT_BATCH_WINDOW),
+				conf.getLong(CONF_TAG_NAME_DB_WRITER_OFFER_TIMEOUT, GroupCommitConfig.DEFAULT_OFFER_TIMEOUT));
+	}
+
+	/**
+	 * Read SQLite tuning from conf file. Missing properties take their default
+	 * values.
+	 * 
+	 * @param conf
+	 * @return null unless the database is SQLite and tuning is enabled
+	 * @throws PrefixNotANestedConfigException
+	 */
+	public static SQLiteTuning getSQLiteTuning(Config conf) throws PrefixNotANestedConfigException {
+		if (!conf.getValue(CONF_TAG_NAME_DB_TYPE).equals(DBType.SQLLITE.name())
+				|| !conf.getBoolean(CONF_TAG_NAME_DB_SQLITE_TUNED, false)) {
+			return null;
+		}
+		SQLiteTuning defaults = new SQLiteTuning();
+		return new SQLiteTuning(conf.getValue(CONF_TAG_NAME_DB_SQLITE_JOURNAL_MODE, defaults.getJournalMode()),
+				conf.getValue(CONF_TAG_NAME_DB_SQLITE_SYNCHRONOUS, defaults.getSynchronous()),
+				conf.getLong(CONF_TAG_NAME_DB_SQLITE_MMAP_SIZE, defaults.getMmapSize()),
+				conf.getInteger(CONF_TAG_NAME_DB_SQLITE_CACHE_SIZE, defaults.getCacheSize()),
+				conf.getInteger(CONF_TAG_NAME_DB_SQLITE_BUSY_TIMEOUT, defaults.getBusyTimeout()),
+				conf.getBoolean(CONF_TAG_NAME_DB_SQLITE_SINGLE_WRITER, defaults.isSingleWriter()));
+	}
+
+	/**
+	 * Read database information from conf file, an {@link EmbeddedDBInfo} for
+	 * the embedded registry store
+	 * 
+	 * @param conf
+	 * @return
+	 * @throws PrefixNotANestedConfigException
+	 */
 	public static DBInfo getDBInfo(Config conf) throws PrefixNotANestedConfigException {
+		if (conf.getValue(CONF_TAG_NAME_DB_TYPE).equals(DB_TYPE_EMBEDDED)) {
+			return new EmbeddedDBInfo(conf.getValue(CONF_TAG_NAME_DB_URL));
+		}
 		return new DBInfo(conf.getValue(CONF_TAG_NAME_DB_URL), conf.getValue(CONF_TAG_NAME_DB_DBNAME),
 				conf.getValue(CONF_TAG_NAME_DB_USER), conf.getValue(CONF_TAG_NAME_DB_PASS),
 				DBType.fromString(conf.getValue(CONF_TAG_NAME_DB_TYPE)));
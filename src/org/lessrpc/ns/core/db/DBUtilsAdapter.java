@@ -0,0 +1,161 @@
+package org.lessrpc.ns.core.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import org.lessrpc.common.db.DBUtils;
+import org.lessrpc.common.errors.ServiceProviderAlreadyExistsException;
+import org.lessrpc.common.info.ServiceInfo;
+import org.lessrpc.common.info.ServiceProviderInfo;
+import org.lessrpc.common.info.ServiceSupportInfo;
+import org.lessrpc.ns.core.info.BatchResult;
+import org.lessrpc.ns.core.info.ProvidersPage;
+import org.lessrpc.ns.core.info.RegistryChange;
+
+/**
+ *
+ * Lets a plain {@link DBUtils} be used where a {@link RegistryDBUtils} is
+ * required. Batches are applied item by item on the connection given, pages
+ * are slices of getAllProviders and the page token is the position of the
+ * next provider, so registrations made between two pages may shift them.
+ * There is no change log table.
+ *
+ */
+public class DBUtilsAdapter implements RegistryDBUtils {
+
+	private final DBUtils dbUtils;
+
+	public DBUtilsAdapter(DBUtils dbUtils) {
+		this.dbUtils = dbUtils;
+	}
+
+	/**
+	 *
+	 * @param dbUtils
+	 * @return dbUtils itself if it is a RegistryDBUtils already, otherwise an
+	 *         adapter of it
+	 */
+	public static RegistryDBUtils adapt(DBUtils dbUtils) {
+		return dbUtils instanceof RegistryDBUtils ? (RegistryDBUtils) dbUtils : new DBUtilsAdapter(dbUtils);
+	}
+
+	@Override
+	public boolean createServiceTable(Connection conn) {
+		return dbUtils.createServiceTable(conn);
+	}
+
+	@Override
+	public boolean createServiceProviderTable(Connection conn) {
+		return dbUtils.createServiceProviderTable(conn);
+	}
+
+	@Override
+	public boolean createServiceSupportTable(Connection conn) {
+		return dbUtils.createServiceSupportTable(conn);
+	}
+
+	@Override
+	public boolean cleanAllTables(Connection conn) {
+		return dbUtils.cleanAllTables(conn);
+	}
+
+	@Override
+	public ServiceSupportInfo[] getProviders(Connection conn, ServiceInfo<?> service) throws SQLException {
+		return dbUtils.getProviders(conn, service);
+	}
+
+	@Override
+	public ServiceSupportInfo[] getAllProviders(Connection conn) throws SQLException {
+		return dbUtils.getAllProviders(conn);
+	}
+
+	@Override
+	public ServiceInfo<?> getServiceInfo(Connection conn, String serviceName)
+			throws SQLException, ClassNotFoundException {
+		return dbUtils.getServiceInfo(conn, serviceName);
+	}
+
+	@Override
+	public ServiceInfo<?> getServiceInfo(Connection conn, int serviceId) throws SQLException, ClassNotFoundException {
+		return dbUtils.getServiceInfo(conn, serviceId);
+	}
+
+	@Override
+	public boolean register(Connection conn, ServiceSupportInfo support)
+			throws ServiceProviderAlreadyExistsException {
+		return dbUtils.register(conn, support);
+	}
+
+	@Override
+	public boolean unregister(Connection conn, ServiceInfo<?> service, ServiceProviderInfo provider) {
+		return dbUtils.unregister(conn, service, provider);
+	}
+
+	@Override
+	public boolean unregisterAll(Connection conn, ServiceProviderInfo provider) {
+		return dbUtils.unregisterAll(conn, provider);
+	}
+
+	@Override
+	public ProvidersPage getProvidersPage(Connection conn, long pageToken, int pageSize) throws SQLException {
+		ServiceSupportInfo[] all = dbUtils.getAllProviders(conn);
+		int from = (int) Math.min(Math.max(pageToken, 0), all.length);
+		int to = (int) Math.min((long) from + pageSize, all.length);
+		long next = to == all.length ? ProvidersPage.LAST_PAGE : to;
+		return new ProvidersPage(Arrays.copyOfRange(all, from, to), next);
+	}
+
+	@Override
+	public BatchResult registerBatch(Connection conn, ServiceSupportInfo[] supports) throws SQLException {
+		int[] statuses = new int[supports.length];
+		for (int i = 0; i < supports.length; i++) {
+			try {
+				statuses[i] = dbUtils.register(conn, supports[i]) ? BatchResult.OK : BatchResult.FAILED;
+			} catch (ServiceProviderAlreadyExistsException e) {
+				statuses[i] = BatchResult.ALREADY_EXISTS;
+			}
+		}
+		return new BatchResult(statuses);
+	}
+
+	@Override
+	public BatchResult unregisterBatch(Connection conn, ServiceSupportInfo[] supports) throws SQLException {
+		int[] statuses = new int[supports.length];
+		for (int i = 0; i < supports.length; i++) {
+			boolean flag = dbUtils.unregister(conn, supports[i].getService(), supports[i].getProvider());
+			statuses[i] = flag ? BatchResult.OK : BatchResult.FAILED;
+		}
+		return new BatchResult(statuses);
+	}
+
+	@Override
+	public boolean createChangeLogTable(Connection conn) {
+		return false;
+	}
+
+	@Override
+	public void appendChanges(Connection conn, RegistryChange[] changes) throws SQLException {
+		throw new SQLException("Change log table is not supported by " + dbUtils.getClass().getName());
+	}
+
+	@Override
+	public RegistryChange[] getChangesSince(Connection conn, long revision, long upTo, int limit)
+			throws SQLException {
+		throw new SQLException("Change log table is not supported by " + dbUtils.getClass().getName());
+	}
+
+	@Override
+	public int pruneChanges(Connection conn, long revision) throws SQLException {
+		throw new SQLException("Change log table is not supported by " + dbUtils.getClass().getName());
+	}
+
+	/**
+	 *
+	 * @return the adapted DBUtils
+	 */
+	public DBUtils getDBUtils() {
+		return dbUtils;
+	}
+
+}
@@ -0,0 +1,24 @@
+package org.lessrpc.ns.core.db;
+
+import org.lessrpc.common.db.DBInfo;
+
+/**
+ *
+ * Database information of an {@link EmbeddedRegistryStore}, used when DB_TYPE
+ * is EMBEDDED. DBType has no value for the embedded store so the type is
+ * null; {@link DBFactory#isEmbedded(DBInfo)} tells it by this class instead.
+ * The url is the path of the log file, the store has no user or connections.
+ *
+ */
+public class EmbeddedDBInfo extends DBInfo {
+
+	/**
+	 *
+	 * @param path
+	 *            path of the log file of the store
+	 */
+	public EmbeddedDBInfo(String path) {
+		super(path, "", "", "", null);
+	}
+
+}
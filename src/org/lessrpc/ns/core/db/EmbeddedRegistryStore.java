@@ -0,0 +1,848 @@
+package org.lessrpc.ns.core.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.lessrpc.common.errors.ServiceProviderAlreadyExistsException;
+import org.lessrpc.common.info.EnvironmentInfo;
+import org.lessrpc.common.info.SerializationFormat;
+import org.lessrpc.common.info.ServiceInfo;
+import org.lessrpc.common.info.ServiceProviderInfo;
+import org.lessrpc.common.info.ServiceSupportInfo;
+import org.lessrpc.ns.core.info.BatchResult;
+import org.lessrpc.ns.core.info.ProvidersPage;
+import org.lessrpc.ns.core.info.RegistryChange;
+
+/**
+ *
+ * Registry kept in memory and persisted in a {@link RegistryLog}, used instead
+ * of a SQL database when DB_TYPE is EMBEDDED. There are no connections: the
+ * connection argument of every operation is ignored and may be null.
+ *
+ * Lookups are served from an index keyed by the primitive service id and never
+ * touch the file. Every mutation is appended to the log, and flushed to the
+ * disk before returning when sync is on. When at least half of the records in
+ * the log are dead the log is compacted by a background thread.
+ *
+ * Semantics follow {@link SQLBasedUtils}: a provider is registered at most once
+ * per service (same url and port), the first name seen for a service id is
+ * kept, and providers are numbered in registration order for paging. The
+ * change log table is not supported.
+ *
+ */
+public class EmbeddedRegistryStore implements RegistryDBUtils {
+
+	/**
+	 * default time between compaction checks (ms)
+	 */
+	public static final long DEFAULT_COMPACT_INTERVAL = 60000;
+
+	/**
+	 * default size in bytes below which the log is never compacted
+	 */
+	public static final int DEFAULT_COMPACT_MIN_SIZE = 1024 * 1024;
+
+	private static final byte TYPE_REGISTER = 1;
+	private static final byte TYPE_UNREGISTER = 2;
+	private static final byte TYPE_CLEAR = 3;
+
+	private static final ServiceSupportInfo[] EMPTY = new ServiceSupportInfo[0];
+
+	/**
+	 * a registered provider of a service
+	 */
+	private static class Entry {
+		private final long id;
+		private final ServiceSupportInfo support;
+
+		private Entry(long id, ServiceSupportInfo support) {
+			this.id = id;
+			this.support = support;
+		}
+	}
+
+	private final File file;
+
+	private final boolean sync;
+
+	private final long compactInterval;
+
+	private final int compactMinSize;
+
+	/**
+	 * null while closed
+	 */
+	private RegistryLog log;
+
+	private ScheduledExecutorService compactor;
+
+	/**
+	 * guards the index and the log. Compaction only reads the index, so it
+	 * holds the read lock.
+	 */
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	 * service id to providers of the service in registration order. Arrays
+	 * are never modified once published, writers replace them instead.
+	 */
+	private final IntMap<ServiceSupportInfo[]> providers = new IntMap<ServiceSupportInfo[]>();
+
+	private final IntMap<ServiceInfo<?>> servicesById = new IntMap<ServiceInfo<?>>();
+	private final Map<String, ServiceInfo<?>> servicesByName = new HashMap<String, ServiceInfo<?>>();
+
+	/**
+	 * entries by id, for paging and the global registration order
+	 */
+	private final TreeMap<Long, Entry> entries = new TreeMap<Long, Entry>();
+
+	/**
+	 * entries by service id and endpoint
+	 */
+	private final Map<String, Entry> entriesByKey = new HashMap<String, Entry>();
+
+	/**
+	 * entries by endpoint
+	 */
+	private final Map<String, List<Entry>> entriesByEndpoint = new HashMap<String, List<Entry>>();
+
+	/**
+	 * canonical environments, formats and supports of the indexed providers
+	 */
+	private final InfoInterner interner = new InfoInterner();
+
+	private long lastId = 0;
+
+	/**
+	 * records in the log that are not live anymore
+	 */
+	private int deadRecords = 0;
+
+	/**
+	 * Opens the store, replaying the log if the file exists
+	 *
+	 * @param file
+	 * @param sync
+	 *            if true, every mutation is flushed to the disk before
+	 *            returning
+	 * @param compactInterval
+	 *            time between compaction checks (ms), 0 to only compact on
+	 *            {@link #compact()}
+	 * @param compactMinSize
+	 *            size in bytes below which the log is not compacted
+	 * @throws SQLException
+	 *             if the log can not be read
+	 */
+	public EmbeddedRegistryStore(File file, boolean sync, long compactInterval, int compactMinSize)
+			throws SQLException {
+		this.file = file;
+		this.sync = sync;
+		this.compactInterval = compactInterval;
+		this.compactMinSize = compactMinSize;
+		open();
+	}
+
+	/**
+	 * Opens the store if it is closed
+	 *
+	 * @throws SQLException
+	 *             if the log can not be read
+	 */
+	public void open() throws SQLException {
+		lock.writeLock().lock();
+		try {
+			if (log != null) {
+				return;
+			}
+			clearIndex();
+			deadRecords = 0;
+			try {
+				log = new RegistryLog(file, this::replay);
+			} catch (IOException e) {
+				throw new SQLException("Failed to open registry log " + file, e);
+			}
+			System.out.println("Loaded " + entries.size() + " provider(s) from " + file + "....");
+		} finally {
+			lock.writeLock().unlock();
+		}
+		if (compactInterval > 0) {
+			compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "lessrpc-ns-store-compact");
+				t.setDaemon(true);
+				return t;
+			});
+			compactor.scheduleWithFixedDelay(this::compactIfNeeded, compactInterval, compactInterval,
+					TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Stops compaction and closes the log. Operations fail until the store is
+	 * opened again.
+	 */
+	public void close() {
+		if (compactor != null) {
+			compactor.shutdownNow();
+			compactor = null;
+		}
+		lock.writeLock().lock();
+		try {
+			if (log != null) {
+				log.force();
+				log.close();
+				log = null;
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public boolean isOpen() {
+		lock.readLock().lock();
+		try {
+			return log != null;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Rewrites the log with the live providers only
+	 *
+	 * @throws SQLException
+	 */
+	public synchronized void compact() throws SQLException {
+		lock.readLock().lock();
+		try {
+			checkOpen();
+			int count = entries.size() + 1;
+			byte[] types = new byte[count];
+			ByteBuffer[] payloads = new ByteBuffer[count];
+			// keeps ids growing after the entries with the highest ids are
+			// gone
+			types[0] = TYPE_CLEAR;
+			payloads[0] = encodeClear(lastId);
+			int i = 1;
+			for (Entry entry : entries.values()) {
+				types[i] = TYPE_REGISTER;
+				payloads[i] = encodeRegister(entry.id, entry.support);
+				i++;
+			}
+			int before = log.size();
+			log.rewrite(types, payloads, count);
+			// writers are blocked by the read lock, other compactions by the
+			// monitor
+			deadRecords = 0;
+			System.out.println("Compacted registry log " + file + " from " + before + " to " + log.size()
+					+ " bytes....");
+		} catch (IOException e) {
+			throw new SQLException("Failed to compact registry log " + file, e);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 *
+	 * @return size of the log in bytes
+	 */
+	public int getLogSize() {
+		lock.readLock().lock();
+		try {
+			return log == null ? 0 : log.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public boolean createServiceTable(Connection conn) {
+		return true;
+	}
+
+	@Override
+	public boolean createServiceProviderTable(Connection conn) {
+		return true;
+	}
+
+	@Override
+	public boolean createServiceSupportTable(Connection conn) {
+		return true;
+	}
+
+	@Override
+	public boolean cleanAllTables(Connection conn) {
+		lock.writeLock().lock();
+		try {
+			checkOpen();
+			log.append(TYPE_CLEAR, encodeClear(lastId));
+			flush();
+			deadRecords += entries.size();
+			clearIndex();
+			return true;
+		} catch (SQLException | IOException e) {
+			e.printStackTrace();
+			return false;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public ServiceSupportInfo[] getProviders(Connection conn, ServiceInfo<?> service) throws SQLException {
+		lock.readLock().lock();
+		try {
+			checkOpen();
+			ServiceSupportInfo[] supports = providers.get(service.getId());
+			// published arrays are never modified, callers share them
+			return supports == null ? EMPTY : supports;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public ServiceSupportInfo[] getAllProviders(Connection conn) throws SQLException {
+		lock.readLock().lock();
+		try {
+			checkOpen();
+			ServiceSupportInfo[] out = new ServiceSupportInfo[entries.size()];
+			int i = 0;
+			for (Entry entry : entries.values()) {
+				out[i++] = entry.support;
+			}
+			return out;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public ProvidersPage getProvidersPage(Connection conn, long pageToken, int pageSize) throws SQLException {
+		lock.readLock().lock();
+		try {
+			checkOpen();
+			List<ServiceSupportInfo> out = new ArrayList<ServiceSupportInfo>(pageSize);
+			long last = -1;
+			for (Entry entry : entries.tailMap(pageToken, false).values()) {
+				if (out.size() == pageSize) {
+					break;
+				}
+				out.add(entry.support);
+				last = entry.id;
+			}
+			long next = out.size() < pageSize ? ProvidersPage.LAST_PAGE : last;
+			return new ProvidersPage(out.toArray(EMPTY), next);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public ServiceInfo<?> getServiceInfo(Connection conn, String serviceName) throws SQLException {
+		lock.readLock().lock();
+		try {
+			checkOpen();
+			return servicesByName.get(serviceName);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public ServiceInfo<?> getServiceInfo(Connection conn, int serviceId) throws SQLException {
+		lock.readLock().lock();
+		try {
+			checkOpen();
+			return servicesById.get(serviceId);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public boolean register(Connection conn, ServiceSupportInfo support) throws ServiceProviderAlreadyExistsException {
+		lock.writeLock().lock();
+		try {
+			checkOpen();
+			doRegister(support);
+			flush();
+			return true;
+		} catch (SQLException | IOException e) {
+			e.printStackTrace();
+			return false;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public boolean unregister(Connection conn, ServiceInfo<?> service, ServiceProviderInfo provider) {
+		lock.writeLock().lock();
+		try {
+			checkOpen();
+			doUnregister(key(service.getId(), provider));
+			flush();
+			return true;
+		} catch (SQLException | IOException e) {
+			e.printStackTrace();
+			return false;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public boolean unregisterAll(Connection conn, ServiceProviderInfo provider) {
+		lock.writeLock().lock();
+		try {
+			checkOpen();
+			List<Entry> list = entriesByEndpoint.get(endpoint(provider));
+			if (list != null) {
+				for (Entry entry : list.toArray(new Entry[list.size()])) {
+					doUnregister(key(entry.support.getService().getId(), provider));
+				}
+			}
+			flush();
+			return true;
+		} catch (SQLException | IOException e) {
+			e.printStackTrace();
+			return false;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Items are appended one by one and flushed together
+	 */
+	@Override
+	public BatchResult registerBatch(Connection conn, ServiceSupportInfo[] supports) throws SQLException {
+		int[] statuses = new int[supports.length];
+		lock.writeLock().lock();
+		try {
+			checkOpen();
+			for (int i = 0; i < supports.length; i++) {
+				try {
+					doRegister(supports[i]);
+					statuses[i] = BatchResult.OK;
+				} catch (ServiceProviderAlreadyExistsException e) {
+					statuses[i] = BatchResult.ALREADY_EXISTS;
+				} catch (IOException e) {
+					e.printStackTrace();
+					statuses[i] = BatchResult.FAILED;
+				}
+			}
+			flush();
+		} finally {
+			lock.writeLock().unlock();
+		}
+		return new BatchResult(statuses);
+	}
+
+	@Override
+	public BatchResult unregisterBatch(Connection conn, ServiceSupportInfo[] supports) throws SQLException {
+		int[] statuses = new int[supports.length];
+		lock.writeLock().lock();
+		try {
+			checkOpen();
+			for (int i = 0; i < supports.length; i++) {
+				try {
+					doUnregister(key(supports[i].getService().getId(), supports[i].getProvider()));
+					statuses[i] = BatchResult.OK;
+				} catch (IOException e) {
+					e.printStackTrace();
+					statuses[i] = BatchResult.FAILED;
+				}
+			}
+			flush();
+		} finally {
+			lock.writeLock().unlock();
+		}
+		return new BatchResult(statuses);
+	}
+
+	@Override
+	public boolean createChangeLogTable(Connection conn) {
+		return false;
+	}
+
+	@Override
+	public void appendChanges(Connection conn, RegistryChange[] changes) throws SQLException {
+		throw new SQLException("Change log table is not supported by the embedded store");
+	}
+
+	@Override
+	public RegistryChange[] getChangesSince(Connection conn, long revision, long upTo, int limit)
+			throws SQLException {
+		throw new SQLException("Change log table is not supported by the embedded store");
+	}
+
+	@Override
+	public int pruneChanges(Connection conn, long revision) throws SQLException {
+		throw new SQLException("Change log table is not supported by the embedded store");
+	}
+
+	/**
+	 * appends and indexes a registration. Must hold the write lock.
+	 */
+	private void doRegister(ServiceSupportInfo support) throws ServiceProviderAlreadyExistsException, IOException {
+		if (entriesByKey.containsKey(key(support.getService().getId(), support.getProvider()))) {
+			throw new ServiceProviderAlreadyExistsException(support.getProvider());
+		}
+		long id = lastId + 1;
+		log.append(TYPE_REGISTER, encodeRegister(id, support));
+		index(id, support);
+	}
+
+	/**
+	 * appends and applies an unregistration if the provider is registered.
+	 * Must hold the write lock.
+	 */
+	private void doUnregister(String key) throws IOException {
+		Entry entry = entriesByKey.get(key);
+		if (entry == null) {
+			return;
+		}
+		ByteBuffer payload = ByteBuffer.allocate(8);
+		payload.putLong(0, entry.id);
+		log.append(TYPE_UNREGISTER, payload);
+		deindex(entry);
+		// the register and the unregister record
+		deadRecords += 2;
+	}
+
+	private void index(long id, ServiceSupportInfo registered) {
+		ServiceInfo<?> service = registered.getService();
+		if (!servicesById.containsKey(service.getId())) {
+			servicesById.put(service.getId(), service);
+			servicesByName.putIfAbsent(service.getName(), service);
+		}
+		// services are shared by all providers of the same id
+		ServiceSupportInfo support = intern(servicesById.get(service.getId()), registered);
+
+		Entry entry = new Entry(id, support);
+		entries.put(id, entry);
+		entriesByKey.put(key(service.getId(), support.getProvider()), entry);
+		List<Entry> list = entriesByEndpoint.get(endpoint(support.getProvider()));
+		if (list == null) {
+			list = new ArrayList<Entry>(2);
+			entriesByEndpoint.put(endpoint(support.getProvider()), list);
+		}
+		list.add(entry);
+
+		ServiceSupportInfo[] current = providers.get(service.getId());
+		if (current == null) {
+			current = EMPTY;
+		}
+		ServiceSupportInfo[] updated = Arrays.copyOf(current, current.length + 1);
+		updated[current.length] = support;
+		providers.put(service.getId(), updated);
+		lastId = Math.max(lastId, id);
+	}
+
+	/**
+	 * canonical copy of a registration sharing environments and formats with
+	 * the other providers
+	 */
+	private ServiceSupportInfo intern(ServiceInfo<?> service, ServiceSupportInfo support) {
+		ServiceProviderInfo provider = support.getProvider();
+		EnvironmentInfo env = provider.getEnv();
+		List<SerializationFormat> formats = new ArrayList<SerializationFormat>(support.getSerializers().length);
+		for (SerializationFormat format : support.getSerializers()) {
+			formats.add(interner.format(format.getName(), format.getVersion()));
+		}
+		return interner.support(service, interner.provider(provider.getURL(), provider.getPort(),
+				interner.environment(env.getLang(), env.getOS(), env.getCompiler())), interner.formats(formats));
+	}
+
+	private void deindex(Entry entry) {
+		ServiceSupportInfo support = entry.support;
+		int serviceId = support.getService().getId();
+		entries.remove(entry.id);
+		entriesByKey.remove(key(serviceId, support.getProvider()));
+		List<Entry> list = entriesByEndpoint.get(endpoint(support.getProvider()));
+		list.remove(entry);
+		if (list.isEmpty()) {
+			entriesByEndpoint.remove(endpoint(support.getProvider()));
+		}
+
+		ServiceSupportInfo[] current = providers.get(serviceId);
+		if (current.length == 1) {
+			// the service itself stays known, as in the SERVICE table
+			providers.remove(serviceId);
+			return;
+		}
+		ServiceSupportInfo[] updated = new ServiceSupportInfo[current.length - 1];
+		int i = 0;
+		for (ServiceSupportInfo s : current) {
+			if (s != support) {
+				updated[i++] = s;
+			}
+		}
+		providers.put(serviceId, updated);
+	}
+
+	private void clearIndex() {
+		providers.clear();
+		entries.clear();
+		entriesByKey.clear();
+		entriesByEndpoint.clear();
+		servicesById.clear();
+		servicesByName.clear();
+	}
+
+	/**
+	 * applies a record of the log while it is opened
+	 */
+	private void replay(byte type, ByteBuffer payload) throws IOException {
+		switch (type) {
+		case TYPE_REGISTER:
+			long id = payload.getLong();
+			index(id, decodeSupport(payload));
+			break;
+		case TYPE_UNREGISTER:
+			Entry entry = entries.get(payload.getLong());
+			if (entry != null) {
+				deindex(entry);
+			}
+			deadRecords += 2;
+			break;
+		case TYPE_CLEAR:
+			deadRecords += entries.size() + 1;
+			clearIndex();
+			lastId = Math.max(lastId, payload.getLong());
+			break;
+		default:
+			throw new IOException("Unknown record type " + type);
+		}
+	}
+
+	private void compactIfNeeded() {
+		try {
+			boolean needed;
+			lock.readLock().lock();
+			try {
+				needed = log != null && log.size() >= compactMinSize && deadRecords >= entries.size();
+			} finally {
+				lock.readLock().unlock();
+			}
+			if (needed) {
+				compact();
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void flush() {
+		if (sync) {
+			log.force();
+		}
+	}
+
+	private void checkOpen() throws SQLException {
+		if (log == null) {
+			throw new SQLException("Embedded registry store " + file + " is closed");
+		}
+	}
+
+	private static ByteBuffer encodeClear(long lastId) {
+		ByteBuffer payload = ByteBuffer.allocate(8);
+		payload.putLong(0, lastId);
+		return payload;
+	}
+
+	private static ByteBuffer encodeRegister(long id, ServiceSupportInfo support) {
+		ServiceInfo<?> service = support.getService();
+		ServiceProviderInfo provider = support.getProvider();
+		EnvironmentInfo env = provider.getEnv();
+		SerializationFormat[] formats = support.getSerializers();
+		byte[][] strings = new byte[6 + 2 * formats.length][];
+		strings[0] = bytes(service.getName());
+		strings[1] = bytes(provider.getURL());
+		strings[2] = bytes(env.getOS());
+		strings[3] = bytes(env.getLang());
+		strings[4] = bytes(env.getCompiler());
+		for (int i = 0; i < formats.length; i++) {
+			strings[5 + 2 * i] = bytes(formats[i].getName());
+			strings[6 + 2 * i] = bytes(formats[i].getVersion());
+		}
+		int size = 8 + 4 + 4 + 4;
+		for (int i = 0; i < 5 + 2 * formats.length; i++) {
+			size += 4 + (strings[i] == null ? 0 : strings[i].length);
+		}
+
+		ByteBuffer payload = ByteBuffer.allocate(size);
+		payload.putLong(id);
+		payload.putInt(service.getId());
+		putString(payload, strings[0]);
+		putString(payload, strings[1]);
+		payload.putInt(provider.getPort());
+		putString(payload, strings[2]);
+		putString(payload, strings[3]);
+		putString(payload, strings[4]);
+		payload.putInt(formats.length);
+		for (int i = 0; i < 2 * formats.length; i++) {
+			putString(payload, strings[5 + i]);
+		}
+		payload.flip();
+		return payload;
+	}
+
+	private static ServiceSupportInfo decodeSupport(ByteBuffer payload) {
+		int serviceId = payload.getInt();
+		ServiceInfo<?> service = new ServiceInfo<>(getString(payload), serviceId);
+		String url = getString(payload);
+		int port = payload.getInt();
+		String os = getString(payload);
+		String lang = getString(payload);
+		String compiler = getString(payload);
+		SerializationFormat[] formats = new SerializationFormat[payload.getInt()];
+		for (int i = 0; i < formats.length; i++) {
+			formats[i] = new SerializationFormat(getString(payload), getString(payload));
+		}
+		ServiceProviderInfo provider = new ServiceProviderInfo(url, port, new EnvironmentInfo(lang, os, compiler));
+		return new ServiceSupportInfo(service, provider, formats);
+	}
+
+	private static byte[] bytes(String s) {
+		return s == null ? null : s.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static void putString(ByteBuffer buffer, byte[] bytes) {
+		if (bytes == null) {
+			buffer.putInt(-1);
+		} else {
+			buffer.putInt(bytes.length);
+			buffer.put(bytes);
+		}
+	}
+
+	private static String getString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static String key(int serviceId, ServiceProviderInfo provider) {
+		return serviceId + "@" + endpoint(provider);
+	}
+
+	private static String endpoint(ServiceProviderInfo provider) {
+		return provider.getURL() + ":" + provider.getPort();
+	}
+
+	/**
+	 * Open addressing hash map with int keys, avoiding boxed keys on lookups.
+	 * Not thread safe.
+	 */
+	private static class IntMap<V> {
+
+		private int[] keys = new int[16];
+		private Object[] values = new Object[16];
+		private boolean[] used = new boolean[16];
+		private int size = 0;
+
+		@SuppressWarnings("unchecked")
+		V get(int key) {
+			int i = find(key);
+			return used[i] ? (V) values[i] : null;
+		}
+
+		boolean containsKey(int key) {
+			return used[find(key)];
+		}
+
+		void put(int key, V value) {
+			int i = find(key);
+			if (!used[i]) {
+				if (2 * (size + 1) > keys.length) {
+					resize();
+					i = find(key);
+				}
+				used[i] = true;
+				keys[i] = key;
+				size++;
+			}
+			values[i] = value;
+		}
+
+		void remove(int key) {
+			int i = find(key);
+			if (!used[i]) {
+				return;
+			}
+			used[i] = false;
+			values[i] = null;
+			size--;
+			// re-inserting the rest of the cluster so lookups don't stop at
+			// the hole
+			int mask = keys.length - 1;
+			for (int j = (i + 1) & mask; used[j]; j = (j + 1) & mask) {
+				int k = keys[j];
+				Object v = values[j];
+				used[j] = false;
+				values[j] = null;
+				int t = find(k);
+				used[t] = true;
+				keys[t] = k;
+				values[t] = v;
+			}
+		}
+
+		void clear() {
+			Arrays.fill(used, false);
+			Arrays.fill(values, null);
+			size = 0;
+		}
+
+		private int find(int key) {
+			int mask = keys.length - 1;
+			int h = key * 0x9E3779B9;
+			int i = (h ^ (h >>> 16)) & mask;
+			while (used[i] && keys[i] != key) {
+				i = (i + 1) & mask;
+			}
+			return i;
+		}
+
+		private void resize() {
+			int[] oldKeys = keys;
+			Object[] oldValues = values;
+			boolean[] oldUsed = used;
+			keys = new int[oldKeys.length * 2];
+			values = new Object[oldKeys.length * 2];
+			used = new boolean[oldKeys.length * 2];
+			for (int j = 0; j < oldKeys.length; j++) {
+				if (oldUsed[j]) {
+					int t = find(oldKeys[j]);
+					used[t] = true;
+					keys[t] = oldKeys[j];
+					values[t] = oldValues[j];
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,68 @@
+package org.lessrpc.ns.core.db;
+
+/**
+ *
+ * Settings of a {@link GroupCommitWriter}. All durations are in milliseconds.
+ *
+ */
+public class GroupCommitConfig {
+
+	public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+	public static final int DEFAULT_MAX_BATCH = 256;
+	public static final long DEFAULT_BATCH_WINDOW = 2;
+	public static final long DEFAULT_OFFER_TIMEOUT = 1000;
+
+	/**
+	 * number of writes that may wait for the writer
+	 */
+	private final int queueCapacity;
+
+	/**
+	 * upper bound of writes committed together
+	 */
+	private final int maxBatch;
+
+	/**
+	 * how long the writer waits for more writes after the first one of a
+	 * batch, 0 to commit whatever is queued right away
+	 */
+	private final long batchWindow;
+
+	/**
+	 * how long a caller waits for room in a full queue before its write is
+	 * rejected
+	 */
+	private final long offerTimeout;
+
+	public GroupCommitConfig() {
+		this(DEFAULT_QUEUE_CAPACITY, DEFAULT_MAX_BATCH, DEFAULT_BATCH_WINDOW, DEFAULT_OFFER_TIMEOUT);
+	}
+
+	public GroupCommitConfig(int queueCapacity, int maxBatch, long batchWindow, long offerTimeout) {
+		if (queueCapacity < 1 || maxBatch < 1 || batchWindow < 0 || offerTimeout < 0) {
+			throw new IllegalArgumentException("Invalid group commit configuration: queueCapacity=" + queueCapacity
+					+ ", maxBatch=" + maxBatch + ", batchWindow=" + batchWindow + ", offerTimeout=" + offerTimeout);
+		}
+		this.queueCapacity = queueCapacity;
+		this.maxBatch = maxBatch;
+		this.batchWindow = batchWindow;
+		this.offerTimeout = offerTimeout;
+	}
+
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	public int getMaxBatch() {
+		return maxBatch;
+	}
+
+	public long getBatchWindow() {
+		return batchWindow;
+	}
+
+	public long getOfferTimeout() {
+		return offerTimeout;
+	}
+
+}
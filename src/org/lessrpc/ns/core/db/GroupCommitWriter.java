@@ -0,0 +1,406 @@
+package org.lessrpc.ns.core.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+import org.lessrpc.common.db.DBInfo;
+import org.lessrpc.common.errors.DatabaseNotSupported;
+
+/**
+ *
+ * Single thread owning the only write connection of a database. Writes are
+ * queued by any thread; the writer collects up to max batch writes, waiting at
+ * most the batch window after the first one, and applies them in one
+ * transaction, so concurrent mutations share one commit (and one fsync). Each
+ * write runs within its own savepoint, a failing write is rolled back without
+ * affecting the others of its transaction.
+ *
+ * The queue is bounded: when it is full callers wait up to the offer timeout
+ * and their write is then rejected, which pushes back on registering providers
+ * instead of letting a backlog build up.
+ *
+ */
+public class GroupCommitWriter {
+
+	/**
+	 * A write applied on the writer connection
+	 */
+	@FunctionalInterface
+	public interface WriteTask<T> {
+
+		/**
+		 *
+		 * @param conn
+		 *            in a transaction, must not be committed or closed
+		 * @return
+		 * @throws SQLException
+		 */
+		public T run(Connection conn) throws SQLException;
+	}
+
+	private final DBInfo dbInfo;
+
+	private final GroupCommitConfig config;
+
+	private final LinkedBlockingQueue<Write<?>> queue;
+
+	private final Stats stats = new Stats();
+
+	private final Thread thread;
+
+	/**
+	 * only used by the writer thread
+	 */
+	private Connection conn;
+
+	private volatile boolean closed = false;
+
+	/**
+	 * Opens the write connection and starts the writer thread
+	 *
+	 * @param dbInfo
+	 * @param config
+	 * @throws ClassNotFoundException
+	 * @throws SQLException
+	 * @throws DatabaseNotSupported
+	 */
+	public GroupCommitWriter(DBInfo dbInfo, GroupCommitConfig config)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		this.dbInfo = dbInfo;
+		this.config = config;
+		this.queue = new LinkedBlockingQueue<Write<?>>(config.getQueueCapacity());
+		this.conn = DBFactory.openWriteConnection(dbInfo);
+		this.thread = new Thread(this::loop, "lessrpc-ns-db-writer");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/**
+	 * Queues a write
+	 *
+	 * @param task
+	 * @param keep
+	 *            tells from the result of the task whether it succeeded; if
+	 *            not, whatever it wrote is rolled back
+	 * @return completed with the result of the task once its transaction
+	 *         committed, or exceptionally if the queue stayed full for the
+	 *         offer timeout
+	 */
+	public <T> CompletableFuture<T> submit(WriteTask<T> task, Predicate<? super T> keep) {
+		Write<T> write = new Write<T>(task, keep);
+		if (closed) {
+			write.future.completeExceptionally(closedException());
+			return write.future;
+		}
+		try {
+			if (!queue.offer(write, config.getOfferTimeout(), TimeUnit.MILLISECONDS)) {
+				stats.rejected.increment();
+				write.future.completeExceptionally(new SQLException("Write queue of " + dbInfo.getDbUrl()
+						+ " is full (" + config.getQueueCapacity() + " writes)"));
+				return write.future;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			write.future.completeExceptionally(new SQLException("Interrupted while queuing a write", e));
+			return write.future;
+		}
+		// closed while queuing, the writer may already be gone
+		if (closed && queue.remove(write)) {
+			write.future.completeExceptionally(closedException());
+		}
+		return write.future;
+	}
+
+	/**
+	 * Queues a write and waits for its transaction to commit
+	 *
+	 * @param task
+	 * @param keep
+	 * @return result of the task
+	 * @throws SQLException
+	 *             if the task or the commit failed
+	 */
+	public <T> T write(WriteTask<T> task, Predicate<? super T> keep) throws SQLException {
+		try {
+			return submit(task, keep).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a write to commit", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof SQLException) {
+				throw (SQLException) e.getCause();
+			} else if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new SQLException(e.getCause());
+		}
+	}
+
+	/**
+	 * Stops accepting writes. Writes already queued are still applied before
+	 * the connection is closed.
+	 */
+	public void close() {
+		closed = true;
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 *
+	 * @return number of writes waiting for the writer
+	 */
+	public int getQueueSize() {
+		return queue.size();
+	}
+
+	public Stats getStats() {
+		return stats;
+	}
+
+	public GroupCommitConfig getConfig() {
+		return config;
+	}
+
+	private void loop() {
+		int maxBatch = config.getMaxBatch();
+		List<Write<?>> batch = new ArrayList<Write<?>>(maxBatch);
+		try {
+			while (!closed || !queue.isEmpty()) {
+				Write<?> first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+				queue.drainTo(batch, maxBatch - 1);
+				// waiting for more writes to share the commit
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.getBatchWindow());
+				long remaining;
+				while (batch.size() < maxBatch && !closed && (remaining = deadline - System.nanoTime()) > 0) {
+					Write<?> next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+					if (next == null) {
+						break;
+					}
+					batch.add(next);
+					queue.drainTo(batch, maxBatch - batch.size());
+				}
+				apply(batch);
+				batch.clear();
+			}
+		} catch (InterruptedException e) {
+			// writes left in the queue are failed below
+		}
+		Write<?> write;
+		while ((write = queue.poll()) != null) {
+			write.future.completeExceptionally(closedException());
+		}
+		try {
+			conn.close();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * applies the writes in one transaction and completes them
+	 */
+	private void apply(List<Write<?>> batch) {
+		long start = System.nanoTime();
+		try {
+			if (conn.isClosed()) {
+				conn = DBFactory.openWriteConnection(dbInfo);
+			}
+			conn.setAutoCommit(false);
+			for (Write<?> write : batch) {
+				Savepoint savepoint = conn.setSavepoint();
+				try {
+					if (write.run(conn)) {
+						conn.releaseSavepoint(savepoint);
+					} else {
+						conn.rollback(savepoint);
+					}
+				} catch (SQLException | RuntimeException e) {
+					write.error = e;
+					conn.rollback(savepoint);
+				}
+			}
+			conn.commit();
+			conn.setAutoCommit(true);
+		} catch (Exception e) {
+			try {
+				conn.rollback();
+				conn.setAutoCommit(true);
+			} catch (SQLException e1) {
+				// reopened on the next batch
+				closeQuietly();
+			}
+			stats.failedBatches.increment();
+			for (Write<?> write : batch) {
+				write.future.completeExceptionally(e);
+			}
+			return;
+		}
+		stats.record(batch.size(), (System.nanoTime() - start) / 1000);
+		for (Write<?> write : batch) {
+			write.complete();
+		}
+	}
+
+	private SQLException closedException() {
+		return new SQLException("Writer for " + dbInfo.getDbUrl() + " is closed");
+	}
+
+	private void closeQuietly() {
+		try {
+			conn.close();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * 
+	 * Batch size and commit latency counters of a writer. Latencies are in
+	 * microseconds and include running the writes of the batch.
+	 *
+	 */
+	public static class Stats {
+
+		private final LongAdder batches = new LongAdder();
+
+		private final LongAdder writes = new LongAdder();
+
+		private final LongAdder commitTime = new LongAdder();
+
+		private final LongAccumulator maxBatchSize = new LongAccumulator(Math::max, 0);
+
+		private final LongAccumulator maxCommitTime = new LongAccumulator(Math::max, 0);
+
+		private final LongAdder failedBatches = new LongAdder();
+
+		private final LongAdder rejected = new LongAdder();
+
+		private void record(int batchSize, long micros) {
+			batches.increment();
+			writes.add(batchSize);
+			commitTime.add(micros);
+			maxBatchSize.accumulate(batchSize);
+			maxCommitTime.accumulate(micros);
+		}
+
+		/**
+		 * 
+		 * @return number of committed batches
+		 */
+		public long getBatches() {
+			return batches.sum();
+		}
+
+		/**
+		 * 
+		 * @return number of writes in committed batches
+		 */
+		public long getWrites() {
+			return writes.sum();
+		}
+
+		public double getAverageBatchSize() {
+			long count = batches.sum();
+			return count == 0 ? 0 : (double) writes.sum() / count;
+		}
+
+		public long getMaxBatchSize() {
+			return maxBatchSize.get();
+		}
+
+		public double getAverageCommitTime() {
+			long count = batches.sum();
+			return count == 0 ? 0 : (double) commitTime.sum() / count;
+		}
+
+		public long getMaxCommitTime() {
+			return maxCommitTime.get();
+		}
+
+		/**
+		 * 
+		 * @return number of batches whose transaction failed
+		 */
+		public long getFailedBatches() {
+			return failedBatches.sum();
+		}
+
+		/**
+		 * 
+		 * @return number of writes rejected because the queue was full
+		 */
+		public long getRejected() {
+			return rejected.sum();
+		}
+
+		@Override
+		public String toString() {
+			return "batches=" + getBatches() + ", writes=" + getWrites() + ", avgBatchSize=" + getAverageBatchSize()
+					+ ", maxBatchSize=" + getMaxBatchSize() + ", avgCommitTime(us)=" + getAverageCommitTime()
+					+ ", maxCommitTime(us)=" + getMaxCommitTime() + ", failedBatches=" + getFailedBatches()
+					+ ", rejected=" + getRejected();
+		}
+
+	}
+
+	/**
+	 * A queued write and its outcome
+	 */
+	private static class Write<T> {
+
+		private final WriteTask<T> task;
+
+		private final Predicate<? super T> keep;
+
+		private final CompletableFuture<T> future = new CompletableFuture<T>();
+
+		private T result;
+
+		private Exception error;
+
+		private Write(WriteTask<T> task, Predicate<? super T> keep) {
+			this.task = task;
+			this.keep = keep;
+		}
+
+		/**
+		 *
+		 * @return true if the changes of the write are kept
+		 */
+		private boolean run(Connection conn) throws SQLException {
+			result = task.run(conn);
+			return keep.test(result);
+		}
+
+		private void complete() {
+			if (error != null) {
+				future.completeExceptionally(error);
+			} else {
+				future.complete(result);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,315 @@
+package org.lessrpc.ns.core.db;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.lessrpc.common.info.EnvironmentInfo;
+import org.lessrpc.common.info.SerializationFormat;
+import org.lessrpc.common.info.ServiceInfo;
+import org.lessrpc.common.info.ServiceProviderInfo;
+import org.lessrpc.common.info.ServiceSupportInfo;
+
+/**
+ *
+ * Canonical instances of the info objects read from the registry. Rows of the
+ * same provider, environment or format resolve to one shared instance, and a
+ * lookup returning the same providers as the previous one returns the same
+ * snapshot array, so repeated lookups don't allocate (and retain) a copy of
+ * the registry each time.
+ *
+ * Interned objects and snapshot arrays are shared by all callers and must be
+ * treated as immutable. Each table holds at most capacity entries and is
+ * cleared when full; entries of unregistered providers are dropped that way.
+ *
+ */
+public class InfoInterner {
+
+	public static final int DEFAULT_CAPACITY = 65536;
+
+	private static final ServiceSupportInfo[] EMPTY = new ServiceSupportInfo[0];
+
+	private static final SerializationFormat[] NO_FORMATS = new SerializationFormat[0];
+
+	private final int capacity;
+
+	private final ConcurrentHashMap<Key, EnvironmentInfo> environments = new ConcurrentHashMap<>();
+
+	private final ConcurrentHashMap<Key, SerializationFormat> formats = new ConcurrentHashMap<>();
+
+	private final ConcurrentHashMap<Key, SerializationFormat[]> formatArrays = new ConcurrentHashMap<>();
+
+	private final ConcurrentHashMap<Key, ServiceInfo<?>> services = new ConcurrentHashMap<>();
+
+	private final ConcurrentHashMap<Key, ServiceProviderInfo> providers = new ConcurrentHashMap<>();
+
+	private final ConcurrentHashMap<Key, ServiceSupportInfo> supports = new ConcurrentHashMap<>();
+
+	private final ConcurrentHashMap<Key, ServiceSupportInfo[]> snapshots = new ConcurrentHashMap<>();
+
+	private final Stats stats = new Stats();
+
+	public InfoInterner() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 *
+	 * @param capacity
+	 *            maximum number of entries of each table
+	 */
+	public InfoInterner(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Interner capacity must be positive: " + capacity);
+		}
+		this.capacity = capacity;
+	}
+
+	public EnvironmentInfo environment(String lang, String os, String compiler) {
+		Key key = Key.values(lang, os, compiler);
+		EnvironmentInfo env = environments.get(key);
+		if (env != null) {
+			stats.hits.increment();
+			return env;
+		}
+		return put(environments, key, new EnvironmentInfo(lang, os, compiler));
+	}
+
+	public SerializationFormat format(String name, String version) {
+		Key key = Key.values(name, version);
+		SerializationFormat format = formats.get(key);
+		if (format != null) {
+			stats.hits.increment();
+			return format;
+		}
+		return put(formats, key, new SerializationFormat(name, version));
+	}
+
+	/**
+	 *
+	 * @param list
+	 *            interned formats
+	 * @return shared array of the formats
+	 */
+	public SerializationFormat[] formats(List<SerializationFormat> list) {
+		if (list.isEmpty()) {
+			return NO_FORMATS;
+		}
+		Key key = Key.identities(list.toArray());
+		SerializationFormat[] array = formatArrays.get(key);
+		if (array != null) {
+			stats.hits.increment();
+			return array;
+		}
+		return put(formatArrays, key, list.toArray(new SerializationFormat[list.size()]));
+	}
+
+	public ServiceInfo<?> service(String name, int id) {
+		Key key = Key.values(name, id);
+		ServiceInfo<?> service = services.get(key);
+		if (service != null) {
+			stats.hits.increment();
+			return service;
+		}
+		return put(services, key, new ServiceInfo<>(name, id));
+	}
+
+	/**
+	 *
+	 * @param url
+	 * @param port
+	 * @param env
+	 *            interned environment
+	 * @return
+	 */
+	public ServiceProviderInfo provider(String url, int port, EnvironmentInfo env) {
+		Key key = Key.identities(url, port, env);
+		ServiceProviderInfo provider = providers.get(key);
+		if (provider != null) {
+			stats.hits.increment();
+			return provider;
+		}
+		return put(providers, key, new ServiceProviderInfo(url, port, env));
+	}
+
+	/**
+	 *
+	 * @param service
+	 *            interned service
+	 * @param provider
+	 *            interned provider
+	 * @param serializers
+	 *            interned formats array
+	 * @return
+	 */
+	public ServiceSupportInfo support(ServiceInfo<?> service, ServiceProviderInfo provider,
+			SerializationFormat[] serializers) {
+		Key key = Key.identities(service, provider, serializers);
+		ServiceSupportInfo support = supports.get(key);
+		if (support != null) {
+			stats.hits.increment();
+			return support;
+		}
+		return put(supports, key, new ServiceSupportInfo(service, provider, serializers));
+	}
+
+	/**
+	 *
+	 * @param list
+	 *            interned supports
+	 * @return shared array of the supports, in the same order
+	 */
+	public ServiceSupportInfo[] snapshot(List<ServiceSupportInfo> list) {
+		if (list.isEmpty()) {
+			return EMPTY;
+		}
+		Key key = Key.identities(list.toArray());
+		ServiceSupportInfo[] array = snapshots.get(key);
+		if (array != null) {
+			stats.hits.increment();
+			return array;
+		}
+		return put(snapshots, key, list.toArray(new ServiceSupportInfo[list.size()]));
+	}
+
+	/**
+	 * Drops all canonical instances
+	 */
+	public void clear() {
+		environments.clear();
+		formats.clear();
+		formatArrays.clear();
+		services.clear();
+		providers.clear();
+		supports.clear();
+		snapshots.clear();
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public Stats getStats() {
+		return stats;
+	}
+
+	private <T> T put(ConcurrentHashMap<Key, T> table, Key key, T value) {
+		stats.misses.increment();
+		if (table.size() >= capacity) {
+			table.clear();
+			stats.evictions.increment();
+		}
+		T previous = table.putIfAbsent(key, value);
+		return previous != null ? previous : value;
+	}
+
+	/**
+	 *
+	 * Interning counters, shared by all tables
+	 *
+	 */
+	public static class Stats {
+
+		private final LongAdder hits = new LongAdder();
+
+		private final LongAdder misses = new LongAdder();
+
+		private final LongAdder evictions = new LongAdder();
+
+		/**
+		 *
+		 * @return number of lookups that returned an existing instance
+		 */
+		public long getHits() {
+			return hits.sum();
+		}
+
+		/**
+		 *
+		 * @return number of lookups that created a new instance
+		 */
+		public long getMisses() {
+			return misses.sum();
+		}
+
+		/**
+		 *
+		 * @return number of times a full table was cleared
+		 */
+		public long getEvictions() {
+			return evictions.sum();
+		}
+
+		@Override
+		public String toString() {
+			return "hits=" + getHits() + ", misses=" + getMisses() + ", evictions=" + getEvictions();
+		}
+
+	}
+
+	/**
+	 * Table key. Parts that are themselves interned are compared by identity
+	 * since the info classes don't compare all of their fields in equals.
+	 */
+	private static final class Key {
+
+		private final Object[] parts;
+
+		private final boolean identity;
+
+		private final int hash;
+
+		private Key(Object[] parts, boolean identity) {
+			this.parts = parts;
+			this.identity = identity;
+			int h = 1;
+			for (Object part : parts) {
+				h = 31 * h + (part == null ? 0
+						: identity && !isValue(part) ? System.identityHashCode(part) : part.hashCode());
+			}
+			this.hash = h;
+		}
+
+		private static Key values(Object... parts) {
+			return new Key(parts, false);
+		}
+
+		/**
+		 * strings and boxed numbers are still compared by value
+		 */
+		private static Key identities(Object... parts) {
+			return new Key(parts, true);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			if (hash != other.hash || identity != other.identity || parts.length != other.parts.length) {
+				return false;
+			}
+			if (!identity) {
+				return Arrays.equals(parts, other.parts);
+			}
+			for (int i = 0; i < parts.length; i++) {
+				if (parts[i] != other.parts[i] && !(isValue(parts[i]) && parts[i].equals(other.parts[i]))) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private static boolean isValue(Object part) {
+			return part instanceof String || part instanceof Number;
+		}
+	}
+
+}
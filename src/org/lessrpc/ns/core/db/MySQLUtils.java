@@ -6,6 +6,11 @@ import java.sql.Statement;
 
 public class MySQLUtils extends SQLBasedUtils {
 
+	@Override
+	protected String insertIgnoreInto() {
+		return "INSERT IGNORE INTO ";
+	}
+
 	@Override
 	public boolean createServiceTable(Connection conn) {
 		String sql = "CREATE TABLE IF NOT EXISTS " + DB_SQL_TABLE_NAME_SERVICE + " ("
@@ -67,6 +72,29 @@ public class MySQLUtils extends SQLBasedUtils {
 		return true;
 	}
 
+	@Override
+	public boolean createChangeLogTable(Connection conn) {
+		String sql = "CREATE TABLE IF NOT EXISTS `" + DB_SQL_TABLE_NAME_REGISTRY_CHANGE + "` (`"
+				+ DB_SQL_TABLE_COLUMN_NAME_REVISION + "` bigint(20) NOT NULL, `" + DB_SQL_TABLE_COLUMN_NAME_CHANGE_TYPE
+				+ "` tinyint(4) NOT NULL, `" + DB_SQL_TABLE_COLUMN_NAME_SERVICE_ID + "` int(11) NOT NULL, `"
+				+ DB_SQL_TABLE_COLUMN_NAME_NAME + "` varchar(150) DEFAULT NULL, `" + DB_SQL_TABLE_COLUMN_NAME_URL
+				+ "` varchar(200) DEFAULT NULL, `" + DB_SQL_TABLE_COLUMN_NAME_PORT + "` int(11) DEFAULT NULL, `"
+				+ DB_SQL_TABLE_COLUMN_NAME_ENV_OS + "` varchar(200) DEFAULT NULL, `" + DB_SQL_TABLE_COLUMN_NAME_ENV_LANG
+				+ "` varchar(200) DEFAULT NULL, `" + DB_SQL_TABLE_COLUMN_NAME_ENV_COMPILER
+				+ "` varchar(200) DEFAULT NULL, `" + DB_SQL_TABLE_COLUMN_NAME_FORMATS
+				+ "` varchar(1000) DEFAULT NULL, PRIMARY KEY (`" + DB_SQL_TABLE_COLUMN_NAME_REVISION
+				+ "`) ) ENGINE=InnoDB DEFAULT CHARSET=utf8;";
+		try {
+			Statement stmt = conn.createStatement();
+			stmt.executeUpdate(sql);
+			stmt.close();
+		} catch (SQLException e) {
+			return false;
+		}
+
+		return true;
+	}
+
 	@Override
 	public boolean cleanAllTables(Connection conn) {
 
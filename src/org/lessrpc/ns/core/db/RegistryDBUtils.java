@@ -0,0 +1,102 @@
+package org.lessrpc.ns.core.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.lessrpc.common.db.DBUtils;
+import org.lessrpc.common.info.ServiceSupportInfo;
+import org.lessrpc.ns.core.info.BatchResult;
+import org.lessrpc.ns.core.info.ProvidersPage;
+import org.lessrpc.ns.core.info.RegistryChange;
+
+/**
+ * 
+ * Registry operations of the name server that are not part of
+ * {@link DBUtils}.
+ * 
+ */
+public interface RegistryDBUtils extends DBUtils {
+
+	/**
+	 * Reads up to pageSize providers with an id greater than pageToken, in
+	 * order of id (keyset pagination).
+	 * 
+	 * @param conn
+	 * @param pageToken
+	 *            {@link ProvidersPage#FIRST_PAGE} or the token of the previous
+	 *            page
+	 * @param pageSize
+	 * @return
+	 * @throws SQLException
+	 */
+	public ProvidersPage getProvidersPage(Connection conn, long pageToken, int pageSize) throws SQLException;
+
+	/**
+	 * Registers all providers in one transaction. A failing item is rolled
+	 * back on its own and reported in the result; the other items are still
+	 * committed.
+	 * 
+	 * @param conn
+	 * @param supports
+	 * @return status of each item
+	 * @throws SQLException
+	 *             if the transaction itself failed, in which case nothing was
+	 *             written
+	 */
+	public BatchResult registerBatch(Connection conn, ServiceSupportInfo[] supports) throws SQLException;
+
+	/**
+	 * Unregisters the provider of each item from the service of the item in
+	 * one transaction. Serialization formats of the items are ignored.
+	 * 
+	 * @param conn
+	 * @param supports
+	 * @return status of each item
+	 * @throws SQLException
+	 *             if the transaction itself failed, in which case nothing was
+	 *             written
+	 */
+	public BatchResult unregisterBatch(Connection conn, ServiceSupportInfo[] supports) throws SQLException;
+
+	/**
+	 * Creates the table holding the registry change log if it does not exist
+	 * 
+	 * @param conn
+	 * @return
+	 */
+	public boolean createChangeLogTable(Connection conn);
+
+	/**
+	 * Appends the changes to the change log table in one transaction
+	 * 
+	 * @param conn
+	 * @param changes
+	 * @throws SQLException
+	 */
+	public void appendChanges(Connection conn, RegistryChange[] changes) throws SQLException;
+
+	/**
+	 * Reads up to limit changes with a revision greater than revision and not
+	 * greater than upTo, in order of revision
+	 * 
+	 * @param conn
+	 * @param revision
+	 * @param upTo
+	 * @param limit
+	 * @return
+	 * @throws SQLException
+	 */
+	public RegistryChange[] getChangesSince(Connection conn, long revision, long upTo, int limit)
+			throws SQLException;
+
+	/**
+	 * Deletes the changes with a revision not greater than revision
+	 * 
+	 * @param conn
+	 * @param revision
+	 * @return number of changes deleted
+	 * @throws SQLException
+	 */
+	public int pruneChanges(Connection conn, long revision) throws SQLException;
+
+}
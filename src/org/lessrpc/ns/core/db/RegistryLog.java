@@ -0,0 +1,276 @@
+package org.lessrpc.ns.core.db;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+/**
+ *
+ * Append-only log of records in a memory-mapped file, used by
+ * {@link EmbeddedRegistryStore}. Each record is written as its payload length,
+ * a CRC32 of type and payload, its type and the payload. The file is grown by
+ * doubling its mapping; the unused end of the file is zero.
+ *
+ * On open the log is replayed up to the first record that is incomplete or
+ * fails its checksum, which is where a crash interrupted the last append.
+ * Everything from there on is discarded. A log is compacted by writing its
+ * live records to a new file that atomically replaces the old one.
+ *
+ * Not thread safe, callers serialize access.
+ *
+ */
+public class RegistryLog implements Closeable {
+
+	private static final int MAGIC = 0x4c524e53;
+
+	private static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 8;
+
+	/**
+	 * length, crc and type
+	 */
+	private static final int RECORD_HEADER_SIZE = 9;
+
+	private static final int MIN_SIZE = 64 * 1024;
+
+	/**
+	 * Receives the records of the log while it is replayed
+	 */
+	@FunctionalInterface
+	public interface RecordHandler {
+
+		/**
+		 *
+		 * @param type
+		 * @param payload
+		 *            positioned at the start of the payload, limited to its
+		 *            end
+		 * @throws IOException
+		 *             if the record can not be decoded; the log is cut before
+		 *             it
+		 */
+		public void record(byte type, ByteBuffer payload) throws IOException;
+	}
+
+	private final File file;
+
+	private RandomAccessFile raf;
+
+	private FileChannel channel;
+
+	private MappedByteBuffer buffer;
+
+	/**
+	 * offset where the next record is written
+	 */
+	private int end;
+
+	private final CRC32 crc = new CRC32();
+
+	/**
+	 * Opens the log, creating the file if it does not exist, and replays it
+	 *
+	 * @param file
+	 * @param handler
+	 * @throws IOException
+	 *             if the file is not a registry log
+	 */
+	public RegistryLog(File file, RecordHandler handler) throws IOException {
+		this.file = file;
+		// left behind by a compaction that did not finish
+		Files.deleteIfExists(compactFile().toPath());
+		open();
+		if (buffer.getInt(0) == 0) {
+			writeHeader(buffer);
+			end = HEADER_SIZE;
+		} else {
+			if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+				close();
+				throw new IOException(file + " is not a registry log");
+			}
+			end = replay(handler);
+		}
+	}
+
+	/**
+	 * Appends a record. The record is durable once {@link #force()} returned.
+	 *
+	 * @param type
+	 * @param payload
+	 *            from its position to its limit, position is not changed
+	 * @throws IOException
+	 */
+	public void append(byte type, ByteBuffer payload) throws IOException {
+		int length = payload.remaining();
+		ensureCapacity(RECORD_HEADER_SIZE + length);
+		crc.reset();
+		crc.update(type);
+		crc.update(payload.duplicate());
+		buffer.putInt(end + 4, (int) crc.getValue());
+		buffer.put(end + 8, type);
+		ByteBuffer dst = buffer.duplicate();
+		dst.position(end + RECORD_HEADER_SIZE);
+		dst.put(payload.duplicate());
+		// length last, a record is only visible once complete
+		buffer.putInt(end, length);
+		end += RECORD_HEADER_SIZE + length;
+	}
+
+	/**
+	 * Flushes appended records to the disk
+	 */
+	public void force() {
+		buffer.force();
+	}
+
+	/**
+	 *
+	 * @return number of bytes used by the log
+	 */
+	public int size() {
+		return end;
+	}
+
+	/**
+	 * Replaces the log by one holding only the given records. The new file is
+	 * written and flushed next to the log and then moved over it.
+	 *
+	 * @param types
+	 * @param payloads
+	 * @param count
+	 *            number of records
+	 * @throws IOException
+	 */
+	public void rewrite(byte[] types, ByteBuffer[] payloads, int count) throws IOException {
+		File tmp = compactFile();
+		int size = HEADER_SIZE;
+		for (int i = 0; i < count; i++) {
+			size += RECORD_HEADER_SIZE + payloads[i].remaining();
+		}
+		try (RandomAccessFile out = new RandomAccessFile(tmp, "rw")) {
+			out.setLength(0);
+			MappedByteBuffer map = out.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+					capacityFor(size + MIN_SIZE));
+			writeHeader(map);
+			map.position(HEADER_SIZE);
+			for (int i = 0; i < count; i++) {
+				ByteBuffer payload = payloads[i].duplicate();
+				crc.reset();
+				crc.update(types[i]);
+				crc.update(payload.duplicate());
+				map.putInt(payload.remaining());
+				map.putInt((int) crc.getValue());
+				map.put(types[i]);
+				map.put(payload);
+			}
+			map.force();
+		}
+		close();
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		open();
+		end = size;
+	}
+
+	@Override
+	public void close() throws IOException {
+		buffer = null;
+		if (raf != null) {
+			raf.close();
+			raf = null;
+			channel = null;
+		}
+	}
+
+	private void open() throws IOException {
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.exists()) {
+			parent.mkdirs();
+		}
+		raf = new RandomAccessFile(file, "rw");
+		channel = raf.getChannel();
+		long length = Math.max(channel.size(), MIN_SIZE);
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException(file + " is larger than 2GB");
+		}
+		buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+	}
+
+	/**
+	 * reads records until the first invalid one and zeroes the rest
+	 *
+	 * @return offset after the last valid record
+	 */
+	private int replay(RecordHandler handler) {
+		int pos = HEADER_SIZE;
+		int capacity = buffer.capacity();
+		while (pos + RECORD_HEADER_SIZE <= capacity) {
+			int length = buffer.getInt(pos);
+			if (length <= 0 || length > capacity - pos - RECORD_HEADER_SIZE) {
+				break;
+			}
+			byte type = buffer.get(pos + 8);
+			ByteBuffer payload = buffer.duplicate();
+			payload.limit(pos + RECORD_HEADER_SIZE + length);
+			payload.position(pos + RECORD_HEADER_SIZE);
+			crc.reset();
+			crc.update(type);
+			crc.update(payload.duplicate());
+			if ((int) crc.getValue() != buffer.getInt(pos + 4)) {
+				break;
+			}
+			try {
+				handler.record(type, payload);
+			} catch (IOException | RuntimeException e) {
+				System.err.println("Discarding undecodable record at " + pos + " of " + file + ": " + e);
+				break;
+			}
+			pos += RECORD_HEADER_SIZE + length;
+		}
+		if (pos + RECORD_HEADER_SIZE <= capacity && buffer.getInt(pos) != 0) {
+			System.out.println("Recovered registry log " + file + " up to offset " + pos + "....");
+		}
+		for (int i = pos; i < capacity; i++) {
+			buffer.put(i, (byte) 0);
+		}
+		return pos;
+	}
+
+	private void ensureCapacity(int bytes) throws IOException {
+		if ((long) end + bytes <= buffer.capacity()) {
+			return;
+		}
+		long length = capacityFor((long) end + bytes);
+		buffer.force();
+		buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+	}
+
+	private static long capacityFor(long bytes) throws IOException {
+		long length = MIN_SIZE;
+		while (length < bytes) {
+			length *= 2;
+		}
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("Registry log can not grow beyond 2GB");
+		}
+		return length;
+	}
+
+	private static void writeHeader(ByteBuffer buffer) {
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(4, VERSION);
+	}
+
+	private File compactFile() {
+		return new File(file.getPath() + ".compact");
+	}
+
+}
@@ -1,13 +1,14 @@
 package org.lessrpc.ns.core.db;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.lessrpc.common.db.DBUtils;
 import org.lessrpc.common.errors.ServiceProviderAlreadyExistsException;
 import org.lessrpc.common.info.EnvironmentInfo;
 import org.lessrpc.common.info.SerializationFormat;
@@ -15,214 +16,694 @@ import org.lessrpc.common.info.ServiceInfo;
 import org.lessrpc.common.info.ServiceProviderInfo;
 import org.lessrpc.common.info.ServiceSupportInfo;
 import org.lessrpc.ns.core.constants.Constants;
+import org.lessrpc.ns.core.info.BatchResult;
+import org.lessrpc.ns.core.info.ProvidersPage;
+import org.lessrpc.ns.core.info.RegistryChange;
+
+/**
+ * 
+ * Registry operations shared by SQL databases. All queries are prepared
+ * statements with bound parameters; on pooled connections they are cached per
+ * connection under the STMT_* ids.
+ * 
+ */
+public abstract class SQLBasedUtils implements RegistryDBUtils, Constants {
+
+	protected static final int STMT_GET_PROVIDERS = 0;
+	protected static final int STMT_GET_ALL_PROVIDERS = 1;
+	protected static final int STMT_GET_PROVIDERS_PAGE = 2;
+	protected static final int STMT_GET_SERVICE_BY_NAME = 3;
+	protected static final int STMT_GET_SERVICE_BY_ID = 4;
+	protected static final int STMT_INSERT_SERVICE = 5;
+	protected static final int STMT_INSERT_PROVIDER = 6;
+	protected static final int STMT_INSERT_SUPPORT = 7;
+	protected static final int STMT_DELETE_PROVIDER = 8;
+	protected static final int STMT_DELETE_PROVIDER_ALL = 9;
+	protected static final int STMT_DELETE_SUPPORT = 10;
+	protected static final int STMT_DELETE_SUPPORT_ALL = 11;
+	protected static final int STMT_INSERT_CHANGE = 12;
+	protected static final int STMT_GET_CHANGES = 13;
+	protected static final int STMT_PRUNE_CHANGES = 14;
+
+	/**
+	 * columns read by {@link #readSupports}, the service columns are only
+	 * needed when the query spans several services
+	 */
+	private static final String SUPPORT_COLUMNS = "sp." + DB_SQL_TABLE_COLUMN_NAME_SERVICE_PROVIDER_ID + ", sp."
+			+ DB_SQL_TABLE_COLUMN_NAME_URL + ", sp." + DB_SQL_TABLE_COLUMN_NAME_PORT + ", sp."
+			+ DB_SQL_TABLE_COLUMN_NAME_ENV_OS + ", sp." + DB_SQL_TABLE_COLUMN_NAME_ENV_LANG + ", sp."
+			+ DB_SQL_TABLE_COLUMN_NAME_ENV_COMPILER + ", sps." + DB_SQL_TABLE_COLUMN_NAME_FORMAT_NAME + ", sps."
+			+ DB_SQL_TABLE_COLUMN_NAME_FORMAT_VERSION;
+
+	private static final String SERVICE_COLUMNS = ", s." + DB_SQL_TABLE_COLUMN_NAME_SERVICE_ID + ", s."
+			+ DB_SQL_TABLE_COLUMN_NAME_NAME;
+
+	private static final String SUPPORT_JOIN = " LEFT JOIN " + DB_SQL_TABLE_NAME_SERVICE_PROVIDER_SUPPORT
+			+ " as sps ON sp." + DB_SQL_TABLE_COLUMN_NAME_SERVICE_PROVIDER_ID + " = sps."
+			+ DB_SQL_TABLE_COLUMN_NAME_SERVICE_PROVIDER_ID;
+
+	private static final String SERVICE_JOIN = " JOIN " + DB_SQL_TABLE_NAME_SERVICE + " as s ON s."
+			+ DB_SQL_TABLE_COLUMN_NAME_SERVICE_ID + " = sp." + DB_SQL_TABLE_COLUMN_NAME_SERVICE_ID;
+
+	private static final String SUPPORT_ORDER = " ORDER BY sp." + DB_SQL_TABLE_COLUMN_NAME_SERVICE_PROVIDER_ID
+			+ ", sps." + DB_SQL_TABLE_COLUMN_NAME_SUPPORT_ID;
+
+	private static final String SQL_GET_PROVIDERS = "SELECT " + SUPPORT_COLUMNS + " from "
+			+ DB_SQL_TABLE_NAME_SERVICE_PROVIDER + " as sp" + SUPPORT_JOIN + " WHERE sp."
+			+ DB_SQL_TABLE_COLUMN_NAME_SERVICE_ID + " = ?" + SUPPORT_ORDER;
+
+	private static final String SQL_GET_ALL_PROVIDERS = "SELECT " + SUPPORT_COLUMNS + SERVICE_COLUMNS + " from "
+			+ DB_SQL_TABLE_NAME_SERVICE_PROVIDER + " as sp" + SERVICE_JOIN + SUPPORT_JOIN + SUPPORT_ORDER;
+
+	private static final String SQL_GET_PROVIDERS_PAGE = "SELECT " + SUPPORT_COLUMNS + SERVICE_COLUMNS
+			+ " from (SELECT * from " + DB_SQL_TABLE_NAME_SERVICE_PROVIDER + " WHERE "
+			+ DB_SQL_TABLE_COLUMN_NAME_SERVICE_PROVIDER_ID + " > ? ORDER BY "
+			+ DB_SQL_TABLE_COLUMN_NAME_SERVICE_PROVIDER_ID + " LIMIT ?) as sp" + SERVICE_JOIN + SUPPORT_JOIN
+			+ SUPPORT_ORDER;
+
+	private static final String SQL_GET_SERVICE_BY_NAME = "SELECT " + DB_SQL_TABLE_COLUMN_NAME_NAME + ", "
+			+ DB_SQL_TABLE_COLUMN_NAME_SERVICE_ID + " from " + DB_SQL_TABLE_NAME_SERVICE + " WHERE "
+			+ DB_SQL_TABLE_COLUMN_NAME_NAME + " = ?";
+
+	private static final String SQL_GET_SERVICE_BY_ID = "SELECT " + DB_SQL_TABLE_COLUMN_NAME_NAME + ", "
+			+ DB_SQL_TABLE_COLUMN_NAME_SERVICE_ID + " from " + DB_SQL_TABLE_NAME_SERVICE + " WHERE "
+			+ DB_SQL_TABLE_COLUMN_NAME_SERVICE_ID + " = ?";
+
+	private static final String SQL_INSERT_PROVIDER = "INSERT INTO " + DB_SQL_TABLE_NAME_SERVICE_PROVIDER + " ("
+			+ DB_SQL_TABLE_COLUMN_NAME_SERVICE_ID + ", " + DB_SQL_TABLE_COLUMN_NAME_URL + ", "
+			+ DB_SQL_TABLE_COLUMN_NAME_PORT + ", " + DB_SQL_TABLE_COLUMN_NAME_ENV_OS + ", "
+			+ DB_SQL_TABLE_COLUMN_NAME_ENV_LANG + ", " + DB_SQL_TABLE_COLUMN_NAME_ENV_COMPILER
+			+ ") VALUES (?, ?, ?, ?, ?, ?)";
+
+	private static final String SQL_INSERT_SUPPORT = "INSERT INTO " + DB_SQL_TABLE_NAME_SERVICE_PROVIDER_SUPPORT + " ("
+			+ DB_SQL_TABLE_COLUMN_NAME_SERVICE_PROVIDER_ID + ", " + DB_SQL_TABLE_COLUMN_NAME_FORMAT_NAME + ", "
+			+ DB_SQL_TABLE_COLUMN_NAME_FORMAT_VERSION + ") VALUES (?, ?, ?)";
+
+	private static final String SQL_DELETE_PROVIDER = "DELETE FROM " + DB_SQL_TABLE_NAME_SERVICE_PROVIDER + " WHERE "
+			+ DB_SQL_TABLE_COLUMN_NAME_URL + " = ? and " + DB_SQL_TABLE_COLUMN_NAME_PORT + " = ? and "
+			+ DB_SQL_TABLE_COLUMN_NAME_SERVICE_ID + " = ?";
+
+	private static final String SQL_DELETE_PROVIDER_ALL = "DELETE FROM " + DB_SQL_TABLE_NAME_SERVICE_PROVIDER
+			+ " WHERE " + DB_SQL_TABLE_COLUMN_NAME_URL + " = ? and " + DB_SQL_TABLE_COLUMN_NAME_PORT + " = ?";
+
+	private static final String SQL_DELETE_SUPPORT = "DELETE FROM " + DB_SQL_TABLE_NAME_SERVICE_PROVIDER_SUPPORT
+			+ " WHERE " + DB_SQL_TABLE_COLUMN_NAME_SERVICE_PROVIDER_ID + " IN (SELECT "
+			+ DB_SQL_TABLE_COLUMN_NAME_SERVICE_PROVIDER_ID + " FROM " + DB_SQL_TABLE_NAME_SERVICE_PROVIDER + " WHERE "
+			+ DB_SQL_TABLE_COLUMN_NAME_URL + " = ? and " + DB_SQL_TABLE_COLUMN_NAME_PORT + " = ? and "
+			+ DB_SQL_TABLE_COLUMN_NAME_SERVICE_ID + " = ?)";
+
+	private static final String SQL_DELETE_SUPPORT_ALL = "DELETE FROM " + DB_SQL_TABLE_NAME_SERVICE_PROVIDER_SUPPORT
+			+ " WHERE " + DB_SQL_TABLE_COLUMN_NAME_SERVICE_PROVIDER_ID + " IN (SELECT "
+			+ DB_SQL_TABLE_COLUMN_NAME_SERVICE_PROVIDER_ID + " FROM " + DB_SQL_TABLE_NAME_SERVICE_PROVIDER + " WHERE "
+			+ DB_SQL_TABLE_COLUMN_NAME_URL + " = ? and " + DB_SQL_TABLE_COLUMN_NAME_PORT + " = ?)";
+
+	private static final String CHANGE_COLUMNS = DB_SQL_TABLE_COLUMN_NAME_REVISION + ", "
+			+ DB_SQL_TABLE_COLUMN_NAME_CHANGE_TYPE + ", " + DB_SQL_TABLE_COLUMN_NAME_SERVICE_ID + ", "
+			+ DB_SQL_TABLE_COLUMN_NAME_NAME + ", " + DB_SQL_TABLE_COLUMN_NAME_URL + ", "
+			+ DB_SQL_TABLE_COLUMN_NAME_PORT + ", " + DB_SQL_TABLE_COLUMN_NAME_ENV_OS + ", "
+			+ DB_SQL_TABLE_COLUMN_NAME_ENV_LANG + ", " + DB_SQL_TABLE_COLUMN_NAME_ENV_COMPILER + ", "
+			+ DB_SQL_TABLE_COLUMN_NAME_FORMATS;
+
+	private static final String SQL_INSERT_CHANGE = "INSERT INTO " + DB_SQL_TABLE_NAME_REGISTRY_CHANGE + " ("
+			+ CHANGE_COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+	private static final String SQL_GET_CHANGES = "SELECT " + CHANGE_COLUMNS + " from "
+			+ DB_SQL_TABLE_NAME_REGISTRY_CHANGE + " WHERE " + DB_SQL_TABLE_COLUMN_NAME_REVISION + " > ? and "
+			+ DB_SQL_TABLE_COLUMN_NAME_REVISION + " <= ? ORDER BY " + DB_SQL_TABLE_COLUMN_NAME_REVISION + " LIMIT ?";
+
+	private static final String SQL_PRUNE_CHANGES = "DELETE FROM " + DB_SQL_TABLE_NAME_REGISTRY_CHANGE + " WHERE "
+			+ DB_SQL_TABLE_COLUMN_NAME_REVISION + " <= ?";
+
+	/**
+	 * canonical instances of the info objects read by lookups
+	 */
+	private final InfoInterner interner = new InfoInterner();
+
+	/**
+	 * inserting a service that may already exist, the syntax depends on the
+	 * database
+	 */
+	private final String sqlInsertService = insertIgnoreInto() + DB_SQL_TABLE_NAME_SERVICE + " ("
+			+ DB_SQL_TABLE_COLUMN_NAME_SERVICE_ID + ", " + DB_SQL_TABLE_COLUMN_NAME_NAME + ") VALUES (?, ?)";
+
+	/**
+	 * 
+	 * @return interner of the objects returned by lookups
+	 */
+	public InfoInterner getInterner() {
+		return interner;
+	}
 
-public abstract class SQLBasedUtils implements DBUtils, Constants {
+	/**
+	 * 
+	 * @return start of an insert statement that ignores duplicate keys
+	 */
+	protected String insertIgnoreInto() {
+		return "INSERT OR IGNORE INTO ";
+	}
 
-	@Override
-	public ServiceSupportInfo[] getProviders(Connection conn, ServiceInfo<?> service) throws SQLException {
-		ArrayList<ServiceProviderInfo> list = new ArrayList<ServiceProviderInfo>();
+	/**
+	 * Prepares the statement, reusing the cached one if the connection caches
+	 * statements. Statements must be given back with
+	 * {@link #release(Connection, PreparedStatement)}.
+	 * 
+	 * @param conn
+	 * @param statementId
+	 * @param sql
+	 * @return
+	 * @throws SQLException
+	 */
+	protected PreparedStatement prepare(Connection conn, int statementId, String sql) throws SQLException {
+		return prepare(conn, statementId, sql, Statement.NO_GENERATED_KEYS);
+	}
 
-		String sql = "SELECT URL, PORT, ENV_OS, ENV_LANG, ENV_COMPILER from " + DB_SQL_TABLE_NAME_SERVICE_PROVIDER
-				+ "  WHERE " + DB_SQL_TABLE_COLUMN_NAME_SERVICE_ID + " = " + service.getId() + ";";
-		ResultSet rs = conn.createStatement().executeQuery(sql);
-		while (rs.next()) {
-			list.add(new ServiceProviderInfo(rs.getString(DB_SQL_TABLE_COLUMN_NAME_URL),
-					rs.getInt(DB_SQL_TABLE_COLUMN_NAME_PORT),
-					new EnvironmentInfo(rs.getString(DB_SQL_TABLE_COLUMN_NAME_ENV_LANG),
-							rs.getString(DB_SQL_TABLE_COLUMN_NAME_ENV_OS),
-							rs.getString(DB_SQL_TABLE_COLUMN_NAME_ENV_COMPILER))));
+	/**
+	 * Same as {@link #prepare(Connection, int, String)} for statements whose
+	 * generated keys are read
+	 * 
+	 * @param conn
+	 * @param statementId
+	 * @param sql
+	 * @param autoGeneratedKeys
+	 * @return
+	 * @throws SQLException
+	 */
+	protected PreparedStatement prepare(Connection conn, int statementId, String sql, int autoGeneratedKeys)
+			throws SQLException {
+		if (conn instanceof CachedStatementConnection) {
+			return ((CachedStatementConnection) conn).prepareCached(statementId, sql, autoGeneratedKeys);
 		}
-		rs.getStatement().close();
-
-		ServiceSupportInfo[] out = new ServiceSupportInfo[list.size()];
+		return conn.prepareStatement(sql, autoGeneratedKeys);
+	}
 
-		for (int i = 0; i < list.size(); i++) {
-			ServiceProviderInfo provider = list.get(i);
-			ServiceSupportInfo sup = new ServiceSupportInfo();
-			sup.setProvider(provider);
-			sup.setService(service);
+	/**
+	 * Starts a transaction unless the connection is already in one
+	 * 
+	 * @param conn
+	 * @return true if this call started the transaction and is responsible for
+	 *         ending it
+	 * @throws SQLException
+	 */
+	protected boolean begin(Connection conn) throws SQLException {
+		if (!conn.getAutoCommit()) {
+			return false;
+		}
+		conn.setAutoCommit(false);
+		return true;
+	}
 
-			String sql2 = "SELECT " + DB_SQL_TABLE_COLUMN_NAME_FORMAT_NAME + ", "
-					+ DB_SQL_TABLE_COLUMN_NAME_FORMAT_VERSION + " from " + DB_SQL_TABLE_NAME_SERVICE_PROVIDER
-					+ " as sp, " + DB_SQL_TABLE_NAME_SERVICE_PROVIDER_SUPPORT + " as sps  WHERE sp."
-					+ DB_SQL_TABLE_COLUMN_NAME_SERVICE_PROVIDER_ID + " = sps."
-					+ DB_SQL_TABLE_COLUMN_NAME_SERVICE_PROVIDER_ID + " and " + DB_SQL_TABLE_COLUMN_NAME_SERVICE_ID
-					+ " = " + service.getId() + " and sp." + DB_SQL_TABLE_COLUMN_NAME_URL + " = '" + provider.getURL()
-					+ "' and sp." + DB_SQL_TABLE_COLUMN_NAME_PORT + "=" + provider.getPort() + " ;";
+	/**
+	 * Commits the transaction if it was started by the matching
+	 * {@link #begin(Connection)}
+	 * 
+	 * @param conn
+	 * @param owner
+	 * @throws SQLException
+	 */
+	protected void commit(Connection conn, boolean owner) throws SQLException {
+		if (owner) {
+			conn.commit();
+			conn.setAutoCommit(true);
+		}
+	}
 
-			ResultSet rs2 = conn.createStatement().executeQuery(sql2);
-			List<SerializationFormat> tmp = new ArrayList<SerializationFormat>();
-			while (rs2.next()) {
-				tmp.add(new SerializationFormat(rs2.getString(1), rs2.getString(2)));
+	/**
+	 * Rolls the transaction back if it was started by the matching
+	 * {@link #begin(Connection)}. Otherwise the owner of the transaction is
+	 * expected to roll back.
+	 * 
+	 * @param conn
+	 * @param owner
+	 */
+	protected void rollback(Connection conn, boolean owner) {
+		if (owner) {
+			try {
+				conn.rollback();
+				conn.setAutoCommit(true);
+			} catch (SQLException e) {
+				e.printStackTrace();
 			}
+		}
+	}
 
-			sup.setSerializers(tmp.toArray(new SerializationFormat[0]));
-			out[i] = sup;
+	/**
+	 * Closes the statement unless it is cached by the connection
+	 * 
+	 * @param conn
+	 * @param stmt
+	 * @throws SQLException
+	 */
+	protected void release(Connection conn, PreparedStatement stmt) throws SQLException {
+		if (conn instanceof CachedStatementConnection) {
+			stmt.clearParameters();
+		} else {
+			stmt.close();
+		}
+	}
+
+	/**
+	 * Fetches the providers of the service together with their serialization
+	 * formats in a single query. Rows are ordered by provider so the formats of
+	 * one provider are adjacent and can be grouped in one pass. The returned
+	 * array is an interned snapshot shared with other callers.
+	 */
+	@Override
+	public ServiceSupportInfo[] getProviders(Connection conn, ServiceInfo<?> service) throws SQLException {
+		ArrayList<ServiceSupportInfo> out = new ArrayList<ServiceSupportInfo>();
+		PreparedStatement stmt = prepare(conn, STMT_GET_PROVIDERS, SQL_GET_PROVIDERS);
+		try {
+			stmt.setInt(1, service.getId());
+			try (ResultSet rs = stmt.executeQuery()) {
+				readSupports(rs, service, out);
+			}
+		} finally {
+			release(conn, stmt);
 		}
 
-		return out;
+		return interner.snapshot(out);
 
 	}
 
 	@Override
 	public ServiceSupportInfo[] getAllProviders(Connection conn) throws SQLException {
-		ArrayList<ServiceProviderInfo> list = new ArrayList<ServiceProviderInfo>();
-		ArrayList<ServiceInfo<?>> services = new ArrayList<ServiceInfo<?>>();
-
-		String sql = "SELECT sp.URL, sp.PORT, s.NAME as SERVICE_NAME, s.SERVICE_ID from "
-				+ DB_SQL_TABLE_NAME_SERVICE_PROVIDER + " as sp, " + DB_SQL_TABLE_NAME_SERVICE + " as s  WHERE s."
-				+ DB_SQL_TABLE_COLUMN_NAME_SERVICE_ID + " = sp." + DB_SQL_TABLE_COLUMN_NAME_SERVICE_ID + ";";
-		ResultSet rs = conn.createStatement().executeQuery(sql);
-		while (rs.next()) {
-			list.add(new ServiceProviderInfo(rs.getString(DB_SQL_TABLE_COLUMN_NAME_URL),
-					rs.getInt(DB_SQL_TABLE_COLUMN_NAME_PORT), EnvironmentInfo.currentEnvInfo()));
-			services.add(new ServiceInfo<>(rs.getString("SERVICE_NAME"), rs.getInt("SERVICE_ID")));
+		ArrayList<ServiceSupportInfo> out = new ArrayList<ServiceSupportInfo>();
+		PreparedStatement stmt = prepare(conn, STMT_GET_ALL_PROVIDERS, SQL_GET_ALL_PROVIDERS);
+		try (ResultSet rs = stmt.executeQuery()) {
+			readSupports(rs, null, out);
+		} finally {
+			release(conn, stmt);
 		}
-		rs.getStatement().close();
 
-		ServiceSupportInfo[] out = new ServiceSupportInfo[list.size()];
+		return out.toArray(new ServiceSupportInfo[out.size()]);
+	}
 
-		for (int i = 0; i < list.size(); i++) {
-			ServiceProviderInfo provider = list.get(i);
-			ServiceSupportInfo sup = new ServiceSupportInfo();
-			sup.setProvider(provider);
-			sup.setService(services.get(i));
+	/**
+	 * Keyset pagination on SERVICE_PROVIDER_ID. The page of providers is
+	 * selected in a sub query so the limit applies to providers and not to the
+	 * joined format rows.
+	 */
+	@Override
+	public ProvidersPage getProvidersPage(Connection conn, long pageToken, int pageSize) throws SQLException {
+		ArrayList<ServiceSupportInfo> out = new ArrayList<ServiceSupportInfo>(pageSize);
+		long lastId;
+		PreparedStatement stmt = prepare(conn, STMT_GET_PROVIDERS_PAGE, SQL_GET_PROVIDERS_PAGE);
+		try {
+			stmt.setLong(1, pageToken);
+			stmt.setInt(2, pageSize);
+			stmt.setFetchSize(pageSize);
+			try (ResultSet rs = stmt.executeQuery()) {
+				lastId = readSupports(rs, null, out);
+			}
+		} finally {
+			release(conn, stmt);
+		}
 
-			String sql2 = "SELECT " + DB_SQL_TABLE_COLUMN_NAME_FORMAT_NAME + ", "
-					+ DB_SQL_TABLE_COLUMN_NAME_FORMAT_VERSION + " from " + DB_SQL_TABLE_NAME_SERVICE_PROVIDER
-					+ " as sp, " + DB_SQL_TABLE_NAME_SERVICE_PROVIDER_SUPPORT + " as sps  WHERE sp."
-					+ DB_SQL_TABLE_COLUMN_NAME_SERVICE_PROVIDER_ID + " = sps."
-					+ DB_SQL_TABLE_COLUMN_NAME_SERVICE_PROVIDER_ID + " and " + DB_SQL_TABLE_COLUMN_NAME_SERVICE_ID
-					+ " = " + services.get(i).getId() + " and sp." + DB_SQL_TABLE_COLUMN_NAME_URL + " = '"
-					+ provider.getURL() + "' and sp." + DB_SQL_TABLE_COLUMN_NAME_PORT + "=" + provider.getPort() + " ;";
+		long next = out.size() < pageSize ? ProvidersPage.LAST_PAGE : lastId;
+		return new ProvidersPage(out.toArray(new ServiceSupportInfo[out.size()]), next);
+	}
 
-			ResultSet rs2 = conn.createStatement().executeQuery(sql2);
-			List<SerializationFormat> tmp = new ArrayList<SerializationFormat>();
-			while (rs2.next()) {
-				tmp.add(new SerializationFormat(rs2.getString(1), rs2.getString(2)));
+	/**
+	 * Groups rows of SUPPORT_COLUMNS (optionally followed by SERVICE_COLUMNS)
+	 * into one interned ServiceSupportInfo per provider. Rows have to be
+	 * ordered by provider id.
+	 * 
+	 * @param rs
+	 * @param service
+	 *            service of all rows, or null to read it from SERVICE_COLUMNS
+	 * @param out
+	 * @return id of the last provider read, -1 if there were no rows
+	 * @throws SQLException
+	 */
+	private long readSupports(ResultSet rs, ServiceInfo<?> service, List<ServiceSupportInfo> out)
+			throws SQLException {
+		long currentId = -1;
+		ServiceInfo<?> currentService = null;
+		ServiceProviderInfo provider = null;
+		List<SerializationFormat> formats = new ArrayList<SerializationFormat>();
+		while (rs.next()) {
+			long pid = rs.getLong(1);
+			if (provider == null || pid != currentId) {
+				// first row of the next provider
+				if (provider != null) {
+					out.add(interner.support(currentService, provider, interner.formats(formats)));
+					formats.clear();
+				}
+				currentId = pid;
+				currentService = service != null ? interner.service(service.getName(), service.getId())
+						: interner.service(rs.getString(10), rs.getInt(9));
+				provider = interner.provider(rs.getString(2), rs.getInt(3),
+						interner.environment(rs.getString(5), rs.getString(4), rs.getString(6)));
+			}
+			String formatName = rs.getString(7);
+			// null when the provider has no support rows
+			if (formatName != null) {
+				formats.add(interner.format(formatName, rs.getString(8)));
 			}
-
-			sup.setSerializers(tmp.toArray(new SerializationFormat[0]));
-			out[i] = sup;
 		}
-
-		return out;
+		if (provider != null) {
+			out.add(interner.support(currentService, provider, interner.formats(formats)));
+		}
+		return currentId;
 	}
 
 	@Override
 	public ServiceInfo<?> getServiceInfo(Connection conn, String serviceName)
 			throws SQLException, ClassNotFoundException {
-		String sql = "SELECT * from " + DB_SQL_TABLE_NAME_SERVICE + "  WHERE " + DB_SQL_TABLE_COLUMN_NAME_NAME + " = '"
-				+ serviceName + "'";
-		ResultSet rs = conn.createStatement().executeQuery(sql);
-		if (!rs.next())
-			return null;
-		String name = rs.getString(DB_SQL_TABLE_COLUMN_NAME_NAME);
-		int id = rs.getInt(DB_SQL_TABLE_COLUMN_NAME_SERVICE_ID);
-		rs.getStatement().close();
-		return new ServiceInfo<>(name, id);
+		PreparedStatement stmt = prepare(conn, STMT_GET_SERVICE_BY_NAME, SQL_GET_SERVICE_BY_NAME);
+		try {
+			stmt.setString(1, serviceName);
+			return readServiceInfo(stmt);
+		} finally {
+			release(conn, stmt);
+		}
 	}
 
 	@Override
 	public ServiceInfo<?> getServiceInfo(Connection conn, int serviceId) throws SQLException, ClassNotFoundException {
-		String sql = "SELECT * from " + DB_SQL_TABLE_NAME_SERVICE + "  WHERE " + DB_SQL_TABLE_COLUMN_NAME_SERVICE_ID
-				+ " = " + serviceId + "";
-		ResultSet rs = conn.createStatement().executeQuery(sql);
-		if (!rs.next())
-			return null;
-		String name = rs.getString(DB_SQL_TABLE_COLUMN_NAME_NAME);
-		int id = rs.getInt(DB_SQL_TABLE_COLUMN_NAME_SERVICE_ID);
-		rs.getStatement().close();
-		return new ServiceInfo<>(name, id);
+		PreparedStatement stmt = prepare(conn, STMT_GET_SERVICE_BY_ID, SQL_GET_SERVICE_BY_ID);
+		try {
+			stmt.setInt(1, serviceId);
+			return readServiceInfo(stmt);
+		} finally {
+			release(conn, stmt);
+		}
+	}
+
+	private ServiceInfo<?> readServiceInfo(PreparedStatement stmt) throws SQLException {
+		try (ResultSet rs = stmt.executeQuery()) {
+			if (!rs.next())
+				return null;
+			return interner.service(rs.getString(1), rs.getInt(2));
+		}
 	}
 
+	/**
+	 * Inserts the service (if new), the provider and its formats in one
+	 * transaction. Formats are inserted as one batch using the generated id of
+	 * the provider. Joins the caller's transaction if the connection is already
+	 * in one.
+	 */
 	@Override
 	public boolean register(Connection conn, ServiceSupportInfo support) throws ServiceProviderAlreadyExistsException {
 		ServiceInfo<?> service = support.getService();
 		ServiceProviderInfo provider = support.getProvider();
 
-		String sqlService = "INSERT OR IGNORE INTO " + DB_SQL_TABLE_NAME_SERVICE + " ("
-				+ DB_SQL_TABLE_COLUMN_NAME_SERVICE_ID + ", " + DB_SQL_TABLE_COLUMN_NAME_NAME + " ) VALUES ("
-				+ service.getId() + ",'" + service.getName() + "' );";
-
-		String sql = "INSERT INTO " + DB_SQL_TABLE_NAME_SERVICE_PROVIDER + " (" + DB_SQL_TABLE_COLUMN_NAME_SERVICE_ID
-				+ ", " + DB_SQL_TABLE_COLUMN_NAME_URL + ", " + DB_SQL_TABLE_COLUMN_NAME_PORT + ", "
-				+ DB_SQL_TABLE_COLUMN_NAME_ENV_OS + ", " + DB_SQL_TABLE_COLUMN_NAME_ENV_LANG + ", "
-				+ DB_SQL_TABLE_COLUMN_NAME_ENV_COMPILER + ") VALUES (" + service.getId() + ",'" + provider.getURL()
-				+ "'," + provider.getPort() + ",'" + provider.getEnv().getOS() + "'" + ",'"
-				+ provider.getEnv().getLang() + "'" + ",'" + provider.getEnv().getCompiler() + "'" + ");";
+		boolean owner;
+		try {
+			owner = begin(conn);
+		} catch (SQLException e) {
+			e.printStackTrace();
+			return false;
+		}
 
+		long pid;
 		try {
-			Statement stmt = conn.createStatement();
-			stmt.executeUpdate(sqlService);
-			stmt.executeUpdate(sql);
-
-			int pid = -1;
-			ResultSet generatedKeys = stmt.executeQuery("SELECT last_insert_rowid()");
-			if (generatedKeys.next()) {
-				pid = generatedKeys.getInt(1);
-			} else {
-				throw new SQLException("Creating user failed, no ID obtained.");
-			}
-
-			for (SerializationFormat format : support.getSerializers()) {
-				String sql2 = "INSERT INTO " + DB_SQL_TABLE_NAME_SERVICE_PROVIDER_SUPPORT + " ("
-						+ DB_SQL_TABLE_COLUMN_NAME_SERVICE_PROVIDER_ID + ", " + DB_SQL_TABLE_COLUMN_NAME_FORMAT_NAME
-						+ ", " + DB_SQL_TABLE_COLUMN_NAME_FORMAT_VERSION + ") VALUES (" + pid + ",'" + format.getName()
-						+ "','" + format.getVersion() + "');";
-				try {
-					stmt.executeUpdate(sql2);
+			PreparedStatement stmt = prepare(conn, STMT_INSERT_SERVICE, sqlInsertService);
+			try {
+				stmt.setInt(1, service.getId());
+				stmt.setString(2, service.getName());
+				stmt.executeUpdate();
+			} finally {
+				release(conn, stmt);
+			}
 
-				} catch (SQLException e) {
-					e.printStackTrace();
-					return false;
+			stmt = prepare(conn, STMT_INSERT_PROVIDER, SQL_INSERT_PROVIDER, Statement.RETURN_GENERATED_KEYS);
+			try {
+				stmt.setInt(1, service.getId());
+				stmt.setString(2, provider.getURL());
+				stmt.setInt(3, provider.getPort());
+				stmt.setString(4, provider.getEnv().getOS());
+				stmt.setString(5, provider.getEnv().getLang());
+				stmt.setString(6, provider.getEnv().getCompiler());
+				stmt.executeUpdate();
+				try (ResultSet generatedKeys = stmt.getGeneratedKeys()) {
+					if (generatedKeys.next()) {
+						pid = generatedKeys.getLong(1);
+					} else {
+						throw new SQLException("Creating service provider failed, no ID obtained.");
+					}
 				}
-
+			} finally {
+				release(conn, stmt);
 			}
-			stmt.close();
 		} catch (SQLException e) {
 			// e.printStackTrace();
+			rollback(conn, owner);
 			throw new ServiceProviderAlreadyExistsException(provider);
 		}
+
+		try {
+			PreparedStatement stmt = prepare(conn, STMT_INSERT_SUPPORT, SQL_INSERT_SUPPORT);
+			try {
+				for (SerializationFormat format : support.getSerializers()) {
+					stmt.setLong(1, pid);
+					stmt.setString(2, format.getName());
+					stmt.setString(3, format.getVersion());
+					stmt.addBatch();
+				}
+				stmt.executeBatch();
+			} finally {
+				stmt.clearBatch();
+				release(conn, stmt);
+			}
+			commit(conn, owner);
+		} catch (SQLException e) {
+			e.printStackTrace();
+			rollback(conn, owner);
+			return false;
+		}
 		return true;
 	}
 
+	/**
+	 * Deletes the provider of the service and its formats in one transaction
+	 */
 	@Override
 	public boolean unregister(Connection conn, ServiceInfo<?> service, ServiceProviderInfo provider) {
-
+		boolean owner = false;
 		try {
-			String sql = "DELETE FROM  " + DB_SQL_TABLE_NAME_SERVICE_PROVIDER + " WHERE " + DB_SQL_TABLE_COLUMN_NAME_URL
-					+ " = '" + provider.getURL() + "' and " + DB_SQL_TABLE_COLUMN_NAME_PORT + "=" + provider.getPort()
-					+ " and SERVICE_ID=" + service.getId() + " ;";
+			owner = begin(conn);
+			PreparedStatement stmt = prepare(conn, STMT_DELETE_SUPPORT, SQL_DELETE_SUPPORT);
+			try {
+				stmt.setString(1, provider.getURL());
+				stmt.setInt(2, provider.getPort());
+				stmt.setInt(3, service.getId());
+				stmt.executeUpdate();
+			} finally {
+				release(conn, stmt);
+			}
 
-			Statement stmt = conn.createStatement();
-			stmt.executeUpdate(sql);
-			stmt.close();
+			stmt = prepare(conn, STMT_DELETE_PROVIDER, SQL_DELETE_PROVIDER);
+			try {
+				stmt.setString(1, provider.getURL());
+				stmt.setInt(2, provider.getPort());
+				stmt.setInt(3, service.getId());
+				stmt.executeUpdate();
+			} finally {
+				release(conn, stmt);
+			}
+			commit(conn, owner);
 		} catch (SQLException e) {
 			e.printStackTrace();
+			rollback(conn, owner);
 			return false;
 		}
 
 		return true;
 	}
 
+	/**
+	 * Deletes the provider from all services together with its formats in one
+	 * transaction
+	 */
 	@Override
 	public boolean unregisterAll(Connection conn, ServiceProviderInfo provider) {
-
+		boolean owner = false;
 		try {
-			String sql = "DELETE FROM  " + DB_SQL_TABLE_NAME_SERVICE_PROVIDER + " WHERE " + DB_SQL_TABLE_COLUMN_NAME_URL
-					+ " = '" + provider.getURL() + "' and " + DB_SQL_TABLE_COLUMN_NAME_PORT + "=" + provider.getPort()
-					+ " ;";
+			owner = begin(conn);
+			PreparedStatement stmt = prepare(conn, STMT_DELETE_SUPPORT_ALL, SQL_DELETE_SUPPORT_ALL);
+			try {
+				stmt.setString(1, provider.getURL());
+				stmt.setInt(2, provider.getPort());
+				stmt.executeUpdate();
+			} finally {
+				release(conn, stmt);
+			}
 
-			Statement stmt = conn.createStatement();
-			stmt.executeUpdate(sql);
-			stmt.close();
+			stmt = prepare(conn, STMT_DELETE_PROVIDER_ALL, SQL_DELETE_PROVIDER_ALL);
+			try {
+				stmt.setString(1, provider.getURL());
+				stmt.setInt(2, provider.getPort());
+				stmt.executeUpdate();
+			} finally {
+				release(conn, stmt);
+			}
+			commit(conn, owner);
 		} catch (SQLException e) {
 			e.printStackTrace();
+			rollback(conn, owner);
 			return false;
 		}
 
 		return true;
 	}
 
+	@Override
+	public BatchResult registerBatch(Connection conn, ServiceSupportInfo[] supports) throws SQLException {
+		int[] statuses = new int[supports.length];
+		boolean owner = begin(conn);
+		try {
+			for (int i = 0; i < supports.length; i++) {
+				Savepoint savepoint = conn.setSavepoint();
+				try {
+					statuses[i] = register(conn, supports[i]) ? BatchResult.OK : BatchResult.FAILED;
+				} catch (ServiceProviderAlreadyExistsException e) {
+					statuses[i] = BatchResult.ALREADY_EXISTS;
+				}
+				endItem(conn, savepoint, statuses[i]);
+			}
+			commit(conn, owner);
+		} catch (SQLException e) {
+			rollback(conn, owner);
+			throw e;
+		}
+		return new BatchResult(statuses);
+	}
+
+	@Override
+	public BatchResult unregisterBatch(Connection conn, ServiceSupportInfo[] supports) throws SQLException {
+		int[] statuses = new int[supports.length];
+		boolean owner = begin(conn);
+		try {
+			for (int i = 0; i < supports.length; i++) {
+				Savepoint savepoint = conn.setSavepoint();
+				boolean flag = unregister(conn, supports[i].getService(), supports[i].getProvider());
+				statuses[i] = flag ? BatchResult.OK : BatchResult.FAILED;
+				endItem(conn, savepoint, statuses[i]);
+			}
+			commit(conn, owner);
+		} catch (SQLException e) {
+			rollback(conn, owner);
+			throw e;
+		}
+		return new BatchResult(statuses);
+	}
+
+	/**
+	 * Keeps the changes of a batch item if it succeeded, otherwise undoes
+	 * whatever part of it was written
+	 * 
+	 * @param conn
+	 * @param savepoint
+	 *            savepoint set before the item
+	 * @param status
+	 * @throws SQLException
+	 */
+	private void endItem(Connection conn, Savepoint savepoint, int status) throws SQLException {
+		if (status == BatchResult.OK) {
+			conn.releaseSavepoint(savepoint);
+		} else {
+			conn.rollback(savepoint);
+		}
+	}
+
+	@Override
+	public void appendChanges(Connection conn, RegistryChange[] changes) throws SQLException {
+		boolean owner = begin(conn);
+		try {
+			PreparedStatement stmt = prepare(conn, STMT_INSERT_CHANGE, SQL_INSERT_CHANGE);
+			try {
+				for (RegistryChange change : changes) {
+					ServiceSupportInfo support = change.getSupport();
+					ServiceProviderInfo provider = support.getProvider();
+					stmt.setLong(1, change.getRevision());
+					stmt.setInt(2, change.getType());
+					stmt.setInt(3, support.getService().getId());
+					stmt.setString(4, support.getService().getName());
+					stmt.setString(5, provider.getURL());
+					stmt.setInt(6, provider.getPort());
+					stmt.setString(7, provider.getEnv() == null ? null : provider.getEnv().getOS());
+					stmt.setString(8, provider.getEnv() == null ? null : provider.getEnv().getLang());
+					stmt.setString(9, provider.getEnv() == null ? null : provider.getEnv().getCompiler());
+					stmt.setString(10, formatsToString(support.getSerializers()));
+					stmt.addBatch();
+				}
+				stmt.executeBatch();
+			} finally {
+				stmt.clearBatch();
+				release(conn, stmt);
+			}
+			commit(conn, owner);
+		} catch (SQLException e) {
+			rollback(conn, owner);
+			throw e;
+		}
+	}
+
+	@Override
+	public RegistryChange[] getChangesSince(Connection conn, long revision, long upTo, int limit)
+			throws SQLException {
+		List<RegistryChange> out = new ArrayList<RegistryChange>();
+		PreparedStatement stmt = prepare(conn, STMT_GET_CHANGES, SQL_GET_CHANGES);
+		try {
+			stmt.setLong(1, revision);
+			stmt.setLong(2, upTo);
+			stmt.setInt(3, limit);
+			try (ResultSet rs = stmt.executeQuery()) {
+				while (rs.next()) {
+					ServiceProviderInfo provider = new ServiceProviderInfo(rs.getString(5), rs.getInt(6),
+							new EnvironmentInfo(rs.getString(8), rs.getString(7), rs.getString(9)));
+					ServiceSupportInfo support = new ServiceSupportInfo(new ServiceInfo<>(rs.getString(4), rs.getInt(3)),
+							provider, formatsFromString(rs.getString(10)));
+					out.add(new RegistryChange(rs.getLong(1), rs.getInt(2), support));
+				}
+			}
+		} finally {
+			release(conn, stmt);
+		}
+		return out.toArray(new RegistryChange[out.size()]);
+	}
+
+	@Override
+	public int pruneChanges(Connection conn, long revision) throws SQLException {
+		PreparedStatement stmt = prepare(conn, STMT_PRUNE_CHANGES, SQL_PRUNE_CHANGES);
+		try {
+			stmt.setLong(1, revision);
+			return stmt.executeUpdate();
+		} finally {
+			release(conn, stmt);
+		}
+	}
+
+	/**
+	 * formats are stored as name:version pairs separated by commas, null if
+	 * there are none
+	 */
+	private static String formatsToString(SerializationFormat[] formats) {
+		if (formats == null || formats.length == 0) {
+			return null;
+		}
+		StringBuilder sb = new StringBuilder();
+		for (SerializationFormat format : formats) {
+			if (sb.length() > 0) {
+				sb.append(',');
+			}
+			sb.append(format.getName()).append(':').append(format.getVersion());
+		}
+		return sb.toString();
+	}
+
+	private static SerializationFormat[] formatsFromString(String str) {
+		if (str == null) {
+			return null;
+		}
+		String[] parts = str.split(",");
+		SerializationFormat[] formats = new SerializationFormat[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			int idx = parts[i].lastIndexOf(':');
+			formats[i] = new SerializationFormat(parts[i].substring(0, idx), parts[i].substring(idx + 1));
+		}
+		return formats;
+	}
+
 }
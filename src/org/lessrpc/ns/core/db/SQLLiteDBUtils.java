@@ -33,8 +33,8 @@ public class SQLLiteDBUtils extends SQLBasedUtils {
 				+ DB_SQL_TABLE_COLUMN_NAME_ENV_LANG + " TEXT, " + DB_SQL_TABLE_COLUMN_NAME_ENV_COMPILER
 				+ " TEXT , CONSTRAINT SP_POINTER_UNQ UNIQUE (" + DB_SQL_TABLE_COLUMN_NAME_SERVICE_ID + ", "
 				+ DB_SQL_TABLE_COLUMN_NAME_URL + ", " + DB_SQL_TABLE_COLUMN_NAME_PORT
-				+ ")); CREATE INDEX SERIVCE_PROVIDER_SERVICE_ID_IDX ON " + DB_SQL_TABLE_NAME_SERVICE_PROVIDER + "("
-				+ DB_SQL_TABLE_COLUMN_NAME_SERVICE_ID
+				+ ")); CREATE INDEX IF NOT EXISTS SERIVCE_PROVIDER_SERVICE_ID_IDX ON "
+				+ DB_SQL_TABLE_NAME_SERVICE_PROVIDER + "(" + DB_SQL_TABLE_COLUMN_NAME_SERVICE_ID
 				+ ");CREATE INDEX  IF NOT EXISTS SERIVCE_PROVIDER_URL_PORT_IDX ON " + DB_SQL_TABLE_NAME_SERVICE_PROVIDER
 				+ "(" + DB_SQL_TABLE_COLUMN_NAME_URL + "," + DB_SQL_TABLE_COLUMN_NAME_PORT + ");";
 		try {
@@ -54,7 +54,7 @@ public class SQLLiteDBUtils extends SQLBasedUtils {
 				+ DB_SQL_TABLE_COLUMN_NAME_SUPPORT_ID + " INTEGER PRIMARY KEY, "
 				+ DB_SQL_TABLE_COLUMN_NAME_SERVICE_PROVIDER_ID + " INT, " + DB_SQL_TABLE_COLUMN_NAME_FORMAT_NAME
 				+ " TEXT, " + DB_SQL_TABLE_COLUMN_NAME_FORMAT_VERSION
-				+ " TEXT); CREATE  IF NOT EXISTS INDEX SUPPORT_SP_ID_IDX ON SERVICE_PROVIDER_SUPPORT("
+				+ " TEXT); CREATE INDEX IF NOT EXISTS SUPPORT_SP_ID_IDX ON SERVICE_PROVIDER_SUPPORT("
 				+ DB_SQL_TABLE_COLUMN_NAME_SERVICE_PROVIDER_ID + ");";
 		try {
 			Statement stmt = conn.createStatement();
@@ -67,6 +67,25 @@ public class SQLLiteDBUtils extends SQLBasedUtils {
 		return true;
 	}
 
+	@Override
+	public boolean createChangeLogTable(Connection conn) {
+		String sql = "CREATE TABLE IF NOT EXISTS " + DB_SQL_TABLE_NAME_REGISTRY_CHANGE + "("
+				+ DB_SQL_TABLE_COLUMN_NAME_REVISION + " INTEGER PRIMARY KEY, " + DB_SQL_TABLE_COLUMN_NAME_CHANGE_TYPE
+				+ " INT, " + DB_SQL_TABLE_COLUMN_NAME_SERVICE_ID + " INT, " + DB_SQL_TABLE_COLUMN_NAME_NAME + " TEXT, "
+				+ DB_SQL_TABLE_COLUMN_NAME_URL + " TEXT, " + DB_SQL_TABLE_COLUMN_NAME_PORT + " INT, "
+				+ DB_SQL_TABLE_COLUMN_NAME_ENV_OS + " TEXT, " + DB_SQL_TABLE_COLUMN_NAME_ENV_LANG + " TEXT, "
+				+ DB_SQL_TABLE_COLUMN_NAME_ENV_COMPILER + " TEXT, " + DB_SQL_TABLE_COLUMN_NAME_FORMATS + " TEXT);";
+		try {
+			Statement stmt = conn.createStatement();
+			stmt.executeUpdate(sql);
+			stmt.close();
+		} catch (SQLException e) {
+			return false;
+		}
+
+		return true;
+	}
+
 	@Override
 	public boolean cleanAllTables(Connection conn) {
 
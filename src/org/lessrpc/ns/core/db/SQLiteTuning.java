@@ -0,0 +1,117 @@
+package org.lessrpc.ns.core.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ *
+ * Pragmas applied to every SQLite connection when it is opened. With a single
+ * writer, pooled connections are made read only (query_only) and all
+ * mutations go through one {@link GroupCommitWriter}; in WAL mode readers then
+ * never wait for the writer, and the writer never gets SQLITE_BUSY from other
+ * connections of the name server.
+ *
+ */
+public class SQLiteTuning {
+
+	public static final String DEFAULT_JOURNAL_MODE = "WAL";
+	public static final String DEFAULT_SYNCHRONOUS = "NORMAL";
+	public static final long DEFAULT_MMAP_SIZE = 256L * 1024 * 1024;
+	public static final int DEFAULT_CACHE_SIZE = 16 * 1024;
+	public static final int DEFAULT_BUSY_TIMEOUT = 5000;
+
+	/**
+	 * journal_mode, WAL lets readers run concurrently with the writer
+	 */
+	private final String journalMode;
+
+	/**
+	 * synchronous, NORMAL only syncs the WAL on checkpoints
+	 */
+	private final String synchronous;
+
+	/**
+	 * mmap_size in bytes, 0 disables memory-mapped reads
+	 */
+	private final long mmapSize;
+
+	/**
+	 * page cache size of each connection in KiB
+	 */
+	private final int cacheSize;
+
+	/**
+	 * busy_timeout in ms
+	 */
+	private final int busyTimeout;
+
+	/**
+	 * if true, mutations are serialized on one writer thread and pooled
+	 * connections are read only
+	 */
+	private final boolean singleWriter;
+
+	public SQLiteTuning(String journalMode, String synchronous, long mmapSize, int cacheSize, int busyTimeout,
+			boolean singleWriter) {
+		this.journalMode = journalMode;
+		this.synchronous = synchronous;
+		this.mmapSize = mmapSize;
+		this.cacheSize = cacheSize;
+		this.busyTimeout = busyTimeout;
+		this.singleWriter = singleWriter;
+	}
+
+	public SQLiteTuning() {
+		this(DEFAULT_JOURNAL_MODE, DEFAULT_SYNCHRONOUS, DEFAULT_MMAP_SIZE, DEFAULT_CACHE_SIZE, DEFAULT_BUSY_TIMEOUT,
+				true);
+	}
+
+	/**
+	 * Applies the pragmas to a newly opened connection
+	 *
+	 * @param conn
+	 * @param readOnly
+	 *            if true, the connection refuses to write
+	 * @throws SQLException
+	 */
+	public void apply(Connection conn, boolean readOnly) throws SQLException {
+		try (Statement stmt = conn.createStatement()) {
+			// first, so the other pragmas don't fail on a locked database
+			stmt.execute("PRAGMA busy_timeout = " + busyTimeout);
+			stmt.execute("PRAGMA journal_mode = " + journalMode);
+			stmt.execute("PRAGMA synchronous = " + synchronous);
+			stmt.execute("PRAGMA mmap_size = " + mmapSize);
+			// negative values are in KiB instead of pages
+			stmt.execute("PRAGMA cache_size = " + (-cacheSize));
+			if (readOnly) {
+				stmt.execute("PRAGMA query_only = ON");
+			}
+		}
+	}
+
+	public String getJournalMode() {
+		return journalMode;
+	}
+
+	public String getSynchronous() {
+		return synchronous;
+	}
+
+	public long getMmapSize() {
+		return mmapSize;
+	}
+
+	public int getCacheSize() {
+		return cacheSize;
+	}
+
+	public int getBusyTimeout() {
+		return busyTimeout;
+	}
+
+	public boolean isSingleWriter() {
+		return singleWriter;
+	}
+
+}
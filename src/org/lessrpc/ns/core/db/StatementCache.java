@@ -0,0 +1,98 @@
+package org.lessrpc.ns.core.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 
+ * Prepared statements of one physical connection, indexed by statement id. A
+ * connection is used by one thread at a time so the cache itself is not
+ * synchronized; only the shared {@link Stats} are.
+ * 
+ */
+public class StatementCache {
+
+	/**
+	 * number of statement ids supported
+	 */
+	public static final int CAPACITY = 32;
+
+	private final PreparedStatement[] statements = new PreparedStatement[CAPACITY];
+
+	/**
+	 * sql each cached statement was prepared from
+	 */
+	private final String[] sqls = new String[CAPACITY];
+
+	private final Stats stats;
+
+	public StatementCache(Stats stats) {
+		this.stats = stats;
+	}
+
+	public PreparedStatement prepare(Connection conn, int statementId, String sql, int autoGeneratedKeys)
+			throws SQLException {
+		if (statementId < 0 || statementId >= CAPACITY) {
+			throw new IllegalArgumentException("Statement id must be between 0 and " + (CAPACITY - 1));
+		}
+		PreparedStatement stmt = statements[statementId];
+		if (stmt != null) {
+			// sql strings are constants, comparing references is enough
+			if (sqls[statementId] == sql || sqls[statementId].equals(sql)) {
+				stats.hits.increment();
+				return stmt;
+			}
+			close(stmt);
+		}
+		stats.misses.increment();
+		stmt = conn.prepareStatement(sql, autoGeneratedKeys);
+		statements[statementId] = stmt;
+		sqls[statementId] = sql;
+		return stmt;
+	}
+
+	/**
+	 * Closes all cached statements
+	 */
+	public void close() {
+		for (int i = 0; i < CAPACITY; i++) {
+			if (statements[i] != null) {
+				close(statements[i]);
+				statements[i] = null;
+				sqls[i] = null;
+			}
+		}
+	}
+
+	private static void close(PreparedStatement stmt) {
+		try {
+			stmt.close();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * 
+	 * Hit and miss counters shared by the statement caches of a pool
+	 *
+	 */
+	public static class Stats {
+
+		private final LongAdder hits = new LongAdder();
+
+		private final LongAdder misses = new LongAdder();
+
+		public long getHits() {
+			return hits.sum();
+		}
+
+		public long getMisses() {
+			return misses.sum();
+		}
+
+	}
+
+}
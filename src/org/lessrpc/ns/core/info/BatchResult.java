@@ -0,0 +1,61 @@
+package org.lessrpc.ns.core.info;
+
+/**
+ * 
+ * Per-item outcome of REGISTER_BATCH and UNREGISTER_BATCH. statuses[i] is the
+ * status of the i-th item of the request.
+ * 
+ */
+public class BatchResult {
+
+	/**
+	 * the item was applied
+	 */
+	public static final int OK = 0;
+
+	/**
+	 * the provider was already registered for the service (registration only)
+	 */
+	public static final int ALREADY_EXISTS = 1;
+
+	/**
+	 * the item could not be applied, nothing of it was written
+	 */
+	public static final int FAILED = 2;
+
+	private int[] statuses;
+
+	public BatchResult() {
+	}
+
+	public BatchResult(int[] statuses) {
+		this.statuses = statuses;
+	}
+
+	public int[] getStatuses() {
+		return statuses;
+	}
+
+	public void setStatuses(int[] statuses) {
+		this.statuses = statuses;
+	}
+
+	public boolean isOk(int index) {
+		return statuses[index] == OK;
+	}
+
+	/**
+	 * 
+	 * @return number of items that were applied
+	 */
+	public int countOk() {
+		int count = 0;
+		for (int status : statuses) {
+			if (status == OK) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+}
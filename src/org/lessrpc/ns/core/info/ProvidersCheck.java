@@ -0,0 +1,53 @@
+package org.lessrpc.ns.core.info;
+
+import org.lessrpc.common.info.ServiceSupportInfo;
+
+/**
+ * 
+ * Result of CHECK_PROVIDERS. Carries the providers of the service only if
+ * they changed since the revision the caller passed in; revision is passed
+ * back with the next check. Callers that have not seen a revision yet pass
+ * {@link #NO_REVISION}.
+ * 
+ */
+public class ProvidersCheck {
+
+	public static final long NO_REVISION = -1;
+
+	private long revision;
+
+	private ServiceSupportInfo[] supports;
+
+	public ProvidersCheck() {
+	}
+
+	public ProvidersCheck(long revision, ServiceSupportInfo[] supports) {
+		this.revision = revision;
+		this.supports = supports;
+	}
+
+	public long getRevision() {
+		return revision;
+	}
+
+	public void setRevision(long revision) {
+		this.revision = revision;
+	}
+
+	/**
+	 * 
+	 * @return providers of the service, null if they did not change
+	 */
+	public ServiceSupportInfo[] getSupports() {
+		return supports;
+	}
+
+	public void setSupports(ServiceSupportInfo[] supports) {
+		this.supports = supports;
+	}
+
+	public boolean isChanged() {
+		return supports != null;
+	}
+
+}
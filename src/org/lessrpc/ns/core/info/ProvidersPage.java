@@ -0,0 +1,50 @@
+package org.lessrpc.ns.core.info;
+
+import org.lessrpc.common.info.ServiceSupportInfo;
+
+/**
+ * 
+ * One page of the registry as returned by GET_PROVIDERS_PAGE. Pages are
+ * ordered by provider id; nextPageToken is passed back to fetch the following
+ * page and is {@link #LAST_PAGE} once the end of the registry was reached.
+ * 
+ */
+public class ProvidersPage {
+
+	public static final long FIRST_PAGE = 0;
+
+	public static final long LAST_PAGE = -1;
+
+	private ServiceSupportInfo[] supports;
+
+	private long nextPageToken;
+
+	public ProvidersPage() {
+	}
+
+	public ProvidersPage(ServiceSupportInfo[] supports, long nextPageToken) {
+		this.supports = supports;
+		this.nextPageToken = nextPageToken;
+	}
+
+	public ServiceSupportInfo[] getSupports() {
+		return supports;
+	}
+
+	public void setSupports(ServiceSupportInfo[] supports) {
+		this.supports = supports;
+	}
+
+	public long getNextPageToken() {
+		return nextPageToken;
+	}
+
+	public void setNextPageToken(long nextPageToken) {
+		this.nextPageToken = nextPageToken;
+	}
+
+	public boolean isLastPage() {
+		return nextPageToken == LAST_PAGE;
+	}
+
+}
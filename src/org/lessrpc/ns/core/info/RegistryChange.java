@@ -0,0 +1,56 @@
+package org.lessrpc.ns.core.info;
+
+import org.lessrpc.common.info.ServiceSupportInfo;
+
+/**
+ * 
+ * One entry of the registry change log: a provider was added to or removed
+ * from a service. Serialization formats are only set on adds.
+ * 
+ */
+public class RegistryChange {
+
+	public static final int ADD = 0;
+
+	public static final int REMOVE = 1;
+
+	private long revision;
+
+	private int type;
+
+	private ServiceSupportInfo support;
+
+	public RegistryChange() {
+	}
+
+	public RegistryChange(long revision, int type, ServiceSupportInfo support) {
+		this.revision = revision;
+		this.type = type;
+		this.support = support;
+	}
+
+	public long getRevision() {
+		return revision;
+	}
+
+	public void setRevision(long revision) {
+		this.revision = revision;
+	}
+
+	public int getType() {
+		return type;
+	}
+
+	public void setType(int type) {
+		this.type = type;
+	}
+
+	public ServiceSupportInfo getSupport() {
+		return support;
+	}
+
+	public void setSupport(ServiceSupportInfo support) {
+		this.support = support;
+	}
+
+}
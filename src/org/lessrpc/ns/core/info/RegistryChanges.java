@@ -0,0 +1,67 @@
+package org.lessrpc.ns.core.info;
+
+/**
+ * 
+ * Result of GET_CHANGES_SINCE: the changes made after the revision the
+ * caller passed in, in order. revision is passed back with the next call;
+ * while complete is false more changes are waiting.
+ * 
+ * If snapshotRequired is set the changes the caller missed are no longer
+ * kept. The caller then has to reload the whole registry and continue from
+ * the revision of this result, which was taken before the reload; changes
+ * seen twice that way can be applied again.
+ * 
+ */
+public class RegistryChanges {
+
+	private long revision;
+
+	private RegistryChange[] changes;
+
+	private boolean complete;
+
+	private boolean snapshotRequired;
+
+	public RegistryChanges() {
+	}
+
+	public RegistryChanges(long revision, RegistryChange[] changes, boolean complete, boolean snapshotRequired) {
+		this.revision = revision;
+		this.changes = changes;
+		this.complete = complete;
+		this.snapshotRequired = snapshotRequired;
+	}
+
+	public long getRevision() {
+		return revision;
+	}
+
+	public void setRevision(long revision) {
+		this.revision = revision;
+	}
+
+	public RegistryChange[] getChanges() {
+		return changes;
+	}
+
+	public void setChanges(RegistryChange[] changes) {
+		this.changes = changes;
+	}
+
+	public boolean isComplete() {
+		return complete;
+	}
+
+	public void setComplete(boolean complete) {
+		this.complete = complete;
+	}
+
+	public boolean isSnapshotRequired() {
+		return snapshotRequired;
+	}
+
+	public void setSnapshotRequired(boolean snapshotRequired) {
+		this.snapshotRequired = snapshotRequired;
+	}
+
+}
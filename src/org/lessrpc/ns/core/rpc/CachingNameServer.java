@@ -0,0 +1,444 @@
+package org.lessrpc.ns.core.rpc;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.lessrpc.common.errors.ApplicationSpecificErrorException;
+import org.lessrpc.common.errors.DatabaseNotSupported;
+import org.lessrpc.common.info.ServiceInfo;
+import org.lessrpc.common.info.ServiceProviderInfo;
+import org.lessrpc.common.info.ServiceSupportInfo;
+import org.lessrpc.common.loadbalance.ProviderLoadBalancer;
+import org.lessrpc.ns.core.info.BatchResult;
+import org.lessrpc.ns.core.info.ProvidersPage;
+
+/**
+ *
+ * Name server decorator that keeps the whole registry in memory. The index is
+ * loaded from the underlying name server when created and updated
+ * write-through on every register and unregister, so provider lookups are
+ * served from memory without touching the database. The cache is
+ * authoritative: a service that is not in the index has no providers.
+ *
+ * Mutations are written to the underlying name server holding only the
+ * {@link EndpointLocks} of their providers, writeLock is only taken to update
+ * the index.
+ *
+ * Only mutations going through this instance are seen by the index, hence the
+ * underlying name server must not be modified by anyone else.
+ *
+ */
+public class CachingNameServer implements ExtendedNameServer {
+
+	private static final ServiceSupportInfo[] EMPTY = new ServiceSupportInfo[0];
+
+	private final ExtendedNameServer ns;
+
+	/**
+	 * service id to providers of the service. Arrays are never modified once
+	 * published, writers replace them instead.
+	 */
+	private final ConcurrentHashMap<Integer, ServiceSupportInfo[]> providers;
+
+	/**
+	 * service info of services seen in registrations, by id and by name
+	 */
+	private final ConcurrentHashMap<Integer, ServiceInfo<?>> servicesById;
+	private final ConcurrentHashMap<String, ServiceInfo<?>> servicesByName;
+
+	/**
+	 * held by mutations of an endpoint until the index is updated, so the
+	 * index applies them in the same order as the database
+	 */
+	private final EndpointLocks endpointLocks = new EndpointLocks();
+
+	/**
+	 * guards updates of the index
+	 */
+	private final Object writeLock = new Object();
+
+	public CachingNameServer(ExtendedNameServer ns)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		this.ns = ns;
+		this.providers = new ConcurrentHashMap<Integer, ServiceSupportInfo[]>();
+		this.servicesById = new ConcurrentHashMap<Integer, ServiceInfo<?>>();
+		this.servicesByName = new ConcurrentHashMap<String, ServiceInfo<?>>();
+		reload();
+	}
+
+	/**
+	 * Rebuilds the index from the underlying name server
+	 *
+	 * @throws ClassNotFoundException
+	 * @throws SQLException
+	 * @throws DatabaseNotSupported
+	 */
+	public void reload() throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		int[] stripes = endpointLocks.lockAll();
+		try {
+			ServiceSupportInfo[] all = ns.getAllProviders();
+
+			// grouping by service id while keeping registration order
+			Map<Integer, List<ServiceSupportInfo>> grouped = new HashMap<Integer, List<ServiceSupportInfo>>();
+			for (ServiceSupportInfo support : all) {
+				List<ServiceSupportInfo> list = grouped.get(support.getService().getId());
+				if (list == null) {
+					list = new ArrayList<ServiceSupportInfo>();
+					grouped.put(support.getService().getId(), list);
+				}
+				list.add(support);
+				addService(support.getService());
+			}
+
+			synchronized (writeLock) {
+				providers.clear();
+				for (Map.Entry<Integer, List<ServiceSupportInfo>> entry : grouped.entrySet()) {
+					providers.put(entry.getKey(), entry.getValue().toArray(EMPTY));
+				}
+			}
+		} finally {
+			endpointLocks.unlock(stripes);
+		}
+		System.out.println("Loaded " + providers.size() + " service(s) into the registry cache....");
+	}
+
+	@Override
+	public ServiceSupportInfo getProvider(ServiceInfo<?> service)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		ServiceSupportInfo[] supports = providers.get(service.getId());
+		if (supports == null || supports.length == 0) {
+			return null;
+		}
+		return getLoadBalancer().select(service, supports);
+	}
+
+	/**
+	 * The returned array is the published snapshot of the index, shared with
+	 * all callers; it must not be modified.
+	 */
+	@Override
+	public ServiceSupportInfo[] getProviders(ServiceInfo<?> service)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		ServiceSupportInfo[] supports = providers.get(service.getId());
+		// published arrays are never modified, callers share them
+		return supports == null ? EMPTY : supports;
+	}
+
+	@Override
+	public ServiceSupportInfo[] getAllProviders() throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		// rarely called, let the database keep the global registration order
+		return ns.getAllProviders();
+	}
+
+	@Override
+	public ProvidersPage getProvidersPage(long pageToken, int pageSize)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		return ns.getProvidersPage(pageToken, pageSize);
+	}
+
+	@Override
+	public boolean register(ServiceSupportInfo support)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported, ApplicationSpecificErrorException {
+		int[] stripes = endpointLocks.lock(support.getProvider());
+		try {
+			boolean flag = ns.register(support);
+			if (flag) {
+				synchronized (writeLock) {
+					addProvider(support);
+				}
+			}
+			return flag;
+		} finally {
+			endpointLocks.unlock(stripes);
+		}
+	}
+
+	@Override
+	public long registerWithLease(ServiceSupportInfo support, long ttl)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported, ApplicationSpecificErrorException {
+		int[] stripes = endpointLocks.lock(support.getProvider());
+		try {
+			long granted = ns.registerWithLease(support, ttl);
+			if (granted >= 0) {
+				synchronized (writeLock) {
+					addProvider(support);
+				}
+			}
+			return granted;
+		} finally {
+			endpointLocks.unlock(stripes);
+		}
+	}
+
+	@Override
+	public boolean heartbeat(ServiceProviderInfo provider) {
+		return ns.heartbeat(provider);
+	}
+
+	@Override
+	public BatchResult registerBatch(ServiceSupportInfo[] supports)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		int[] stripes = endpointLocks.lock(supports);
+		try {
+			BatchResult result = ns.registerBatch(supports);
+			synchronized (writeLock) {
+				for (int i = 0; i < supports.length; i++) {
+					if (result.isOk(i)) {
+						addProvider(supports[i]);
+					}
+				}
+			}
+			return result;
+		} finally {
+			endpointLocks.unlock(stripes);
+		}
+	}
+
+	@Override
+	public BatchResult unregisterBatch(ServiceSupportInfo[] supports)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		int[] stripes = endpointLocks.lock(supports);
+		try {
+			BatchResult result = ns.unregisterBatch(supports);
+			synchronized (writeLock) {
+				for (int i = 0; i < supports.length; i++) {
+					if (result.isOk(i)) {
+						removeProvider(supports[i].getService().getId(), supports[i].getProvider());
+					}
+				}
+			}
+			return result;
+		} finally {
+			endpointLocks.unlock(stripes);
+		}
+	}
+
+	@Override
+	public boolean unregister(ServiceInfo<?> service, ServiceProviderInfo provider)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		int[] stripes = endpointLocks.lock(provider);
+		try {
+			boolean flag = ns.unregister(service, provider);
+			if (flag) {
+				synchronized (writeLock) {
+					removeProvider(service.getId(), provider);
+				}
+			}
+			return flag;
+		} finally {
+			endpointLocks.unlock(stripes);
+		}
+	}
+
+	@Override
+	public boolean unregisterAll(ServiceProviderInfo provider)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		int[] stripes = endpointLocks.lock(provider);
+		try {
+			boolean flag = ns.unregisterAll(provider);
+			if (flag) {
+				synchronized (writeLock) {
+					removeProviderAll(provider);
+				}
+			}
+			return flag;
+		} finally {
+			endpointLocks.unlock(stripes);
+		}
+	}
+
+	@Override
+	public ServiceInfo<?> getServiceInfoByName(String serviceName)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		ServiceInfo<?> service = servicesByName.get(serviceName);
+		if (service != null) {
+			return service;
+		}
+		return ns.getServiceInfoByName(serviceName);
+	}
+
+	@Override
+	public ServiceInfo<?> getServiceInfoById(int serviceId)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		ServiceInfo<?> service = servicesById.get(serviceId);
+		if (service != null) {
+			return service;
+		}
+		return ns.getServiceInfoById(serviceId);
+	}
+
+	/**
+	 * The underlying name server unregisters the provider from all its
+	 * services if the check fails. The ping runs without any lock; afterwards
+	 * one service of the provider is read from the underlying name server
+	 * holding the lock of its endpoint, and the provider is dropped from the
+	 * index if it is gone there.
+	 */
+	@Override
+	public boolean checkProviderStatus(ServiceProviderInfo provider) {
+		boolean flag = ns.checkProviderStatus(provider);
+		int[] stripes = endpointLocks.lock(provider);
+		try {
+			Integer serviceId = findService(provider);
+			if (serviceId == null) {
+				return flag;
+			}
+			ServiceInfo<?> service = servicesById.get(serviceId);
+			for (ServiceSupportInfo support : ns.getProviders(service)) {
+				if (sameEndpoint(support.getProvider(), provider)) {
+					return flag;
+				}
+			}
+			synchronized (writeLock) {
+				removeProviderAll(provider);
+			}
+		} catch (ClassNotFoundException | SQLException | DatabaseNotSupported e) {
+			e.printStackTrace();
+		} finally {
+			endpointLocks.unlock(stripes);
+		}
+		return flag;
+	}
+
+	@Override
+	public boolean reportLatency(ServiceProviderInfo provider, long latencyMicros, boolean success) {
+		return ns.reportLatency(provider, latencyMicros, success);
+	}
+
+	@Override
+	public String getURL() {
+		return ns.getURL();
+	}
+
+	@Override
+	public int getPort() {
+		return ns.getPort();
+	}
+
+	@Override
+	public boolean ping() {
+		return ns.ping();
+	}
+
+	@Override
+	public ProviderLoadBalancer getLoadBalancer() {
+		return ns.getLoadBalancer();
+	}
+
+	@Override
+	public void setLoadBalancer(ProviderLoadBalancer balancer) {
+		ns.setLoadBalancer(balancer);
+	}
+
+	@Override
+	public void reset() throws SQLException, ClassNotFoundException, DatabaseNotSupported {
+		int[] stripes = endpointLocks.lockAll();
+		try {
+			ns.reset();
+			synchronized (writeLock) {
+				providers.clear();
+				servicesById.clear();
+				servicesByName.clear();
+			}
+		} finally {
+			endpointLocks.unlock(stripes);
+		}
+	}
+
+	/**
+	 *
+	 * @return the decorated name server
+	 */
+	public ExtendedNameServer getNameServer() {
+		return ns;
+	}
+
+	private void addService(ServiceInfo<?> service) {
+		servicesById.putIfAbsent(service.getId(), service);
+		servicesByName.putIfAbsent(service.getName(), service);
+	}
+
+	/**
+	 * appends the provider to the providers of its service. Must hold
+	 * writeLock.
+	 * 
+	 * @param support
+	 */
+	private void addProvider(ServiceSupportInfo support) {
+		int id = support.getService().getId();
+		ServiceSupportInfo[] current = providers.get(id);
+		if (current == null) {
+			current = EMPTY;
+		}
+		ServiceSupportInfo[] updated = Arrays.copyOf(current, current.length + 1);
+		updated[current.length] = support;
+		providers.put(id, updated);
+		addService(support.getService());
+	}
+
+	/**
+	 * 
+	 * @param provider
+	 * @return id of a service the provider is indexed under, null if none
+	 */
+	private Integer findService(ServiceProviderInfo provider) {
+		for (Map.Entry<Integer, ServiceSupportInfo[]> entry : providers.entrySet()) {
+			for (ServiceSupportInfo support : entry.getValue()) {
+				if (sameEndpoint(support.getProvider(), provider)) {
+					return entry.getKey();
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * removes the provider from the providers of the service, matching on url
+	 * and port the same way the database does. Must hold writeLock.
+	 *
+	 * @param serviceId
+	 * @param provider
+	 */
+	private void removeProvider(int serviceId, ServiceProviderInfo provider) {
+		ServiceSupportInfo[] current = providers.get(serviceId);
+		if (current == null) {
+			return;
+		}
+		List<ServiceSupportInfo> list = new ArrayList<ServiceSupportInfo>(current.length);
+		for (ServiceSupportInfo support : current) {
+			if (!sameEndpoint(support.getProvider(), provider)) {
+				list.add(support);
+			}
+		}
+		if (list.size() == current.length) {
+			return;
+		}
+		if (list.isEmpty()) {
+			providers.remove(serviceId);
+		} else {
+			providers.put(serviceId, list.toArray(EMPTY));
+		}
+	}
+
+	/**
+	 * removes the provider from the providers of all services. Must hold
+	 * writeLock.
+	 *
+	 * @param provider
+	 */
+	private void removeProviderAll(ServiceProviderInfo provider) {
+		for (Integer id : providers.keySet()) {
+			removeProvider(id, provider);
+		}
+	}
+
+	private static boolean sameEndpoint(ServiceProviderInfo p1, ServiceProviderInfo p2) {
+		return p1.getPort() == p2.getPort() && p1.getURL().equals(p2.getURL());
+	}
+
+}
@@ -0,0 +1,260 @@
+package org.lessrpc.ns.core.rpc;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.lessrpc.common.db.DBInfo;
+import org.lessrpc.common.errors.DatabaseNotSupported;
+import org.lessrpc.common.info.ServiceSupportInfo;
+import org.lessrpc.ns.core.db.DBFactory;
+import org.lessrpc.ns.core.db.RegistryDBUtils;
+import org.lessrpc.ns.core.info.RegistryChange;
+import org.lessrpc.ns.core.info.RegistryChanges;
+
+/**
+ *
+ * Log of registry changes numbered by a global revision. The latest changes
+ * are kept in a ring buffer; when the ring is full its older half is moved to
+ * the change log table in one batch, or dropped if the log has no database.
+ * The table keeps up to the retention number of changes.
+ *
+ * Revisions are seeded with the start time, so a revision seen before a
+ * restart is older than every revision after it. The table is emptied on
+ * start since the revisions of a previous run don't continue.
+ *
+ */
+public class ChangeLog {
+
+	/**
+	 * default number of changes kept in memory
+	 */
+	public static final int DEFAULT_CAPACITY = 4096;
+
+	/**
+	 * default number of changes kept in the database
+	 */
+	public static final long DEFAULT_RETENTION = 100000;
+
+	private static final RegistryChange[] EMPTY = new RegistryChange[0];
+
+	private final RegistryChange[] ring;
+
+	/**
+	 * index of the oldest change in the ring and number of changes in it
+	 */
+	private int start = 0;
+	private int size = 0;
+
+	/**
+	 * revision of the latest change
+	 */
+	private long revision;
+
+	/**
+	 * changes after this revision are still in the log
+	 */
+	private long truncatedAt;
+
+	/**
+	 * changes up to this revision were moved out of the ring
+	 */
+	private long spilledUpTo;
+
+	private final long retention;
+
+	/**
+	 * null if changes are not spilled to the database
+	 */
+	private final DBInfo dbInfo;
+
+	private final RegistryDBUtils dbUtils;
+
+	/**
+	 * Log kept in memory only
+	 *
+	 * @param capacity
+	 */
+	public ChangeLog(int capacity) {
+		this(capacity, 0, null, null);
+	}
+
+	/**
+	 *
+	 * @param capacity
+	 *            number of changes kept in memory
+	 * @param retention
+	 *            number of changes kept in the database
+	 * @param dbInfo
+	 *            database to spill changes to, null to drop them
+	 * @param dbUtils
+	 * @throws IllegalArgumentException
+	 *             if capacity is less than 2
+	 */
+	public ChangeLog(int capacity, long retention, DBInfo dbInfo, RegistryDBUtils dbUtils) {
+		if (capacity < 2) {
+			throw new IllegalArgumentException("Change log capacity must be at least 2 but was " + capacity);
+		}
+		this.ring = new RegistryChange[capacity];
+		this.retention = retention;
+		this.dbInfo = dbInfo;
+		this.dbUtils = dbUtils;
+		this.revision = System.currentTimeMillis() * 1000;
+		this.truncatedAt = revision;
+		this.spilledUpTo = revision;
+	}
+
+	/**
+	 * Creates the change log table and empties it
+	 *
+	 * @throws ClassNotFoundException
+	 * @throws SQLException
+	 * @throws DatabaseNotSupported
+	 */
+	public void init() throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		if (dbInfo == null) {
+			return;
+		}
+		DBFactory.write(dbInfo, conn -> {
+			dbUtils.createChangeLogTable(conn);
+			return dbUtils.pruneChanges(conn, Long.MAX_VALUE);
+		});
+	}
+
+	/**
+	 * Appends a change
+	 *
+	 * @param type
+	 *            {@link RegistryChange#ADD} or {@link RegistryChange#REMOVE}
+	 * @param support
+	 * @return revision of the change
+	 */
+	public synchronized long append(int type, ServiceSupportInfo support) {
+		if (size == ring.length) {
+			spill();
+		}
+		revision++;
+		ring[(start + size) % ring.length] = new RegistryChange(revision, type, support);
+		size++;
+		return revision;
+	}
+
+	/**
+	 * Drops all changes, callers have to take a snapshot afterwards
+	 *
+	 * @return the new revision
+	 */
+	public synchronized long truncate() {
+		Arrays.fill(ring, null);
+		start = 0;
+		size = 0;
+		revision++;
+		truncatedAt = revision;
+		spilledUpTo = revision;
+		if (dbInfo != null) {
+			try {
+				DBFactory.write(dbInfo, conn -> dbUtils.pruneChanges(conn, Long.MAX_VALUE));
+			} catch (ClassNotFoundException | SQLException | DatabaseNotSupported e) {
+				e.printStackTrace();
+			}
+		}
+		return revision;
+	}
+
+	public synchronized long getRevision() {
+		return revision;
+	}
+
+	/**
+	 * Returns up to limit changes after the revision. Changes that were
+	 * spilled are read from the database; the ones still in memory follow
+	 * with the next call.
+	 *
+	 * @param since
+	 * @param limit
+	 * @return
+	 * @throws ClassNotFoundException
+	 * @throws SQLException
+	 * @throws DatabaseNotSupported
+	 */
+	public RegistryChanges getChangesSince(long since, int limit)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		long upTo;
+		synchronized (this) {
+			if (since < truncatedAt || since > revision) {
+				return new RegistryChanges(revision, EMPTY, true, true);
+			}
+			if (since >= spilledUpTo) {
+				return fromRing(since, limit);
+			}
+			upTo = spilledUpTo;
+		}
+
+		// reading the database without blocking appends
+		RegistryChange[] changes;
+		changes = DBFactory.read(dbInfo, conn -> dbUtils.getChangesSince(conn, since, upTo, limit));
+
+		synchronized (this) {
+			if (since < truncatedAt) {
+				// pruned while reading
+				return new RegistryChanges(revision, EMPTY, true, true);
+			}
+			long last = changes.length == 0 ? upTo : changes[changes.length - 1].getRevision();
+			return new RegistryChanges(last, changes, last == revision, false);
+		}
+	}
+
+	/**
+	 * Must hold the lock of the log
+	 */
+	private RegistryChanges fromRing(long since, int limit) {
+		// revisions in the ring are consecutive except after a truncate,
+		// which empties it
+		int skip = size == 0 ? 0 : (int) Math.max(0, Math.min(size, since - ring[start].getRevision() + 1));
+		int count = Math.min(limit, size - skip);
+		RegistryChange[] changes = new RegistryChange[count];
+		for (int i = 0; i < count; i++) {
+			changes[i] = ring[(start + skip + i) % ring.length];
+		}
+		long last = count == 0 ? since : changes[count - 1].getRevision();
+		return new RegistryChanges(last, changes, last == revision, false);
+	}
+
+	/**
+	 * moves the older half of the ring to the database. Must hold the lock of
+	 * the log.
+	 */
+	private void spill() {
+		int count = ring.length / 2;
+		List<RegistryChange> batch = new ArrayList<RegistryChange>(count);
+		for (int i = 0; i < count; i++) {
+			int idx = (start + i) % ring.length;
+			batch.add(ring[idx]);
+			ring[idx] = null;
+		}
+		start = (start + count) % ring.length;
+		size -= count;
+		spilledUpTo = batch.get(count - 1).getRevision();
+
+		if (dbInfo == null) {
+			truncatedAt = spilledUpTo;
+			return;
+		}
+		long prune = spilledUpTo - retention > truncatedAt ? spilledUpTo - retention : -1;
+		try {
+			DBFactory.write(dbInfo, conn -> {
+				dbUtils.appendChanges(conn, batch.toArray(EMPTY));
+				return prune >= 0 ? dbUtils.pruneChanges(conn, prune) : 0;
+			});
+			if (prune >= 0) {
+				truncatedAt = prune;
+			}
+		} catch (ClassNotFoundException | SQLException | DatabaseNotSupported e) {
+			// callers behind the lost changes have to take a snapshot
+			e.printStackTrace();
+			truncatedAt = spilledUpTo;
+		}
+	}
+
+}
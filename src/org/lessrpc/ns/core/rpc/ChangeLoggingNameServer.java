@@ -0,0 +1,410 @@
+package org.lessrpc.ns.core.rpc;
+
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.lessrpc.common.errors.ApplicationSpecificErrorException;
+import org.lessrpc.common.errors.DatabaseNotSupported;
+import org.lessrpc.common.info.ServiceInfo;
+import org.lessrpc.common.info.ServiceProviderInfo;
+import org.lessrpc.common.info.ServiceSupportInfo;
+import org.lessrpc.common.loadbalance.ProviderLoadBalancer;
+import org.lessrpc.ns.core.info.BatchResult;
+import org.lessrpc.ns.core.info.ProvidersPage;
+import org.lessrpc.ns.core.info.RegistryChange;
+import org.lessrpc.ns.core.info.RegistryChanges;
+
+/**
+ *
+ * Name server decorator that records every successful register and
+ * unregister in a {@link ChangeLog} and keeps the revision of each service,
+ * the revision of its latest change in the log. Callers check the revision
+ * to tell whether the providers of a service changed.
+ *
+ * The services of each provider endpoint are indexed, so unregistering a
+ * provider from all its services, directly or through a failed status check,
+ * is logged as one removal per service. The index is loaded from the
+ * underlying name server when created.
+ *
+ * Mutations are written to the underlying name server holding only the
+ * {@link EndpointLocks} of their providers, so registrations of different
+ * providers share commits of the database; writeLock is only taken to log
+ * them.
+ *
+ * Only mutations going through this instance are logged, hence it has to sit
+ * on top of every decorator that caches providers.
+ *
+ */
+public class ChangeLoggingNameServer implements RevisionedNameServer {
+
+	private final ExtendedNameServer ns;
+
+	private final ChangeLog changeLog;
+
+	/**
+	 * revision of services that did not change since the start or the last
+	 * reset
+	 */
+	private volatile long baseRevision;
+
+	/**
+	 * endpoint (url:port) to id to service, of the services the endpoint is
+	 * registered in
+	 */
+	private final ConcurrentHashMap<String, ConcurrentHashMap<Integer, ServiceInfo<?>>> endpoints;
+
+	/**
+	 * held by mutations of an endpoint until they are logged, so they are
+	 * logged in the same order as they are applied
+	 */
+	private final EndpointLocks endpointLocks = new EndpointLocks();
+
+	/**
+	 * guards appends to the change log and the endpoint index
+	 */
+	private final Object writeLock = new Object();
+
+	/**
+	 * service id to its revision, of the services that changed since the
+	 * start or the last reset. Written holding writeLock.
+	 */
+	private final ConcurrentHashMap<Integer, Long> revisions = new ConcurrentHashMap<Integer, Long>();
+
+	public ChangeLoggingNameServer(ExtendedNameServer ns)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		this(ns, new ChangeLog(ChangeLog.DEFAULT_CAPACITY));
+	}
+
+	/**
+	 *
+	 * @param ns
+	 * @param changeLog
+	 */
+	public ChangeLoggingNameServer(ExtendedNameServer ns, ChangeLog changeLog)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		this.ns = ns;
+		this.changeLog = changeLog;
+		this.baseRevision = changeLog.getRevision();
+		this.endpoints = new ConcurrentHashMap<String, ConcurrentHashMap<Integer, ServiceInfo<?>>>();
+		for (ServiceSupportInfo support : ns.getAllProviders()) {
+			index(support.getService(), support.getProvider());
+		}
+	}
+
+	@Override
+	public long getRevision(ServiceInfo<?> service) {
+		Long revision = revisions.get(service.getId());
+		return revision == null ? baseRevision : revision;
+	}
+
+	@Override
+	public RegistryChanges getChangesSince(long revision, int limit)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		return changeLog.getChangesSince(revision, limit);
+	}
+
+	@Override
+	public boolean register(ServiceSupportInfo support)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported, ApplicationSpecificErrorException {
+		int[] stripes = endpointLocks.lock(support.getProvider());
+		try {
+			boolean flag = ns.register(support);
+			if (flag) {
+				synchronized (writeLock) {
+					added(support);
+				}
+			}
+			return flag;
+		} finally {
+			endpointLocks.unlock(stripes);
+		}
+	}
+
+	@Override
+	public long registerWithLease(ServiceSupportInfo support, long ttl)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported, ApplicationSpecificErrorException {
+		int[] stripes = endpointLocks.lock(support.getProvider());
+		try {
+			long granted = ns.registerWithLease(support, ttl);
+			if (granted >= 0) {
+				synchronized (writeLock) {
+					added(support);
+				}
+			}
+			return granted;
+		} finally {
+			endpointLocks.unlock(stripes);
+		}
+	}
+
+	@Override
+	public BatchResult registerBatch(ServiceSupportInfo[] supports)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		int[] stripes = endpointLocks.lock(supports);
+		try {
+			BatchResult result = ns.registerBatch(supports);
+			synchronized (writeLock) {
+				for (int i = 0; i < supports.length; i++) {
+					if (result.isOk(i)) {
+						added(supports[i]);
+					}
+				}
+			}
+			return result;
+		} finally {
+			endpointLocks.unlock(stripes);
+		}
+	}
+
+	@Override
+	public boolean unregister(ServiceInfo<?> service, ServiceProviderInfo provider)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		int[] stripes = endpointLocks.lock(provider);
+		try {
+			boolean flag = ns.unregister(service, provider);
+			if (flag) {
+				synchronized (writeLock) {
+					removed(service, provider);
+				}
+			}
+			return flag;
+		} finally {
+			endpointLocks.unlock(stripes);
+		}
+	}
+
+	@Override
+	public BatchResult unregisterBatch(ServiceSupportInfo[] supports)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		int[] stripes = endpointLocks.lock(supports);
+		try {
+			BatchResult result = ns.unregisterBatch(supports);
+			synchronized (writeLock) {
+				for (int i = 0; i < supports.length; i++) {
+					if (result.isOk(i)) {
+						removed(supports[i].getService(), supports[i].getProvider());
+					}
+				}
+			}
+			return result;
+		} finally {
+			endpointLocks.unlock(stripes);
+		}
+	}
+
+	@Override
+	public boolean unregisterAll(ServiceProviderInfo provider)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		int[] stripes = endpointLocks.lock(provider);
+		try {
+			boolean flag = ns.unregisterAll(provider);
+			if (flag) {
+				synchronized (writeLock) {
+					removedAll(provider);
+				}
+			}
+			return flag;
+		} finally {
+			endpointLocks.unlock(stripes);
+		}
+	}
+
+	/**
+	 * The underlying name server may unregister the provider while checking
+	 * its status. The check runs without any lock, whether the provider is
+	 * still registered is read holding the lock of its endpoint.
+	 */
+	@Override
+	public boolean checkProviderStatus(ServiceProviderInfo provider) {
+		boolean flag = ns.checkProviderStatus(provider);
+		int[] stripes = endpointLocks.lock(provider);
+		try {
+			if (!isRegistered(provider)) {
+				synchronized (writeLock) {
+					removedAll(provider);
+				}
+			}
+		} catch (ClassNotFoundException | SQLException | DatabaseNotSupported e) {
+			e.printStackTrace();
+		} finally {
+			endpointLocks.unlock(stripes);
+		}
+		return flag;
+	}
+
+	/**
+	 * Clears the change log, so every caller has to take a snapshot, and
+	 * bumps the revision of every service
+	 */
+	@Override
+	public void reset() throws SQLException, ClassNotFoundException, DatabaseNotSupported {
+		int[] stripes = endpointLocks.lockAll();
+		try {
+			ns.reset();
+			synchronized (writeLock) {
+				endpoints.clear();
+				// the base is bumped before the revisions are dropped, so a
+				// concurrent read never sees the old base
+				baseRevision = changeLog.truncate();
+				revisions.clear();
+			}
+		} finally {
+			endpointLocks.unlock(stripes);
+		}
+	}
+
+	@Override
+	public ServiceSupportInfo getProvider(ServiceInfo<?> service)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		return ns.getProvider(service);
+	}
+
+	@Override
+	public ServiceSupportInfo[] getProviders(ServiceInfo<?> service)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		return ns.getProviders(service);
+	}
+
+	@Override
+	public ServiceSupportInfo[] getAllProviders() throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		return ns.getAllProviders();
+	}
+
+	@Override
+	public ProvidersPage getProvidersPage(long pageToken, int pageSize)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		return ns.getProvidersPage(pageToken, pageSize);
+	}
+
+	@Override
+	public ServiceInfo<?> getServiceInfoByName(String serviceName)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		return ns.getServiceInfoByName(serviceName);
+	}
+
+	@Override
+	public ServiceInfo<?> getServiceInfoById(int serviceId)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		return ns.getServiceInfoById(serviceId);
+	}
+
+	@Override
+	public boolean heartbeat(ServiceProviderInfo provider) {
+		return ns.heartbeat(provider);
+	}
+
+	@Override
+	public boolean reportLatency(ServiceProviderInfo provider, long latencyMicros, boolean success) {
+		return ns.reportLatency(provider, latencyMicros, success);
+	}
+
+	@Override
+	public String getURL() {
+		return ns.getURL();
+	}
+
+	@Override
+	public int getPort() {
+		return ns.getPort();
+	}
+
+	@Override
+	public boolean ping() {
+		return ns.ping();
+	}
+
+	@Override
+	public ProviderLoadBalancer getLoadBalancer() {
+		return ns.getLoadBalancer();
+	}
+
+	@Override
+	public void setLoadBalancer(ProviderLoadBalancer balancer) {
+		ns.setLoadBalancer(balancer);
+	}
+
+	/**
+	 *
+	 * @return the decorated name server
+	 */
+	public ExtendedNameServer getNameServer() {
+		return ns;
+	}
+
+	/**
+	 * logs the registration and bumps the revision of its service. Must hold
+	 * writeLock.
+	 *
+	 * @param support
+	 */
+	private void added(ServiceSupportInfo support) {
+		index(support.getService(), support.getProvider());
+		long revision = changeLog.append(RegistryChange.ADD, support);
+		revisions.put(support.getService().getId(), revision);
+	}
+
+	/**
+	 * logs the removal and bumps the revision of the service. Must hold
+	 * writeLock.
+	 *
+	 * @param service
+	 * @param provider
+	 */
+	private void removed(ServiceInfo<?> service, ServiceProviderInfo provider) {
+		String endpoint = endpoint(provider);
+		Map<Integer, ServiceInfo<?>> services = endpoints.get(endpoint);
+		if (services != null) {
+			services.remove(service.getId());
+			if (services.isEmpty()) {
+				endpoints.remove(endpoint);
+			}
+		}
+		long revision = changeLog.append(RegistryChange.REMOVE, new ServiceSupportInfo(service, provider, null));
+		revisions.put(service.getId(), revision);
+	}
+
+	/**
+	 * logs the removal of the provider from all its services. Must hold
+	 * writeLock.
+	 *
+	 * @param provider
+	 */
+	private void removedAll(ServiceProviderInfo provider) {
+		Map<Integer, ServiceInfo<?>> services = endpoints.remove(endpoint(provider));
+		if (services == null) {
+			return;
+		}
+		for (ServiceInfo<?> service : services.values()) {
+			long revision = changeLog.append(RegistryChange.REMOVE, new ServiceSupportInfo(service, provider, null));
+			revisions.put(service.getId(), revision);
+		}
+	}
+
+	private void index(ServiceInfo<?> service, ServiceProviderInfo provider) {
+		endpoints.computeIfAbsent(endpoint(provider), e -> new ConcurrentHashMap<Integer, ServiceInfo<?>>())
+				.put(service.getId(), service);
+	}
+
+	private boolean isRegistered(ServiceProviderInfo provider)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		String endpoint = endpoint(provider);
+		Map<Integer, ServiceInfo<?>> services = endpoints.get(endpoint);
+		if (services == null) {
+			return false;
+		}
+		for (ServiceInfo<?> service : services.values()) {
+			for (ServiceSupportInfo support : ns.getProviders(service)) {
+				if (endpoint(support.getProvider()).equals(endpoint)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static String endpoint(ServiceProviderInfo provider) {
+		return provider.getURL() + ":" + provider.getPort();
+	}
+
+}
@@ -2,7 +2,6 @@ package org.lessrpc.ns.core.rpc;
 
 import java.net.Inet4Address;
 import java.net.UnknownHostException;
-import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.Arrays;
 
@@ -16,8 +15,12 @@ import org.lessrpc.common.info.ServiceProviderInfo;
 import org.lessrpc.common.info.ServiceSupportInfo;
 import org.lessrpc.common.loadbalance.ProviderLoadBalancer;
 import org.lessrpc.common.serializer.Serializer;
-import org.lessrpc.common.services.NameServer;
+import org.lessrpc.ns.core.FeedbackLoadBalancer;
 import org.lessrpc.ns.core.db.DBFactory;
+import org.lessrpc.ns.core.db.DBUtilsAdapter;
+import org.lessrpc.ns.core.db.RegistryDBUtils;
+import org.lessrpc.ns.core.info.BatchResult;
+import org.lessrpc.ns.core.info.ProvidersPage;
 import org.lessrpc.stub.java.serializer.JsonSerializer;
 import org.lessrpc.stub.java.stubs.ClientStub;
 
@@ -31,9 +34,11 @@ import me.salimm.allconfig.core.errors.PrefixNotANestedConfigException;
  * @author Salim
  *
  */
-public class DBBasedNameServer implements NameServer {
+public class DBBasedNameServer implements ExtendedNameServer {
 
-	private final DBUtils dbUtils;
+	private static final ServiceSupportInfo[] EMPTY = new ServiceSupportInfo[0];
+
+	private final RegistryDBUtils dbUtils;
 
 	private final DBInfo dbInfo;
 
@@ -49,7 +54,18 @@ public class DBBasedNameServer implements NameServer {
 	 */
 	private ProviderLoadBalancer balancer;
 
-	public DBBasedNameServer(DBInfo dbInfo, DBUtils dbUtils, String url, int port, ProviderLoadBalancer balancer)
+	/**
+	 * recent lookups of unknown services and services without providers,
+	 * null if they are not cached
+	 */
+	private NegativeCache negativeCache = null;
+
+	/**
+	 * client used to ping providers
+	 */
+	private final ClientStub client = new ClientStub(Arrays.asList(new Serializer[] { new JsonSerializer() }));
+
+	public DBBasedNameServer(DBInfo dbInfo, RegistryDBUtils dbUtils, String url, int port, ProviderLoadBalancer balancer)
 			throws PrefixNotANestedConfigException, ClassNotFoundException, SQLException, DatabaseNotSupported {
 		this.dbUtils = dbUtils;
 		this.url = url;
@@ -59,12 +75,31 @@ public class DBBasedNameServer implements NameServer {
 		initDatabase(dbInfo);
 	}
 
-	public DBBasedNameServer(DBInfo dbInfo, DBUtils dbUtils, int port, ProviderLoadBalancer balancer)
+	public DBBasedNameServer(DBInfo dbInfo, RegistryDBUtils dbUtils, int port, ProviderLoadBalancer balancer)
 			throws UnknownHostException, PrefixNotANestedConfigException, ClassNotFoundException, SQLException,
 			DatabaseNotSupported {
 		this(dbInfo, dbUtils, Inet4Address.getLocalHost().getHostAddress(), port, balancer);
 	}
 
+	/**
+	 * dbUtils is adapted with {@link DBUtilsAdapter} unless it is a
+	 * {@link RegistryDBUtils}
+	 */
+	public DBBasedNameServer(DBInfo dbInfo, DBUtils dbUtils, String url, int port, ProviderLoadBalancer balancer)
+			throws PrefixNotANestedConfigException, ClassNotFoundException, SQLException, DatabaseNotSupported {
+		this(dbInfo, DBUtilsAdapter.adapt(dbUtils), url, port, balancer);
+	}
+
+	/**
+	 * dbUtils is adapted with {@link DBUtilsAdapter} unless it is a
+	 * {@link RegistryDBUtils}
+	 */
+	public DBBasedNameServer(DBInfo dbInfo, DBUtils dbUtils, int port, ProviderLoadBalancer balancer)
+			throws UnknownHostException, PrefixNotANestedConfigException, ClassNotFoundException, SQLException,
+			DatabaseNotSupported {
+		this(dbInfo, DBUtilsAdapter.adapt(dbUtils), port, balancer);
+	}
+
 	public DBBasedNameServer(Config conf, String url, int port, ProviderLoadBalancer balancer)
 			throws UnknownHostException, PrefixNotANestedConfigException, ClassNotFoundException, SQLException,
 			DatabaseNotSupported {
@@ -78,16 +113,15 @@ public class DBBasedNameServer implements NameServer {
 	}
 
 	private void initDatabase(DBInfo dbInfo) throws ClassNotFoundException, SQLException, DatabaseNotSupported {
-		// opening connection
-		Connection conn = DBFactory.getConnection(dbInfo);
-		// SERVICE table
-		dbUtils.createServiceTable(conn);
-		// SERVICE_PROVIDER table
-		dbUtils.createServiceProviderTable(conn);
-		// SERVICE_PROVIDER_SUPPORT table
-		dbUtils.createServiceSupportTable(conn);
-		// closing connection
-		conn.close();
+		// connection is null for the embedded store
+		DBFactory.write(dbInfo, conn -> {
+			// SERVICE table
+			dbUtils.createServiceTable(conn);
+			// SERVICE_PROVIDER table
+			dbUtils.createServiceProviderTable(conn);
+			// SERVICE_PROVIDER_SUPPORT table
+			return dbUtils.createServiceSupportTable(conn);
+		});
 		// print
 		System.out.println("Finished checking if schema exists....");
 	}
@@ -95,10 +129,7 @@ public class DBBasedNameServer implements NameServer {
 	@Override
 	public ServiceSupportInfo getProvider(ServiceInfo<?> service)
 			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
-		Connection conn = DBFactory.getConnection(dbInfo);
-		ServiceSupportInfo[] supports = dbUtils.getProviders(conn, service);
-		conn.close();
-
+		ServiceSupportInfo[] supports = getProviders(service);
 		if (supports.length == 0) {
 			return null;
 		}
@@ -108,63 +139,117 @@ public class DBBasedNameServer implements NameServer {
 	@Override
 	public ServiceSupportInfo[] getProviders(ServiceInfo<?> service)
 			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
-		Connection conn = DBFactory.getConnection(dbInfo);
-		ServiceSupportInfo[] supports = dbUtils.getProviders(conn, service);
-		conn.close();
-
+		NegativeCache negative = negativeCache;
+		if (negative == null) {
+			return DBFactory.read(dbInfo, conn -> dbUtils.getProviders(conn, service));
+		}
+		if (negative.contains(service.getId())) {
+			return EMPTY;
+		}
+		long stamp = negative.stamp();
+		ServiceSupportInfo[] supports = DBFactory.read(dbInfo, conn -> dbUtils.getProviders(conn, service));
+		if (supports.length == 0) {
+			negative.put(service.getId(), stamp);
+		}
 		return supports;
 	}
 
 	@Override
 	public ServiceSupportInfo[] getAllProviders() throws ClassNotFoundException, SQLException, DatabaseNotSupported {
-		Connection conn = DBFactory.getConnection(dbInfo);
-		ServiceSupportInfo[] supports = dbUtils.getAllProviders(conn);
-		conn.close();
+		return DBFactory.read(dbInfo, conn -> dbUtils.getAllProviders(conn));
+	}
 
-		return supports;
+	@Override
+	public ProvidersPage getProvidersPage(long pageToken, int pageSize)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		return DBFactory.read(dbInfo, conn -> dbUtils.getProvidersPage(conn, pageToken, pageSize));
 	}
 
 	@Override
 	public boolean register(ServiceSupportInfo support)
 			throws ClassNotFoundException, SQLException, DatabaseNotSupported, ApplicationSpecificErrorException {
-		Connection conn = DBFactory.getConnection(dbInfo);
-		boolean flag = false;
-		try {
-			flag = dbUtils.register(DBFactory.getConnection(dbInfo), support);
-		} catch (ServiceProviderAlreadyExistsException e) {
+		// null if the provider already exists
+		Boolean flag = DBFactory.write(dbInfo, conn -> {
+			try {
+				return dbUtils.register(conn, support);
+			} catch (ServiceProviderAlreadyExistsException e) {
+				return null;
+			}
+		}, Boolean.TRUE::equals);
+		if (flag == null) {
 			throw new ApplicationSpecificErrorException(ERROR_SERVICE_PROVIDER_EXISTS_CODE,
 					ERROR_SERVICE_PROVIDER_EXISTS_MSG);
 		}
-		conn.close();
-
+		if (flag) {
+			registered(support);
+		}
 		return flag;
 	}
 
+	/**
+	 * Registrations of this name server do not expire, the lease time is
+	 * ignored
+	 */
+	@Override
+	public long registerWithLease(ServiceSupportInfo support, long ttl)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported, ApplicationSpecificErrorException {
+		return register(support) ? 0 : -1;
+	}
+
+	/**
+	 * Registrations of this name server do not expire
+	 */
+	@Override
+	public boolean heartbeat(ServiceProviderInfo provider) {
+		return true;
+	}
+
+	@Override
+	public BatchResult registerBatch(ServiceSupportInfo[] supports)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		BatchResult result = DBFactory.write(dbInfo, conn -> dbUtils.registerBatch(conn, supports));
+		for (int i = 0; i < supports.length; i++) {
+			if (result.isOk(i)) {
+				registered(supports[i]);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public BatchResult unregisterBatch(ServiceSupportInfo[] supports)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		return DBFactory.write(dbInfo, conn -> dbUtils.unregisterBatch(conn, supports));
+	}
+
 	@Override
 	public boolean unregister(ServiceInfo<?> service, ServiceProviderInfo provider)
 			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
-		Connection conn = DBFactory.getConnection(dbInfo);
-		boolean flag = dbUtils.unregister(DBFactory.getConnection(dbInfo), service, provider);
-		conn.close();
-		return flag;
+		return DBFactory.write(dbInfo, conn -> dbUtils.unregister(conn, service, provider), Boolean.TRUE::equals);
 	}
 
 	@Override
 	public ServiceInfo<?> getServiceInfoByName(String serviceName)
 			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
-		Connection conn = DBFactory.getConnection(dbInfo);
-		ServiceInfo<?> si = dbUtils.getServiceInfo(DBFactory.getConnection(dbInfo), serviceName);
-		conn.close();
-		return si;
+		NegativeCache negative = negativeCache;
+		if (negative == null) {
+			return DBFactory.read(dbInfo, conn -> dbUtils.getServiceInfo(conn, serviceName));
+		}
+		if (negative.contains(serviceName)) {
+			return null;
+		}
+		long stamp = negative.stamp();
+		ServiceInfo<?> info = DBFactory.read(dbInfo, conn -> dbUtils.getServiceInfo(conn, serviceName));
+		if (info == null) {
+			negative.put(serviceName, stamp);
+		}
+		return info;
 	}
 
 	@Override
 	public ServiceInfo<?> getServiceInfoById(int serviceId)
 			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
-		Connection conn = DBFactory.getConnection(dbInfo);
-		ServiceInfo<?> si = dbUtils.getServiceInfo(DBFactory.getConnection(dbInfo), serviceId);
-		conn.close();
-		return si;
+		return DBFactory.read(dbInfo, conn -> dbUtils.getServiceInfo(conn, serviceId));
 	}
 
 	@Override
@@ -180,13 +265,12 @@ public class DBBasedNameServer implements NameServer {
 	/**
 	 * Determines if the name server is working properly. Specifically this name
 	 * server checks if the database server is running to indicate its status
+	 * (connections are validated when borrowed from the pool)
 	 */
 	@Override
 	public boolean ping() {
 		try {
-			Connection conn = DBFactory.getConnection(dbInfo);
-			conn.close();
-			return true;
+			return DBFactory.read(dbInfo, conn -> true);
 		} catch (Exception e) {
 			return false;
 		}
@@ -203,34 +287,82 @@ public class DBBasedNameServer implements NameServer {
 		this.balancer = balancer;
 	}
 
+	public NegativeCache getNegativeCache() {
+		return negativeCache;
+	}
+
+	/**
+	 * Caches lookups that found nothing, null disables it
+	 * 
+	 * @param negativeCache
+	 */
+	public void setNegativeCache(NegativeCache negativeCache) {
+		this.negativeCache = negativeCache;
+	}
+
 	public void reset() throws SQLException, ClassNotFoundException, DatabaseNotSupported {
-		Connection conn = DBFactory.getConnection(dbInfo);
 		// clear tables
-		dbUtils.cleanAllTables(conn);
-		conn.close();
+		DBFactory.write(dbInfo, conn -> dbUtils.cleanAllTables(conn));
 	}
 
+	/**
+	 * Pings the provider and unregisters it if the ping fails. The ping
+	 * latency is reported to the load balancer.
+	 */
 	@Override
 	public boolean checkProviderStatus(ServiceProviderInfo provider) {
-		ClientStub client = new ClientStub(Arrays.asList(new Serializer[] { new JsonSerializer() }));
+		long start = System.nanoTime();
 		try {
 			boolean flag = client.ping(provider);
+			reportPing(provider, (System.nanoTime() - start) / 1000, flag);
 			if (!flag) {
 				unregisterAll(provider);
 			}
 			return true;
 		} catch (Exception e) {
+			reportPing(provider, 0, false);
+			return false;
+		}
+	}
+
+	/**
+	 * Feeds the outcome of a ping to the load balancer if it uses feedback
+	 */
+	private void reportPing(ServiceProviderInfo provider, long latencyMicros, boolean success) {
+		ProviderLoadBalancer balancer = getLoadBalancer();
+		if (balancer instanceof FeedbackLoadBalancer) {
+			((FeedbackLoadBalancer) balancer).reportPing(provider, latencyMicros, success);
+		}
+	}
+
+	@Override
+	public boolean reportLatency(ServiceProviderInfo provider, long latencyMicros, boolean success) {
+		ProviderLoadBalancer balancer = getLoadBalancer();
+		if (!(balancer instanceof FeedbackLoadBalancer)) {
 			return false;
 		}
+		if (success) {
+			((FeedbackLoadBalancer) balancer).reportLatency(provider, latencyMicros);
+		} else {
+			((FeedbackLoadBalancer) balancer).reportFailure(provider);
+		}
+		return true;
 	}
 
 	@Override
 	public boolean unregisterAll(ServiceProviderInfo provider)
 			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
-		Connection conn = DBFactory.getConnection(dbInfo);
-		boolean flag = dbUtils.unregisterAll(DBFactory.getConnection(dbInfo), provider);
-		conn.close();
-		return flag;
+		return DBFactory.write(dbInfo, conn -> dbUtils.unregisterAll(conn, provider), Boolean.TRUE::equals);
+	}
+
+	/**
+	 * the service of a committed registration is known and has providers
+	 */
+	private void registered(ServiceSupportInfo support) {
+		NegativeCache negative = negativeCache;
+		if (negative != null) {
+			negative.invalidate(support.getService().getId(), support.getService().getName());
+		}
 	}
 
 }
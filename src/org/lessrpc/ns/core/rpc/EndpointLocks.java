@@ -0,0 +1,119 @@
+package org.lessrpc.ns.core.rpc;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.lessrpc.common.info.ServiceProviderInfo;
+import org.lessrpc.common.info.ServiceSupportInfo;
+
+/**
+ *
+ * Locks striped by provider endpoint (url and port), the key the database
+ * tells registrations apart by. A decorator holds the locks of the endpoints a
+ * mutation touches while the mutation is written to the underlying name
+ * server and published to its own state, so conflicting mutations are
+ * published in the order the database applied them. Mutations of other
+ * endpoints are written at the same time and can share a commit; the state of
+ * the decorator is only guarded by its own short lock.
+ *
+ * Stripes are always taken in ascending order so decorators stacked on each
+ * other can not deadlock.
+ *
+ */
+final class EndpointLocks {
+
+	private static final int STRIPES = 64;
+
+	private static final int[] ALL = new int[STRIPES];
+
+	static {
+		for (int i = 0; i < STRIPES; i++) {
+			ALL[i] = i;
+		}
+	}
+
+	private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+
+	EndpointLocks() {
+		for (int i = 0; i < STRIPES; i++) {
+			locks[i] = new ReentrantLock();
+		}
+	}
+
+	/**
+	 * Locks the stripe of the provider
+	 *
+	 * @param provider
+	 * @return the locked stripes, to be passed to {@link #unlock(int[])}
+	 */
+	int[] lock(ServiceProviderInfo provider) {
+		int[] stripes = new int[] { stripe(provider) };
+		lock(stripes);
+		return stripes;
+	}
+
+	/**
+	 * Locks the stripes of the providers of all supports
+	 *
+	 * @param supports
+	 * @return the locked stripes, to be passed to {@link #unlock(int[])}
+	 */
+	int[] lock(ServiceSupportInfo[] supports) {
+		ServiceProviderInfo[] providers = new ServiceProviderInfo[supports.length];
+		for (int i = 0; i < supports.length; i++) {
+			providers[i] = supports[i].getProvider();
+		}
+		return lock(providers);
+	}
+
+	/**
+	 * Locks the stripes of the providers
+	 *
+	 * @param providers
+	 * @return the locked stripes, to be passed to {@link #unlock(int[])}
+	 */
+	int[] lock(ServiceProviderInfo[] providers) {
+		int[] stripes = new int[providers.length];
+		for (int i = 0; i < providers.length; i++) {
+			stripes[i] = stripe(providers[i]);
+		}
+		Arrays.sort(stripes);
+		int count = 0;
+		for (int i = 0; i < stripes.length; i++) {
+			if (i == 0 || stripes[i] != stripes[i - 1]) {
+				stripes[count++] = stripes[i];
+			}
+		}
+		stripes = Arrays.copyOf(stripes, count);
+		lock(stripes);
+		return stripes;
+	}
+
+	/**
+	 * Locks every stripe, for mutations of the whole registry
+	 *
+	 * @return the locked stripes, to be passed to {@link #unlock(int[])}
+	 */
+	int[] lockAll() {
+		lock(ALL);
+		return ALL;
+	}
+
+	void unlock(int[] stripes) {
+		for (int i = stripes.length - 1; i >= 0; i--) {
+			locks[stripes[i]].unlock();
+		}
+	}
+
+	private void lock(int[] stripes) {
+		for (int stripe : stripes) {
+			locks[stripe].lock();
+		}
+	}
+
+	private static int stripe(ServiceProviderInfo provider) {
+		int h = provider.getURL().hashCode() * 31 + provider.getPort();
+		return (h ^ (h >>> 16)) & (STRIPES - 1);
+	}
+
+}
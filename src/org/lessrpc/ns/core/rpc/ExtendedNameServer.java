@@ -0,0 +1,102 @@
+package org.lessrpc.ns.core.rpc;
+
+import java.sql.SQLException;
+
+import org.lessrpc.common.errors.ApplicationSpecificErrorException;
+import org.lessrpc.common.errors.DatabaseNotSupported;
+import org.lessrpc.common.info.ServiceProviderInfo;
+import org.lessrpc.common.info.ServiceSupportInfo;
+import org.lessrpc.common.services.NameServer;
+import org.lessrpc.ns.core.info.BatchResult;
+import org.lessrpc.ns.core.info.ProvidersPage;
+
+/**
+ * 
+ * Name server functions provided by this name server on top of
+ * {@link NameServer}. They are exposed through
+ * {@link ExtendedNameServerServices}.
+ * 
+ */
+public interface ExtendedNameServer extends NameServer {
+
+	/**
+	 * Returns one page of all registered providers
+	 * 
+	 * @param pageToken
+	 *            {@link ProvidersPage#FIRST_PAGE} or the token of the previous
+	 *            page
+	 * @param pageSize
+	 * @return
+	 * @throws ClassNotFoundException
+	 * @throws SQLException
+	 * @throws DatabaseNotSupported
+	 */
+	public ProvidersPage getProvidersPage(long pageToken, int pageSize)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported;
+
+	/**
+	 * Registers all providers in one transaction
+	 * 
+	 * @param supports
+	 * @return status of each registration
+	 * @throws ClassNotFoundException
+	 * @throws SQLException
+	 * @throws DatabaseNotSupported
+	 */
+	public BatchResult registerBatch(ServiceSupportInfo[] supports)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported;
+
+	/**
+	 * Unregisters the provider of each item from the service of the item in
+	 * one transaction
+	 * 
+	 * @param supports
+	 *            serialization formats are ignored
+	 * @return status of each item
+	 * @throws ClassNotFoundException
+	 * @throws SQLException
+	 * @throws DatabaseNotSupported
+	 */
+	public BatchResult unregisterBatch(ServiceSupportInfo[] supports)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported;
+
+	/**
+	 * Feeds the outcome of a request to a provider to the load balancer
+	 * 
+	 * @param provider
+	 * @param latencyMicros
+	 *            latency of the request in microseconds
+	 * @param success
+	 *            false if the request failed, latency is ignored then
+	 * @return false if the load balancer does not use feedback
+	 */
+	public boolean reportLatency(ServiceProviderInfo provider, long latencyMicros, boolean success);
+
+	/**
+	 * Registers the provider with a lease. The registration is removed unless
+	 * the lease is renewed with {@link #heartbeat(ServiceProviderInfo)} in
+	 * time.
+	 * 
+	 * @param support
+	 * @param ttl
+	 *            requested lease time in ms, 0 for the default
+	 * @return the lease time granted in ms, 0 if registrations of this name
+	 *         server do not expire, -1 if the registration failed
+	 * @throws ClassNotFoundException
+	 * @throws SQLException
+	 * @throws DatabaseNotSupported
+	 * @throws ApplicationSpecificErrorException
+	 */
+	public long registerWithLease(ServiceSupportInfo support, long ttl)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported, ApplicationSpecificErrorException;
+
+	/**
+	 * Renews the leases of all registrations of the provider
+	 * 
+	 * @param provider
+	 * @return false if the provider has no lease anymore and has to register
+	 *         again
+	 */
+	public boolean heartbeat(ServiceProviderInfo provider);
+
+}
@@ -0,0 +1,201 @@
+package org.lessrpc.ns.core.rpc;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import org.lessrpc.common.errors.ApplicationSpecificErrorException;
+import org.lessrpc.common.errors.DatabaseNotSupported;
+import org.lessrpc.common.info.ServiceInfo;
+import org.lessrpc.common.info.ServiceProviderInfo;
+import org.lessrpc.common.info.ServiceSupportInfo;
+import org.lessrpc.common.loadbalance.ProviderLoadBalancer;
+import org.lessrpc.common.services.NameServer;
+import org.lessrpc.common.services.NameServerFunctions;
+import org.lessrpc.ns.core.FeedbackLoadBalancer;
+import org.lessrpc.ns.core.info.BatchResult;
+import org.lessrpc.ns.core.info.ProvidersPage;
+
+/**
+ *
+ * Lets a plain {@link NameServer} be used where an
+ * {@link ExtendedNameServer} is required, for example by
+ * {@link NameServerServiceProvider}. The extended functions are built from
+ * the plain ones:
+ *
+ * Batches are applied item by item, not in one transaction. Pages are slices
+ * of getAllProviders and the page token is the position of the next
+ * provider, so registrations made between two pages may shift them.
+ * Registrations do not expire, a lease is never granted and heartbeats always
+ * succeed. Latencies are reported only if the load balancer uses feedback.
+ *
+ */
+public class ExtendedNameServerAdapter implements ExtendedNameServer {
+
+	private final NameServer ns;
+
+	public ExtendedNameServerAdapter(NameServer ns) {
+		this.ns = ns;
+	}
+
+	/**
+	 *
+	 * @param ns
+	 * @return ns itself if it is an ExtendedNameServer already, otherwise an
+	 *         adapter of it
+	 */
+	public static ExtendedNameServer adapt(NameServer ns) {
+		return ns instanceof ExtendedNameServer ? (ExtendedNameServer) ns : new ExtendedNameServerAdapter(ns);
+	}
+
+	@Override
+	public ProvidersPage getProvidersPage(long pageToken, int pageSize)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		ServiceSupportInfo[] all = ns.getAllProviders();
+		int from = (int) Math.min(Math.max(pageToken, 0), all.length);
+		int to = (int) Math.min((long) from + pageSize, all.length);
+		long next = to == all.length ? ProvidersPage.LAST_PAGE : to;
+		return new ProvidersPage(Arrays.copyOfRange(all, from, to), next);
+	}
+
+	@Override
+	public BatchResult registerBatch(ServiceSupportInfo[] supports)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		int[] statuses = new int[supports.length];
+		for (int i = 0; i < supports.length; i++) {
+			try {
+				statuses[i] = ns.register(supports[i]) ? BatchResult.OK : BatchResult.FAILED;
+			} catch (ApplicationSpecificErrorException e) {
+				statuses[i] = e.getErrorCode() == NameServerFunctions.ERROR_SERVICE_PROVIDER_EXISTS_CODE
+						? BatchResult.ALREADY_EXISTS : BatchResult.FAILED;
+			}
+		}
+		return new BatchResult(statuses);
+	}
+
+	@Override
+	public BatchResult unregisterBatch(ServiceSupportInfo[] supports)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		int[] statuses = new int[supports.length];
+		for (int i = 0; i < supports.length; i++) {
+			boolean flag = ns.unregister(supports[i].getService(), supports[i].getProvider());
+			statuses[i] = flag ? BatchResult.OK : BatchResult.FAILED;
+		}
+		return new BatchResult(statuses);
+	}
+
+	@Override
+	public boolean reportLatency(ServiceProviderInfo provider, long latencyMicros, boolean success) {
+		ProviderLoadBalancer balancer = ns.getLoadBalancer();
+		if (!(balancer instanceof FeedbackLoadBalancer)) {
+			return false;
+		}
+		if (success) {
+			((FeedbackLoadBalancer) balancer).reportLatency(provider, latencyMicros);
+		} else {
+			((FeedbackLoadBalancer) balancer).reportFailure(provider);
+		}
+		return true;
+	}
+
+	@Override
+	public long registerWithLease(ServiceSupportInfo support, long ttl)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported, ApplicationSpecificErrorException {
+		return ns.register(support) ? 0 : -1;
+	}
+
+	@Override
+	public boolean heartbeat(ServiceProviderInfo provider) {
+		return true;
+	}
+
+	@Override
+	public ServiceSupportInfo getProvider(ServiceInfo<?> service)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		return ns.getProvider(service);
+	}
+
+	@Override
+	public ServiceSupportInfo[] getProviders(ServiceInfo<?> service)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		return ns.getProviders(service);
+	}
+
+	@Override
+	public ServiceSupportInfo[] getAllProviders() throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		return ns.getAllProviders();
+	}
+
+	@Override
+	public boolean register(ServiceSupportInfo support)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported, ApplicationSpecificErrorException {
+		return ns.register(support);
+	}
+
+	@Override
+	public boolean unregister(ServiceInfo<?> service, ServiceProviderInfo provider)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		return ns.unregister(service, provider);
+	}
+
+	@Override
+	public boolean unregisterAll(ServiceProviderInfo provider)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		return ns.unregisterAll(provider);
+	}
+
+	@Override
+	public ServiceInfo<?> getServiceInfoByName(String serviceName)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		return ns.getServiceInfoByName(serviceName);
+	}
+
+	@Override
+	public ServiceInfo<?> getServiceInfoById(int serviceId)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		return ns.getServiceInfoById(serviceId);
+	}
+
+	@Override
+	public boolean checkProviderStatus(ServiceProviderInfo provider) {
+		return ns.checkProviderStatus(provider);
+	}
+
+	@Override
+	public String getURL() {
+		return ns.getURL();
+	}
+
+	@Override
+	public int getPort() {
+		return ns.getPort();
+	}
+
+	@Override
+	public boolean ping() {
+		return ns.ping();
+	}
+
+	@Override
+	public ProviderLoadBalancer getLoadBalancer() {
+		return ns.getLoadBalancer();
+	}
+
+	@Override
+	public void setLoadBalancer(ProviderLoadBalancer balancer) {
+		ns.setLoadBalancer(balancer);
+	}
+
+	@Override
+	public void reset() throws SQLException, ClassNotFoundException, DatabaseNotSupported {
+		ns.reset();
+	}
+
+	/**
+	 *
+	 * @return the adapted name server
+	 */
+	public NameServer getNameServer() {
+		return ns;
+	}
+
+}
@@ -0,0 +1,82 @@
+package org.lessrpc.ns.core.rpc;
+
+import org.lessrpc.common.info.ServiceDescription;
+import org.lessrpc.common.info.ServiceInfo;
+import org.lessrpc.common.info.ServiceProviderInfo;
+import org.lessrpc.common.info.ServiceSupportInfo;
+import org.lessrpc.ns.core.info.BatchResult;
+import org.lessrpc.ns.core.info.ProvidersPage;
+import org.lessrpc.ns.core.info.ProvidersCheck;
+import org.lessrpc.ns.core.info.RegistryChanges;
+
+/**
+ * 
+ * Descriptions of the services of {@link ExtendedNameServer}. Ids start at 100
+ * to stay clear of the ids of NameServerServices.
+ * 
+ */
+public interface ExtendedNameServerServices {
+
+	/**
+	 * args: page token (long), page size (int)
+	 */
+	public static final ServiceDescription<ProvidersPage> GET_PROVIDERS_PAGE = new ServiceDescription<ProvidersPage>(
+			new ServiceInfo<ProvidersPage>("GET_PROVIDERS_PAGE", 101), new Class<?>[] { Long.class, Integer.class },
+			ProvidersPage.class);
+
+	/**
+	 * args: supports to register (ServiceSupportInfo[])
+	 */
+	public static final ServiceDescription<BatchResult> REGISTER_BATCH = new ServiceDescription<BatchResult>(
+			new ServiceInfo<BatchResult>("REGISTER_BATCH", 102), new Class<?>[] { ServiceSupportInfo[].class },
+			BatchResult.class);
+
+	/**
+	 * args: (service, provider) pairs to unregister as ServiceSupportInfo[],
+	 * serialization formats are ignored
+	 */
+	public static final ServiceDescription<BatchResult> UNREGISTER_BATCH = new ServiceDescription<BatchResult>(
+			new ServiceInfo<BatchResult>("UNREGISTER_BATCH", 103), new Class<?>[] { ServiceSupportInfo[].class },
+			BatchResult.class);
+
+	/**
+	 * args: provider (ServiceProviderInfo), latency in microseconds (long),
+	 * success (boolean)
+	 */
+	public static final ServiceDescription<Boolean> REPORT_LATENCY = new ServiceDescription<Boolean>(
+			new ServiceInfo<Boolean>("REPORT_LATENCY", 104),
+			new Class<?>[] { ServiceProviderInfo.class, Long.class, Boolean.class }, Boolean.class);
+
+	/**
+	 * args: support to register (ServiceSupportInfo), requested lease time in
+	 * ms (long, 0 for the default). Returns the lease time granted.
+	 */
+	public static final ServiceDescription<Long> REGISTER_WITH_LEASE = new ServiceDescription<Long>(
+			new ServiceInfo<Long>("REGISTER_WITH_LEASE", 105), new Class<?>[] { ServiceSupportInfo.class, Long.class },
+			Long.class);
+
+	/**
+	 * args: provider (ServiceProviderInfo). Returns false if the provider has
+	 * to register again.
+	 */
+	public static final ServiceDescription<Boolean> HEARTBEAT = new ServiceDescription<Boolean>(
+			new ServiceInfo<Boolean>("HEARTBEAT", 106), new Class<?>[] { ServiceProviderInfo.class }, Boolean.class);
+
+	/**
+	 * args: service (ServiceInfo), last seen revision (long). Returns the
+	 * current revision of the providers of the service, and the providers if
+	 * it differs from the one seen. Answers right away, callers poll.
+	 */
+	public static final ServiceDescription<ProvidersCheck> CHECK_PROVIDERS = new ServiceDescription<ProvidersCheck>(
+			new ServiceInfo<ProvidersCheck>("CHECK_PROVIDERS", 107), new Class<?>[] { ServiceInfo.class, Long.class },
+			ProvidersCheck.class);
+
+	/**
+	 * args: revision of the last change seen (long). Returns the changes made
+	 * after it, or asks for a snapshot if they are no longer kept.
+	 */
+	public static final ServiceDescription<RegistryChanges> GET_CHANGES_SINCE = new ServiceDescription<RegistryChanges>(
+			new ServiceInfo<RegistryChanges>("GET_CHANGES_SINCE", 108), new Class<?>[] { Long.class },
+			RegistryChanges.class);
+
+}
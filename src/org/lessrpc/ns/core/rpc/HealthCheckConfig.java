@@ -0,0 +1,80 @@
+package org.lessrpc.ns.core.rpc;
+
+/**
+ *
+ * Settings of a {@link ProviderHealthChecker}. All durations are in
+ * milliseconds.
+ *
+ */
+public class HealthCheckConfig {
+
+	public static final long DEFAULT_INTERVAL = 30000;
+	public static final long DEFAULT_JITTER = 5000;
+	public static final long DEFAULT_TIMEOUT = 2000;
+	public static final int DEFAULT_THREADS = 8;
+	public static final int DEFAULT_FAILURE_THRESHOLD = 2;
+
+	/**
+	 * time between the end of a sweep and the start of the next one
+	 */
+	private final long interval;
+
+	/**
+	 * the interval is randomly shortened or extended by up to this much so
+	 * name servers started together do not sweep in lockstep
+	 */
+	private final long jitter;
+
+	/**
+	 * a ping not answered within this time counts as failed
+	 */
+	private final long timeout;
+
+	/**
+	 * max number of pings in flight
+	 */
+	private final int threads;
+
+	/**
+	 * consecutive failed sweeps after which a provider is unregistered
+	 */
+	private final int failureThreshold;
+
+	public HealthCheckConfig() {
+		this(DEFAULT_INTERVAL, DEFAULT_JITTER, DEFAULT_TIMEOUT, DEFAULT_THREADS, DEFAULT_FAILURE_THRESHOLD);
+	}
+
+	public HealthCheckConfig(long interval, long jitter, long timeout, int threads, int failureThreshold) {
+		if (interval <= 0 || jitter < 0 || timeout <= 0 || threads < 1 || failureThreshold < 1) {
+			throw new IllegalArgumentException("Invalid health check configuration: interval=" + interval
+					+ ", jitter=" + jitter + ", timeout=" + timeout + ", threads=" + threads
+					+ ", failureThreshold=" + failureThreshold);
+		}
+		this.interval = interval;
+		this.jitter = Math.min(jitter, interval);
+		this.timeout = timeout;
+		this.threads = threads;
+		this.failureThreshold = failureThreshold;
+	}
+
+	public long getInterval() {
+		return interval;
+	}
+
+	public long getJitter() {
+		return jitter;
+	}
+
+	public long getTimeout() {
+		return timeout;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public int getFailureThreshold() {
+		return failureThreshold;
+	}
+
+}
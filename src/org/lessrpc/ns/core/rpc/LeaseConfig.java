@@ -0,0 +1,79 @@
+package org.lessrpc.ns.core.rpc;
+
+/**
+ *
+ * Settings of a {@link LeasingNameServer}. All durations are in milliseconds.
+ *
+ */
+public class LeaseConfig {
+
+	public static final long DEFAULT_TTL = 30000;
+	public static final long DEFAULT_MIN_TTL = 5000;
+	public static final long DEFAULT_MAX_TTL = 600000;
+	public static final long DEFAULT_TICK = 500;
+
+	/**
+	 * lease time of registrations that do not ask for one
+	 */
+	private final long defaultTtl;
+
+	/**
+	 * requested lease times are raised to at least this
+	 */
+	private final long minTtl;
+
+	/**
+	 * requested lease times are capped at this
+	 */
+	private final long maxTtl;
+
+	/**
+	 * resolution of the expiry wheel
+	 */
+	private final long tick;
+
+	public LeaseConfig() {
+		this(DEFAULT_TTL, DEFAULT_MIN_TTL, DEFAULT_MAX_TTL, DEFAULT_TICK);
+	}
+
+	public LeaseConfig(long defaultTtl, long minTtl, long maxTtl, long tick) {
+		if (minTtl <= 0 || maxTtl < minTtl || tick <= 0) {
+			throw new IllegalArgumentException("Invalid lease configuration: minTtl=" + minTtl + ", maxTtl=" + maxTtl
+					+ ", tick=" + tick);
+		}
+		this.minTtl = minTtl;
+		this.maxTtl = maxTtl;
+		this.defaultTtl = Math.max(minTtl, Math.min(maxTtl, defaultTtl));
+		this.tick = tick;
+	}
+
+	/**
+	 * 
+	 * @param ttl
+	 *            requested lease time, 0 or less for the default
+	 * @return the lease time granted
+	 */
+	public long grant(long ttl) {
+		if (ttl <= 0) {
+			return defaultTtl;
+		}
+		return Math.max(minTtl, Math.min(maxTtl, ttl));
+	}
+
+	public long getDefaultTtl() {
+		return defaultTtl;
+	}
+
+	public long getMinTtl() {
+		return minTtl;
+	}
+
+	public long getMaxTtl() {
+		return maxTtl;
+	}
+
+	public long getTick() {
+		return tick;
+	}
+
+}
@@ -0,0 +1,476 @@
+package org.lessrpc.ns.core.rpc;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.lessrpc.common.errors.ApplicationSpecificErrorException;
+import org.lessrpc.common.errors.DatabaseNotSupported;
+import org.lessrpc.common.info.ServiceInfo;
+import org.lessrpc.common.info.ServiceProviderInfo;
+import org.lessrpc.common.info.ServiceSupportInfo;
+import org.lessrpc.common.loadbalance.ProviderLoadBalancer;
+import org.lessrpc.ns.core.TimingWheel;
+import org.lessrpc.ns.core.constants.Constants;
+import org.lessrpc.ns.core.info.BatchResult;
+import org.lessrpc.ns.core.info.ProvidersPage;
+
+import me.salimm.allconfig.core.Config;
+
+/**
+ *
+ * Name server decorator that gives every registration a lease. Leases are
+ * held per provider endpoint (url and port) and cover all services the
+ * endpoint registered; a heartbeat of the endpoint renews all of them. An
+ * endpoint whose lease ran out is unregistered from all its services in one
+ * batch.
+ *
+ * Heartbeats only move the expiry time of the lease forward. Leases sit in a
+ * timing wheel at their original expiry and are re-inserted when they come
+ * due after having been renewed, so a heartbeat never touches the wheel or
+ * the database.
+ *
+ * Mutations are written to the underlying name server holding only the
+ * {@link EndpointLocks} of their providers, writeLock is only taken to update
+ * the leases.
+ *
+ * Leases are kept in memory. Registrations found in the database on startup
+ * get a lease of the default lease time.
+ *
+ */
+public class LeasingNameServer implements ExtendedNameServer, Constants {
+
+	private final ExtendedNameServer ns;
+
+	private final LeaseConfig config;
+
+	/**
+	 * endpoint to its lease
+	 */
+	private final ConcurrentHashMap<String, Lease> leases = new ConcurrentHashMap<String, Lease>();
+
+	private final TimingWheel<Lease> wheel;
+
+	private final ScheduledExecutorService ticker;
+
+	/**
+	 * held by registrations and expiry of an endpoint until its lease is
+	 * updated, heartbeats don't take it
+	 */
+	private final EndpointLocks endpointLocks = new EndpointLocks();
+
+	/**
+	 * guards updates of the leases and the wheel
+	 */
+	private final Object writeLock = new Object();
+
+	public LeasingNameServer(ExtendedNameServer ns, LeaseConfig config)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		this.ns = ns;
+		this.config = config;
+		this.wheel = new TimingWheel<Lease>(config.getTick(), 64, 4, System.currentTimeMillis());
+
+		for (ServiceSupportInfo support : ns.getAllProviders()) {
+			lease(support.getService(), support.getProvider(), config.getDefaultTtl());
+		}
+		System.out.println("Leased " + leases.size() + " existing provider(s)....");
+
+		this.ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "lessrpc-ns-lease");
+			t.setDaemon(true);
+			return t;
+		});
+		ticker.scheduleAtFixedRate(() -> {
+			try {
+				expire(System.currentTimeMillis());
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}, config.getTick(), config.getTick(), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Read lease configuration from conf file. Missing properties take their
+	 * default values.
+	 * 
+	 * @param conf
+	 * @return
+	 */
+	public static LeaseConfig getConfig(Config conf) {
+		return new LeaseConfig(conf.getLong(CONF_TAG_NAME_LEASE_DEFAULT_TTL, LeaseConfig.DEFAULT_TTL),
+				conf.getLong(CONF_TAG_NAME_LEASE_MIN_TTL, LeaseConfig.DEFAULT_MIN_TTL),
+				conf.getLong(CONF_TAG_NAME_LEASE_MAX_TTL, LeaseConfig.DEFAULT_MAX_TTL),
+				conf.getLong(CONF_TAG_NAME_LEASE_TICK, LeaseConfig.DEFAULT_TICK));
+	}
+
+	/**
+	 * Unregisters the providers whose lease ran out. Invoked every tick.
+	 * 
+	 * @param now
+	 * @return number of registrations removed
+	 * @throws ClassNotFoundException
+	 * @throws SQLException
+	 * @throws DatabaseNotSupported
+	 */
+	public int expire(long now) throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		List<Lease> due = wheel.advance(now);
+		if (due.isEmpty()) {
+			return 0;
+		}
+		ServiceProviderInfo[] providers = new ServiceProviderInfo[due.size()];
+		for (int i = 0; i < providers.length; i++) {
+			providers[i] = due.get(i).provider;
+		}
+		int[] stripes = endpointLocks.lock(providers);
+		try {
+			List<ServiceSupportInfo> expired = new ArrayList<ServiceSupportInfo>();
+			synchronized (writeLock) {
+				for (Lease lease : due) {
+					if (leases.get(lease.endpoint) != lease) {
+						// unregistered in the meantime
+						continue;
+					}
+					long expiresAt = lease.expiresAt;
+					if (expiresAt > now) {
+						// renewed
+						wheel.schedule(lease, expiresAt);
+						continue;
+					}
+					leases.remove(lease.endpoint);
+					for (ServiceInfo<?> service : lease.services.values()) {
+						expired.add(new ServiceSupportInfo(service, lease.provider, null));
+					}
+				}
+			}
+
+			int count = 0;
+			for (int i = 0; i < expired.size(); i += NameServerServiceProvider.MAX_BATCH_SIZE) {
+				List<ServiceSupportInfo> batch = expired.subList(i,
+						Math.min(expired.size(), i + NameServerServiceProvider.MAX_BATCH_SIZE));
+				count += ns.unregisterBatch(batch.toArray(new ServiceSupportInfo[batch.size()])).countOk();
+			}
+			if (count > 0) {
+				System.out.println("Lease expired for " + count + " registration(s)....");
+			}
+			return count;
+		} finally {
+			endpointLocks.unlock(stripes);
+		}
+	}
+
+	/**
+	 * Stops expiring leases
+	 */
+	public void close() {
+		ticker.shutdownNow();
+	}
+
+	/**
+	 * 
+	 * @param provider
+	 * @return time in ms at which the lease of the provider expires, -1 if
+	 *         the provider has no lease
+	 */
+	public long getExpiry(ServiceProviderInfo provider) {
+		Lease lease = leases.get(endpoint(provider));
+		return lease == null ? -1 : lease.expiresAt;
+	}
+
+	@Override
+	public boolean heartbeat(ServiceProviderInfo provider) {
+		Lease lease = leases.get(endpoint(provider));
+		if (lease == null) {
+			return false;
+		}
+		lease.expiresAt = System.currentTimeMillis() + lease.ttl;
+		return true;
+	}
+
+	@Override
+	public long registerWithLease(ServiceSupportInfo support, long ttl)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported, ApplicationSpecificErrorException {
+		int[] stripes = endpointLocks.lock(support.getProvider());
+		try {
+			if (ns.registerWithLease(support, ttl) < 0) {
+				return -1;
+			}
+			synchronized (writeLock) {
+				return lease(support.getService(), support.getProvider(), config.grant(ttl));
+			}
+		} finally {
+			endpointLocks.unlock(stripes);
+		}
+	}
+
+	@Override
+	public boolean register(ServiceSupportInfo support)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported, ApplicationSpecificErrorException {
+		return registerWithLease(support, 0) >= 0;
+	}
+
+	@Override
+	public BatchResult registerBatch(ServiceSupportInfo[] supports)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		int[] stripes = endpointLocks.lock(supports);
+		try {
+			BatchResult result = ns.registerBatch(supports);
+			synchronized (writeLock) {
+				for (int i = 0; i < supports.length; i++) {
+					if (result.isOk(i)) {
+						lease(supports[i].getService(), supports[i].getProvider(), config.getDefaultTtl());
+					}
+				}
+			}
+			return result;
+		} finally {
+			endpointLocks.unlock(stripes);
+		}
+	}
+
+	@Override
+	public boolean unregister(ServiceInfo<?> service, ServiceProviderInfo provider)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		int[] stripes = endpointLocks.lock(provider);
+		try {
+			boolean flag = ns.unregister(service, provider);
+			if (flag) {
+				synchronized (writeLock) {
+					release(service, provider);
+				}
+			}
+			return flag;
+		} finally {
+			endpointLocks.unlock(stripes);
+		}
+	}
+
+	@Override
+	public boolean unregisterAll(ServiceProviderInfo provider)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		int[] stripes = endpointLocks.lock(provider);
+		try {
+			boolean flag = ns.unregisterAll(provider);
+			if (flag) {
+				synchronized (writeLock) {
+					leases.remove(endpoint(provider));
+				}
+			}
+			return flag;
+		} finally {
+			endpointLocks.unlock(stripes);
+		}
+	}
+
+	@Override
+	public BatchResult unregisterBatch(ServiceSupportInfo[] supports)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		int[] stripes = endpointLocks.lock(supports);
+		try {
+			BatchResult result = ns.unregisterBatch(supports);
+			synchronized (writeLock) {
+				for (int i = 0; i < supports.length; i++) {
+					if (result.isOk(i)) {
+						release(supports[i].getService(), supports[i].getProvider());
+					}
+				}
+			}
+			return result;
+		} finally {
+			endpointLocks.unlock(stripes);
+		}
+	}
+
+	@Override
+	public boolean checkProviderStatus(ServiceProviderInfo provider) {
+		boolean flag = ns.checkProviderStatus(provider);
+		// the provider may have been unregistered
+		int[] stripes = endpointLocks.lock(provider);
+		try {
+			if (!isRegistered(provider)) {
+				synchronized (writeLock) {
+					leases.remove(endpoint(provider));
+				}
+			}
+		} catch (ClassNotFoundException | SQLException | DatabaseNotSupported e) {
+			e.printStackTrace();
+		} finally {
+			endpointLocks.unlock(stripes);
+		}
+		return flag;
+	}
+
+	@Override
+	public ServiceSupportInfo getProvider(ServiceInfo<?> service)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		return ns.getProvider(service);
+	}
+
+	@Override
+	public ServiceSupportInfo[] getProviders(ServiceInfo<?> service)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		return ns.getProviders(service);
+	}
+
+	@Override
+	public ServiceSupportInfo[] getAllProviders() throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		return ns.getAllProviders();
+	}
+
+	@Override
+	public ProvidersPage getProvidersPage(long pageToken, int pageSize)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		return ns.getProvidersPage(pageToken, pageSize);
+	}
+
+	@Override
+	public ServiceInfo<?> getServiceInfoByName(String serviceName)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		return ns.getServiceInfoByName(serviceName);
+	}
+
+	@Override
+	public ServiceInfo<?> getServiceInfoById(int serviceId)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		return ns.getServiceInfoById(serviceId);
+	}
+
+	@Override
+	public boolean reportLatency(ServiceProviderInfo provider, long latencyMicros, boolean success) {
+		return ns.reportLatency(provider, latencyMicros, success);
+	}
+
+	@Override
+	public String getURL() {
+		return ns.getURL();
+	}
+
+	@Override
+	public int getPort() {
+		return ns.getPort();
+	}
+
+	@Override
+	public boolean ping() {
+		return ns.ping();
+	}
+
+	@Override
+	public ProviderLoadBalancer getLoadBalancer() {
+		return ns.getLoadBalancer();
+	}
+
+	@Override
+	public void setLoadBalancer(ProviderLoadBalancer balancer) {
+		ns.setLoadBalancer(balancer);
+	}
+
+	@Override
+	public void reset() throws SQLException, ClassNotFoundException, DatabaseNotSupported {
+		int[] stripes = endpointLocks.lockAll();
+		try {
+			ns.reset();
+			synchronized (writeLock) {
+				leases.clear();
+			}
+		} finally {
+			endpointLocks.unlock(stripes);
+		}
+	}
+
+	/**
+	 * 
+	 * @return the decorated name server
+	 */
+	public ExtendedNameServer getNameServer() {
+		return ns;
+	}
+
+	/**
+	 * Adds the service to the lease of the provider, creating or extending
+	 * the lease. Must hold writeLock.
+	 * 
+	 * @return the lease time of the provider
+	 */
+	private long lease(ServiceInfo<?> service, ServiceProviderInfo provider, long ttl) {
+		String endpoint = endpoint(provider);
+		long expiresAt = System.currentTimeMillis() + ttl;
+		Lease lease = leases.get(endpoint);
+		if (lease == null) {
+			lease = new Lease(endpoint, provider, ttl, expiresAt);
+			leases.put(endpoint, lease);
+			wheel.schedule(lease, expiresAt);
+		} else {
+			// the longest lease time asked for by any registration wins
+			lease.ttl = Math.max(lease.ttl, ttl);
+			lease.expiresAt = Math.max(lease.expiresAt, expiresAt);
+		}
+		lease.services.put(service.getId(), service);
+		return lease.ttl;
+	}
+
+	/**
+	 * Removes the service from the lease of the provider, dropping the lease
+	 * with its last service. Must hold writeLock.
+	 */
+	private void release(ServiceInfo<?> service, ServiceProviderInfo provider) {
+		Lease lease = leases.get(endpoint(provider));
+		if (lease == null) {
+			return;
+		}
+		lease.services.remove(service.getId());
+		if (lease.services.isEmpty()) {
+			leases.remove(lease.endpoint);
+		}
+	}
+
+	private boolean isRegistered(ServiceProviderInfo provider)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported {
+		Lease lease = leases.get(endpoint(provider));
+		if (lease == null) {
+			return false;
+		}
+		for (ServiceInfo<?> service : lease.services.values()) {
+			for (ServiceSupportInfo support : ns.getProviders(service)) {
+				if (endpoint(support.getProvider()).equals(lease.endpoint)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static String endpoint(ServiceProviderInfo provider) {
+		return provider.getURL() + ":" + provider.getPort();
+	}
+
+	/**
+	 * Lease of one provider endpoint
+	 */
+	private static class Lease {
+
+		private final String endpoint;
+
+		private final ServiceProviderInfo provider;
+
+		/**
+		 * id to service, of the services registered by the endpoint
+		 */
+		private final ConcurrentHashMap<Integer, ServiceInfo<?>> services = new ConcurrentHashMap<Integer, ServiceInfo<?>>();
+
+		private volatile long ttl;
+
+		private volatile long expiresAt;
+
+		private Lease(String endpoint, ServiceProviderInfo provider, long ttl, long expiresAt) {
+			this.endpoint = endpoint;
+			this.provider = provider;
+			this.ttl = ttl;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+}
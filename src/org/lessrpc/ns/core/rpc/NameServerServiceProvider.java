@@ -2,7 +2,11 @@ package org.lessrpc.ns.core.rpc;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.lessrpc.common.errors.ApplicationSpecificErrorException;
 import org.lessrpc.common.errors.DatabaseNotSupported;
@@ -20,20 +24,121 @@ import org.lessrpc.common.info.responses.ServiceResponse;
 import org.lessrpc.common.services.NameServer;
 import org.lessrpc.common.services.NameServerServices;
 import org.lessrpc.common.services.ServiceProvider;
+import org.lessrpc.ns.core.info.BatchResult;
+import org.lessrpc.ns.core.info.ProvidersPage;
+import org.lessrpc.ns.core.info.ProvidersCheck;
+import org.lessrpc.ns.core.info.RegistryChanges;
 
 public class NameServerServiceProvider implements ServiceProvider {
 
-	private final NameServer nameServer;
+	/**
+	 * largest page size accepted by GET_PROVIDERS_PAGE
+	 */
+	public static final int MAX_PAGE_SIZE = 1000;
+
+	/**
+	 * largest number of items accepted by REGISTER_BATCH and UNREGISTER_BATCH
+	 */
+	public static final int MAX_BATCH_SIZE = 1000;
+
+	/**
+	 * largest number of changes returned by one GET_CHANGES_SINCE
+	 */
+	public static final int MAX_CHANGES = 1000;
+
+	private final ExtendedNameServer nameServer;
+
+	/**
+	 * name server CHECK_PROVIDERS and GET_CHANGES_SINCE are served from, null
+	 * if they are not provided
+	 */
+	private final RevisionedNameServer revisioned;
 
 	/**
 	 * provider object for name server (current node)
 	 */
 	private final ServiceProviderInfo spInfo;
 
+	/**
+	 * service id to route, never modified after construction
+	 */
+	private final Map<Integer, Route> routes;
+
+	private final List<ServiceSupportInfo> supportList;
+
+	@SuppressWarnings("rawtypes")
+	private final List<ServiceDescription> serviceList;
+
+	public NameServerServiceProvider(ExtendedNameServer nameServer) {
+		this(nameServer, Collections.<ServiceDescription<?>, ServiceHandler> emptyMap());
+	}
+
+	/**
+	 * 
+	 * @param nameServer
+	 *            adapted with {@link ExtendedNameServerAdapter} unless it is
+	 *            an {@link ExtendedNameServer}
+	 */
 	public NameServerServiceProvider(NameServer nameServer) {
+		this(ExtendedNameServerAdapter.adapt(nameServer));
+	}
+
+	/**
+	 * 
+	 * @param nameServer
+	 *            CHECK_PROVIDERS and GET_CHANGES_SINCE are provided only if it
+	 *            is a {@link RevisionedNameServer}
+	 * @param services
+	 *            additional services to provide next to the name server
+	 *            services, in the order they should be listed
+	 * @throws IllegalArgumentException
+	 *             if two services have the same id
+	 */
+	public NameServerServiceProvider(ExtendedNameServer nameServer,
+			Map<ServiceDescription<?>, ServiceHandler> services) {
+		this(nameServer, nameServer instanceof RevisionedNameServer ? (RevisionedNameServer) nameServer : null,
+				services);
+	}
+
+	/**
+	 * 
+	 * @param nameServer
+	 * @param revisioned
+	 *            name server below nameServer that logs its changes, serves
+	 *            CHECK_PROVIDERS and GET_CHANGES_SINCE. null to not provide
+	 *            them.
+	 * @param services
+	 *            additional services to provide next to the name server
+	 *            services, in the order they should be listed
+	 * @throws IllegalArgumentException
+	 *             if two services have the same id
+	 */
+	@SuppressWarnings("rawtypes")
+	public NameServerServiceProvider(ExtendedNameServer nameServer, RevisionedNameServer revisioned,
+			Map<ServiceDescription<?>, ServiceHandler> services) {
 		this.nameServer = nameServer;
+		this.revisioned = revisioned;
 		this.spInfo = new ServiceProviderInfo(nameServer.getURL(), nameServer.getPort(),
 				EnvironmentInfo.currentEnvInfo());
+
+		Map<ServiceDescription<?>, ServiceHandler> all = builtInServices();
+		all.putAll(services);
+
+		Map<Integer, Route> routes = new HashMap<Integer, Route>();
+		List<ServiceSupportInfo> supportList = new ArrayList<ServiceSupportInfo>(all.size());
+		List<ServiceDescription> serviceList = new ArrayList<ServiceDescription>(all.size());
+		for (Map.Entry<ServiceDescription<?>, ServiceHandler> entry : all.entrySet()) {
+			ServiceInfo<?> info = entry.getKey().getInfo();
+			if (routes.put(info.getId(), new Route(entry.getKey(), entry.getValue())) != null) {
+				throw new IllegalArgumentException("More than one service with id " + info.getId());
+			}
+			supportList.add(new ServiceSupportInfo(info, spInfo,
+					new SerializationFormat[] { SerializationFormat.defaultFotmat() }));
+			serviceList.add(entry.getKey());
+		}
+		this.routes = Collections.unmodifiableMap(routes);
+		this.supportList = Collections.unmodifiableList(supportList);
+		this.serviceList = Collections.unmodifiableList(serviceList);
 	}
 
 	@Override
@@ -45,26 +150,40 @@ public class NameServerServiceProvider implements ServiceProvider {
 	public ServiceResponse<?> execute(ServiceRequest request)
 			throws ApplicationSpecificErrorException, ExecuteInternalError, InvalidArgsException,
 			ServiceNotSupportedException, ClassNotFoundException, SQLException, DatabaseNotSupported {
-		if (request.getService().equals(NameServerServices.GET_PROVIDER.getInfo())) {
-			return handleGetProviderService(request);
-		} else if (request.getService().equals(NameServerServices.GET_PROVIDERS.getInfo())) {
-			return handleGetProvidersService(request);
-		} else if (request.getService().equals(NameServerServices.GET_ALL_PROVIDERS.getInfo())) {
-			return handleGetAllProvidersService(request);
-		} else if (request.getService().equals(NameServerServices.GET_SERVICE_INFO_BY_ID.getInfo())) {
-			return handleGetServiceInfoById(request);
-		} else if (request.getService().equals(NameServerServices.GET_SERVICE_INFO_BY_NAME.getInfo())) {
-			return handleGetServiceInfoByName(request);
-		} else if (request.getService().equals(NameServerServices.REGISTER.getInfo())) {
-			return handleRegister(request);
-		} else if (request.getService().equals(NameServerServices.UNREGISTER.getInfo())) {
-			return handleUnregister(request);
-		} else if (request.getService().equals(NameServerServices.UNREGISTER_ALL.getInfo())) {
-			return handleUnregisterAll(request);
-		} else if (request.getService().equals(NameServerServices.CHECK_PROVIDER_STATUS.getInfo())) {
-			return handleCheckProviderStatus(request);
+		Route route = routes.get(request.getService().getId());
+		if (route == null || !route.description.getInfo().equals(request.getService())) {
+			throw new ServiceNotSupportedException(request.getService());
 		}
-		throw new ServiceNotSupportedException(request.getService());
+		return route.handler.handle(request);
+	}
+
+	/**
+	 * 
+	 * @return handlers of the name server services, in the order they are
+	 *         listed by listSupport and listServices
+	 */
+	private Map<ServiceDescription<?>, ServiceHandler> builtInServices() {
+		Map<ServiceDescription<?>, ServiceHandler> map = new LinkedHashMap<ServiceDescription<?>, ServiceHandler>();
+		map.put(NameServerServices.CHECK_PROVIDER_STATUS, this::handleCheckProviderStatus);
+		map.put(NameServerServices.GET_ALL_PROVIDERS, this::handleGetAllProvidersService);
+		map.put(NameServerServices.GET_PROVIDER, this::handleGetProviderService);
+		map.put(NameServerServices.GET_PROVIDERS, this::handleGetProvidersService);
+		map.put(NameServerServices.GET_SERVICE_INFO_BY_ID, this::handleGetServiceInfoById);
+		map.put(NameServerServices.GET_SERVICE_INFO_BY_NAME, this::handleGetServiceInfoByName);
+		map.put(NameServerServices.REGISTER, this::handleRegister);
+		map.put(NameServerServices.UNREGISTER, this::handleUnregister);
+		map.put(NameServerServices.UNREGISTER_ALL, this::handleUnregisterAll);
+		map.put(ExtendedNameServerServices.GET_PROVIDERS_PAGE, this::handleGetProvidersPageService);
+		map.put(ExtendedNameServerServices.REGISTER_BATCH, this::handleRegisterBatch);
+		map.put(ExtendedNameServerServices.UNREGISTER_BATCH, this::handleUnregisterBatch);
+		map.put(ExtendedNameServerServices.REPORT_LATENCY, this::handleReportLatency);
+		map.put(ExtendedNameServerServices.REGISTER_WITH_LEASE, this::handleRegisterWithLease);
+		map.put(ExtendedNameServerServices.HEARTBEAT, this::handleHeartbeat);
+		if (revisioned != null) {
+			map.put(ExtendedNameServerServices.CHECK_PROVIDERS, this::handleCheckProviders);
+			map.put(ExtendedNameServerServices.GET_CHANGES_SINCE, this::handleGetChangesSince);
+		}
+		return map;
 	}
 
 	private boolean checkArgs(int requiredArgs, ServiceRequest request, Class<?>[] types) throws InvalidArgsException {
@@ -140,6 +259,100 @@ public class NameServerServiceProvider implements ServiceProvider {
 		return new ServiceResponse<>(request.getService(), new Boolean(flag), request.getRequestId());
 	}
 
+	private ServiceResponse<?> handleRegisterBatch(ServiceRequest request) throws InvalidArgsException,
+			ClassNotFoundException, SQLException, DatabaseNotSupported, ApplicationSpecificErrorException {
+		ServiceSupportInfo[] supports = checkBatchArgs(request);
+		BatchResult result = nameServer.registerBatch(supports);
+
+		return new ServiceResponse<BatchResult>(request.getService(), result, request.getRequestId());
+	}
+
+	private ServiceResponse<?> handleUnregisterBatch(ServiceRequest request) throws InvalidArgsException,
+			ClassNotFoundException, SQLException, DatabaseNotSupported, ApplicationSpecificErrorException {
+		ServiceSupportInfo[] supports = checkBatchArgs(request);
+		BatchResult result = nameServer.unregisterBatch(supports);
+
+		return new ServiceResponse<BatchResult>(request.getService(), result, request.getRequestId());
+	}
+
+	private ServiceResponse<?> handleRegisterWithLease(ServiceRequest request) throws InvalidArgsException,
+			ClassNotFoundException, SQLException, DatabaseNotSupported, ApplicationSpecificErrorException {
+		// numbers may be deserialized as any Number subtype
+		checkArgs(2, request, new Class<?>[] { ServiceSupportInfo.class, Number.class });
+		long ttl = nameServer.registerWithLease((ServiceSupportInfo) request.getArgs()[0],
+				((Number) request.getArgs()[1]).longValue());
+
+		return new ServiceResponse<Long>(request.getService(), ttl, request.getRequestId());
+	}
+
+	private ServiceResponse<?> handleHeartbeat(ServiceRequest request) throws InvalidArgsException,
+			ClassNotFoundException, SQLException, DatabaseNotSupported, ApplicationSpecificErrorException {
+		checkArgs(1, request, new Class<?>[] { ServiceProviderInfo.class });
+		boolean flag = nameServer.heartbeat((ServiceProviderInfo) request.getArgs()[0]);
+
+		return new ServiceResponse<>(request.getService(), new Boolean(flag), request.getRequestId());
+	}
+
+	private ServiceResponse<?> handleCheckProviders(ServiceRequest request) throws InvalidArgsException,
+			ClassNotFoundException, SQLException, DatabaseNotSupported, ApplicationSpecificErrorException {
+		// numbers may be deserialized as any Number subtype
+		checkArgs(2, request, new Class<?>[] { ServiceInfo.class, Number.class });
+		ServiceInfo<?> service = (ServiceInfo<?>) request.getArgs()[0];
+		long revision = ((Number) request.getArgs()[1]).longValue();
+
+		// providers are read after the revision, they are at least as recent
+		long current = revisioned.getRevision(service);
+		ProvidersCheck check = current == revision ? new ProvidersCheck(revision, null)
+				: new ProvidersCheck(current, nameServer.getProviders(service));
+		return new ServiceResponse<ProvidersCheck>(request.getService(), check, request.getRequestId());
+	}
+
+	private ServiceResponse<?> handleGetChangesSince(ServiceRequest request) throws InvalidArgsException,
+			ClassNotFoundException, SQLException, DatabaseNotSupported, ApplicationSpecificErrorException {
+		// numbers may be deserialized as any Number subtype
+		checkArgs(1, request, new Class<?>[] { Number.class });
+		RegistryChanges changes = revisioned.getChangesSince(((Number) request.getArgs()[0]).longValue(),
+				MAX_CHANGES);
+
+		return new ServiceResponse<RegistryChanges>(request.getService(), changes, request.getRequestId());
+	}
+
+	private ServiceResponse<?> handleReportLatency(ServiceRequest request) throws InvalidArgsException,
+			ClassNotFoundException, SQLException, DatabaseNotSupported, ApplicationSpecificErrorException {
+		// numbers may be deserialized as any Number subtype
+		checkArgs(3, request, new Class<?>[] { ServiceProviderInfo.class, Number.class, Boolean.class });
+		long latency = ((Number) request.getArgs()[1]).longValue();
+		if (latency < 0) {
+			throw new InvalidArgsException("Latency must not be negative but " + latency + " was provided");
+		}
+		boolean flag = nameServer.reportLatency((ServiceProviderInfo) request.getArgs()[0], latency,
+				(Boolean) request.getArgs()[2]);
+
+		return new ServiceResponse<>(request.getService(), new Boolean(flag), request.getRequestId());
+	}
+
+	/**
+	 * checks the single ServiceSupportInfo[] argument of the batch services
+	 * 
+	 * @param request
+	 * @return the items of the batch
+	 * @throws InvalidArgsException
+	 */
+	private ServiceSupportInfo[] checkBatchArgs(ServiceRequest request) throws InvalidArgsException {
+		checkArgs(1, request, new Class<?>[] { ServiceSupportInfo[].class });
+		ServiceSupportInfo[] supports = (ServiceSupportInfo[]) request.getArgs()[0];
+		if (supports.length > MAX_BATCH_SIZE) {
+			throw new InvalidArgsException("At most " + MAX_BATCH_SIZE + " items are accepted in one batch but "
+					+ supports.length + " were provided");
+		}
+		for (int i = 0; i < supports.length; i++) {
+			if (supports[i] == null || supports[i].getService() == null || supports[i].getProvider() == null) {
+				throw new InvalidArgsException("Item number " + i + " of the batch is incomplete");
+			}
+		}
+		return supports;
+	}
+
 	private ServiceResponse<?> handleGetServiceInfoByName(ServiceRequest request) throws InvalidArgsException,
 			ClassNotFoundException, SQLException, DatabaseNotSupported, ApplicationSpecificErrorException {
 		checkArgs(1, request, new Class[] { String.class });
@@ -164,6 +377,21 @@ public class NameServerServiceProvider implements ServiceProvider {
 		return new ServiceResponse<ServiceSupportInfo[]>(request.getService(), info, request.getRequestId());
 	}
 
+	private ServiceResponse<?> handleGetProvidersPageService(ServiceRequest request) throws InvalidArgsException,
+			ClassNotFoundException, SQLException, DatabaseNotSupported, ApplicationSpecificErrorException {
+		// numbers may be deserialized as any Number subtype
+		checkArgs(2, request, new Class<?>[] { Number.class, Number.class });
+		long pageToken = ((Number) request.getArgs()[0]).longValue();
+		int pageSize = ((Number) request.getArgs()[1]).intValue();
+		if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+			throw new InvalidArgsException(
+					"Page size must be between 1 and " + MAX_PAGE_SIZE + " but " + pageSize + " was provided");
+		}
+		ProvidersPage page = nameServer.getProvidersPage(pageToken, pageSize);
+
+		return new ServiceResponse<ProvidersPage>(request.getService(), page, request.getRequestId());
+	}
+
 	private ServiceResponse<?> handleGetProvidersService(ServiceRequest request) throws InvalidArgsException,
 			ClassNotFoundException, SQLException, DatabaseNotSupported, ApplicationSpecificErrorException {
 		checkArgs(1, request, new Class[] { ServiceInfo.class });
@@ -199,48 +427,44 @@ public class NameServerServiceProvider implements ServiceProvider {
 		return new ServiceSupportInfo(info, spInfo, new SerializationFormat[] { SerializationFormat.defaultFotmat() });
 	}
 
-	public NameServer getNameServer() {
+	public ExtendedNameServer getNameServer() {
 		return nameServer;
 	}
 
+	/**
+	 * 
+	 * @return the supported services, the list is shared and can not be
+	 *         modified
+	 */
 	@Override
 	public List<ServiceSupportInfo> listSupport() {
-		List<ServiceSupportInfo> list = new ArrayList<ServiceSupportInfo>();
-		list.add(new ServiceSupportInfo(NameServerServices.CHECK_PROVIDER_STATUS.getInfo(), spInfo,
-				new SerializationFormat[] { SerializationFormat.defaultFotmat() }));
-		list.add(new ServiceSupportInfo(NameServerServices.GET_ALL_PROVIDERS.getInfo(), spInfo,
-				new SerializationFormat[] { SerializationFormat.defaultFotmat() }));
-		list.add(new ServiceSupportInfo(NameServerServices.GET_PROVIDER.getInfo(), spInfo,
-				new SerializationFormat[] { SerializationFormat.defaultFotmat() }));
-		list.add(new ServiceSupportInfo(NameServerServices.GET_PROVIDERS.getInfo(), spInfo,
-				new SerializationFormat[] { SerializationFormat.defaultFotmat() }));
-		list.add(new ServiceSupportInfo(NameServerServices.GET_SERVICE_INFO_BY_ID.getInfo(), spInfo,
-				new SerializationFormat[] { SerializationFormat.defaultFotmat() }));
-		list.add(new ServiceSupportInfo(NameServerServices.GET_SERVICE_INFO_BY_NAME.getInfo(), spInfo,
-				new SerializationFormat[] { SerializationFormat.defaultFotmat() }));
-		list.add(new ServiceSupportInfo(NameServerServices.REGISTER.getInfo(), spInfo,
-				new SerializationFormat[] { SerializationFormat.defaultFotmat() }));
-		list.add(new ServiceSupportInfo(NameServerServices.UNREGISTER.getInfo(), spInfo,
-				new SerializationFormat[] { SerializationFormat.defaultFotmat() }));
-		list.add(new ServiceSupportInfo(NameServerServices.UNREGISTER_ALL.getInfo(), spInfo,
-				new SerializationFormat[] { SerializationFormat.defaultFotmat() }));
-		return list;
+		return supportList;
 	}
 
+	/**
+	 * 
+	 * @return the provided services, the list is shared and can not be
+	 *         modified
+	 */
 	@SuppressWarnings("rawtypes")
 	@Override
 	public List<ServiceDescription> listServices() {
-		List<ServiceDescription> list = new ArrayList<ServiceDescription>();
-		list.add(NameServerServices.CHECK_PROVIDER_STATUS);
-		list.add(NameServerServices.GET_ALL_PROVIDERS);
-		list.add(NameServerServices.GET_PROVIDER);
-		list.add(NameServerServices.GET_PROVIDERS);
-		list.add(NameServerServices.GET_SERVICE_INFO_BY_ID);
-		list.add(NameServerServices.GET_SERVICE_INFO_BY_NAME);
-		list.add(NameServerServices.REGISTER);
-		list.add(NameServerServices.UNREGISTER);
-		list.add(NameServerServices.UNREGISTER_ALL);
-		return list;
+		return serviceList;
+	}
+
+	/**
+	 * Handler of a service together with its description
+	 */
+	private static final class Route {
+
+		private final ServiceDescription<?> description;
+
+		private final ServiceHandler handler;
+
+		private Route(ServiceDescription<?> description, ServiceHandler handler) {
+			this.description = description;
+			this.handler = handler;
+		}
 	}
 
 }
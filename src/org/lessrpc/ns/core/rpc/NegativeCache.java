@@ -0,0 +1,212 @@
+package org.lessrpc.ns.core.rpc;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *
+ * Remembers for a short time that a lookup found nothing, so clients retrying
+ * lookups of unknown services in a loop don't hit the database each time.
+ * Keys are service names (service not found) and service ids (no providers).
+ * Registering a service removes its keys right away; the time to live only
+ * bounds how long a registration made behind the name server's back, e.g.
+ * by another name server on the same database, goes unnoticed.
+ *
+ * The cache holds at most capacity keys. When full, expired keys are dropped
+ * and if none expired the cache is cleared.
+ *
+ */
+public class NegativeCache {
+
+	public static final long DEFAULT_TTL = 1000;
+	public static final int DEFAULT_CAPACITY = 10000;
+
+	/**
+	 * key to expiry time in nanoseconds
+	 */
+	private final ConcurrentHashMap<Object, Long> entries = new ConcurrentHashMap<Object, Long>();
+
+	/**
+	 * incremented by every invalidation, a miss read before an invalidation
+	 * is not cached
+	 */
+	private final AtomicLong version = new AtomicLong();
+
+	private final long ttlNanos;
+
+	private final int capacity;
+
+	private final Stats stats = new Stats();
+
+	public NegativeCache() {
+		this(DEFAULT_TTL, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 *
+	 * @param ttl
+	 *            time to live of an entry in ms
+	 * @param capacity
+	 *            maximum number of keys
+	 */
+	public NegativeCache(long ttl, int capacity) {
+		if (ttl < 1 || capacity < 1) {
+			throw new IllegalArgumentException(
+					"Invalid negative cache configuration: ttl=" + ttl + ", capacity=" + capacity);
+		}
+		this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttl);
+		this.capacity = capacity;
+	}
+
+	/**
+	 *
+	 * @return to be passed to {@link #put(Object, long)}, read before the
+	 *         lookup
+	 */
+	public long stamp() {
+		return version.get();
+	}
+
+	/**
+	 *
+	 * @param key
+	 * @return true if a lookup of the key recently found nothing
+	 */
+	public boolean contains(Object key) {
+		if (key == null) {
+			return false;
+		}
+		Long expiry = entries.get(key);
+		if (expiry == null) {
+			return false;
+		}
+		if (System.nanoTime() - expiry >= 0) {
+			entries.remove(key, expiry);
+			return false;
+		}
+		stats.hits.increment();
+		return true;
+	}
+
+	/**
+	 * Remembers that a lookup of the key found nothing
+	 *
+	 * @param key
+	 * @param stamp
+	 *            {@link #stamp()} read before the lookup
+	 */
+	public void put(Object key, long stamp) {
+		if (key == null || version.get() != stamp) {
+			return;
+		}
+		if (entries.size() >= capacity) {
+			evict();
+		}
+		entries.put(key, System.nanoTime() + ttlNanos);
+		// invalidated while putting, its removal may have run before the put
+		if (version.get() != stamp) {
+			entries.remove(key);
+		}
+	}
+
+	/**
+	 * Forgets the keys, called when they may be found from now on
+	 *
+	 * @param keys
+	 */
+	public void invalidate(Object... keys) {
+		version.incrementAndGet();
+		for (Object key : keys) {
+			if (key != null && entries.remove(key) != null) {
+				stats.invalidations.increment();
+			}
+		}
+	}
+
+	/**
+	 * Forgets all keys
+	 */
+	public void clear() {
+		version.incrementAndGet();
+		entries.clear();
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public long getTTL() {
+		return TimeUnit.NANOSECONDS.toMillis(ttlNanos);
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public Stats getStats() {
+		return stats;
+	}
+
+	private void evict() {
+		long now = System.nanoTime();
+		Iterator<Map.Entry<Object, Long>> it = entries.entrySet().iterator();
+		while (it.hasNext()) {
+			if (now - it.next().getValue() >= 0) {
+				it.remove();
+			}
+		}
+		if (entries.size() >= capacity) {
+			entries.clear();
+			stats.evictions.increment();
+		}
+	}
+
+	/**
+	 *
+	 * Counters of a negative cache
+	 *
+	 */
+	public static class Stats {
+
+		private final LongAdder hits = new LongAdder();
+
+		private final LongAdder invalidations = new LongAdder();
+
+		private final LongAdder evictions = new LongAdder();
+
+		/**
+		 *
+		 * @return number of lookups answered without the database
+		 */
+		public long getHits() {
+			return hits.sum();
+		}
+
+		/**
+		 *
+		 * @return number of keys removed by registrations
+		 */
+		public long getInvalidations() {
+			return invalidations.sum();
+		}
+
+		/**
+		 *
+		 * @return number of times the full cache was cleared
+		 */
+		public long getEvictions() {
+			return evictions.sum();
+		}
+
+		@Override
+		public String toString() {
+			return "hits=" + getHits() + ", invalidations=" + getInvalidations() + ", evictions=" + getEvictions();
+		}
+
+	}
+
+}
@@ -0,0 +1,311 @@
+package org.lessrpc.ns.core.rpc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.lessrpc.common.info.ServiceProviderInfo;
+import org.lessrpc.common.info.ServiceSupportInfo;
+import org.lessrpc.common.loadbalance.ProviderLoadBalancer;
+import org.lessrpc.common.serializer.Serializer;
+import org.lessrpc.ns.core.FeedbackLoadBalancer;
+import org.lessrpc.ns.core.constants.Constants;
+import org.lessrpc.ns.core.info.BatchResult;
+import org.lessrpc.ns.core.info.ProvidersPage;
+import org.lessrpc.stub.java.serializer.JsonSerializer;
+import org.lessrpc.stub.java.stubs.ClientStub;
+
+import me.salimm.allconfig.core.Config;
+
+/**
+ *
+ * Periodically pings every registered provider endpoint and unregisters the
+ * ones that failed a number of consecutive sweeps. Pings run in parallel on a
+ * bounded pool and are abandoned after the configured timeout. Endpoints
+ * serving several services are pinged once per sweep. Failed endpoints of a
+ * sweep are removed together with UNREGISTER_BATCH semantics, so the registry
+ * cache and the database are updated in one go. Ping latencies are reported to
+ * the load balancer of the name server as pings, not as answered selections.
+ *
+ */
+public class ProviderHealthChecker implements Constants {
+
+	/**
+	 * number of providers read from the registry at a time
+	 */
+	private static final int PAGE_SIZE = 500;
+
+	/**
+	 * Pings a provider
+	 */
+	@FunctionalInterface
+	public interface Pinger {
+		public boolean ping(ServiceProviderInfo provider) throws Exception;
+	}
+
+	private final ExtendedNameServer ns;
+
+	private final HealthCheckConfig config;
+
+	private final Pinger pinger;
+
+	/**
+	 * runs the sweeps (one at a time, each schedules the next) and the ping
+	 * timeouts
+	 */
+	private final ScheduledExecutorService scheduler;
+
+	private final ExecutorService workers;
+
+	/**
+	 * one permit per ping that may be in flight
+	 */
+	private final Semaphore permits;
+
+	/**
+	 * endpoint to number of consecutive failed sweeps
+	 */
+	private final ConcurrentHashMap<String, Integer> failures = new ConcurrentHashMap<String, Integer>();
+
+	private volatile boolean running = false;
+
+	public ProviderHealthChecker(ExtendedNameServer ns, HealthCheckConfig config) {
+		this(ns, config, newClientPinger());
+	}
+
+	public ProviderHealthChecker(ExtendedNameServer ns, HealthCheckConfig config, Pinger pinger) {
+		this.ns = ns;
+		this.config = config;
+		this.pinger = pinger;
+		this.scheduler = Executors.newScheduledThreadPool(2, threadFactory("lessrpc-ns-health"));
+		this.workers = Executors.newFixedThreadPool(config.getThreads(), threadFactory("lessrpc-ns-health-ping"));
+		this.permits = new Semaphore(config.getThreads());
+	}
+
+	/**
+	 * Read health check configuration from conf file. Missing properties take
+	 * their default values.
+	 * 
+	 * @param conf
+	 * @return
+	 */
+	public static HealthCheckConfig getConfig(Config conf) {
+		return new HealthCheckConfig(conf.getLong(CONF_TAG_NAME_HEALTH_INTERVAL, HealthCheckConfig.DEFAULT_INTERVAL),
+				conf.getLong(CONF_TAG_NAME_HEALTH_JITTER, HealthCheckConfig.DEFAULT_JITTER),
+				conf.getLong(CONF_TAG_NAME_HEALTH_TIMEOUT, HealthCheckConfig.DEFAULT_TIMEOUT),
+				conf.getInteger(CONF_TAG_NAME_HEALTH_THREADS, HealthCheckConfig.DEFAULT_THREADS),
+				conf.getInteger(CONF_TAG_NAME_HEALTH_FAILURE_THRESHOLD, HealthCheckConfig.DEFAULT_FAILURE_THRESHOLD));
+	}
+
+	/**
+	 * Pinger sharing one client stub between all pings
+	 * 
+	 * @return
+	 */
+	public static Pinger newClientPinger() {
+		ClientStub client = new ClientStub(Arrays.asList(new Serializer[] { new JsonSerializer() }));
+		return client::ping;
+	}
+
+	/**
+	 * Starts sweeping. The first sweep starts at a random point within the
+	 * first interval.
+	 */
+	public void start() {
+		running = true;
+		scheduler.schedule(this::sweepAndReschedule, ThreadLocalRandom.current().nextLong(config.getInterval()),
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops sweeping, pings in flight are interrupted
+	 */
+	public void stop() {
+		running = false;
+		scheduler.shutdownNow();
+		workers.shutdownNow();
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	public HealthCheckConfig getConfig() {
+		return config;
+	}
+
+	private void sweepAndReschedule() {
+		try {
+			sweep();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		if (running) {
+			long jitter = config.getJitter();
+			long delay = config.getInterval()
+					+ (jitter == 0 ? 0 : ThreadLocalRandom.current().nextLong(-jitter, jitter + 1));
+			scheduler.schedule(this::sweepAndReschedule, delay, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Pings all registered endpoints once and unregisters the ones that
+	 * reached the failure threshold
+	 * 
+	 * @return number of providers unregistered
+	 * @throws Exception
+	 *             if the registry could not be read or updated
+	 */
+	public int sweep() throws Exception {
+		// endpoint to its registrations
+		Map<String, List<ServiceSupportInfo>> endpoints = new LinkedHashMap<String, List<ServiceSupportInfo>>();
+		long token = ProvidersPage.FIRST_PAGE;
+		do {
+			ProvidersPage page = ns.getProvidersPage(token, PAGE_SIZE);
+			for (ServiceSupportInfo support : page.getSupports()) {
+				String endpoint = endpoint(support.getProvider());
+				List<ServiceSupportInfo> list = endpoints.get(endpoint);
+				if (list == null) {
+					list = new ArrayList<ServiceSupportInfo>(1);
+					endpoints.put(endpoint, list);
+				}
+				list.add(support);
+			}
+			token = page.getNextPageToken();
+		} while (token != ProvidersPage.LAST_PAGE);
+
+		// forgetting endpoints that are gone
+		failures.keySet().retainAll(endpoints.keySet());
+
+		CountDownLatch latch = new CountDownLatch(endpoints.size());
+		Map<String, Check> checks = new HashMap<String, Check>();
+		for (Map.Entry<String, List<ServiceSupportInfo>> entry : endpoints.entrySet()) {
+			permits.acquire();
+			Check check = new Check(entry.getValue().get(0).getProvider(), latch);
+			checks.put(entry.getKey(), check);
+			try {
+				Future<?> future = workers.submit(check::run);
+				scheduler.schedule(() -> {
+					if (check.complete(false, config.getTimeout() * 1000)) {
+						future.cancel(true);
+					}
+				}, config.getTimeout(), TimeUnit.MILLISECONDS);
+			} catch (RuntimeException e) {
+				// shut down while sweeping
+				check.complete(false, 0);
+				throw e;
+			}
+		}
+		latch.await();
+
+		List<ServiceSupportInfo> evict = new ArrayList<ServiceSupportInfo>();
+		for (Map.Entry<String, Check> entry : checks.entrySet()) {
+			String endpoint = entry.getKey();
+			if (entry.getValue().healthy) {
+				failures.remove(endpoint);
+			} else if (failures.merge(endpoint, 1, Integer::sum) >= config.getFailureThreshold()) {
+				evict.addAll(endpoints.get(endpoint));
+				failures.remove(endpoint);
+			}
+		}
+		return evict(evict);
+	}
+
+	/**
+	 * unregisters the providers in batches
+	 */
+	private int evict(List<ServiceSupportInfo> evict) throws Exception {
+		int count = 0;
+		for (int i = 0; i < evict.size(); i += NameServerServiceProvider.MAX_BATCH_SIZE) {
+			List<ServiceSupportInfo> batch = evict.subList(i,
+					Math.min(evict.size(), i + NameServerServiceProvider.MAX_BATCH_SIZE));
+			BatchResult result = ns.unregisterBatch(batch.toArray(new ServiceSupportInfo[batch.size()]));
+			count += result.countOk();
+		}
+		if (count > 0) {
+			System.out.println("Health check unregistered " + count + " provider(s)....");
+		}
+		return count;
+	}
+
+	private static String endpoint(ServiceProviderInfo provider) {
+		return provider.getURL() + ":" + provider.getPort();
+	}
+
+	private static ThreadFactory threadFactory(String name) {
+		AtomicInteger count = new AtomicInteger();
+		return r -> {
+			Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		};
+	}
+
+	/**
+	 * One ping of a sweep. Completed either by the ping or by its timeout,
+	 * whichever comes first.
+	 */
+	private class Check {
+
+		private final ServiceProviderInfo provider;
+
+		private final CountDownLatch latch;
+
+		private final AtomicBoolean done = new AtomicBoolean(false);
+
+		private volatile boolean healthy = false;
+
+		private Check(ServiceProviderInfo provider, CountDownLatch latch) {
+			this.provider = provider;
+			this.latch = latch;
+		}
+
+		private void run() {
+			long start = System.nanoTime();
+			boolean flag;
+			try {
+				flag = pinger.ping(provider);
+			} catch (Exception e) {
+				flag = false;
+			}
+			complete(flag, (System.nanoTime() - start) / 1000);
+		}
+
+		/**
+		 * 
+		 * @return false if the check was already completed
+		 */
+		private boolean complete(boolean healthy, long latencyMicros) {
+			if (!done.compareAndSet(false, true)) {
+				return false;
+			}
+			this.healthy = healthy;
+			permits.release();
+			latch.countDown();
+			ProviderLoadBalancer balancer = ns.getLoadBalancer();
+			if (balancer instanceof FeedbackLoadBalancer) {
+				((FeedbackLoadBalancer) balancer).reportPing(provider, latencyMicros, healthy);
+			}
+			return true;
+		}
+	}
+
+}
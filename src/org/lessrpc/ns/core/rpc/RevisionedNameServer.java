@@ -0,0 +1,43 @@
+package org.lessrpc.ns.core.rpc;
+
+import java.sql.SQLException;
+
+import org.lessrpc.common.errors.DatabaseNotSupported;
+import org.lessrpc.common.info.ServiceInfo;
+import org.lessrpc.ns.core.info.RegistryChanges;
+
+/**
+ * 
+ * Name server that keeps a log of the registry changes made through it, so
+ * callers can check whether the providers of a service changed and replay
+ * its changes. Only {@link ChangeLoggingNameServer} keeps such a log, the
+ * revision and change services of {@link ExtendedNameServerServices} are
+ * served from it.
+ * 
+ */
+public interface RevisionedNameServer extends ExtendedNameServer {
+
+	/**
+	 * 
+	 * @param service
+	 * @return revision of the providers of the service, changes whenever a
+	 *         provider of the service registers or unregisters
+	 */
+	public long getRevision(ServiceInfo<?> service);
+
+	/**
+	 * Returns the registry changes made after the revision
+	 * 
+	 * @param revision
+	 *            revision of the last change seen by the caller
+	 * @param limit
+	 *            max number of changes returned
+	 * @return
+	 * @throws ClassNotFoundException
+	 * @throws SQLException
+	 * @throws DatabaseNotSupported
+	 */
+	public RegistryChanges getChangesSince(long revision, int limit)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported;
+
+}
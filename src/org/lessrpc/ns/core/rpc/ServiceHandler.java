@@ -0,0 +1,25 @@
+package org.lessrpc.ns.core.rpc;
+
+import java.sql.SQLException;
+
+import org.lessrpc.common.errors.ApplicationSpecificErrorException;
+import org.lessrpc.common.errors.DatabaseNotSupported;
+import org.lessrpc.common.errors.ExecuteInternalError;
+import org.lessrpc.common.errors.InvalidArgsException;
+import org.lessrpc.common.errors.ServiceNotSupportedException;
+import org.lessrpc.common.info.ServiceRequest;
+import org.lessrpc.common.info.responses.ServiceResponse;
+
+/**
+ * 
+ * Executes requests of one service of {@link NameServerServiceProvider}
+ * 
+ */
+@FunctionalInterface
+public interface ServiceHandler {
+
+	public ServiceResponse<?> handle(ServiceRequest request)
+			throws ApplicationSpecificErrorException, ExecuteInternalError, InvalidArgsException,
+			ServiceNotSupportedException, ClassNotFoundException, SQLException, DatabaseNotSupported;
+
+}
@@ -2,16 +2,41 @@ package org.lessrpc.ns.core.server;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
 
 import org.lessrpc.common.db.DBInfo;
 import org.lessrpc.common.db.DBUtils;
 import org.lessrpc.common.errors.DatabaseNotSupported;
+import org.lessrpc.common.info.ServiceDescription;
+import org.lessrpc.common.loadbalance.ProviderLoadBalancer;
 import org.lessrpc.common.serializer.Serializer;
+import org.lessrpc.ns.core.LoadBalancerFactory;
 import org.lessrpc.ns.core.RandomLoadBalancer;
+import org.lessrpc.ns.core.cluster.ClusterConfig;
+import org.lessrpc.ns.core.cluster.ClusterNameServer;
+import org.lessrpc.ns.core.cluster.ShardConfig;
+import org.lessrpc.ns.core.cluster.ShardedNameServer;
 import org.lessrpc.ns.core.constants.Constants;
+import org.lessrpc.ns.core.db.ConnectionPoolConfig;
 import org.lessrpc.ns.core.db.DBFactory;
+import org.lessrpc.ns.core.db.DBUtilsAdapter;
+import org.lessrpc.ns.core.db.GroupCommitConfig;
+import org.lessrpc.ns.core.db.GroupCommitWriter;
+import org.lessrpc.ns.core.db.RegistryDBUtils;
+import org.lessrpc.ns.core.db.SQLiteTuning;
+import org.lessrpc.ns.core.rpc.CachingNameServer;
+import org.lessrpc.ns.core.rpc.ChangeLog;
 import org.lessrpc.ns.core.rpc.DBBasedNameServer;
+import org.lessrpc.ns.core.rpc.ExtendedNameServer;
+import org.lessrpc.ns.core.rpc.HealthCheckConfig;
+import org.lessrpc.ns.core.rpc.LeaseConfig;
+import org.lessrpc.ns.core.rpc.LeasingNameServer;
 import org.lessrpc.ns.core.rpc.NameServerServiceProvider;
+import org.lessrpc.ns.core.rpc.NegativeCache;
+import org.lessrpc.ns.core.rpc.ProviderHealthChecker;
+import org.lessrpc.ns.core.rpc.ServiceHandler;
+import org.lessrpc.ns.core.rpc.ChangeLoggingNameServer;
 import org.lessrpc.stub.java.stubs.ServerStub;
 
 import me.salimm.allconfig.core.Config;
@@ -27,29 +52,186 @@ import me.salimm.allconfig.core.errors.PrefixNotANestedConfigException;
 public class NameServer implements Constants {
 
 	private ServerStub stub;
-	private org.lessrpc.common.services.NameServer ns;
+	private ExtendedNameServer ns;
 	private int port;
 	private DBInfo dbInfo;
-	private DBUtils dbUtils;
+	private RegistryDBUtils dbUtils;
+	private ConnectionPoolConfig poolConfig;
+
+	/**
+	 * if not null, SQLite connections are tuned and writes may go through a
+	 * single writer
+	 */
+	private SQLiteTuning sqliteTuning = null;
+
+	/**
+	 * if not null, writes are queued and group-committed by one writer
+	 */
+	private GroupCommitConfig groupCommitConfig = null;
+	private ProviderLoadBalancer balancer = new RandomLoadBalancer();
+
+	/**
+	 * if true, lookups are served from an in-memory copy of the registry
+	 */
+	private boolean registryCache = false;
+
+	/**
+	 * if not null, registered providers are pinged in the background
+	 */
+	private HealthCheckConfig healthCheckConfig = null;
+	private ProviderHealthChecker healthChecker;
+
+	/**
+	 * if not null, registrations expire unless renewed by heartbeats
+	 */
+	private LeaseConfig leaseConfig = null;
+	private LeasingNameServer leasing;
+
+	private ChangeLoggingNameServer changeLogging;
+
+	/**
+	 * size of the in-memory change log and number of changes kept in the
+	 * database, 0 to keep none
+	 */
+	private int changeLogCapacity = ChangeLog.DEFAULT_CAPACITY;
+	private long changeLogRetention = ChangeLog.DEFAULT_RETENTION;
+
+	/**
+	 * how long lookups that found nothing are remembered in ms, 0 to disable
+	 * the negative cache
+	 */
+	private long negativeCacheTTL = 0;
+	private int negativeCacheCapacity = NegativeCache.DEFAULT_CAPACITY;
+	private NegativeCache negativeCache;
+
+	/**
+	 * if not null, the name server is one node of a replicated cluster
+	 */
+	private ClusterConfig clusterConfig = null;
+	private ClusterNameServer cluster;
+
+	/**
+	 * if not null, the name server is one shard of a partitioned registry
+	 */
+	private ShardConfig shardConfig = null;
+	private ShardedNameServer sharded;
 
 	public NameServer(Config conf)
 			throws ClassNotFoundException, SQLException, DatabaseNotSupported, PrefixNotANestedConfigException {
-		this(conf.getInteger(CONF_TAG_NAME_VIPE_API_PORT), DBFactory.getDBInfo(conf), DBFactory.getDBUtils(conf));
+		this(conf.getInteger(CONF_TAG_NAME_VIPE_API_PORT), DBFactory.getDBInfo(conf), DBFactory.getDBUtils(conf),
+				DBFactory.getConnectionPoolConfig(conf));
+		this.sqliteTuning = DBFactory.getSQLiteTuning(conf);
+		this.groupCommitConfig = DBFactory.getGroupCommitConfig(conf);
+		this.registryCache = conf.getBoolean(CONF_TAG_NAME_REGISTRY_CACHE, false);
+		this.balancer = LoadBalancerFactory.getLoadBalancer(conf);
+		this.changeLogCapacity = conf.getInteger(CONF_TAG_NAME_CHANGELOG_CAPACITY, ChangeLog.DEFAULT_CAPACITY);
+		this.changeLogRetention = conf.getBoolean(CONF_TAG_NAME_CHANGELOG_SPILL, true)
+				? conf.getLong(CONF_TAG_NAME_CHANGELOG_RETENTION, ChangeLog.DEFAULT_RETENTION) : 0;
+		this.negativeCacheTTL = conf.getLong(CONF_TAG_NAME_NEGATIVE_CACHE_TTL, 0L);
+		this.negativeCacheCapacity = conf.getInteger(CONF_TAG_NAME_NEGATIVE_CACHE_CAPACITY,
+				NegativeCache.DEFAULT_CAPACITY);
+		if (conf.getBoolean(CONF_TAG_NAME_LEASE_ENABLED, false)) {
+			this.leaseConfig = LeasingNameServer.getConfig(conf);
+		}
+		if (conf.getBoolean(CONF_TAG_NAME_HEALTH_ENABLED, false)) {
+			this.healthCheckConfig = ProviderHealthChecker.getConfig(conf);
+		}
+		if (conf.getBoolean(CONF_TAG_NAME_CLUSTER_ENABLED, false)) {
+			this.clusterConfig = ClusterNameServer.getConfig(conf, port);
+		}
+		if (conf.getBoolean(CONF_TAG_NAME_SHARD_ENABLED, false)) {
+			this.shardConfig = ShardedNameServer.getConfig(conf, port);
+		}
+	}
+
+	public NameServer(int port, DBInfo dbInfo, RegistryDBUtils dbUtils)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported, PrefixNotANestedConfigException {
+		this(port, dbInfo, dbUtils, new ConnectionPoolConfig());
 	}
 
+	/**
+	 * dbUtils is adapted with {@link DBUtilsAdapter} unless it is a
+	 * {@link RegistryDBUtils}. Changes are not spilled to the database then.
+	 */
 	public NameServer(int port, DBInfo dbInfo, DBUtils dbUtils)
 			throws ClassNotFoundException, SQLException, DatabaseNotSupported, PrefixNotANestedConfigException {
+		this(port, dbInfo, DBUtilsAdapter.adapt(dbUtils));
+	}
+
+	/**
+	 * dbUtils is adapted with {@link DBUtilsAdapter} unless it is a
+	 * {@link RegistryDBUtils}. Changes are not spilled to the database then.
+	 */
+	public NameServer(int port, DBInfo dbInfo, DBUtils dbUtils, ConnectionPoolConfig poolConfig)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported, PrefixNotANestedConfigException {
+		this(port, dbInfo, DBUtilsAdapter.adapt(dbUtils), poolConfig);
+	}
+
+	public NameServer(int port, DBInfo dbInfo, RegistryDBUtils dbUtils, ConnectionPoolConfig poolConfig)
+			throws ClassNotFoundException, SQLException, DatabaseNotSupported, PrefixNotANestedConfigException {
 		this.port = port;
 		this.dbInfo = dbInfo;
 		this.dbUtils = dbUtils;
+		this.poolConfig = poolConfig;
 	}
 
 	public void start() throws Exception {
+		if (clusterConfig != null && shardConfig != null) {
+			throw new IllegalStateException("Cluster and shard modes cannot be combined");
+		}
+		// connection pool used by the name server
+		DBFactory.initConnectionPool(dbInfo, poolConfig, sqliteTuning, groupCommitConfig);
 		// default port
-		this.ns = new DBBasedNameServer(dbInfo, dbUtils, port, new RandomLoadBalancer());
+		DBBasedNameServer db = new DBBasedNameServer(dbInfo, dbUtils, port, balancer);
+		negativeCache = negativeCacheTTL > 0 ? new NegativeCache(negativeCacheTTL, negativeCacheCapacity) : null;
+		db.setNegativeCache(negativeCache);
+		this.ns = db;
+		// replicas serve lookups from memory
+		if (registryCache || clusterConfig != null) {
+			this.ns = new CachingNameServer(ns);
+		}
+		// on top of the cache, below leases so expiries are logged.
+		// The embedded store and adapted DBUtils have no change log table.
+		boolean spill = changeLogRetention > 0 && !DBFactory.isEmbedded(dbInfo)
+				&& !(dbUtils instanceof DBUtilsAdapter);
+		ChangeLog changeLog = new ChangeLog(changeLogCapacity, changeLogRetention, spill ? dbInfo : null, dbUtils);
+		changeLog.init();
+		changeLogging = new ChangeLoggingNameServer(ns, changeLog);
+		this.ns = changeLogging;
+		if (leaseConfig != null && clusterConfig != null) {
+			// leases are held in memory by one node, followers would expire
+			// registrations they never saw heartbeats for
+			System.out.println("Leases are not supported in cluster mode and are disabled....");
+		} else if (leaseConfig != null) {
+			// outermost, expired leases are removed from the cache as well
+			leasing = new LeasingNameServer(ns, leaseConfig);
+			this.ns = leasing;
+		}
+		if (clusterConfig != null) {
+			// replicated changes are applied below, so they are logged and
+			// followers serve revisions and change feeds of their own
+			cluster = new ClusterNameServer(ns, changeLogging, clusterConfig);
+			cluster.start();
+			this.ns = cluster;
+		}
+		Map<ServiceDescription<?>, ServiceHandler> services = Collections.emptyMap();
+		if (shardConfig != null) {
+			// outermost, calls are routed before any local decorator
+			sharded = new ShardedNameServer(ns, shardConfig);
+			services = sharded.getServices();
+			this.ns = sharded;
+		}
 		stub = new ServerStub(port, new ArrayList<Serializer>());
-		stub.init(new NameServerServiceProvider(ns));
+		stub.init(new NameServerServiceProvider(ns, changeLogging, services));
 		stub.start();
+		if (sharded != null) {
+			// once serving, so shards starting together can reach each other
+			sharded.rebalance();
+		}
+		if (healthCheckConfig != null) {
+			healthChecker = new ProviderHealthChecker(ns, healthCheckConfig);
+			healthChecker.start();
+		}
 
 	}
 
@@ -57,7 +239,208 @@ public class NameServer implements Constants {
 		ns.reset();
 	}
 
+	public boolean isRegistryCache() {
+		return registryCache;
+	}
+
+	/**
+	 * Enables or disables the in-memory registry cache. Takes effect on the
+	 * next start.
+	 * 
+	 * @param registryCache
+	 */
+	public void setRegistryCache(boolean registryCache) {
+		this.registryCache = registryCache;
+	}
+
+	public ProviderLoadBalancer getLoadBalancer() {
+		return balancer;
+	}
+
+	/**
+	 * Sets the load balancer used to select providers. Takes effect on the
+	 * next start.
+	 * 
+	 * @param balancer
+	 */
+	public void setLoadBalancer(ProviderLoadBalancer balancer) {
+		this.balancer = balancer;
+	}
+
+	public SQLiteTuning getSQLiteTuning() {
+		return sqliteTuning;
+	}
+
+	/**
+	 * Tunes SQLite connections with the given settings, null disables tuning.
+	 * Takes effect on the next start.
+	 * 
+	 * @param sqliteTuning
+	 */
+	public void setSQLiteTuning(SQLiteTuning sqliteTuning) {
+		this.sqliteTuning = sqliteTuning;
+	}
+
+	public GroupCommitConfig getGroupCommitConfig() {
+		return groupCommitConfig;
+	}
+
+	/**
+	 * Enables group commit of writes with the given settings, null disables
+	 * it unless tuned SQLite asks for a single writer. Takes effect on the
+	 * next start.
+	 * 
+	 * @param groupCommitConfig
+	 */
+	public void setGroupCommitConfig(GroupCommitConfig groupCommitConfig) {
+		this.groupCommitConfig = groupCommitConfig;
+	}
+
+	/**
+	 * 
+	 * @return batch size and commit latency of the writer, null if writes are
+	 *         not group-committed
+	 */
+	public GroupCommitWriter.Stats getWriterStats() {
+		GroupCommitWriter writer = DBFactory.getWriter(dbInfo);
+		return writer == null ? null : writer.getStats();
+	}
+
+	public long getNegativeCacheTTL() {
+		return negativeCacheTTL;
+	}
+
+	/**
+	 * Remembers lookups of unknown services and of services without providers
+	 * for the given time in ms, 0 disables it. Takes effect on the next start.
+	 * 
+	 * @param negativeCacheTTL
+	 */
+	public void setNegativeCacheTTL(long negativeCacheTTL) {
+		this.negativeCacheTTL = negativeCacheTTL;
+	}
+
+	public int getNegativeCacheCapacity() {
+		return negativeCacheCapacity;
+	}
+
+	/**
+	 * Sets the number of lookups the negative cache remembers. Takes effect on
+	 * the next start.
+	 * 
+	 * @param negativeCacheCapacity
+	 */
+	public void setNegativeCacheCapacity(int negativeCacheCapacity) {
+		this.negativeCacheCapacity = negativeCacheCapacity;
+	}
+
+	/**
+	 * 
+	 * @return hits of the negative cache, null if it is disabled
+	 */
+	public NegativeCache.Stats getNegativeCacheStats() {
+		return negativeCache == null ? null : negativeCache.getStats();
+	}
+
+	public HealthCheckConfig getHealthCheckConfig() {
+		return healthCheckConfig;
+	}
+
+	/**
+	 * Enables background health checks with the given settings, null
+	 * disables them. Takes effect on the next start.
+	 * 
+	 * @param healthCheckConfig
+	 */
+	public void setHealthCheckConfig(HealthCheckConfig healthCheckConfig) {
+		this.healthCheckConfig = healthCheckConfig;
+	}
+
+	public LeaseConfig getLeaseConfig() {
+		return leaseConfig;
+	}
+
+	/**
+	 * Enables leases on registrations with the given settings, null disables
+	 * them. Takes effect on the next start.
+	 * 
+	 * @param leaseConfig
+	 */
+	public void setLeaseConfig(LeaseConfig leaseConfig) {
+		this.leaseConfig = leaseConfig;
+	}
+
+	public ClusterConfig getClusterConfig() {
+		return clusterConfig;
+	}
+
+	/**
+	 * Makes the name server a node of a cluster with the given settings, null
+	 * runs it alone. Cluster mode keeps the registry in memory and disables
+	 * leases. Takes effect on the next start.
+	 * 
+	 * @param clusterConfig
+	 */
+	public void setClusterConfig(ClusterConfig clusterConfig) {
+		this.clusterConfig = clusterConfig;
+	}
+
+	/**
+	 * 
+	 * @return replication counters of this node, null if not clustered
+	 */
+	public ClusterNameServer.Stats getClusterStats() {
+		return cluster == null ? null : cluster.getStats();
+	}
+
+	public ShardConfig getShardConfig() {
+		return shardConfig;
+	}
+
+	/**
+	 * Makes the name server a shard of a partitioned registry with the given
+	 * settings, null runs it alone. Takes effect on the next start.
+	 * 
+	 * @param shardConfig
+	 */
+	public void setShardConfig(ShardConfig shardConfig) {
+		this.shardConfig = shardConfig;
+	}
+
+	/**
+	 * 
+	 * @return routing counters of this shard, null if not sharded
+	 */
+	public ShardedNameServer.Stats getShardStats() {
+		return sharded == null ? null : sharded.getStats();
+	}
+
 	public void stop() throws Exception {
+		if (healthChecker != null) {
+			healthChecker.stop();
+			healthChecker = null;
+		}
+		if (sharded != null) {
+			System.out.println("Shard: " + sharded.getStats() + "....");
+			sharded = null;
+		}
+		if (cluster != null) {
+			cluster.close();
+			System.out.println("Cluster: " + cluster.getStats() + "....");
+			cluster = null;
+		}
+		if (leasing != null) {
+			leasing.close();
+			leasing = null;
+		}
 		stub.stop();
+		GroupCommitWriter.Stats writerStats = getWriterStats();
+		if (writerStats != null) {
+			System.out.println("Group commit: " + writerStats + "....");
+		}
+		if (negativeCache != null) {
+			System.out.println("Negative cache: " + negativeCache.getStats() + "....");
+		}
+		DBFactory.closeConnectionPool(dbInfo);
 	}
 }
\ No newline at end of file
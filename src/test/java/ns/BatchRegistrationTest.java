@@ -0,0 +1,153 @@
+package test.java.ns;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.lessrpc.common.db.DBInfo;
+import org.lessrpc.common.info.EnvironmentInfo;
+import org.lessrpc.common.info.SerializationFormat;
+import org.lessrpc.common.info.ServiceInfo;
+import org.lessrpc.common.info.ServiceProviderInfo;
+import org.lessrpc.common.info.ServiceSupportInfo;
+import org.lessrpc.ns.core.RandomLoadBalancer;
+import org.lessrpc.ns.core.constants.Constants;
+import org.lessrpc.ns.core.db.DBFactory;
+import org.lessrpc.ns.core.info.BatchResult;
+import org.lessrpc.ns.core.rpc.DBBasedNameServer;
+
+import me.salimm.allconfig.core.Config;
+import me.salimm.allconfig.core.types.XMLConfig;
+
+public class BatchRegistrationTest {
+
+	/**
+	 * inserting this format fails, after the provider row was inserted
+	 */
+	private static final String REJECTED_FORMAT = "REJECTED";
+
+	private DBInfo dbInfo;
+
+	private DBBasedNameServer ns;
+
+	private final ServiceInfo<Integer> service = new ServiceInfo<Integer>("test", 1);
+
+	@Before
+	public void createNameServer() throws Exception {
+		Config conf = new XMLConfig("conf.xml");
+		dbInfo = DBFactory.getDBInfo(conf);
+		ns = new DBBasedNameServer(dbInfo, DBFactory.getDBUtils(conf), "localhost", 7365, new RandomLoadBalancer());
+		ns.reset();
+	}
+
+	@Test
+	public void testRegisterBatch() throws Exception {
+		ns.register(support(1));
+
+		BatchResult result = ns.registerBatch(new ServiceSupportInfo[] { support(0), support(1), support(2) });
+		Assert.assertArrayEquals(new int[] { BatchResult.OK, BatchResult.ALREADY_EXISTS, BatchResult.OK },
+				result.getStatuses());
+		Assert.assertEquals(2, result.countOk());
+
+		ServiceSupportInfo[] providers = ns.getProviders(service);
+		Assert.assertEquals(3, providers.length);
+		for (ServiceSupportInfo support : providers) {
+			Assert.assertEquals(2, support.getSerializers().length);
+		}
+	}
+
+	@Test
+	public void testUnregisterBatch() throws Exception {
+		ns.registerBatch(new ServiceSupportInfo[] { support(0), support(1), support(2) });
+
+		BatchResult result = ns.unregisterBatch(new ServiceSupportInfo[] { support(0), support(2) });
+		Assert.assertEquals(2, result.countOk());
+
+		ServiceSupportInfo[] providers = ns.getProviders(service);
+		Assert.assertEquals(1, providers.length);
+		Assert.assertEquals(1, providers[0].getProvider().getPort());
+	}
+
+	@Test
+	public void testRegisterRollsBack() throws Exception {
+		rejectFormat();
+
+		Assert.assertFalse(ns.register(rejectedSupport(0)));
+
+		// neither the service, the provider nor its first format are kept
+		Assert.assertEquals(0, countRows(Constants.DB_SQL_TABLE_NAME_SERVICE));
+		Assert.assertEquals(0, countRows(Constants.DB_SQL_TABLE_NAME_SERVICE_PROVIDER));
+		Assert.assertEquals(0, countRows(Constants.DB_SQL_TABLE_NAME_SERVICE_PROVIDER_SUPPORT));
+		Assert.assertEquals(0, ns.getProviders(service).length);
+	}
+
+	@Test
+	public void testRegisterBatchRollsBackFailedItem() throws Exception {
+		rejectFormat();
+
+		BatchResult result = ns
+				.registerBatch(new ServiceSupportInfo[] { support(0), rejectedSupport(1), support(2) });
+		Assert.assertArrayEquals(new int[] { BatchResult.OK, BatchResult.FAILED, BatchResult.OK },
+				result.getStatuses());
+
+		// only the rows of the items that succeeded are kept
+		Assert.assertEquals(2, countRows(Constants.DB_SQL_TABLE_NAME_SERVICE_PROVIDER));
+		Assert.assertEquals(4, countRows(Constants.DB_SQL_TABLE_NAME_SERVICE_PROVIDER_SUPPORT));
+		ServiceSupportInfo[] providers = ns.getProviders(service);
+		Assert.assertEquals(2, providers.length);
+		for (ServiceSupportInfo support : providers) {
+			Assert.assertTrue(support.getProvider().getPort() != 1);
+		}
+	}
+
+	@After
+	public void closePool() throws Exception {
+		try (Connection conn = DBFactory.getConnection(dbInfo); Statement stmt = conn.createStatement()) {
+			stmt.executeUpdate("DROP TRIGGER IF EXISTS REJECT_FORMAT");
+		}
+		DBFactory.closeConnectionPool(dbInfo);
+	}
+
+	/**
+	 * Makes the insert of {@link #REJECTED_FORMAT} fail with a trigger of the
+	 * SQLite database in conf.xml
+	 */
+	private void rejectFormat() throws Exception {
+		try (Connection conn = DBFactory.getConnection(dbInfo); Statement stmt = conn.createStatement()) {
+			stmt.executeUpdate("CREATE TRIGGER IF NOT EXISTS REJECT_FORMAT BEFORE INSERT ON "
+					+ Constants.DB_SQL_TABLE_NAME_SERVICE_PROVIDER_SUPPORT + " WHEN NEW."
+					+ Constants.DB_SQL_TABLE_COLUMN_NAME_FORMAT_NAME + " = '" + REJECTED_FORMAT
+					+ "' BEGIN SELECT RAISE(ABORT, 'format rejected'); END");
+		}
+	}
+
+	private int countRows(String table) throws Exception {
+		try (Connection conn = DBFactory.getConnection(dbInfo);
+				Statement stmt = conn.createStatement();
+				ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + table)) {
+			rs.next();
+			return rs.getInt(1);
+		}
+	}
+
+	private ServiceSupportInfo support(int port) {
+		return new ServiceSupportInfo(service,
+				new ServiceProviderInfo("test" + port, port, EnvironmentInfo.currentEnvInfo()),
+				new SerializationFormat[] { SerializationFormat.defaultFotmat(),
+						new SerializationFormat("MSGPACK", "2.0") });
+	}
+
+	/**
+	 * a support whose second format can not be inserted
+	 */
+	private ServiceSupportInfo rejectedSupport(int port) {
+		return new ServiceSupportInfo(service,
+				new ServiceProviderInfo("test" + port, port, EnvironmentInfo.currentEnvInfo()),
+				new SerializationFormat[] { SerializationFormat.defaultFotmat(),
+						new SerializationFormat(REJECTED_FORMAT, "1.0") });
+	}
+}
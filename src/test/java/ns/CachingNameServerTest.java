@@ -0,0 +1,104 @@
+package test.java.ns;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.lessrpc.common.db.DBInfo;
+import org.lessrpc.common.info.EnvironmentInfo;
+import org.lessrpc.common.info.SerializationFormat;
+import org.lessrpc.common.info.ServiceInfo;
+import org.lessrpc.common.info.ServiceProviderInfo;
+import org.lessrpc.common.info.ServiceSupportInfo;
+import org.lessrpc.ns.core.RandomLoadBalancer;
+import org.lessrpc.ns.core.db.DBFactory;
+import org.lessrpc.ns.core.rpc.CachingNameServer;
+import org.lessrpc.ns.core.rpc.DBBasedNameServer;
+
+import me.salimm.allconfig.core.Config;
+import me.salimm.allconfig.core.types.XMLConfig;
+
+public class CachingNameServerTest {
+
+	private DBInfo dbInfo;
+
+	private DBBasedNameServer db;
+
+	private final ServiceInfo<Integer> service = new ServiceInfo<Integer>("test", 1);
+	private final ServiceInfo<Integer> service2 = new ServiceInfo<Integer>("tes2", 2);
+
+	private final ServiceProviderInfo provider1 = new ServiceProviderInfo("tes1", 1, EnvironmentInfo.currentEnvInfo());
+	private final ServiceProviderInfo provider2 = new ServiceProviderInfo("test2", 2, EnvironmentInfo.currentEnvInfo());
+
+	@Before
+	public void createNameServer() throws Exception {
+		Config conf = new XMLConfig("conf.xml");
+		dbInfo = DBFactory.getDBInfo(conf);
+		db = new DBBasedNameServer(dbInfo, DBFactory.getDBUtils(conf), "localhost", 7365, new RandomLoadBalancer());
+		db.reset();
+	}
+
+	@Test
+	public void testLoadOnStartup() throws Exception {
+		db.register(support(service, provider1));
+		db.register(support(service2, provider1));
+
+		CachingNameServer ns = new CachingNameServer(db);
+
+		Assert.assertEquals(1, ns.getProviders(service).length);
+		Assert.assertEquals(provider1, ns.getProvider(service2).getProvider());
+		Assert.assertEquals(service2, ns.getServiceInfoById(2));
+	}
+
+	@Test
+	public void testWriteThrough() throws Exception {
+		CachingNameServer ns = new CachingNameServer(db);
+
+		ns.register(support(service, provider1));
+		ns.register(support(service, provider2));
+		ns.register(support(service2, provider1));
+
+		ServiceSupportInfo[] providers = ns.getProviders(service);
+		Assert.assertEquals(2, providers.length);
+		Assert.assertEquals(provider1, providers[0].getProvider());
+		Assert.assertEquals(provider2, providers[1].getProvider());
+
+		ns.unregister(service, provider2);
+		Assert.assertEquals(1, ns.getProviders(service).length);
+		Assert.assertEquals(1, db.getProviders(service).length);
+
+		ns.unregisterAll(provider1);
+		Assert.assertEquals(0, ns.getProviders(service).length);
+		Assert.assertNull(ns.getProvider(service2));
+		Assert.assertEquals(0, db.getAllProviders().length);
+	}
+
+	@Test
+	public void testCheckProviderStatus() throws Exception {
+		CachingNameServer ns = new CachingNameServer(db);
+		ns.register(support(service, provider1));
+		ns.register(support(service2, provider1));
+		ns.register(support(service, provider2));
+
+		// as if the check had unregistered the provider below the cache
+		db.unregisterAll(provider1);
+		ns.checkProviderStatus(provider1);
+		Assert.assertEquals(1, ns.getProviders(service).length);
+		Assert.assertEquals(provider2, ns.getProviders(service)[0].getProvider());
+		Assert.assertNull(ns.getProvider(service2));
+
+		// still registered, the index is left alone
+		ns.checkProviderStatus(provider2);
+		Assert.assertEquals(1, ns.getProviders(service).length);
+	}
+
+	@After
+	public void closePool() {
+		DBFactory.closeConnectionPool(dbInfo);
+	}
+
+	private static ServiceSupportInfo support(ServiceInfo<?> service, ServiceProviderInfo provider) {
+		return new ServiceSupportInfo(service, provider,
+				new SerializationFormat[] { SerializationFormat.defaultFotmat() });
+	}
+}
@@ -0,0 +1,80 @@
+package test.java.ns;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.lessrpc.common.db.DBInfo;
+import org.lessrpc.common.info.EnvironmentInfo;
+import org.lessrpc.common.info.SerializationFormat;
+import org.lessrpc.common.info.ServiceInfo;
+import org.lessrpc.common.info.ServiceProviderInfo;
+import org.lessrpc.common.info.ServiceSupportInfo;
+import org.lessrpc.ns.core.db.DBFactory;
+import org.lessrpc.ns.core.info.RegistryChange;
+import org.lessrpc.ns.core.info.RegistryChanges;
+import org.lessrpc.ns.core.rpc.ChangeLog;
+
+import me.salimm.allconfig.core.Config;
+import me.salimm.allconfig.core.types.XMLConfig;
+
+public class ChangeLogTest {
+
+	private DBInfo dbInfo;
+
+	private ChangeLog log;
+
+	private final ServiceInfo<Integer> service = new ServiceInfo<Integer>("test", 1);
+
+	@Before
+	public void createLog() throws Exception {
+		Config conf = new XMLConfig("conf.xml");
+		dbInfo = DBFactory.getDBInfo(conf);
+		log = new ChangeLog(4, 6, dbInfo, DBFactory.getDBUtils(conf));
+		log.init();
+	}
+
+	@Test
+	public void testSpill() throws Exception {
+		long revision = log.getRevision();
+		for (int i = 0; i < 8; i++) {
+			log.append(i % 2 == 0 ? RegistryChange.ADD : RegistryChange.REMOVE, support(i));
+		}
+
+		// the first 4 changes were spilled to the database
+		RegistryChanges changes = log.getChangesSince(revision, 100);
+		Assert.assertFalse(changes.isSnapshotRequired());
+		Assert.assertFalse(changes.isComplete());
+		Assert.assertEquals(4, changes.getChanges().length);
+		Assert.assertEquals(2, changes.getChanges()[0].getSupport().getSerializers().length);
+		Assert.assertEquals(1, changes.getChanges()[1].getSupport().getProvider().getPort());
+
+		changes = log.getChangesSince(changes.getRevision(), 100);
+		Assert.assertEquals(4, changes.getChanges().length);
+		Assert.assertTrue(changes.isComplete());
+		Assert.assertEquals(7, changes.getChanges()[3].getSupport().getProvider().getPort());
+	}
+
+	@Test
+	public void testRetention() throws Exception {
+		long revision = log.getRevision();
+		for (int i = 0; i < 12; i++) {
+			log.append(RegistryChange.ADD, support(i));
+		}
+		// 8 changes were spilled, the database keeps the latest 6
+		Assert.assertTrue(log.getChangesSince(revision + 1, 100).isSnapshotRequired());
+		Assert.assertEquals(6, log.getChangesSince(revision + 2, 100).getChanges().length);
+	}
+
+	@After
+	public void closePool() {
+		log.truncate();
+		DBFactory.closeConnectionPool(dbInfo);
+	}
+
+	private ServiceSupportInfo support(int port) {
+		return new ServiceSupportInfo(service, new ServiceProviderInfo("test", port, EnvironmentInfo.currentEnvInfo()),
+				new SerializationFormat[] { SerializationFormat.defaultFotmat(),
+						new SerializationFormat("MSGPACK", "2.0") });
+	}
+}
@@ -0,0 +1,141 @@
+package test.java.ns;
+
+import java.lang.reflect.Proxy;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.lessrpc.common.info.EnvironmentInfo;
+import org.lessrpc.common.info.SerializationFormat;
+import org.lessrpc.common.info.ServiceInfo;
+import org.lessrpc.common.info.ServiceProviderInfo;
+import org.lessrpc.common.info.ServiceSupportInfo;
+import org.lessrpc.ns.core.info.RegistryChange;
+import org.lessrpc.ns.core.info.RegistryChanges;
+import org.lessrpc.ns.core.rpc.ChangeLog;
+import org.lessrpc.ns.core.rpc.ExtendedNameServer;
+import org.lessrpc.ns.core.rpc.ChangeLoggingNameServer;
+
+public class ChangeLoggingNameServerTest {
+
+	private final ServiceInfo<Integer> service = new ServiceInfo<Integer>("test", 1);
+	private final ServiceInfo<Integer> service2 = new ServiceInfo<Integer>("tes2", 2);
+
+	private final ServiceProviderInfo provider = new ServiceProviderInfo("tes1", 1, EnvironmentInfo.currentEnvInfo());
+
+	private ChangeLoggingNameServer ns;
+
+	@Before
+	public void createNameServer() throws Exception {
+		// every mutation of the fake name server succeeds
+		ExtendedNameServer fake = (ExtendedNameServer) Proxy.newProxyInstance(
+				ExtendedNameServer.class.getClassLoader(), new Class<?>[] { ExtendedNameServer.class },
+				(proxy, method, args) -> {
+					switch (method.getName()) {
+					case "register":
+					case "unregister":
+					case "unregisterAll":
+						return true;
+					case "reset":
+						return null;
+					case "getAllProviders":
+						return new ServiceSupportInfo[0];
+					default:
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+		ns = new ChangeLoggingNameServer(fake, new ChangeLog(4));
+	}
+
+	@Test
+	public void testRevision() throws Exception {
+		long revision = ns.getRevision(service);
+		long revision2 = ns.getRevision(service2);
+
+		ns.register(support(service));
+		Assert.assertTrue(ns.getRevision(service) > revision);
+		Assert.assertEquals(revision2, ns.getRevision(service2));
+
+		revision = ns.getRevision(service);
+		ns.unregister(service, provider);
+		Assert.assertTrue(ns.getRevision(service) > revision);
+	}
+
+	@Test
+	public void testUnregisterAll() throws Exception {
+		ns.register(support(service));
+		ns.register(support(service2));
+		long revision = ns.getRevision(service);
+		long revision2 = ns.getRevision(service2);
+
+		// bumps the services of the provider
+		ns.unregisterAll(provider);
+		Assert.assertTrue(ns.getRevision(service) > revision);
+		Assert.assertTrue(ns.getRevision(service2) > revision2);
+	}
+
+	@Test
+	public void testReset() throws Exception {
+		long revision = ns.getRevision(service);
+		ns.register(support(service2));
+		long revision2 = ns.getRevision(service2);
+
+		// bumps services whether they changed before or not
+		ns.reset();
+		Assert.assertTrue(ns.getRevision(service) > revision);
+		Assert.assertTrue(ns.getRevision(service2) > revision2);
+	}
+
+	@Test
+	public void testChanges() throws Exception {
+		long revision = ns.getRevision(service);
+		ns.register(support(service));
+		ns.register(support(service2));
+		ns.unregisterAll(provider);
+
+		RegistryChanges changes = ns.getChangesSince(revision, 100);
+		Assert.assertFalse(changes.isSnapshotRequired());
+		Assert.assertTrue(changes.isComplete());
+		Assert.assertEquals(4, changes.getChanges().length);
+		Assert.assertEquals(RegistryChange.ADD, changes.getChanges()[0].getType());
+		Assert.assertEquals(RegistryChange.REMOVE, changes.getChanges()[3].getType());
+		Assert.assertEquals(changes.getChanges()[3].getRevision(), changes.getRevision());
+
+		// one at a time
+		changes = ns.getChangesSince(revision, 1);
+		Assert.assertEquals(1, changes.getChanges().length);
+		Assert.assertFalse(changes.isComplete());
+		Assert.assertEquals(3, ns.getChangesSince(changes.getRevision(), 100).getChanges().length);
+
+		// nothing new
+		changes = ns.getChangesSince(changes.getRevision() + 3, 100);
+		Assert.assertEquals(0, changes.getChanges().length);
+		Assert.assertTrue(changes.isComplete());
+	}
+
+	@Test
+	public void testSnapshotRequired() throws Exception {
+		long revision = ns.getRevision(service);
+		for (int i = 0; i < 3; i++) {
+			ns.register(support(service));
+			ns.unregister(service, provider);
+		}
+		// the in-memory log holds 4 changes, the first 2 were dropped
+		Assert.assertTrue(ns.getChangesSince(revision, 100).isSnapshotRequired());
+		Assert.assertFalse(ns.getChangesSince(revision + 2, 100).isSnapshotRequired());
+		Assert.assertEquals(4, ns.getChangesSince(revision + 2, 100).getChanges().length);
+
+		// unknown revision
+		Assert.assertTrue(ns.getChangesSince(-1, 100).isSnapshotRequired());
+
+		ns.reset();
+		RegistryChanges changes = ns.getChangesSince(revision + 6, 100);
+		Assert.assertTrue(changes.isSnapshotRequired());
+		Assert.assertFalse(ns.getChangesSince(changes.getRevision(), 100).isSnapshotRequired());
+	}
+
+	private ServiceSupportInfo support(ServiceInfo<?> service) {
+		return new ServiceSupportInfo(service, provider,
+				new SerializationFormat[] { SerializationFormat.defaultFotmat() });
+	}
+}
@@ -0,0 +1,282 @@
+package test.java.ns;
+
+import java.lang.reflect.Proxy;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.lessrpc.common.info.EnvironmentInfo;
+import org.lessrpc.common.info.SerializationFormat;
+import org.lessrpc.common.info.ServiceInfo;
+import org.lessrpc.common.info.ServiceProviderInfo;
+import org.lessrpc.common.info.ServiceSupportInfo;
+import org.lessrpc.ns.core.cluster.ClusterConfig;
+import org.lessrpc.ns.core.cluster.ClusterNameServer;
+import org.lessrpc.ns.core.cluster.PeerClient;
+import org.lessrpc.ns.core.info.BatchResult;
+import org.lessrpc.ns.core.info.RegistryChanges;
+import org.lessrpc.ns.core.rpc.CachingNameServer;
+import org.lessrpc.ns.core.rpc.ChangeLog;
+import org.lessrpc.ns.core.rpc.ExtendedNameServer;
+import org.lessrpc.ns.core.rpc.NameServerServiceProvider;
+import org.lessrpc.ns.core.rpc.ChangeLoggingNameServer;
+
+public class ClusterNameServerTest {
+
+	private static final int NODES = 3;
+
+	private final ServiceInfo<Integer> service = new ServiceInfo<Integer>("test", 1);
+
+	private final List<ServiceProviderInfo> peers = new ArrayList<ServiceProviderInfo>();
+
+	private final List<ClusterNameServer> nodes = new ArrayList<ClusterNameServer>();
+
+	/**
+	 * false if the node is down
+	 */
+	private final boolean[] up = new boolean[NODES];
+
+	@Before
+	public void createCluster() throws Exception {
+		for (int i = 0; i < NODES; i++) {
+			peers.add(new ServiceProviderInfo("localhost", 6161 + i, EnvironmentInfo.currentEnvInfo()));
+		}
+		for (int i = 0; i < NODES; i++) {
+			nodes.add(node(i));
+			up[i] = true;
+		}
+		for (ClusterNameServer node : nodes) {
+			node.start();
+		}
+	}
+
+	@After
+	public void close() {
+		for (ClusterNameServer node : nodes) {
+			node.close();
+		}
+	}
+
+	@Test
+	public void testReplication() throws Exception {
+		Assert.assertTrue(nodes.get(0).isLeader());
+		Assert.assertFalse(nodes.get(1).isLeader());
+
+		nodes.get(0).register(support(1));
+		nodes.get(0).register(support(2));
+		Assert.assertEquals(0, nodes.get(2).getProviders(service).length);
+		syncAll();
+		for (ClusterNameServer node : nodes) {
+			Assert.assertEquals(2, node.getProviders(service).length);
+		}
+
+		nodes.get(0).unregister(service, support(1).getProvider());
+		syncAll();
+		for (ClusterNameServer node : nodes) {
+			Assert.assertEquals(1, node.getProviders(service).length);
+			Assert.assertEquals(2, node.getProviders(service)[0].getProvider().getPort());
+		}
+		Assert.assertEquals(1, nodes.get(2).getStats().getSnapshots());
+		Assert.assertEquals(3, nodes.get(2).getStats().getAppliedChanges());
+	}
+
+	@Test
+	public void testForwardedWrite() throws Exception {
+		Assert.assertTrue(nodes.get(1).register(support(1)));
+		// on the leader right away and read back from the follower written to
+		Assert.assertEquals(1, nodes.get(0).getProviders(service).length);
+		Assert.assertEquals(1, nodes.get(1).getProviders(service).length);
+		Assert.assertEquals(1, nodes.get(1).getStats().getForwardedWrites());
+
+		nodes.get(2).sync();
+		Assert.assertEquals(1, nodes.get(2).getProviders(service).length);
+		Assert.assertTrue(nodes.get(2).unregisterAll(support(1).getProvider()));
+		Assert.assertEquals(0, nodes.get(0).getProviders(service).length);
+	}
+
+	@Test
+	public void testFailover() throws Exception {
+		nodes.get(0).register(support(1));
+		syncAll();
+
+		up[0] = false;
+		syncAll();
+		Assert.assertTrue(nodes.get(1).isLeader());
+		Assert.assertEquals(6162, nodes.get(2).getLeader().getPort());
+		// the registry survives the leader
+		Assert.assertEquals(1, nodes.get(2).getProviders(service).length);
+
+		nodes.get(2).register(support(2));
+		Assert.assertEquals(2, nodes.get(1).getProviders(service).length);
+
+		// the old leader restarts empty, copies the registry and leads again
+		nodes.get(0).close();
+		nodes.set(0, node(0));
+		up[0] = true;
+		nodes.get(0).start();
+		Assert.assertEquals(2, nodes.get(0).getProviders(service).length);
+		syncAll();
+		Assert.assertTrue(nodes.get(0).isLeader());
+		Assert.assertFalse(nodes.get(1).isLeader());
+		Assert.assertEquals(2, nodes.get(2).getProviders(service).length);
+	}
+
+	@Test
+	public void testLeaderDown() throws Exception {
+		up[0] = false;
+		up[1] = false;
+		try {
+			nodes.get(2).register(support(1));
+			Assert.fail("register should fail while the leader is down");
+		} catch (SQLException e) {
+			// expected
+		}
+		// the failed write moved leadership, a retry succeeds
+		Assert.assertTrue(nodes.get(2).isLeader());
+		Assert.assertTrue(nodes.get(2).register(support(1)));
+		Assert.assertEquals(1, nodes.get(2).getProviders(service).length);
+	}
+
+	private ClusterNameServer node(int index) throws Exception {
+		List<PeerClient> clients = new ArrayList<PeerClient>();
+		for (int i = 0; i < NODES; i++) {
+			clients.add(new LocalPeerClient(i));
+		}
+		ChangeLoggingNameServer changeLogging = new ChangeLoggingNameServer(new CachingNameServer(store()),
+				new ChangeLog(16));
+		// syncs are run by the test
+		return new ClusterNameServer(changeLogging, changeLogging, new ClusterConfig(peers, index, 60000), clients);
+	}
+
+	private void syncAll() throws Exception {
+		for (int i = 0; i < NODES; i++) {
+			if (up[i]) {
+				nodes.get(i).sync();
+			}
+		}
+	}
+
+	private ServiceSupportInfo support(int port) {
+		return new ServiceSupportInfo(service, new ServiceProviderInfo("tes1", port, EnvironmentInfo.currentEnvInfo()),
+				new SerializationFormat[] { SerializationFormat.defaultFotmat() });
+	}
+
+	/**
+	 * Fake database of a node
+	 */
+	private static ExtendedNameServer store() {
+		List<ServiceSupportInfo> rows = new ArrayList<ServiceSupportInfo>();
+		return (ExtendedNameServer) Proxy.newProxyInstance(ExtendedNameServer.class.getClassLoader(),
+				new Class<?>[] { ExtendedNameServer.class }, (proxy, method, args) -> {
+					synchronized (rows) {
+						switch (method.getName()) {
+						case "register":
+							rows.add((ServiceSupportInfo) args[0]);
+							return true;
+						case "unregister":
+						case "unregisterAll":
+							ServiceProviderInfo provider = (ServiceProviderInfo) args[args.length - 1];
+							boolean flag = false;
+							for (Iterator<ServiceSupportInfo> it = rows.iterator(); it.hasNext();) {
+								ServiceSupportInfo row = it.next();
+								if (row.getProvider().getPort() == provider.getPort() && (args.length == 1
+										|| row.getService().getId() == ((ServiceInfo<?>) args[0]).getId())) {
+									it.remove();
+									flag = true;
+								}
+							}
+							return flag;
+						case "getAllProviders":
+							return rows.toArray(new ServiceSupportInfo[rows.size()]);
+						case "reset":
+							rows.clear();
+							return null;
+						default:
+							throw new UnsupportedOperationException(method.getName());
+						}
+					}
+				});
+	}
+
+	/**
+	 * Calls another node of the test cluster, failing while it is down
+	 */
+	private class LocalPeerClient implements PeerClient {
+
+		private final int index;
+
+		private LocalPeerClient(int index) {
+			this.index = index;
+		}
+
+		private ClusterNameServer node() {
+			if (!up[index]) {
+				throw new IllegalStateException("node " + index + " is down");
+			}
+			return nodes.get(index);
+		}
+
+		@Override
+		public boolean ping() {
+			return up[index];
+		}
+
+		@Override
+		public RegistryChanges getChangesSince(long revision) throws Exception {
+			// changes are served by the log below the node, as by its stub
+			return ((ChangeLoggingNameServer) node().getNameServer()).getChangesSince(revision,
+					NameServerServiceProvider.MAX_CHANGES);
+		}
+
+		@Override
+		public ServiceSupportInfo[] getAllProviders() throws Exception {
+			return node().getAllProviders();
+		}
+
+		@Override
+		public boolean register(ServiceSupportInfo support) throws Exception {
+			return node().register(support);
+		}
+
+		@Override
+		public long registerWithLease(ServiceSupportInfo support, long ttl) throws Exception {
+			return node().registerWithLease(support, ttl);
+		}
+
+		@Override
+		public boolean heartbeat(ServiceProviderInfo provider) throws Exception {
+			return node().heartbeat(provider);
+		}
+
+		@Override
+		public BatchResult registerBatch(ServiceSupportInfo[] supports) throws Exception {
+			return node().registerBatch(supports);
+		}
+
+		@Override
+		public BatchResult unregisterBatch(ServiceSupportInfo[] supports) throws Exception {
+			return node().unregisterBatch(supports);
+		}
+
+		@Override
+		public boolean unregister(ServiceInfo<?> service, ServiceProviderInfo provider) throws Exception {
+			return node().unregister(service, provider);
+		}
+
+		@Override
+		public boolean unregisterAll(ServiceProviderInfo provider) throws Exception {
+			return node().unregisterAll(provider);
+		}
+
+		@Override
+		public boolean checkProviderStatus(ServiceProviderInfo provider) throws Exception {
+			return node().checkProviderStatus(provider);
+		}
+	}
+
+}
@@ -0,0 +1,115 @@
+package test.java.ns;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.lessrpc.common.db.DBInfo;
+import org.lessrpc.common.types.DBType;
+import org.lessrpc.ns.core.db.CachedStatementConnection;
+import org.lessrpc.ns.core.db.ConnectionPool;
+import org.lessrpc.ns.core.db.ConnectionPoolConfig;
+
+public class ConnectionPoolTest {
+
+	private ConnectionPool pool;
+
+	@Before
+	public void createPool() throws Exception {
+		DBInfo dbInfo = new DBInfo("jdbc:sqlite::memory:", "", "", "", DBType.SQLLITE);
+		pool = new ConnectionPool(dbInfo, new ConnectionPoolConfig(1, 2, 200, true, 1000, 60000, 30000, 0));
+	}
+
+	@Test
+	public void testMinSize() {
+		Assert.assertEquals(1, pool.size());
+		Assert.assertEquals(1, pool.getIdleCount());
+	}
+
+	@Test
+	public void testCloseReturnsToPool() throws Exception {
+		Connection conn = pool.borrow();
+		Assert.assertEquals(1, pool.getBorrowedCount());
+		Assert.assertEquals(0, pool.getIdleCount());
+
+		conn.close();
+		Assert.assertTrue(conn.isClosed());
+		Assert.assertEquals(0, pool.getBorrowedCount());
+		Assert.assertEquals(1, pool.getIdleCount());
+
+		// closing twice must not return the connection twice
+		conn.close();
+		Assert.assertEquals(1, pool.getIdleCount());
+	}
+
+	@Test
+	public void testReuse() throws Exception {
+		Connection conn = pool.borrow();
+		conn.close();
+		conn = pool.borrow();
+		conn.close();
+		Assert.assertEquals(1, pool.size());
+	}
+
+	@Test
+	public void testMaxSize() throws Exception {
+		Connection conn1 = pool.borrow();
+		Connection conn2 = pool.borrow();
+		Assert.assertEquals(2, pool.size());
+
+		boolean flag = false;
+		try {
+			pool.borrow();
+		} catch (SQLException e) {
+			flag = true;
+		}
+		Assert.assertTrue(flag);
+
+		conn1.close();
+		Connection conn3 = pool.borrow();
+		Assert.assertEquals(2, pool.size());
+		conn2.close();
+		conn3.close();
+	}
+
+	@Test
+	public void testStatementCache() throws Exception {
+		Connection conn = pool.borrow();
+		Assert.assertTrue(conn instanceof CachedStatementConnection);
+		CachedStatementConnection cached = (CachedStatementConnection) conn;
+		PreparedStatement stmt = cached.prepareCached(0, "SELECT 1", Statement.NO_GENERATED_KEYS);
+		conn.close();
+
+		conn = pool.borrow();
+		cached = (CachedStatementConnection) conn;
+		Assert.assertSame(stmt, cached.prepareCached(0, "SELECT 1", Statement.NO_GENERATED_KEYS));
+		conn.close();
+
+		Assert.assertEquals(1, pool.getStatementCacheStats().getHits());
+		Assert.assertEquals(1, pool.getStatementCacheStats().getMisses());
+	}
+
+	@Test
+	public void testUseAfterClose() throws Exception {
+		Connection conn = pool.borrow();
+		conn.close();
+
+		boolean flag = false;
+		try {
+			conn.createStatement();
+		} catch (SQLException e) {
+			flag = true;
+		}
+		Assert.assertTrue(flag);
+	}
+
+	@After
+	public void closePool() {
+		pool.close();
+	}
+}
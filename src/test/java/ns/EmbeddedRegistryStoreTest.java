@@ -0,0 +1,235 @@
+package test.java.ns;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.sql.SQLException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.lessrpc.common.errors.ServiceProviderAlreadyExistsException;
+import org.lessrpc.common.info.EnvironmentInfo;
+import org.lessrpc.common.info.SerializationFormat;
+import org.lessrpc.common.info.ServiceInfo;
+import org.lessrpc.common.info.ServiceProviderInfo;
+import org.lessrpc.common.info.ServiceSupportInfo;
+import org.lessrpc.ns.core.db.DBFactory;
+import org.lessrpc.ns.core.db.EmbeddedDBInfo;
+import org.lessrpc.ns.core.db.EmbeddedRegistryStore;
+import org.lessrpc.ns.core.info.BatchResult;
+import org.lessrpc.ns.core.info.ProvidersPage;
+
+public class EmbeddedRegistryStoreTest {
+
+	private File file;
+
+	private EmbeddedRegistryStore store;
+
+	private final ServiceInfo<Integer> service = new ServiceInfo<Integer>("test", 1);
+
+	private final ServiceInfo<Integer> other = new ServiceInfo<Integer>("other", 2);
+
+	@Before
+	public void createStore() throws Exception {
+		file = File.createTempFile("registry", ".log");
+		file.delete();
+		store = new EmbeddedRegistryStore(file, true, 0, 0);
+	}
+
+	@Test
+	public void testRegister() throws Exception {
+		Assert.assertTrue(store.register(null, support(service, 0)));
+		Assert.assertTrue(store.register(null, support(service, 1)));
+		Assert.assertTrue(store.register(null, support(other, 0)));
+
+		ServiceSupportInfo[] providers = store.getProviders(null, service);
+		Assert.assertEquals(2, providers.length);
+		Assert.assertEquals(4000, providers[0].getProvider().getPort());
+		Assert.assertEquals(2, providers[0].getSerializers().length);
+		Assert.assertEquals(3, store.getAllProviders(null).length);
+		Assert.assertEquals(other, store.getServiceInfo(null, "other"));
+		Assert.assertEquals(other, store.getServiceInfo(null, 2));
+		Assert.assertNull(store.getServiceInfo(null, 3));
+
+		boolean flag = false;
+		try {
+			store.register(null, support(service, 1));
+		} catch (ServiceProviderAlreadyExistsException e) {
+			flag = true;
+		}
+		Assert.assertTrue(flag);
+	}
+
+	@Test
+	public void testUnregister() throws Exception {
+		store.register(null, support(service, 0));
+		store.register(null, support(service, 1));
+		store.register(null, support(other, 1));
+
+		Assert.assertTrue(store.unregister(null, service, support(service, 0).getProvider()));
+		Assert.assertEquals(1, store.getProviders(null, service).length);
+
+		Assert.assertTrue(store.unregisterAll(null, support(service, 1).getProvider()));
+		Assert.assertEquals(0, store.getProviders(null, service).length);
+		Assert.assertEquals(0, store.getProviders(null, other).length);
+		// services stay known
+		Assert.assertEquals(service, store.getServiceInfo(null, 1));
+	}
+
+	@Test
+	public void testBatch() throws Exception {
+		store.register(null, support(service, 1));
+		BatchResult result = store.registerBatch(null,
+				new ServiceSupportInfo[] { support(service, 0), support(service, 1), support(service, 2) });
+		Assert.assertArrayEquals(new int[] { BatchResult.OK, BatchResult.ALREADY_EXISTS, BatchResult.OK },
+				result.getStatuses());
+
+		result = store.unregisterBatch(null, new ServiceSupportInfo[] { support(service, 0), support(service, 2) });
+		Assert.assertEquals(2, result.countOk());
+		Assert.assertEquals(1, store.getProviders(null, service).length);
+	}
+
+	@Test
+	public void testPages() throws Exception {
+		for (int i = 0; i < 5; i++) {
+			store.register(null, support(service, i));
+		}
+		store.unregister(null, service, support(service, 1).getProvider());
+
+		ProvidersPage page = store.getProvidersPage(null, ProvidersPage.FIRST_PAGE, 2);
+		Assert.assertEquals(4000, page.getSupports()[0].getProvider().getPort());
+		Assert.assertEquals(4002, page.getSupports()[1].getProvider().getPort());
+		page = store.getProvidersPage(null, page.getNextPageToken(), 2);
+		Assert.assertEquals(2, page.getSupports().length);
+		page = store.getProvidersPage(null, page.getNextPageToken(), 2);
+		Assert.assertEquals(0, page.getSupports().length);
+		Assert.assertTrue(page.isLastPage());
+	}
+
+	@Test
+	public void testReopen() throws Exception {
+		store.register(null, support(service, 0));
+		store.register(null, support(service, 1));
+		store.register(null, support(other, 0));
+		store.unregister(null, service, support(service, 0).getProvider());
+		store.close();
+
+		store.open();
+		ServiceSupportInfo[] providers = store.getProviders(null, service);
+		Assert.assertEquals(1, providers.length);
+		Assert.assertEquals(4001, providers[0].getProvider().getPort());
+		Assert.assertEquals("JSON", providers[0].getSerializers()[0].getName());
+		Assert.assertEquals(1, store.getProviders(null, other).length);
+
+		store.cleanAllTables(null);
+		store.close();
+		store.open();
+		Assert.assertEquals(0, store.getAllProviders(null).length);
+	}
+
+	@Test
+	public void testTornRecord() throws Exception {
+		store.register(null, support(service, 0));
+		int size = store.getLogSize();
+		store.register(null, support(service, 1));
+		store.close();
+
+		// a crash in the middle of the second record
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.seek(size + 20);
+			raf.writeLong(0);
+		}
+
+		store.open();
+		Assert.assertEquals(1, store.getProviders(null, service).length);
+		Assert.assertEquals(size, store.getLogSize());
+		// appending after the recovered records
+		store.register(null, support(service, 2));
+		store.close();
+		store.open();
+		Assert.assertEquals(2, store.getProviders(null, service).length);
+	}
+
+	@Test
+	public void testCompact() throws Exception {
+		for (int i = 0; i < 100; i++) {
+			store.register(null, support(service, i));
+		}
+		for (int i = 0; i < 90; i++) {
+			store.unregister(null, service, support(service, i).getProvider());
+		}
+		int before = store.getLogSize();
+		store.compact();
+		Assert.assertTrue(store.getLogSize() < before);
+		Assert.assertEquals(10, store.getProviders(null, service).length);
+
+		// ids keep growing after compaction
+		store.register(null, support(service, 0));
+		store.close();
+		store.open();
+		ServiceSupportInfo[] providers = store.getProviders(null, service);
+		Assert.assertEquals(11, providers.length);
+		Assert.assertEquals(4090, providers[0].getProvider().getPort());
+		Assert.assertEquals(4000, providers[10].getProvider().getPort());
+	}
+
+	@Test
+	public void testDBFactory() throws Exception {
+		File other = File.createTempFile("registry", ".log");
+		other.delete();
+		EmbeddedDBInfo dbInfo = new EmbeddedDBInfo(other.getPath());
+		Assert.assertTrue(DBFactory.isEmbedded(dbInfo));
+
+		// reads and writes fail until the store is opened
+		boolean flag = false;
+		try {
+			DBFactory.read(dbInfo, conn -> true);
+		} catch (SQLException e) {
+			flag = true;
+		}
+		Assert.assertTrue(flag);
+
+		EmbeddedRegistryStore opened = DBFactory.openEmbeddedStore(other.getPath(), true, 0, 0);
+		try {
+			BatchResult result = DBFactory.write(dbInfo,
+					conn -> opened.registerBatch(conn, new ServiceSupportInfo[] { support(service, 0) }));
+			Assert.assertTrue(result.isOk(0));
+			Assert.assertEquals(1, DBFactory.read(dbInfo, conn -> opened.getProviders(conn, service)).length);
+
+			// the store has no connections
+			flag = false;
+			try {
+				DBFactory.getConnection(dbInfo);
+			} catch (SQLException e) {
+				flag = true;
+			}
+			Assert.assertTrue(flag);
+
+			DBFactory.closeConnectionPool(dbInfo);
+			flag = false;
+			try {
+				DBFactory.read(dbInfo, conn -> true);
+			} catch (SQLException e) {
+				flag = true;
+			}
+			Assert.assertTrue(flag);
+		} finally {
+			DBFactory.closeConnectionPool(dbInfo);
+			other.delete();
+		}
+	}
+
+	@After
+	public void closeStore() {
+		store.close();
+		file.delete();
+	}
+
+	private static ServiceSupportInfo support(ServiceInfo<?> service, int i) {
+		return new ServiceSupportInfo(service,
+				new ServiceProviderInfo("localhost", 4000 + i, EnvironmentInfo.currentEnvInfo()),
+				new SerializationFormat[] { SerializationFormat.defaultFotmat(),
+						new SerializationFormat("MSGPACK", "2.0") });
+	}
+}
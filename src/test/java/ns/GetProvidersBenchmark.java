@@ -0,0 +1,103 @@
+package test.java.ns;
+
+import java.sql.Connection;
+import java.util.Arrays;
+
+import org.lessrpc.common.db.DBInfo;
+import org.lessrpc.common.db.DBUtils;
+import org.lessrpc.common.info.EnvironmentInfo;
+import org.lessrpc.common.info.SerializationFormat;
+import org.lessrpc.common.info.ServiceInfo;
+import org.lessrpc.common.info.ServiceProviderInfo;
+import org.lessrpc.common.info.ServiceSupportInfo;
+import org.lessrpc.common.types.DBType;
+import org.lessrpc.ns.core.db.DBFactory;
+import org.lessrpc.ns.core.db.EmbeddedDBInfo;
+import org.lessrpc.ns.core.db.EmbeddedRegistryStore;
+import org.lessrpc.ns.core.db.MySQLUtils;
+import org.lessrpc.ns.core.db.SQLLiteDBUtils;
+
+/**
+ *
+ * Prints the latency of getProviders, and the average time of a register, as
+ * the number of providers registered for the service grows. Run with:
+ *
+ * java test.java.ns.GetProvidersBenchmark [sqlite|mysql|embedded] [db url]
+ *
+ * For embedded the url is the path of the registry log. MySQL takes its user
+ * and password from the bench.user and bench.password system properties.
+ *
+ */
+public class GetProvidersBenchmark {
+
+	private static final int[] PROVIDER_COUNTS = new int[] { 1, 10, 50, 100, 200, 500, 1000 };
+
+	private static final int WARMUP = 200;
+
+	private static final int ITERATIONS = 1000;
+
+	public static void main(String[] args) throws Exception {
+		String backend = args.length > 0 ? args[0] : "sqlite";
+		DBInfo dbInfo;
+		DBUtils dbUtils;
+		if (backend.equals("embedded")) {
+			String path = args.length > 1 ? args[1] : "db/bench.log";
+			dbInfo = new EmbeddedDBInfo(path);
+			dbUtils = DBFactory.openEmbeddedStore(path, true, 0, EmbeddedRegistryStore.DEFAULT_COMPACT_MIN_SIZE);
+		} else if (backend.equals("mysql")) {
+			String url = args.length > 1 ? args[1] : "jdbc:mysql://localhost/bench";
+			dbInfo = new DBInfo(url, "", System.getProperty("bench.user", ""), System.getProperty("bench.password", ""),
+					DBType.MYSQL);
+			dbUtils = new MySQLUtils();
+		} else {
+			String url = args.length > 1 ? args[1] : "jdbc:sqlite:db/bench.db";
+			dbInfo = new DBInfo(url, "", "", "", DBType.SQLLITE);
+			dbUtils = new SQLLiteDBUtils();
+		}
+		System.out.println("backend: " + backend);
+
+		ServiceInfo<Integer> service = new ServiceInfo<Integer>("bench", 1);
+		SerializationFormat[] formats = new SerializationFormat[] { SerializationFormat.defaultFotmat(),
+				new SerializationFormat("MSGPACK", "2.0") };
+
+		// the embedded store takes no connection
+		try (Connection conn = DBFactory.isEmbedded(dbInfo) ? null : DBFactory.openConnection(dbInfo)) {
+			dbUtils.createServiceTable(conn);
+			dbUtils.createServiceProviderTable(conn);
+			dbUtils.createServiceSupportTable(conn);
+
+			System.out.println("providers\tregister(us)\tavg(us)\tp50(us)\tp99(us)");
+			for (int count : PROVIDER_COUNTS) {
+				dbUtils.cleanAllTables(conn);
+				long registerStart = System.nanoTime();
+				for (int i = 0; i < count; i++) {
+					dbUtils.register(conn, new ServiceSupportInfo(service,
+							new ServiceProviderInfo("host" + i, 4000 + i, EnvironmentInfo.currentEnvInfo()), formats));
+				}
+				double register = (System.nanoTime() - registerStart) / count / 1000.0;
+
+				for (int i = 0; i < WARMUP; i++) {
+					dbUtils.getProviders(conn, service);
+				}
+
+				long[] times = new long[ITERATIONS];
+				long total = 0;
+				for (int i = 0; i < ITERATIONS; i++) {
+					long start = System.nanoTime();
+					ServiceSupportInfo[] providers = dbUtils.getProviders(conn, service);
+					times[i] = System.nanoTime() - start;
+					total += times[i];
+					if (providers.length != count) {
+						throw new IllegalStateException("Expected " + count + " providers but got " + providers.length);
+					}
+				}
+				Arrays.sort(times);
+				System.out.println(count + "\t" + register + "\t" + (total / ITERATIONS / 1000.0) + "\t"
+						+ (times[ITERATIONS / 2] / 1000.0) + "\t" + (times[ITERATIONS * 99 / 100] / 1000.0));
+			}
+			dbUtils.cleanAllTables(conn);
+		} finally {
+			DBFactory.closeConnectionPool(dbInfo);
+		}
+	}
+}
@@ -0,0 +1,256 @@
+package test.java.ns;
+
+import java.io.File;
+import java.net.Inet4Address;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.lessrpc.common.db.DBInfo;
+import org.lessrpc.common.errors.ServiceProviderAlreadyExistsException;
+import org.lessrpc.common.info.EnvironmentInfo;
+import org.lessrpc.common.info.SerializationFormat;
+import org.lessrpc.common.info.ServiceInfo;
+import org.lessrpc.common.info.ServiceProviderInfo;
+import org.lessrpc.common.info.ServiceSupportInfo;
+import org.lessrpc.common.types.DBType;
+import org.lessrpc.ns.core.db.ConnectionPoolConfig;
+import org.lessrpc.ns.core.db.DBFactory;
+import org.lessrpc.ns.core.db.GroupCommitConfig;
+import org.lessrpc.ns.core.db.GroupCommitWriter;
+import org.lessrpc.ns.core.db.SQLLiteDBUtils;
+import org.lessrpc.ns.core.db.SQLiteTuning;
+import org.lessrpc.ns.core.rpc.LeaseConfig;
+import org.lessrpc.ns.core.server.NameServer;
+import org.lessrpc.stub.java.stubs.NSClient;
+
+public class GroupCommitWriterTest {
+
+	private File file;
+
+	private DBInfo dbInfo;
+
+	private final SQLLiteDBUtils dbUtils = new SQLLiteDBUtils();
+
+	private final ServiceInfo<Integer> service = new ServiceInfo<Integer>("test", 1);
+
+	@Before
+	public void createDatabase() throws Exception {
+		file = File.createTempFile("registry", ".db");
+		dbInfo = new DBInfo("jdbc:sqlite:" + file.getPath(), "", "", "", DBType.SQLLITE);
+		DBFactory.initConnectionPool(dbInfo, new ConnectionPoolConfig(), new SQLiteTuning());
+		DBFactory.write(dbInfo, conn -> dbUtils.createServiceTable(conn) && dbUtils.createServiceProviderTable(conn)
+				&& dbUtils.createServiceSupportTable(conn));
+	}
+
+	@Test
+	public void testConcurrentWrites() throws Exception {
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 8; t++) {
+			int offset = t * 25;
+			threads.add(new Thread(() -> {
+				for (int i = 0; i < 25; i++) {
+					try {
+						Assert.assertTrue(register(support(offset + i)));
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		try (Connection conn = DBFactory.getConnection(dbInfo)) {
+			Assert.assertEquals(200, dbUtils.getProviders(conn, service).length);
+		}
+	}
+
+	@Test
+	public void testFailedWriteRolledBack() throws Exception {
+		GroupCommitWriter writer = DBFactory.getWriter(dbInfo);
+		Assert.assertNotNull(writer);
+
+		// written but reported as failed
+		CompletableFuture<Boolean> failed = writer.submit(conn -> {
+			try {
+				dbUtils.register(conn, support(0));
+			} catch (ServiceProviderAlreadyExistsException e) {
+				Assert.fail();
+			}
+			return false;
+		}, Boolean.TRUE::equals);
+		CompletableFuture<Boolean> ok = writer.submit(conn -> {
+			try {
+				return dbUtils.register(conn, support(1));
+			} catch (ServiceProviderAlreadyExistsException e) {
+				return false;
+			}
+		}, Boolean.TRUE::equals);
+		Assert.assertFalse(failed.get());
+		Assert.assertTrue(ok.get());
+
+		try (Connection conn = DBFactory.getConnection(dbInfo)) {
+			ServiceSupportInfo[] providers = dbUtils.getProviders(conn, service);
+			Assert.assertEquals(1, providers.length);
+			Assert.assertEquals(4001, providers[0].getProvider().getPort());
+		}
+	}
+
+	@Test
+	public void testPooledConnectionsReadOnly() throws Exception {
+		try (Connection conn = DBFactory.getConnection(dbInfo)) {
+			try {
+				dbUtils.register(conn, support(0));
+			} catch (ServiceProviderAlreadyExistsException e) {
+				// failed inserts are reported as existing providers
+			}
+			Assert.assertEquals(0, dbUtils.getProviders(conn, service).length);
+		}
+	}
+
+	@Test
+	public void testBatchWindow() throws Exception {
+		GroupCommitWriter writer = new GroupCommitWriter(dbInfo, new GroupCommitConfig(100, 10, 200, 0));
+		try {
+			List<CompletableFuture<Boolean>> futures = new ArrayList<CompletableFuture<Boolean>>();
+			for (int i = 0; i < 10; i++) {
+				ServiceSupportInfo support = support(i);
+				futures.add(writer.submit(conn -> {
+					try {
+						return dbUtils.register(conn, support);
+					} catch (ServiceProviderAlreadyExistsException e) {
+						return false;
+					}
+				}, Boolean.TRUE::equals));
+			}
+			for (CompletableFuture<Boolean> future : futures) {
+				Assert.assertTrue(future.get());
+			}
+			Assert.assertEquals(10, writer.getStats().getWrites());
+			Assert.assertTrue(writer.getStats().getBatches() < 10);
+			Assert.assertTrue(writer.getStats().getMaxBatchSize() > 1);
+		} finally {
+			writer.close();
+		}
+	}
+
+	@Test
+	public void testBackpressure() throws Exception {
+		GroupCommitWriter writer = new GroupCommitWriter(dbInfo, new GroupCommitConfig(1, 1, 0, 0));
+		CountDownLatch latch = new CountDownLatch(1);
+		try {
+			// keeps the writer busy
+			CompletableFuture<Boolean> first = writer.submit(conn -> {
+				try {
+					latch.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return true;
+			}, Boolean.TRUE::equals);
+			while (writer.getQueueSize() > 0) {
+				Thread.sleep(1);
+			}
+			CompletableFuture<Boolean> queued = writer.submit(conn -> true, Boolean.TRUE::equals);
+			CompletableFuture<Boolean> rejected = writer.submit(conn -> true, Boolean.TRUE::equals);
+			Assert.assertTrue(rejected.isCompletedExceptionally());
+			Assert.assertEquals(1, writer.getStats().getRejected());
+
+			latch.countDown();
+			Assert.assertTrue(first.get());
+			Assert.assertTrue(queued.get());
+			Assert.assertEquals(2, writer.getStats().getBatches());
+		} finally {
+			latch.countDown();
+			writer.close();
+		}
+	}
+
+	@Test
+	public void testConcurrentRegistersThroughNameServer() throws Exception {
+		File other = File.createTempFile("registry", ".db");
+		NameServer server = new NameServer(7367,
+				new DBInfo("jdbc:sqlite:" + other.getPath(), "", "", "", DBType.SQLLITE), dbUtils);
+		server.setSQLiteTuning(new SQLiteTuning());
+		server.setGroupCommitConfig(new GroupCommitConfig(4096, 256, 50, 1000));
+		// every decorator that updates its state after a write
+		server.setRegistryCache(true);
+		server.setLeaseConfig(new LeaseConfig());
+		server.start();
+		try {
+			ServiceProviderInfo nsInfo = new ServiceProviderInfo(Inet4Address.getLocalHost().getHostAddress(), 7367,
+					EnvironmentInfo.currentEnvInfo());
+			CountDownLatch start = new CountDownLatch(1);
+			List<Thread> threads = new ArrayList<Thread>();
+			List<Boolean> flags = new ArrayList<Boolean>();
+			for (int t = 0; t < 16; t++) {
+				ServiceSupportInfo support = support(t);
+				threads.add(new Thread(() -> {
+					try {
+						start.await();
+						boolean flag = new NSClient(nsInfo, new ArrayList<>()).register(support);
+						synchronized (flags) {
+							flags.add(flag);
+						}
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+				}));
+			}
+			for (Thread thread : threads) {
+				thread.start();
+			}
+			start.countDown();
+			for (Thread thread : threads) {
+				thread.join();
+			}
+
+			Assert.assertEquals(16, flags.size());
+			Assert.assertFalse(flags.contains(false));
+			// registrations of different providers share commits
+			Assert.assertTrue(server.getWriterStats().getWrites() >= 16);
+			Assert.assertTrue(server.getWriterStats().getMaxBatchSize() > 1);
+		} finally {
+			server.stop();
+			other.delete();
+			new File(other.getPath() + "-wal").delete();
+			new File(other.getPath() + "-shm").delete();
+		}
+	}
+
+	@After
+	public void closeDatabase() {
+		DBFactory.closeConnectionPool(dbInfo);
+		file.delete();
+		new File(file.getPath() + "-wal").delete();
+		new File(file.getPath() + "-shm").delete();
+	}
+
+	private boolean register(ServiceSupportInfo support) throws Exception {
+		Boolean flag = DBFactory.write(dbInfo, conn -> {
+			try {
+				return dbUtils.register(conn, support);
+			} catch (ServiceProviderAlreadyExistsException e) {
+				return null;
+			}
+		}, Boolean.TRUE::equals);
+		return Boolean.TRUE.equals(flag);
+	}
+
+	private ServiceSupportInfo support(int i) {
+		return new ServiceSupportInfo(service,
+				new ServiceProviderInfo("localhost", 4000 + i, EnvironmentInfo.currentEnvInfo()),
+				new SerializationFormat[] { SerializationFormat.defaultFotmat() });
+	}
+}
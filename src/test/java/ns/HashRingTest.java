@@ -0,0 +1,64 @@
+package test.java.ns;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.lessrpc.ns.core.cluster.HashRing;
+
+public class HashRingTest {
+
+	private static final int KEYS = 100000;
+
+	@Test
+	public void testBalance() {
+		HashRing ring = new HashRing(nodes(5), HashRing.DEFAULT_VIRTUAL_NODES);
+		int[] counts = new int[5];
+		for (int id = 0; id < KEYS; id++) {
+			counts[ring.owner(id)]++;
+		}
+		for (int count : counts) {
+			Assert.assertTrue("unbalanced: " + Arrays.toString(counts), Math.abs(count - KEYS / 5) < KEYS / 5 * 0.2);
+		}
+	}
+
+	@Test
+	public void testAddNode() {
+		HashRing before = new HashRing(nodes(10), HashRing.DEFAULT_VIRTUAL_NODES);
+		HashRing after = new HashRing(nodes(11), HashRing.DEFAULT_VIRTUAL_NODES);
+		int moved = 0;
+		for (int id = 0; id < KEYS; id++) {
+			int owner = after.owner(id);
+			if (owner != before.owner(id)) {
+				// only to the new node
+				Assert.assertEquals(10, owner);
+				moved++;
+			}
+		}
+		// about 1/11 of the keys
+		Assert.assertTrue("moved " + moved, moved > KEYS * 0.06 && moved < KEYS * 0.13);
+	}
+
+	@Test
+	public void testOrderIndependent() {
+		List<String> nodes = nodes(4);
+		List<String> reversed = new ArrayList<String>(nodes);
+		Collections.reverse(reversed);
+		HashRing ring = new HashRing(nodes, 16);
+		HashRing ring2 = new HashRing(reversed, 16);
+		for (int id = 0; id < 1000; id++) {
+			Assert.assertEquals(nodes.get(ring.owner(id)), reversed.get(ring2.owner(id)));
+		}
+	}
+
+	private static List<String> nodes(int count) {
+		List<String> nodes = new ArrayList<String>();
+		for (int i = 0; i < count; i++) {
+			nodes.add("localhost:" + (6161 + i));
+		}
+		return nodes;
+	}
+}
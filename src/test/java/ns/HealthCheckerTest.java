@@ -0,0 +1,110 @@
+package test.java.ns;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.lessrpc.common.info.EnvironmentInfo;
+import org.lessrpc.common.info.SerializationFormat;
+import org.lessrpc.common.info.ServiceInfo;
+import org.lessrpc.common.info.ServiceProviderInfo;
+import org.lessrpc.common.info.ServiceSupportInfo;
+import org.lessrpc.ns.core.info.BatchResult;
+import org.lessrpc.ns.core.info.ProvidersPage;
+import org.lessrpc.ns.core.rpc.ExtendedNameServer;
+import org.lessrpc.ns.core.rpc.HealthCheckConfig;
+import org.lessrpc.ns.core.rpc.ProviderHealthChecker;
+
+public class HealthCheckerTest {
+
+	private final ServiceInfo<Integer> service = new ServiceInfo<Integer>("test", 1);
+	private final ServiceInfo<Integer> service2 = new ServiceInfo<Integer>("tes2", 2);
+
+	/**
+	 * registry of the fake name server
+	 */
+	private final List<ServiceSupportInfo> registry = new ArrayList<ServiceSupportInfo>();
+
+	private ProviderHealthChecker checker;
+
+	@Before
+	public void createChecker() {
+		ExtendedNameServer ns = (ExtendedNameServer) Proxy.newProxyInstance(
+				ExtendedNameServer.class.getClassLoader(), new Class<?>[] { ExtendedNameServer.class },
+				(proxy, method, args) -> {
+					switch (method.getName()) {
+					case "getProvidersPage":
+						synchronized (registry) {
+							return new ProvidersPage(registry.toArray(new ServiceSupportInfo[registry.size()]),
+									ProvidersPage.LAST_PAGE);
+						}
+					case "unregisterBatch":
+						return unregister((ServiceSupportInfo[]) args[0]);
+					case "getLoadBalancer":
+						return null;
+					default:
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+
+		// port 1 is down, port 2 hangs, port 3 is up
+		ProviderHealthChecker.Pinger pinger = provider -> {
+			if (provider.getPort() == 2) {
+				Thread.sleep(10000);
+			}
+			return provider.getPort() == 3;
+		};
+		checker = new ProviderHealthChecker(ns, new HealthCheckConfig(60000, 0, 100, 2, 2), pinger);
+
+		registry.add(support(service, 1));
+		registry.add(support(service2, 1));
+		registry.add(support(service, 2));
+		registry.add(support(service, 3));
+	}
+
+	@Test
+	public void testSweep() throws Exception {
+		// first failure is tolerated
+		Assert.assertEquals(0, checker.sweep());
+		Assert.assertEquals(4, registry.size());
+
+		Assert.assertEquals(3, checker.sweep());
+		Assert.assertEquals(1, registry.size());
+		Assert.assertEquals(3, registry.get(0).getProvider().getPort());
+	}
+
+	@After
+	public void stopChecker() {
+		checker.stop();
+	}
+
+	private BatchResult unregister(ServiceSupportInfo[] supports) {
+		int[] statuses = new int[supports.length];
+		synchronized (registry) {
+			for (int i = 0; i < supports.length; i++) {
+				statuses[i] = BatchResult.FAILED;
+				Iterator<ServiceSupportInfo> it = registry.iterator();
+				while (it.hasNext()) {
+					ServiceSupportInfo support = it.next();
+					if (support.getService().getId() == supports[i].getService().getId()
+							&& support.getProvider().getPort() == supports[i].getProvider().getPort()) {
+						it.remove();
+						statuses[i] = BatchResult.OK;
+					}
+				}
+			}
+		}
+		return new BatchResult(statuses);
+	}
+
+	private ServiceSupportInfo support(ServiceInfo<?> service, int port) {
+		return new ServiceSupportInfo(service,
+				new ServiceProviderInfo("localhost", port, EnvironmentInfo.currentEnvInfo()),
+				new SerializationFormat[] { SerializationFormat.defaultFotmat() });
+	}
+}
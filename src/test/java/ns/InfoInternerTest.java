@@ -0,0 +1,69 @@
+package test.java.ns;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.lessrpc.common.info.EnvironmentInfo;
+import org.lessrpc.common.info.SerializationFormat;
+import org.lessrpc.common.info.ServiceInfo;
+import org.lessrpc.common.info.ServiceProviderInfo;
+import org.lessrpc.common.info.ServiceSupportInfo;
+import org.lessrpc.ns.core.db.InfoInterner;
+
+public class InfoInternerTest {
+
+	@Test
+	public void testSharedInstances() {
+		InfoInterner interner = new InfoInterner();
+		EnvironmentInfo env = interner.environment("JAVA", "linux", "javac");
+		Assert.assertSame(env, interner.environment("JAVA", "linux", "javac"));
+		Assert.assertNotSame(env, interner.environment("JAVA", "linux", "ecj"));
+		Assert.assertSame(interner.format("JSON", "2.0"), interner.format("JSON", "2.0"));
+		Assert.assertSame(interner.service("test", 1), interner.service("test", 1));
+
+		ServiceProviderInfo provider = interner.provider("localhost", 4000, env);
+		Assert.assertSame(provider, interner.provider(new String("localhost"), 4000, env));
+		// same endpoint in another environment
+		Assert.assertNotSame(provider,
+				interner.provider("localhost", 4000, interner.environment("JAVA", "linux", "ecj")));
+
+		ServiceSupportInfo support = support(interner, 4000);
+		Assert.assertSame(support, support(interner, 4000));
+		Assert.assertEquals(2, support.getSerializers().length);
+		Assert.assertSame(support.getSerializers(), support(interner, 4001).getSerializers());
+	}
+
+	@Test
+	public void testSnapshot() {
+		InfoInterner interner = new InfoInterner();
+		List<ServiceSupportInfo> list = new ArrayList<ServiceSupportInfo>();
+		list.add(support(interner, 4000));
+		list.add(support(interner, 4001));
+		ServiceSupportInfo[] snapshot = interner.snapshot(list);
+		Assert.assertSame(snapshot, interner.snapshot(new ArrayList<ServiceSupportInfo>(list)));
+		Assert.assertNotSame(snapshot, interner.snapshot(list.subList(0, 1)));
+		Assert.assertEquals(0, interner.snapshot(new ArrayList<ServiceSupportInfo>()).length);
+	}
+
+	@Test
+	public void testCapacity() {
+		InfoInterner interner = new InfoInterner(2);
+		interner.format("A", "1");
+		interner.format("B", "1");
+		SerializationFormat c = interner.format("C", "1");
+		Assert.assertEquals(1, interner.getStats().getEvictions());
+		Assert.assertSame(c, interner.format("C", "1"));
+		Assert.assertEquals(3, interner.getStats().getMisses());
+		Assert.assertEquals(1, interner.getStats().getHits());
+	}
+
+	private static ServiceSupportInfo support(InfoInterner interner, int port) {
+		SerializationFormat[] formats = interner
+				.formats(Arrays.asList(interner.format("JSON", "2.0"), interner.format("MSGPACK", "2.0")));
+		return interner.support(interner.service("test", 1),
+				interner.provider("localhost", port, interner.environment("JAVA", "linux", "javac")), formats);
+	}
+}
@@ -0,0 +1,88 @@
+package test.java.ns;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.lessrpc.common.db.DBInfo;
+import org.lessrpc.common.info.EnvironmentInfo;
+import org.lessrpc.common.info.SerializationFormat;
+import org.lessrpc.common.info.ServiceInfo;
+import org.lessrpc.common.info.ServiceProviderInfo;
+import org.lessrpc.common.info.ServiceSupportInfo;
+import org.lessrpc.ns.core.RandomLoadBalancer;
+import org.lessrpc.ns.core.db.DBFactory;
+import org.lessrpc.ns.core.rpc.DBBasedNameServer;
+import org.lessrpc.ns.core.rpc.LeaseConfig;
+import org.lessrpc.ns.core.rpc.LeasingNameServer;
+
+import me.salimm.allconfig.core.Config;
+import me.salimm.allconfig.core.types.XMLConfig;
+
+public class LeasingNameServerTest {
+
+	private DBInfo dbInfo;
+
+	private DBBasedNameServer db;
+
+	private LeasingNameServer ns;
+
+	private final ServiceInfo<Integer> service = new ServiceInfo<Integer>("test", 1);
+	private final ServiceInfo<Integer> service2 = new ServiceInfo<Integer>("tes2", 2);
+
+	private final ServiceProviderInfo provider1 = new ServiceProviderInfo("tes1", 1, EnvironmentInfo.currentEnvInfo());
+	private final ServiceProviderInfo provider2 = new ServiceProviderInfo("test2", 2, EnvironmentInfo.currentEnvInfo());
+
+	@Before
+	public void createNameServer() throws Exception {
+		Config conf = new XMLConfig("conf.xml");
+		dbInfo = DBFactory.getDBInfo(conf);
+		db = new DBBasedNameServer(dbInfo, DBFactory.getDBUtils(conf), "localhost", 7365, new RandomLoadBalancer());
+		db.reset();
+		ns = new LeasingNameServer(db, new LeaseConfig(10000, 1000, 60000, 100));
+	}
+
+	@Test
+	public void testGrant() throws Exception {
+		Assert.assertEquals(10000, ns.registerWithLease(support(service, provider1), 0));
+		Assert.assertEquals(60000, ns.registerWithLease(support(service2, provider1), 3600000));
+		Assert.assertEquals(1000, ns.registerWithLease(support(service, provider2), 1));
+	}
+
+	@Test
+	public void testExpiry() throws Exception {
+		ns.registerWithLease(support(service, provider1), 2000);
+		ns.registerWithLease(support(service2, provider1), 2000);
+		ns.registerWithLease(support(service, provider2), 30000);
+
+		Assert.assertEquals(0, ns.expire(System.currentTimeMillis() + 500));
+		Assert.assertEquals(2, ns.expire(ns.getExpiry(provider1) + 200));
+
+		Assert.assertEquals(1, db.getAllProviders().length);
+		Assert.assertEquals(provider2, db.getProviders(service)[0].getProvider());
+		Assert.assertFalse(ns.heartbeat(provider1));
+		Assert.assertTrue(ns.heartbeat(provider2));
+	}
+
+	@Test
+	public void testUnregisterDropsLease() throws Exception {
+		ns.register(support(service, provider1));
+		ns.register(support(service2, provider1));
+
+		ns.unregister(service, provider1);
+		Assert.assertTrue(ns.heartbeat(provider1));
+		ns.unregister(service2, provider1);
+		Assert.assertFalse(ns.heartbeat(provider1));
+	}
+
+	@After
+	public void close() {
+		ns.close();
+		DBFactory.closeConnectionPool(dbInfo);
+	}
+
+	private static ServiceSupportInfo support(ServiceInfo<?> service, ServiceProviderInfo provider) {
+		return new ServiceSupportInfo(service, provider,
+				new SerializationFormat[] { SerializationFormat.defaultFotmat() });
+	}
+}
@@ -0,0 +1,178 @@
+package test.java.ns;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.lessrpc.common.info.EnvironmentInfo;
+import org.lessrpc.common.info.SerializationFormat;
+import org.lessrpc.common.info.ServiceInfo;
+import org.lessrpc.common.info.ServiceProviderInfo;
+import org.lessrpc.common.info.ServiceSupportInfo;
+import org.lessrpc.common.loadbalance.ProviderLoadBalancer;
+import org.lessrpc.ns.core.LatencyAwareLoadBalancer;
+import org.lessrpc.ns.core.PowerOfTwoChoicesLoadBalancer;
+import org.lessrpc.ns.core.ProviderStats;
+import org.lessrpc.ns.core.RandomLoadBalancer;
+import org.lessrpc.ns.core.RoundRobinLoadBalancer;
+import org.lessrpc.ns.core.WeightedRandomLoadBalancer;
+
+public class LoadBalancerTest {
+
+	private final ServiceInfo<Integer> service = new ServiceInfo<Integer>("test", 1);
+	private final ServiceInfo<Integer> service2 = new ServiceInfo<Integer>("tes2", 2);
+
+	@Test
+	public void testRandom() {
+		ServiceSupportInfo[] supports = supports(4);
+		int[] counts = count(new RandomLoadBalancer(), supports, 4000);
+		for (int count : counts) {
+			Assert.assertTrue(count > 0);
+		}
+	}
+
+	@Test
+	public void testRoundRobin() {
+		ProviderLoadBalancer balancer = new RoundRobinLoadBalancer();
+		ServiceSupportInfo[] supports = supports(3);
+		Assert.assertSame(supports[0], balancer.select(service, supports));
+		Assert.assertSame(supports[1], balancer.select(service, supports));
+		// services rotate independently
+		Assert.assertSame(supports[0], balancer.select(service2, supports));
+		Assert.assertSame(supports[2], balancer.select(service, supports));
+		Assert.assertSame(supports[0], balancer.select(service, supports));
+	}
+
+	@Test
+	public void testWeightedRandom() {
+		ServiceSupportInfo[] supports = supports(3);
+		Map<String, Double> weights = new HashMap<String, Double>();
+		weights.put("host0:0", 3.0);
+		weights.put("host2:2", 0.0);
+		ProviderLoadBalancer balancer = new WeightedRandomLoadBalancer(weights, 1);
+
+		int[] counts = count(balancer, supports, 8000);
+		Assert.assertEquals(0, counts[2]);
+		// expected 6000 and 2000
+		Assert.assertTrue(counts[0] > 5500 && counts[0] < 6500);
+		Assert.assertTrue(counts[1] > 1500 && counts[1] < 2500);
+	}
+
+	@Test
+	public void testParseWeights() {
+		Map<String, Double> weights = WeightedRandomLoadBalancer.parseWeights("host0:1=2.5, host1:2=1");
+		Assert.assertEquals(2, weights.size());
+		Assert.assertEquals(2.5, weights.get("host0:1"), 0);
+		Assert.assertTrue(WeightedRandomLoadBalancer.parseWeights("").isEmpty());
+	}
+
+	@Test
+	public void testPowerOfTwo() {
+		ServiceSupportInfo[] supports = supports(5);
+		int[] counts = count(new PowerOfTwoChoicesLoadBalancer(), supports, 5000);
+		for (int count : counts) {
+			// two choices keep assignments within a few of the mean
+			Assert.assertTrue(Math.abs(count - 1000) < 10);
+		}
+		ServiceSupportInfo[] single = supports(1);
+		Assert.assertSame(single[0], new PowerOfTwoChoicesLoadBalancer().select(service, single));
+	}
+
+	@Test
+	public void testPowerOfTwoNewProvider() throws Exception {
+		PowerOfTwoChoicesLoadBalancer balancer = new PowerOfTwoChoicesLoadBalancer(
+				PowerOfTwoChoicesLoadBalancer.DEFAULT_SLOTS, 10);
+		ServiceSupportInfo[] supports = supports(3);
+		count(balancer, new ServiceSupportInfo[] { supports[0], supports[1] }, 10000);
+		// assignments of the old providers decayed
+		Thread.sleep(500);
+		int[] counts = count(balancer, supports, 300);
+		Assert.assertTrue(counts[2] < 150);
+
+		// other services do not share counts
+		ServiceSupportInfo[] other = supports(2);
+		for (int i = 0; i < 1000; i++) {
+			balancer.select(service2, new ServiceSupportInfo[] { other[0], other[0] });
+		}
+		counts = count(balancer, other, 1000);
+		Assert.assertTrue(Math.abs(counts[0] - 500) < 10);
+	}
+
+	@Test
+	public void testLatencyAware() {
+		ServiceSupportInfo[] supports = supports(2);
+		// outstanding counts do not decay during the test
+		LatencyAwareLoadBalancer balancer = new LatencyAwareLoadBalancer(
+				new ProviderStats(ProviderStats.DEFAULT_CAPACITY, ProviderStats.DEFAULT_DECAY_TIME, 60000));
+		balancer.reportLatency(supports[0].getProvider(), 100);
+		balancer.reportLatency(supports[1].getProvider(), 10000);
+		Assert.assertEquals(100, balancer.getStats().getLatency(supports[0].getProvider()), 0);
+
+		for (int i = 0; i < 50; i++) {
+			Assert.assertSame(supports[0], balancer.select(service, supports));
+		}
+		Assert.assertEquals(50, balancer.getStats().getOutstanding(supports[0].getProvider()));
+
+		// failures make the provider look slow
+		balancer.reportFailure(supports[0].getProvider());
+		Assert.assertEquals(LatencyAwareLoadBalancer.FAILURE_PENALTY,
+				balancer.getStats().getLatency(supports[0].getProvider()), 0);
+		Assert.assertSame(supports[1], balancer.select(service, supports));
+		Assert.assertEquals(49, balancer.getStats().getOutstanding(supports[0].getProvider()));
+
+		// pings answer no selection
+		balancer.reportPing(supports[0].getProvider(), 100, true);
+		Assert.assertEquals(49, balancer.getStats().getOutstanding(supports[0].getProvider()));
+	}
+
+	@Test
+	public void testOutstandingDecays() throws Exception {
+		ServiceSupportInfo[] supports = supports(1);
+		ProviderStats stats = new ProviderStats(ProviderStats.DEFAULT_CAPACITY, ProviderStats.DEFAULT_DECAY_TIME, 10);
+		LatencyAwareLoadBalancer balancer = new LatencyAwareLoadBalancer(stats);
+		for (int i = 0; i < 1000; i++) {
+			balancer.select(service, supports);
+		}
+		Assert.assertTrue(stats.getOutstanding(supports[0].getProvider()) > 0);
+		// never reported
+		Thread.sleep(500);
+		Assert.assertEquals(0, stats.getOutstanding(supports[0].getProvider()));
+	}
+
+	@Test
+	public void testProviderStatsBounded() {
+		ProviderStats stats = new ProviderStats(4, ProviderStats.DEFAULT_DECAY_TIME);
+		ServiceSupportInfo[] supports = supports(16);
+		for (ServiceSupportInfo support : supports) {
+			stats.recordLatency(support.getProvider(), 10);
+		}
+		int tracked = 0;
+		for (ServiceSupportInfo support : supports) {
+			if (stats.getLatency(support.getProvider()) > 0) {
+				tracked++;
+			}
+		}
+		Assert.assertTrue(tracked <= 4);
+		// the most recent endpoint is always tracked
+		Assert.assertEquals(10, stats.getLatency(supports[15].getProvider()), 0);
+	}
+
+	private int[] count(ProviderLoadBalancer balancer, ServiceSupportInfo[] supports, int n) {
+		int[] counts = new int[supports.length];
+		for (int i = 0; i < n; i++) {
+			counts[balancer.select(service, supports).getProvider().getPort()]++;
+		}
+		return counts;
+	}
+
+	private ServiceSupportInfo[] supports(int n) {
+		ServiceSupportInfo[] supports = new ServiceSupportInfo[n];
+		for (int i = 0; i < n; i++) {
+			supports[i] = new ServiceSupportInfo(service,
+					new ServiceProviderInfo("host" + i, i, EnvironmentInfo.currentEnvInfo()),
+					new SerializationFormat[] { SerializationFormat.defaultFotmat() });
+		}
+		return supports;
+	}
+}
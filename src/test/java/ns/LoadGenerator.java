@@ -0,0 +1,425 @@
+package test.java.ns;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Histogram;
+import org.lessrpc.common.info.EnvironmentInfo;
+import org.lessrpc.common.info.SerializationFormat;
+import org.lessrpc.common.info.ServiceInfo;
+import org.lessrpc.common.info.ServiceProviderInfo;
+import org.lessrpc.common.info.ServiceSupportInfo;
+import org.lessrpc.common.serializer.Serializer;
+import org.lessrpc.ns.core.constants.Constants;
+import org.lessrpc.ns.core.server.NameServer;
+import org.lessrpc.stub.java.serializer.JsonSerializer;
+import org.lessrpc.stub.java.stubs.NSClient;
+
+import me.salimm.allconfig.core.Config;
+import me.salimm.allconfig.core.types.XMLConfig;
+
+/**
+ *
+ * Drives a name server on localhost over real sockets at a constant arrival
+ * rate and prints the throughput and latency percentiles of each operation.
+ * Run with:
+ *
+ * java test.java.ns.LoadGenerator [rate] [seconds] [lookup:register:unregister]
+ * [threads] [services]
+ *
+ * Defaults are 1000 requests per second for 30 seconds, a 90:5:5 mix, 16
+ * threads and 100 services. Lookups are GET_PROVIDER of a random service,
+ * registers add a new provider to a random service and unregisters remove
+ * one added earlier.
+ *
+ * The schedule is open-loop: request i is due at start + i / rate whether or
+ * not earlier requests have completed, and its latency is measured from that
+ * time. A name server that falls behind is charged for the time requests
+ * waited to be sent, so stalls are not hidden by the generator slowing down
+ * (coordinated omission). Service time, measured from when the request was
+ * actually sent, is reported next to it. If there are too few threads to
+ * keep up with the rate, the two drift apart and the report says so.
+ *
+ * By default a name server is started in this JVM from conf.xml and its
+ * registry is cleared. With -Dload.external=true an already running name
+ * server on the port from conf.xml is used instead. With -Dload.report=dir
+ * the full latency distribution of each operation is written to dir as an
+ * HdrHistogram .hgrm file.
+ *
+ */
+public class LoadGenerator {
+
+	private static final int WARMUP_SECONDS = 5;
+
+	private static final int PROVIDERS_PER_SERVICE = 4;
+
+	/**
+	 * latencies are recorded in microseconds
+	 */
+	private static final int SIGNIFICANT_DIGITS = 3;
+
+	/**
+	 * first port of the providers added by register
+	 */
+	private static final int REGISTER_PORT = 20000;
+
+	private static final SerializationFormat[] FORMATS = new SerializationFormat[] {
+			SerializationFormat.defaultFotmat() };
+
+	private enum Op {
+		LOOKUP, REGISTER, UNREGISTER
+	}
+
+	public static void main(String[] args) throws Exception {
+		int rate = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+		int[] mix = parseMix(args.length > 2 ? args[2] : "90:5:5");
+		int threads = args.length > 3 ? Integer.parseInt(args[3]) : 16;
+		int serviceCount = args.length > 4 ? Integer.parseInt(args[4]) : 100;
+		if (rate <= 0 || seconds <= 0 || threads <= 0 || serviceCount <= 0) {
+			throw new IllegalArgumentException("Invalid load: rate=" + rate + ", seconds=" + seconds + ", threads="
+					+ threads + ", services=" + serviceCount);
+		}
+
+		Config conf = new XMLConfig("conf.xml");
+		NameServer server = null;
+		if (!Boolean.getBoolean("load.external")) {
+			server = new NameServer(conf);
+			server.start();
+			server.reset();
+		}
+		ServiceProviderInfo nsInfo = new ServiceProviderInfo("localhost",
+				conf.getInteger(Constants.CONF_TAG_NAME_VIPE_API_PORT), EnvironmentInfo.currentEnvInfo());
+
+		try {
+			ServiceInfo<?>[] services = populate(nsInfo, serviceCount);
+			System.out.println("rate: " + rate + "/s, seconds: " + seconds + ", mix: " + mix[0] + ":" + mix[1] + ":"
+					+ mix[2] + ", threads: " + threads + ", services: " + serviceCount);
+
+			Schedule schedule = new Schedule(rate, WARMUP_SECONDS, seconds);
+			ConcurrentLinkedQueue<ServiceSupportInfo> registered = new ConcurrentLinkedQueue<ServiceSupportInfo>();
+			AtomicInteger nextPort = new AtomicInteger(REGISTER_PORT);
+			List<Worker> workers = new ArrayList<Worker>(threads);
+			List<Thread> running = new ArrayList<Thread>(threads);
+			for (int i = 0; i < threads; i++) {
+				Worker worker = new Worker(nsInfo, schedule, mix, services, registered, nextPort);
+				Thread t = new Thread(worker, "lessrpc-ns-load-" + i);
+				workers.add(worker);
+				running.add(t);
+			}
+			for (Thread t : running) {
+				t.start();
+			}
+			for (Thread t : running) {
+				t.join();
+			}
+
+			report(workers, schedule, rate);
+
+			// leaves the registry as populated
+			NSClient client = new NSClient(nsInfo, Arrays.asList(new Serializer[] { new JsonSerializer() }));
+			for (ServiceSupportInfo support : registered) {
+				client.unregister(support.getService(), support.getProvider());
+			}
+		} finally {
+			if (server != null) {
+				server.stop();
+			}
+		}
+	}
+
+	/**
+	 * Registers PROVIDERS_PER_SERVICE providers for each service
+	 */
+	private static ServiceInfo<?>[] populate(ServiceProviderInfo nsInfo, int serviceCount) throws Exception {
+		NSClient client = new NSClient(nsInfo, Arrays.asList(new Serializer[] { new JsonSerializer() }));
+		ServiceInfo<?>[] services = new ServiceInfo<?>[serviceCount];
+		for (int i = 0; i < serviceCount; i++) {
+			services[i] = new ServiceInfo<Integer>("load" + i, i + 1);
+			for (int j = 0; j < PROVIDERS_PER_SERVICE; j++) {
+				client.register(new ServiceSupportInfo(services[i],
+						new ServiceProviderInfo("host" + j, 4000 + j, EnvironmentInfo.currentEnvInfo()), FORMATS));
+			}
+		}
+		return services;
+	}
+
+	/**
+	 *
+	 * @param mix
+	 *            lookup:register:unregister weights, e.g. 90:5:5
+	 * @return the three weights
+	 */
+	private static int[] parseMix(String mix) {
+		String[] parts = mix.split(":");
+		if (parts.length != 3) {
+			throw new IllegalArgumentException("Invalid mix: " + mix + ", expected lookup:register:unregister");
+		}
+		int[] weights = new int[3];
+		for (int i = 0; i < 3; i++) {
+			weights[i] = Integer.parseInt(parts[i].trim());
+			if (weights[i] < 0) {
+				throw new IllegalArgumentException("Invalid mix: " + mix + ", weights must not be negative");
+			}
+		}
+		if (weights[0] + weights[1] + weights[2] == 0) {
+			throw new IllegalArgumentException("Invalid mix: " + mix + ", at least one weight must be positive");
+		}
+		return weights;
+	}
+
+	private static void report(List<Worker> workers, Schedule schedule, int rate) throws Exception {
+		// until the last measured request completed, longer than the run if
+		// the name server fell behind
+		long lastDone = schedule.measureFrom;
+		for (Worker worker : workers) {
+			if (worker.lastDone != 0 && worker.lastDone - lastDone > 0) {
+				lastDone = worker.lastDone;
+			}
+		}
+		double seconds = (lastDone - schedule.measureFrom) / 1e9;
+
+		Histogram[] latency = new Histogram[Op.values().length];
+		Histogram[] service = new Histogram[Op.values().length];
+		long[] errors = new long[Op.values().length];
+		Histogram allLatency = new Histogram(SIGNIFICANT_DIGITS);
+		Histogram allService = new Histogram(SIGNIFICANT_DIGITS);
+		for (Op op : Op.values()) {
+			latency[op.ordinal()] = new Histogram(SIGNIFICANT_DIGITS);
+			service[op.ordinal()] = new Histogram(SIGNIFICANT_DIGITS);
+			for (Worker worker : workers) {
+				latency[op.ordinal()].add(worker.latency[op.ordinal()]);
+				service[op.ordinal()].add(worker.service[op.ordinal()]);
+				errors[op.ordinal()] += worker.errors[op.ordinal()];
+			}
+			allLatency.add(latency[op.ordinal()]);
+			allService.add(service[op.ordinal()]);
+		}
+
+		System.out.println("op\tcount\terrors\trate(/s)\tmean(us)\tp50(us)\tp99(us)\tp99.9(us)\tmax(us)"
+				+ "\tservice p99(us)");
+		for (Op op : Op.values()) {
+			printRow(op.name(), latency[op.ordinal()], service[op.ordinal()], errors[op.ordinal()], seconds);
+		}
+		long totalErrors = errors[0] + errors[1] + errors[2];
+		printRow("ALL", allLatency, allService, totalErrors, seconds);
+
+		System.out.println("Requests were sent up to " + schedule.getMaxLag() / 1000 + "us after they were due....");
+		double achieved = (allLatency.getTotalCount() + totalErrors) / seconds;
+		if (achieved < rate * 0.99) {
+			System.out.println("Target rate of " + rate + "/s was not reached, achieved " + (long) achieved
+					+ "/s. Latencies include the time requests waited to be sent; add threads if service times are"
+					+ " low....");
+		}
+
+		String dir = System.getProperty("load.report");
+		if (dir != null) {
+			new File(dir).mkdirs();
+			for (Op op : Op.values()) {
+				try (PrintStream out = new PrintStream(new File(dir, op.name().toLowerCase() + ".hgrm"))) {
+					latency[op.ordinal()].outputPercentileDistribution(out, 1.0);
+				}
+			}
+			try (PrintStream out = new PrintStream(new File(dir, "all.hgrm"))) {
+				allLatency.outputPercentileDistribution(out, 1.0);
+			}
+			System.out.println("Latency distributions written to " + dir + "....");
+		}
+	}
+
+	private static void printRow(String name, Histogram latency, Histogram service, long errors, double seconds) {
+		System.out.println(name + "\t" + latency.getTotalCount() + "\t" + errors + "\t"
+				+ (long) (latency.getTotalCount() / seconds) + "\t" + String.format("%.1f", latency.getMean()) + "\t"
+				+ latency.getValueAtPercentile(50) + "\t" + latency.getValueAtPercentile(99) + "\t"
+				+ latency.getValueAtPercentile(99.9) + "\t" + latency.getMaxValue() + "\t"
+				+ service.getValueAtPercentile(99));
+	}
+
+	/**
+	 * Due times of the requests, shared by all workers. Request i is due at
+	 * start + i * interval; requests due during the warmup are sent but not
+	 * recorded.
+	 */
+	private static class Schedule {
+
+		private final long start;
+
+		private final double interval;
+
+		private final long measureFrom;
+
+		private final long end;
+
+		private final AtomicLong next = new AtomicLong();
+
+		/**
+		 * largest delay between when a request was due and when it was sent,
+		 * in nanoseconds
+		 */
+		private final AtomicLong maxLag = new AtomicLong();
+
+		private Schedule(int rate, int warmupSeconds, int seconds) {
+			this.interval = 1e9 / rate;
+			// leaves time for the workers to start
+			this.start = System.nanoTime() + 100000000L;
+			this.measureFrom = start + warmupSeconds * 1000000000L;
+			this.end = measureFrom + seconds * 1000000000L;
+		}
+
+		/**
+		 *
+		 * @return due time of the next request, in System.nanoTime, or -1 once
+		 *         the run is over
+		 */
+		private long next() {
+			long due = start + (long) (next.getAndIncrement() * interval);
+			return due - end >= 0 ? -1 : due;
+		}
+
+		private boolean isMeasured(long due) {
+			return due - measureFrom >= 0;
+		}
+
+		private void sent(long due, long sent) {
+			long lag = sent - due;
+			long max;
+			while (lag > (max = maxLag.get()) && !maxLag.compareAndSet(max, lag)) {
+				// retry
+			}
+		}
+
+		private long getMaxLag() {
+			return maxLag.get();
+		}
+	}
+
+	/**
+	 * Sends the requests it takes from the schedule, one at a time, on its own
+	 * client
+	 */
+	private static class Worker implements Runnable {
+
+		private final NSClient client;
+
+		private final Schedule schedule;
+
+		private final int[] mix;
+
+		private final ServiceInfo<?>[] services;
+
+		private final ConcurrentLinkedQueue<ServiceSupportInfo> registered;
+
+		private final AtomicInteger nextPort;
+
+		/**
+		 * latency from the due time per op, in microseconds
+		 */
+		private final Histogram[] latency = new Histogram[Op.values().length];
+
+		/**
+		 * latency from the send time per op, in microseconds
+		 */
+		private final Histogram[] service = new Histogram[Op.values().length];
+
+		private final long[] errors = new long[Op.values().length];
+
+		/**
+		 * when the last measured request completed, in System.nanoTime
+		 */
+		private long lastDone;
+
+		private Worker(ServiceProviderInfo nsInfo, Schedule schedule, int[] mix, ServiceInfo<?>[] services,
+				ConcurrentLinkedQueue<ServiceSupportInfo> registered, AtomicInteger nextPort) {
+			this.client = new NSClient(nsInfo, Arrays.asList(new Serializer[] { new JsonSerializer() }));
+			this.schedule = schedule;
+			this.mix = mix;
+			this.services = services;
+			this.registered = registered;
+			this.nextPort = nextPort;
+			for (int i = 0; i < latency.length; i++) {
+				latency[i] = new Histogram(SIGNIFICANT_DIGITS);
+				service[i] = new Histogram(SIGNIFICANT_DIGITS);
+			}
+		}
+
+		@Override
+		public void run() {
+			long due;
+			while ((due = schedule.next()) != -1) {
+				long wait;
+				while ((wait = due - System.nanoTime()) > 0) {
+					LockSupport.parkNanos(wait);
+				}
+				Op op = pick();
+				long sent = System.nanoTime();
+				schedule.sent(due, sent);
+				boolean ok;
+				try {
+					ok = send(op);
+				} catch (Exception e) {
+					ok = false;
+				}
+				long done = System.nanoTime();
+				if (!schedule.isMeasured(due)) {
+					continue;
+				}
+				lastDone = done;
+				if (ok) {
+					latency[op.ordinal()].recordValue((done - due) / 1000);
+					service[op.ordinal()].recordValue((done - sent) / 1000);
+				} else {
+					errors[op.ordinal()]++;
+				}
+			}
+		}
+
+		private Op pick() {
+			int r = ThreadLocalRandom.current().nextInt(mix[0] + mix[1] + mix[2]);
+			if (r < mix[0]) {
+				return Op.LOOKUP;
+			}
+			return r < mix[0] + mix[1] ? Op.REGISTER : Op.UNREGISTER;
+		}
+
+		/**
+		 *
+		 * @return false if the name server reported a failure
+		 */
+		private boolean send(Op op) throws Exception {
+			switch (op) {
+			case LOOKUP:
+				return client.getProvider(randomService()) != null;
+			case REGISTER:
+				ServiceSupportInfo support = new ServiceSupportInfo(randomService(), new ServiceProviderInfo("load",
+						nextPort.getAndIncrement(), EnvironmentInfo.currentEnvInfo()), FORMATS);
+				boolean flag = client.register(support);
+				if (flag) {
+					registered.add(support);
+				}
+				return flag;
+			default:
+				ServiceSupportInfo removed = registered.poll();
+				if (removed == null) {
+					// nothing registered yet, still a round trip that finds
+					// no provider to remove
+					return !client.unregister(randomService(), new ServiceProviderInfo("load", REGISTER_PORT - 1,
+							EnvironmentInfo.currentEnvInfo()));
+				}
+				return client.unregister(removed.getService(), removed.getProvider());
+			}
+		}
+
+		private ServiceInfo<?> randomService() {
+			return services[ThreadLocalRandom.current().nextInt(services.length)];
+		}
+	}
+
+}
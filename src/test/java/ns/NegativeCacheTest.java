@@ -0,0 +1,63 @@
+package test.java.ns;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.lessrpc.ns.core.rpc.NegativeCache;
+
+public class NegativeCacheTest {
+
+	@Test
+	public void testInvalidate() {
+		NegativeCache cache = new NegativeCache(60000, 100);
+		cache.put("unknown", cache.stamp());
+		cache.put(7, cache.stamp());
+		Assert.assertTrue(cache.contains("unknown"));
+		Assert.assertTrue(cache.contains(7));
+		Assert.assertFalse(cache.contains(8));
+
+		// registering service 7 named unknown
+		cache.invalidate(7, "unknown");
+		Assert.assertFalse(cache.contains("unknown"));
+		Assert.assertFalse(cache.contains(7));
+		Assert.assertEquals(2, cache.getStats().getInvalidations());
+		Assert.assertEquals(2, cache.getStats().getHits());
+	}
+
+	@Test
+	public void testStaleMiss() {
+		NegativeCache cache = new NegativeCache(60000, 100);
+		// a lookup started before a registration of the service committed
+		long stamp = cache.stamp();
+		cache.invalidate(7);
+		cache.put(7, stamp);
+		Assert.assertFalse(cache.contains(7));
+	}
+
+	@Test
+	public void testTTL() throws Exception {
+		NegativeCache cache = new NegativeCache(50, 100);
+		cache.put(7, cache.stamp());
+		Assert.assertTrue(cache.contains(7));
+		Thread.sleep(100);
+		Assert.assertFalse(cache.contains(7));
+		Assert.assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testCapacity() throws Exception {
+		NegativeCache cache = new NegativeCache(50, 2);
+		cache.put(1, cache.stamp());
+		cache.put(2, cache.stamp());
+		cache.put(3, cache.stamp());
+		Assert.assertEquals(1, cache.size());
+		Assert.assertEquals(1, cache.getStats().getEvictions());
+
+		// expired keys make room first
+		cache.put(4, cache.stamp());
+		Thread.sleep(100);
+		cache.put(5, cache.stamp());
+		Assert.assertEquals(1, cache.size());
+		Assert.assertTrue(cache.contains(5));
+		Assert.assertEquals(1, cache.getStats().getEvictions());
+	}
+}
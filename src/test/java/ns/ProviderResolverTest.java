@@ -0,0 +1,131 @@
+package test.java.ns;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.lessrpc.common.info.EnvironmentInfo;
+import org.lessrpc.common.info.SerializationFormat;
+import org.lessrpc.common.info.ServiceInfo;
+import org.lessrpc.common.info.ServiceProviderInfo;
+import org.lessrpc.common.info.ServiceSupportInfo;
+import org.lessrpc.ns.client.ProviderResolver;
+import org.lessrpc.ns.client.ProvidersSource;
+import org.lessrpc.ns.client.ResolverConfig;
+import org.lessrpc.ns.core.RoundRobinLoadBalancer;
+import org.lessrpc.ns.core.info.ProvidersCheck;
+
+public class ProviderResolverTest {
+
+	private final ServiceInfo<Integer> service = new ServiceInfo<Integer>("test", 1);
+
+	private final FakeSource source = new FakeSource();
+
+	private ProviderResolver resolver;
+
+	@Before
+	public void createResolver() {
+		// refreshed by the test
+		resolver = new ProviderResolver(source, new RoundRobinLoadBalancer(), new ResolverConfig(60000, 60000));
+	}
+
+	@After
+	public void close() {
+		resolver.close();
+	}
+
+	@Test
+	public void testCached() throws Exception {
+		source.set(support(1), support(2));
+		ServiceSupportInfo first = resolver.resolve(service);
+		ServiceSupportInfo second = resolver.resolve(service);
+		Assert.assertNotNull(first);
+		// selected locally
+		Assert.assertTrue(first.getProvider().getPort() != second.getProvider().getPort());
+		Assert.assertEquals(1, source.calls);
+		Assert.assertEquals(1, resolver.getStats().getMisses());
+		Assert.assertEquals(1, resolver.getStats().getHits());
+	}
+
+	@Test
+	public void testRefresh() throws Exception {
+		source.set(support(1));
+		Assert.assertEquals(1, resolver.getProviders(service).length);
+
+		resolver.refresh();
+		Assert.assertEquals(0, resolver.getStats().getChanges());
+
+		source.set(support(1), support(2));
+		resolver.refresh();
+		Assert.assertEquals(1, resolver.getStats().getChanges());
+		Assert.assertEquals(2, resolver.getProviders(service).length);
+		Assert.assertEquals(3, source.calls);
+
+		source.set();
+		resolver.refresh();
+		Assert.assertNull(resolver.resolve(service));
+	}
+
+	@Test
+	public void testNameServerDown() throws Exception {
+		source.set(support(1));
+		resolver.resolve(service);
+		source.down = true;
+		resolver.refresh();
+		Assert.assertEquals(1, resolver.getStats().getFailedChecks());
+		Assert.assertEquals(1, resolver.resolve(service).getProvider().getPort());
+
+		resolver.invalidate(service);
+		try {
+			resolver.resolve(service);
+			Assert.fail("resolve should fail while the name server is down");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testIdle() throws Exception {
+		resolver.close();
+		resolver = new ProviderResolver(source, new RoundRobinLoadBalancer(), new ResolverConfig(10, 10));
+		source.set(support(1));
+		resolver.resolve(service);
+		Thread.sleep(50);
+		resolver.refresh();
+		Assert.assertEquals(0, resolver.size());
+	}
+
+	private ServiceSupportInfo support(int port) {
+		return new ServiceSupportInfo(service, new ServiceProviderInfo("tes1", port, EnvironmentInfo.currentEnvInfo()),
+				new SerializationFormat[] { SerializationFormat.defaultFotmat() });
+	}
+
+	/**
+	 * Providers of one service with a revision moved by every change
+	 */
+	private static class FakeSource implements ProvidersSource {
+
+		private volatile ServiceSupportInfo[] supports = new ServiceSupportInfo[0];
+
+		private volatile long revision = 100;
+
+		private volatile boolean down = false;
+
+		private volatile int calls = 0;
+
+		private void set(ServiceSupportInfo... supports) {
+			this.supports = supports;
+			revision++;
+		}
+
+		@Override
+		public ProvidersCheck check(ServiceInfo<?> service, long revision) throws Exception {
+			if (down) {
+				throw new IllegalStateException("name server is down");
+			}
+			calls++;
+			return new ProvidersCheck(this.revision, revision == this.revision ? null : supports);
+		}
+	}
+
+}
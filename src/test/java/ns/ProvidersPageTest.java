@@ -0,0 +1,77 @@
+package test.java.ns;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.lessrpc.common.db.DBInfo;
+import org.lessrpc.common.info.EnvironmentInfo;
+import org.lessrpc.common.info.SerializationFormat;
+import org.lessrpc.common.info.ServiceInfo;
+import org.lessrpc.common.info.ServiceProviderInfo;
+import org.lessrpc.common.info.ServiceSupportInfo;
+import org.lessrpc.ns.core.RandomLoadBalancer;
+import org.lessrpc.ns.core.db.DBFactory;
+import org.lessrpc.ns.core.info.ProvidersPage;
+import org.lessrpc.ns.core.rpc.DBBasedNameServer;
+
+import me.salimm.allconfig.core.Config;
+import me.salimm.allconfig.core.types.XMLConfig;
+
+public class ProvidersPageTest {
+
+	private DBInfo dbInfo;
+
+	private DBBasedNameServer ns;
+
+	@Before
+	public void createNameServer() throws Exception {
+		Config conf = new XMLConfig("conf.xml");
+		dbInfo = DBFactory.getDBInfo(conf);
+		ns = new DBBasedNameServer(dbInfo, DBFactory.getDBUtils(conf), "localhost", 7365, new RandomLoadBalancer());
+		ns.reset();
+	}
+
+	@Test
+	public void testEmpty() throws Exception {
+		ProvidersPage page = ns.getProvidersPage(ProvidersPage.FIRST_PAGE, 10);
+		Assert.assertEquals(0, page.getSupports().length);
+		Assert.assertTrue(page.isLastPage());
+	}
+
+	@Test
+	public void testPages() throws Exception {
+		ServiceInfo<Integer> service = new ServiceInfo<Integer>("test", 1);
+		ServiceInfo<Integer> service2 = new ServiceInfo<Integer>("tes2", 2);
+		for (int i = 0; i < 7; i++) {
+			ns.register(new ServiceSupportInfo(i % 2 == 0 ? service : service2,
+					new ServiceProviderInfo("test" + i, i, EnvironmentInfo.currentEnvInfo()),
+					new SerializationFormat[] { SerializationFormat.defaultFotmat(),
+							new SerializationFormat("MSGPACK", "2.0") }));
+		}
+
+		Set<Integer> ports = new HashSet<Integer>();
+		long token = ProvidersPage.FIRST_PAGE;
+		int pages = 0;
+		do {
+			ProvidersPage page = ns.getProvidersPage(token, 3);
+			for (ServiceSupportInfo support : page.getSupports()) {
+				Assert.assertEquals(2, support.getSerializers().length);
+				Assert.assertTrue(ports.add(support.getProvider().getPort()));
+			}
+			token = page.getNextPageToken();
+			pages++;
+		} while (token != ProvidersPage.LAST_PAGE);
+
+		Assert.assertEquals(7, ports.size());
+		Assert.assertEquals(3, pages);
+	}
+
+	@After
+	public void closePool() {
+		DBFactory.closeConnectionPool(dbInfo);
+	}
+}
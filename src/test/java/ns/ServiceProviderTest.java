@@ -0,0 +1,182 @@
+package test.java.ns;
+
+import java.lang.reflect.Proxy;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.lessrpc.common.errors.ApplicationSpecificErrorException;
+import org.lessrpc.common.info.EnvironmentInfo;
+import org.lessrpc.common.info.SerializationFormat;
+import org.lessrpc.common.info.ServiceDescription;
+import org.lessrpc.common.info.ServiceInfo;
+import org.lessrpc.common.info.ServiceProviderInfo;
+import org.lessrpc.common.info.ServiceRequest;
+import org.lessrpc.common.info.ServiceSupportInfo;
+import org.lessrpc.common.services.NameServer;
+import org.lessrpc.common.services.NameServerFunctions;
+import org.lessrpc.common.services.NameServerServices;
+import org.lessrpc.ns.core.info.BatchResult;
+import org.lessrpc.ns.core.info.ProvidersCheck;
+import org.lessrpc.ns.core.rpc.ExtendedNameServer;
+import org.lessrpc.ns.core.rpc.ExtendedNameServerServices;
+import org.lessrpc.ns.core.rpc.NameServerServiceProvider;
+import org.lessrpc.ns.core.rpc.ServiceHandler;
+import org.lessrpc.ns.core.rpc.RevisionedNameServer;
+
+public class ServiceProviderTest {
+
+	private ExtendedNameServer ns;
+
+	@Before
+	public void createNameServer() {
+		ns = nameServer(ExtendedNameServer.class);
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Test
+	public void testListsMatch() {
+		NameServerServiceProvider provider = new NameServerServiceProvider(ns);
+		List<ServiceSupportInfo> support = provider.listSupport();
+		List<ServiceDescription> services = provider.listServices();
+		Assert.assertEquals(services.size(), support.size());
+
+		Set<Integer> ids = new HashSet<Integer>();
+		for (int i = 0; i < services.size(); i++) {
+			Assert.assertEquals(services.get(i).getInfo(), support.get(i).getService());
+			Assert.assertTrue(ids.add(services.get(i).getInfo().getId()));
+		}
+		// cached
+		Assert.assertSame(support, provider.listSupport());
+	}
+
+	@Test
+	public void testAdditionalService() {
+		ServiceDescription<String> echo = new ServiceDescription<String>(new ServiceInfo<String>("ECHO", 900),
+				new Class<?>[] { String.class }, String.class);
+		Map<ServiceDescription<?>, ServiceHandler> services = new LinkedHashMap<ServiceDescription<?>, ServiceHandler>();
+		services.put(echo, request -> null);
+
+		NameServerServiceProvider provider = new NameServerServiceProvider(ns, services);
+		List<ServiceSupportInfo> support = provider.listSupport();
+		Assert.assertEquals(echo.getInfo(), support.get(support.size() - 1).getService());
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Test
+	public void testCheckNeedsLog() {
+		ServiceDescription check = ExtendedNameServerServices.CHECK_PROVIDERS;
+		ServiceDescription changes = ExtendedNameServerServices.GET_CHANGES_SINCE;
+		List<ServiceDescription> services = new NameServerServiceProvider(ns).listServices();
+		Assert.assertFalse(services.contains(check));
+		Assert.assertFalse(services.contains(changes));
+
+		services = new NameServerServiceProvider(nameServer(RevisionedNameServer.class)).listServices();
+		Assert.assertTrue(services.contains(check));
+		Assert.assertTrue(services.contains(changes));
+	}
+
+	@Test
+	public void testCheckProviders() throws Exception {
+		ServiceInfo<Integer> service = new ServiceInfo<Integer>("test", 1);
+		RevisionedNameServer revisioned = (RevisionedNameServer) Proxy.newProxyInstance(
+				RevisionedNameServer.class.getClassLoader(), new Class<?>[] { RevisionedNameServer.class },
+				(proxy, method, args) -> {
+					switch (method.getName()) {
+					case "getRevision":
+						return 5L;
+					case "getProviders":
+						return new ServiceSupportInfo[0];
+					case "getURL":
+						return "localhost";
+					case "getPort":
+						return 7365;
+					default:
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+		NameServerServiceProvider provider = new NameServerServiceProvider(revisioned);
+
+		ProvidersCheck check = (ProvidersCheck) provider.execute(new ServiceRequest(
+				ExtendedNameServerServices.CHECK_PROVIDERS.getInfo(), 1, new Object[] { service, 5L })).getContent();
+		Assert.assertEquals(5, check.getRevision());
+		Assert.assertNull(check.getSupports());
+
+		check = (ProvidersCheck) provider.execute(new ServiceRequest(
+				ExtendedNameServerServices.CHECK_PROVIDERS.getInfo(), 1, new Object[] { service, 4L })).getContent();
+		Assert.assertEquals(5, check.getRevision());
+		Assert.assertNotNull(check.getSupports());
+	}
+
+	@Test
+	public void testPlainNameServer() throws Exception {
+		ServiceInfo<Integer> service = new ServiceInfo<Integer>("test", 1);
+		NameServer plain = (NameServer) Proxy.newProxyInstance(NameServer.class.getClassLoader(),
+				new Class<?>[] { NameServer.class }, (proxy, method, args) -> {
+					switch (method.getName()) {
+					case "register":
+						// the provider on port 2 is registered already
+						if (((ServiceSupportInfo) args[0]).getProvider().getPort() == 2) {
+							throw new ApplicationSpecificErrorException(
+									NameServerFunctions.ERROR_SERVICE_PROVIDER_EXISTS_CODE,
+									NameServerFunctions.ERROR_SERVICE_PROVIDER_EXISTS_MSG);
+						}
+						return true;
+					case "getURL":
+						return "localhost";
+					case "getPort":
+						return 7365;
+					default:
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+		NameServerServiceProvider provider = new NameServerServiceProvider(plain);
+
+		ServiceSupportInfo[] supports = new ServiceSupportInfo[2];
+		for (int i = 0; i < supports.length; i++) {
+			supports[i] = new ServiceSupportInfo(service,
+					new ServiceProviderInfo("localhost", i + 1, EnvironmentInfo.currentEnvInfo()),
+					new SerializationFormat[] { SerializationFormat.defaultFotmat() });
+		}
+		BatchResult result = (BatchResult) provider.execute(new ServiceRequest(
+				ExtendedNameServerServices.REGISTER_BATCH.getInfo(), 1, new Object[] { supports })).getContent();
+		Assert.assertArrayEquals(new int[] { BatchResult.OK, BatchResult.ALREADY_EXISTS }, result.getStatuses());
+	}
+
+	@Test
+	public void testDuplicateId() {
+		ServiceDescription<String> clash = new ServiceDescription<String>(
+				new ServiceInfo<String>("CLASH", NameServerServices.GET_PROVIDER.getInfo().getId()),
+				new Class<?>[] { String.class }, String.class);
+		Map<ServiceDescription<?>, ServiceHandler> services = new LinkedHashMap<ServiceDescription<?>, ServiceHandler>();
+		services.put(clash, request -> null);
+
+		boolean flag = false;
+		try {
+			new NameServerServiceProvider(ns, services);
+		} catch (IllegalArgumentException e) {
+			flag = true;
+		}
+		Assert.assertTrue(flag);
+	}
+
+	/**
+	 * only url and port are used while building the provider
+	 */
+	private static <T extends ExtendedNameServer> T nameServer(Class<T> type) {
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+				(proxy, method, args) -> {
+					if (method.getName().equals("getURL")) {
+						return "localhost";
+					} else if (method.getName().equals("getPort")) {
+						return 7365;
+					}
+					throw new UnsupportedOperationException(method.getName());
+				}));
+	}
+}
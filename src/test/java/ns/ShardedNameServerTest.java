@@ -0,0 +1,338 @@
+package test.java.ns;
+
+import java.lang.reflect.Proxy;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.lessrpc.common.info.EnvironmentInfo;
+import org.lessrpc.common.info.SerializationFormat;
+import org.lessrpc.common.info.ServiceInfo;
+import org.lessrpc.common.info.ServiceProviderInfo;
+import org.lessrpc.common.info.ServiceSupportInfo;
+import org.lessrpc.ns.core.cluster.ShardClient;
+import org.lessrpc.ns.core.cluster.ShardConfig;
+import org.lessrpc.ns.core.cluster.ShardedNameServer;
+import org.lessrpc.ns.core.info.BatchResult;
+import org.lessrpc.ns.core.info.ProvidersPage;
+import org.lessrpc.ns.core.info.RegistryChanges;
+import org.lessrpc.ns.core.rpc.CachingNameServer;
+import org.lessrpc.ns.core.rpc.ExtendedNameServer;
+
+public class ShardedNameServerTest {
+
+	private static final int SHARDS = 3;
+
+	private static final int SERVICES = 30;
+
+	private final ServiceProviderInfo provider = new ServiceProviderInfo("tes1", 1, EnvironmentInfo.currentEnvInfo());
+
+	private final List<ShardedNameServer> shards = new ArrayList<ShardedNameServer>();
+
+	/**
+	 * false if the shard is down
+	 */
+	private final boolean[] up = new boolean[SHARDS];
+
+	@Before
+	public void createShards() throws Exception {
+		List<ServiceProviderInfo> peers = new ArrayList<ServiceProviderInfo>();
+		for (int i = 0; i < SHARDS; i++) {
+			peers.add(new ServiceProviderInfo("localhost", 6161 + i, EnvironmentInfo.currentEnvInfo()));
+		}
+		for (int i = 0; i < SHARDS; i++) {
+			List<ShardClient> clients = new ArrayList<ShardClient>();
+			for (int j = 0; j < SHARDS; j++) {
+				clients.add(new LocalShardClient(j));
+			}
+			shards.add(new ShardedNameServer(new CachingNameServer(store()), new ShardConfig(peers, i), clients));
+			up[i] = true;
+		}
+	}
+
+	@Test
+	public void testRouting() throws Exception {
+		for (int id = 1; id <= SERVICES; id++) {
+			Assert.assertTrue(shards.get(0).register(support(id)));
+		}
+		int[] owned = new int[SHARDS];
+		for (int id = 1; id <= SERVICES; id++) {
+			int owner = shards.get(0).owner(service(id));
+			owned[owner]++;
+			for (int i = 0; i < SHARDS; i++) {
+				// stored on the owner only, found through any shard
+				Assert.assertEquals(i == owner ? 1 : 0, shards.get(i).getNameServer().getProviders(service(id)).length);
+				Assert.assertEquals(1, shards.get(i).getProviders(service(id)).length);
+				// all shards agree on the owner
+				Assert.assertEquals(owner, shards.get(i).owner(service(id)));
+			}
+		}
+		for (int count : owned) {
+			Assert.assertTrue(count > 0);
+		}
+		// registrations and lookups of shard 0 on services it does not own
+		Assert.assertEquals(2 * (SERVICES - owned[0]), shards.get(0).getStats().getForwarded());
+		Assert.assertEquals(SERVICES, shards.get(1).getAllProviders().length);
+		Assert.assertEquals("s7", shards.get(2).getServiceInfoByName("s7").getName());
+	}
+
+	@Test
+	public void testBatch() throws Exception {
+		ServiceSupportInfo[] supports = new ServiceSupportInfo[SERVICES];
+		for (int id = 1; id <= SERVICES; id++) {
+			supports[id - 1] = support(id);
+		}
+		Assert.assertEquals(SERVICES, shards.get(1).registerBatch(supports).countOk());
+		Assert.assertEquals(SERVICES, shards.get(0).getAllProviders().length);
+		Assert.assertEquals(SERVICES, shards.get(2).unregisterBatch(supports).countOk());
+		Assert.assertEquals(0, shards.get(0).getAllProviders().length);
+	}
+
+	@Test
+	public void testFanOut() throws Exception {
+		for (int id = 1; id <= SERVICES; id++) {
+			shards.get(0).register(support(id));
+		}
+		Assert.assertTrue(shards.get(2).heartbeat(provider));
+		Assert.assertTrue(shards.get(1).unregisterAll(provider));
+		for (ShardedNameServer shard : shards) {
+			Assert.assertEquals(0, shard.getNameServer().getAllProviders().length);
+		}
+		Assert.assertFalse(shards.get(2).heartbeat(provider));
+	}
+
+	@Test
+	public void testShardDown() throws Exception {
+		int down = shards.get(0).owner(service(1));
+		int caller = (down + 1) % SHARDS;
+		up[down] = false;
+		try {
+			shards.get(caller).register(support(1));
+			Assert.fail("register should fail while the owner is down");
+		} catch (SQLException e) {
+			// expected
+		}
+
+		ServiceSupportInfo[] supports = new ServiceSupportInfo[SERVICES];
+		for (int id = 1; id <= SERVICES; id++) {
+			supports[id - 1] = support(id);
+		}
+		BatchResult result = shards.get(caller).registerBatch(supports);
+		for (int id = 1; id <= SERVICES; id++) {
+			Assert.assertEquals(shards.get(0).owner(service(id)) != down, result.isOk(id - 1));
+		}
+	}
+
+	@Test
+	public void testRebalance() throws Exception {
+		// registered while shard 0 was alone
+		for (int id = 1; id <= SERVICES; id++) {
+			shards.get(0).getNameServer().register(support(id));
+		}
+		int foreign = 0;
+		for (int id = 1; id <= SERVICES; id++) {
+			foreign += shards.get(0).owner(service(id)) == 0 ? 0 : 1;
+		}
+		Assert.assertEquals(foreign, shards.get(0).rebalance());
+		Assert.assertEquals(SERVICES - foreign, shards.get(0).getNameServer().getAllProviders().length);
+		for (int id = 1; id <= SERVICES; id++) {
+			int owner = shards.get(0).owner(service(id));
+			Assert.assertEquals(1, shards.get(owner).getNameServer().getProviders(service(id)).length);
+		}
+		Assert.assertEquals(0, shards.get(0).rebalance());
+	}
+
+	private static ServiceInfo<Integer> service(int id) {
+		return new ServiceInfo<Integer>("s" + id, id);
+	}
+
+	private ServiceSupportInfo support(int id) {
+		return new ServiceSupportInfo(service(id), provider,
+				new SerializationFormat[] { SerializationFormat.defaultFotmat() });
+	}
+
+	/**
+	 * Fake database of a shard
+	 */
+	private static ExtendedNameServer store() {
+		List<ServiceSupportInfo> rows = new ArrayList<ServiceSupportInfo>();
+		return (ExtendedNameServer) Proxy.newProxyInstance(ExtendedNameServer.class.getClassLoader(),
+				new Class<?>[] { ExtendedNameServer.class }, (proxy, method, args) -> {
+					synchronized (rows) {
+						switch (method.getName()) {
+						case "register":
+							rows.add((ServiceSupportInfo) args[0]);
+							return true;
+						case "registerBatch":
+							ServiceSupportInfo[] added = (ServiceSupportInfo[]) args[0];
+							rows.addAll(Arrays.asList(added));
+							return new BatchResult(new int[added.length]);
+						case "unregisterBatch":
+							ServiceSupportInfo[] removed = (ServiceSupportInfo[]) args[0];
+							int[] statuses = new int[removed.length];
+							for (int i = 0; i < removed.length; i++) {
+								statuses[i] = remove(rows, removed[i].getService(), removed[i].getProvider())
+										? BatchResult.OK : BatchResult.FAILED;
+							}
+							return new BatchResult(statuses);
+						case "unregister":
+							return remove(rows, (ServiceInfo<?>) args[0], (ServiceProviderInfo) args[1]);
+						case "unregisterAll":
+							return remove(rows, null, (ServiceProviderInfo) args[0]);
+						case "heartbeat":
+							for (ServiceSupportInfo row : rows) {
+								if (row.getProvider().getPort() == ((ServiceProviderInfo) args[0]).getPort()) {
+									return true;
+								}
+							}
+							return false;
+						case "getAllProviders":
+							return rows.toArray(new ServiceSupportInfo[rows.size()]);
+						case "getProvidersPage":
+							return new ProvidersPage(rows.toArray(new ServiceSupportInfo[rows.size()]),
+									ProvidersPage.LAST_PAGE);
+						case "getServiceInfoByName":
+						case "getServiceInfoById":
+							return null;
+						default:
+							throw new UnsupportedOperationException(method.getName());
+						}
+					}
+				});
+	}
+
+	private static boolean remove(List<ServiceSupportInfo> rows, ServiceInfo<?> service,
+			ServiceProviderInfo provider) {
+		boolean flag = false;
+		for (Iterator<ServiceSupportInfo> it = rows.iterator(); it.hasNext();) {
+			ServiceSupportInfo row = it.next();
+			if (row.getProvider().getPort() == provider.getPort()
+					&& (service == null || row.getService().getId() == service.getId())) {
+				it.remove();
+				flag = true;
+			}
+		}
+		return flag;
+	}
+
+	/**
+	 * Calls another shard of the test, failing while it is down. Local calls
+	 * go to the shard's local name server as the shard services do.
+	 */
+	private class LocalShardClient implements ShardClient {
+
+		private final int index;
+
+		private LocalShardClient(int index) {
+			this.index = index;
+		}
+
+		private ShardedNameServer shard() {
+			if (!up[index]) {
+				throw new IllegalStateException("shard " + index + " is down");
+			}
+			return shards.get(index);
+		}
+
+		@Override
+		public boolean ping() {
+			return up[index];
+		}
+
+		@Override
+		public RegistryChanges getChangesSince(long revision) throws Exception {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public ServiceSupportInfo[] getAllProviders() throws Exception {
+			return shard().getAllProviders();
+		}
+
+		@Override
+		public ServiceSupportInfo getProvider(ServiceInfo<?> service) throws Exception {
+			return shard().getProvider(service);
+		}
+
+		@Override
+		public ServiceSupportInfo[] getProviders(ServiceInfo<?> service) throws Exception {
+			return shard().getProviders(service);
+		}
+
+		@Override
+		public ServiceInfo<?> getServiceInfoById(int serviceId) throws Exception {
+			return shard().getServiceInfoById(serviceId);
+		}
+
+		@Override
+		public ProvidersPage getProvidersPage(long pageToken, int pageSize) throws Exception {
+			return shard().getProvidersPage(pageToken, pageSize);
+		}
+
+		@Override
+		public ServiceInfo<?> getLocalServiceInfoByName(String serviceName) throws Exception {
+			return shard().getNameServer().getServiceInfoByName(serviceName);
+		}
+
+		@Override
+		public boolean localHeartbeat(ServiceProviderInfo provider) throws Exception {
+			return shard().getNameServer().heartbeat(provider);
+		}
+
+		@Override
+		public boolean localUnregisterAll(ServiceProviderInfo provider) throws Exception {
+			return shard().getNameServer().unregisterAll(provider);
+		}
+
+		@Override
+		public boolean localCheckProviderStatus(ServiceProviderInfo provider) throws Exception {
+			return shard().getNameServer().checkProviderStatus(provider);
+		}
+
+		@Override
+		public boolean register(ServiceSupportInfo support) throws Exception {
+			return shard().register(support);
+		}
+
+		@Override
+		public long registerWithLease(ServiceSupportInfo support, long ttl) throws Exception {
+			return shard().registerWithLease(support, ttl);
+		}
+
+		@Override
+		public boolean heartbeat(ServiceProviderInfo provider) throws Exception {
+			return shard().heartbeat(provider);
+		}
+
+		@Override
+		public BatchResult registerBatch(ServiceSupportInfo[] supports) throws Exception {
+			return shard().registerBatch(supports);
+		}
+
+		@Override
+		public BatchResult unregisterBatch(ServiceSupportInfo[] supports) throws Exception {
+			return shard().unregisterBatch(supports);
+		}
+
+		@Override
+		public boolean unregister(ServiceInfo<?> service, ServiceProviderInfo provider) throws Exception {
+			return shard().unregister(service, provider);
+		}
+
+		@Override
+		public boolean unregisterAll(ServiceProviderInfo provider) throws Exception {
+			return shard().unregisterAll(provider);
+		}
+
+		@Override
+		public boolean checkProviderStatus(ServiceProviderInfo provider) throws Exception {
+			return shard().checkProviderStatus(provider);
+		}
+	}
+
+}
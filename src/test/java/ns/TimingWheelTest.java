@@ -0,0 +1,65 @@
+package test.java.ns;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.lessrpc.ns.core.TimingWheel;
+
+public class TimingWheelTest {
+
+	@Test
+	public void testDue() {
+		TimingWheel<String> wheel = new TimingWheel<String>(10, 4, 2, 1000);
+		wheel.schedule("a", 1025);
+		wheel.schedule("b", 1200);
+		wheel.schedule("late", 900);
+
+		Assert.assertEquals(1, wheel.advance(1000).size());
+		Assert.assertTrue(wheel.advance(1020).isEmpty());
+		Assert.assertEquals("a", wheel.advance(1030).get(0));
+		Assert.assertTrue(wheel.advance(1190).isEmpty());
+		Assert.assertEquals("b", wheel.advance(1200).get(0));
+	}
+
+	@Test
+	public void testBeyondRange() {
+		// covers 4 * 4 ticks of 10ms
+		TimingWheel<String> wheel = new TimingWheel<String>(10, 4, 2, 0);
+		wheel.schedule("far", 1000);
+		for (long now = 0; now < 1000; now += 10) {
+			Assert.assertTrue(wheel.advance(now).isEmpty());
+		}
+		Assert.assertEquals("far", wheel.advance(1000).get(0));
+	}
+
+	@Test
+	public void testNeverEarlyNorLost() {
+		Random rnd = new Random(7);
+		TimingWheel<long[]> wheel = new TimingWheel<long[]>(7, 8, 3, 0);
+		List<long[]> items = new ArrayList<long[]>();
+		long now = 0;
+		for (int i = 0; i < 20000; i++) {
+			if (rnd.nextInt(2) == 0) {
+				// deadline, time it came due
+				long[] item = new long[] { now + rnd.nextInt(50000), -1 };
+				items.add(item);
+				wheel.schedule(item, item[0]);
+			}
+			now += rnd.nextInt(20);
+			for (long[] item : wheel.advance(now)) {
+				Assert.assertEquals(-1, item[1]);
+				item[1] = now;
+			}
+		}
+		now += 50000;
+		for (long[] item : wheel.advance(now)) {
+			item[1] = now;
+		}
+		for (long[] item : items) {
+			Assert.assertTrue(item[1] >= item[0]);
+		}
+	}
+}